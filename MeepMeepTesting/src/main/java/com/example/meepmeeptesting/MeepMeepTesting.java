@@ -5,11 +5,44 @@ import com.acmerobotics.roadrunner.geometry.Vector2d;
 import com.acmerobotics.roadrunner.path.QuinticSpline;
 import com.noahbres.meepmeep.MeepMeep;
 import com.noahbres.meepmeep.roadrunner.DefaultBotBuilder;
+import com.noahbres.meepmeep.roadrunner.DriveShim;
 import com.noahbres.meepmeep.roadrunner.entity.RoadRunnerBotEntity;
+import com.noahbres.meepmeep.roadrunner.trajectorysequence.TrajectorySequence;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
 
 public class MeepMeepTesting {
 
     public static double WAIT_TIME = .75;
+
+    // Constraints the trajectories are built with.
+    public static final double MAX_VEL = 60;
+    public static final double MAX_ACCEL = 60;
+    public static final double MAX_ANG_VEL = Math.toRadians(180);
+    public static final double MAX_ANG_ACCEL = Math.toRadians(180);
+    public static final double TRACK_WIDTH = 15;
+
+    /**
+     * A named autonomous trajectory definition.
+     */
+    public static class AutoDefinition {
+        public final String name;
+        public final Function<DriveShim, TrajectorySequence> builder;
+
+        public AutoDefinition(String name, Function<DriveShim, TrajectorySequence> builder) {
+            this.name = name;
+            this.builder = builder;
+        }
+    }
+
+    /**
+     * Every autonomous trajectory, checked by the headless validator (run with --validate).
+     */
+    public static final List<AutoDefinition> AUTOS = Arrays.asList(
+            new AutoDefinition("redRight", MeepMeepTesting::redRightSequence),
+            new AutoDefinition("redLeft", MeepMeepTesting::redLeftSequence));
     public static void setAnimation(MeepMeep meepMeep, RoadRunnerBotEntity redLeftBot,  RoadRunnerBotEntity redRightBot)
     {
         meepMeep.setBackground(MeepMeep.Background.FIELD_CENTERSTAGE_JUICE_DARK)
@@ -22,37 +55,47 @@ public class MeepMeepTesting {
 
 
     public static RoadRunnerBotEntity redRightTraj(DefaultBotBuilder myBot)
+    {
+        return myBot.setConstraints(MAX_VEL, MAX_ACCEL, MAX_ANG_VEL, MAX_ANG_ACCEL, TRACK_WIDTH)
+                .followTrajectorySequence(MeepMeepTesting::redRightSequence);
+    }
+
+    public static TrajectorySequence redRightSequence(DriveShim drive)
     {
         Pose2d placePixelPose = new Pose2d(42,-35);
         //    Pose2d intakePixelPose = new Pose2d(-55,-35);
         Pose2d intakePixelPose = new Pose2d(-34,-35);
         Pose2d parkPose = new Pose2d(50, -55);
-        return myBot.setConstraints(60, 60, Math.toRadians(180), Math.toRadians(180), 15)
-                .followTrajectorySequence(drive ->
-                        drive.trajectorySequenceBuilder(new Pose2d(12, -60, 0))
-                                .strafeLeft(25)
-                                .waitSeconds(.5)
-                                .lineToLinearHeading(placePixelPose)
-                                .waitSeconds(WAIT_TIME)
-                                .lineToLinearHeading(intakePixelPose)
-                                .waitSeconds(WAIT_TIME)
-                                .lineToLinearHeading(placePixelPose)
-                                .waitSeconds(WAIT_TIME)
-                                .lineToLinearHeading(intakePixelPose)
-                                .waitSeconds(WAIT_TIME)
-                                .lineToLinearHeading(placePixelPose)
-                                .waitSeconds(WAIT_TIME)
-                                .lineToLinearHeading(intakePixelPose)
-                                .waitSeconds(WAIT_TIME)
-                                .lineToLinearHeading(placePixelPose)
-                                .waitSeconds(WAIT_TIME)
-                                .lineToLinearHeading(intakePixelPose)
-                                .waitSeconds(WAIT_TIME)
-                                .lineToLinearHeading(placePixelPose)
-                                .waitSeconds(WAIT_TIME)
-                                .build());
+        return drive.trajectorySequenceBuilder(new Pose2d(12, -60, 0))
+                .strafeLeft(25)
+                .waitSeconds(.5)
+                .lineToLinearHeading(placePixelPose)
+                .waitSeconds(WAIT_TIME)
+                .lineToLinearHeading(intakePixelPose)
+                .waitSeconds(WAIT_TIME)
+                .lineToLinearHeading(placePixelPose)
+                .waitSeconds(WAIT_TIME)
+                .lineToLinearHeading(intakePixelPose)
+                .waitSeconds(WAIT_TIME)
+                .lineToLinearHeading(placePixelPose)
+                .waitSeconds(WAIT_TIME)
+                .lineToLinearHeading(intakePixelPose)
+                .waitSeconds(WAIT_TIME)
+                .lineToLinearHeading(placePixelPose)
+                .waitSeconds(WAIT_TIME)
+                .lineToLinearHeading(intakePixelPose)
+                .waitSeconds(WAIT_TIME)
+                .lineToLinearHeading(placePixelPose)
+                .waitSeconds(WAIT_TIME)
+                .build();
     }
     public static RoadRunnerBotEntity redLeftTraj(DefaultBotBuilder myBot)
+    {
+        return myBot.setConstraints(MAX_VEL, MAX_ACCEL, MAX_ANG_VEL, MAX_ANG_ACCEL, TRACK_WIDTH)
+                .followTrajectorySequence(MeepMeepTesting::redLeftSequence);
+    }
+
+    public static TrajectorySequence redLeftSequence(DriveShim drive)
     {
         Pose2d placePixelPose = new Pose2d(50, -13, Math.toRadians(-30));
         Pose2d stageDoorPose = new Pose2d(0, -12, Math.toRadians(0));
@@ -62,56 +105,58 @@ public class MeepMeepTesting {
         Pose2d middleIntakePixelVector = new Pose2d(-45, -25);
         Vector2d intakePixelVector = new Vector2d(-34, -12);
 
-        return myBot.setConstraints(60, 60, Math.toRadians(180), Math.toRadians(180), 15)
-                .followTrajectorySequence(drive ->
-                        drive.trajectorySequenceBuilder(new Pose2d(-34, -60, 0))
-                                //Place purple pixel
-                                .strafeLeft(30)
-                                .waitSeconds(.5)
-                                //Going for backdrop
-                                .strafeLeft(8)
-                                .splineToConstantHeading(stageDoorVector, Math.toRadians(0))
-                                .splineToSplineHeading(placePixelPose, Math.toRadians(0))
-
-                                //Going for intake
-                                .waitSeconds(WAIT_TIME)
-                                .lineToSplineHeading(stageDoorPose)
-                                .splineToConstantHeading(intakePixelVector, Math.toRadians(180))
-
-                                //Going for backdrop
-                                .waitSeconds(WAIT_TIME)
-                                .splineToConstantHeading(stageDoorVector, Math.toRadians(0))
-                                .splineToSplineHeading(placePixelPose, Math.toRadians(0))
-
-                                //Going for intake
-                                .waitSeconds(WAIT_TIME)
-                                .lineToSplineHeading(stageDoorPose)
-                                .splineToConstantHeading(intakePixelVector, Math.toRadians(180))
-
-                                //Going for backdrop
-                                .waitSeconds(WAIT_TIME)
-                                .splineToConstantHeading(stageDoorVector, Math.toRadians(0))
-                                .splineToSplineHeading(placePixelPose, Math.toRadians(0))
-
-                                //Going for intake
-                                .waitSeconds(WAIT_TIME)
-                                .lineToSplineHeading(stageDoorPose1)
-                                //.splineToConstantHeading(intakePixelVector, Math.toRadians(180))
-                                .splineToSplineHeading(middleIntakePixelVector, Math.toRadians(180))
-
-                                //Going for backdrop + park
-                                .waitSeconds(WAIT_TIME)
-                                //  .splineToConstantHeading(stageDoorVector, Math.toRadians(0))
-                                .splineToLinearHeading(stageDoorPose1, Math.toRadians(0))
-                                .splineToSplineHeading(placePixelPose, Math.toRadians(0))
-
-                                .build()
-                );
+        return drive.trajectorySequenceBuilder(new Pose2d(-34, -60, 0))
+                //Place purple pixel
+                .strafeLeft(30)
+                .waitSeconds(.5)
+                //Going for backdrop
+                .strafeLeft(8)
+                .splineToConstantHeading(stageDoorVector, Math.toRadians(0))
+                .splineToSplineHeading(placePixelPose, Math.toRadians(0))
+
+                //Going for intake
+                .waitSeconds(WAIT_TIME)
+                .lineToSplineHeading(stageDoorPose)
+                .splineToConstantHeading(intakePixelVector, Math.toRadians(180))
+
+                //Going for backdrop
+                .waitSeconds(WAIT_TIME)
+                .splineToConstantHeading(stageDoorVector, Math.toRadians(0))
+                .splineToSplineHeading(placePixelPose, Math.toRadians(0))
+
+                //Going for intake
+                .waitSeconds(WAIT_TIME)
+                .lineToSplineHeading(stageDoorPose)
+                .splineToConstantHeading(intakePixelVector, Math.toRadians(180))
+
+                //Going for backdrop
+                .waitSeconds(WAIT_TIME)
+                .splineToConstantHeading(stageDoorVector, Math.toRadians(0))
+                .splineToSplineHeading(placePixelPose, Math.toRadians(0))
+
+                //Going for intake
+                .waitSeconds(WAIT_TIME)
+                .lineToSplineHeading(stageDoorPose1)
+                //.splineToConstantHeading(intakePixelVector, Math.toRadians(180))
+                .splineToSplineHeading(middleIntakePixelVector, Math.toRadians(180))
+
+                //Going for backdrop + park
+                .waitSeconds(WAIT_TIME)
+                //  .splineToConstantHeading(stageDoorVector, Math.toRadians(0))
+                .splineToLinearHeading(stageDoorPose1, Math.toRadians(0))
+                .splineToSplineHeading(placePixelPose, Math.toRadians(0))
+
+                .build();
     }
 
 
     public static void main(String[] args)
     {
+        if (args.length > 0 && args[0].equals("--validate")) {
+            TrajectoryValidator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         MeepMeep meepMeep = new MeepMeep(700);
         RoadRunnerBotEntity leftRedBot = redLeftTraj(new DefaultBotBuilder(meepMeep));
         RoadRunnerBotEntity rightRedBot = redRightTraj(new DefaultBotBuilder(meepMeep));
@@ -0,0 +1,272 @@
+package com.example.meepmeeptesting;
+
+import com.acmerobotics.roadrunner.geometry.Pose2d;
+import com.acmerobotics.roadrunner.profile.MotionState;
+import com.noahbres.meepmeep.roadrunner.Constraints;
+import com.noahbres.meepmeep.roadrunner.DriveShim;
+import com.noahbres.meepmeep.roadrunner.DriveTrainType;
+import com.noahbres.meepmeep.roadrunner.trajectorysequence.TrajectorySequence;
+import com.noahbres.meepmeep.roadrunner.trajectorysequence.sequencesegment.SequenceSegment;
+import com.noahbres.meepmeep.roadrunner.trajectorysequence.sequencesegment.TrajectorySegment;
+import com.noahbres.meepmeep.roadrunner.trajectorysequence.sequencesegment.TurnSegment;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless validation of every trajectory in {@link MeepMeepTesting#AUTOS}.
+ * Each trajectory is built without opening the MeepMeep window, sampled in time and checked for field bounds,
+ * clearance to the static field obstacles, peak velocity and acceleration against the robot drive limits and total
+ * duration. The trajectories are checked in parallel, one per core, and the result is written as a JSON report.
+ *
+ * Usage: TrajectoryValidator [report.json]  (or MeepMeepTesting --validate [report.json])
+ * The report goes to stdout if no file is given. The exit code is 1 if any trajectory fails.
+ */
+public class TrajectoryValidator {
+
+    // Drive limits, keep in sync with MecanumDrive.PARAMS in TeamCode (this module can't depend on TeamCode).
+    public static double MAX_WHEEL_VEL = 50;
+    public static double MIN_PROFILE_ACCEL = -30;
+    public static double MAX_PROFILE_ACCEL = 50;
+    public static double MAX_ANG_VEL = Math.PI;
+    public static double MAX_ANG_ACCEL = Math.PI;
+
+    // Field and robot geometry in inches, keep the obstacles in sync with CenterStageField in TeamCode.
+    public static double FIELD_HALF_SIZE = 72;
+    public static double ROBOT_RADIUS = 9;
+    public static double[][] OBSTACLES = {
+            // Truss legs {minX, minY, maxX, maxY}.
+            {-25, -73, -23, -71}, {-25, -49, -23, -47}, {-25, -25, -23, -23},
+            {-25, 23, -23, 25}, {-25, 47, -23, 49}, {-25, 71, -23, 73},
+            {-1, -73, 1, -71}, {-1, -49, 1, -47}, {-1, -25, 1, -23},
+            {-1, 23, 1, 25}, {-1, 47, 1, 49}, {-1, 71, 1, 73},
+            // Backdrops.
+            {61, -48, 72, -24}, {61, 24, 72, 48}
+    };
+
+    public static double MAX_DURATION = 30;
+    public static double SAMPLE_PERIOD = 0.01;
+    // Numerical slack for the velocity and acceleration checks.
+    public static double TOLERANCE = 1e-3;
+
+    /**
+     * Result of checking one trajectory.
+     */
+    public static class Result {
+        public String name;
+        public double duration;
+        public double maxVel;
+        public double minAccel;
+        public double maxAccel;
+        public double maxAngVel;
+        public double maxAngAccel;
+        public double minClearance = Double.POSITIVE_INFINITY;
+        public double minWallClearance = Double.POSITIVE_INFINITY;
+        public final List<String> errors = new ArrayList<>();
+
+        public boolean passed() {
+            return errors.isEmpty();
+        }
+    }
+
+    public static void main(String[] args) {
+        List<Result> results = validateAll(MeepMeepTesting.AUTOS);
+        String report = toJson(results);
+        boolean passed = true;
+
+        for (Result result : results) {
+            passed &= result.passed();
+        }
+
+        if (args.length > 0) {
+            try (Writer writer = new FileWriter(args[0])) {
+                writer.write(report);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write report " + args[0], e);
+            }
+        } else {
+            System.out.println(report);
+        }
+
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Validates all trajectories in parallel.
+     *
+     * @param autos trajectory definitions
+     * @return results in the same order as the definitions
+     */
+    public static List<Result> validateAll(List<MeepMeepTesting.AutoDefinition> autos) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(autos.size(), Runtime.getRuntime().availableProcessors())));
+        List<Future<Result>> futures = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
+
+        try {
+            for (MeepMeepTesting.AutoDefinition auto : autos) {
+                futures.add(executor.submit(() -> validate(auto)));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (Exception e) {
+                    Result result = new Result();
+                    result.name = autos.get(i).name;
+                    result.errors.add("Failed to build trajectory: " + e.getCause());
+                    results.add(result);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return results;
+    }
+
+    /**
+     * Builds and checks a single trajectory.
+     *
+     * @param auto trajectory definition
+     */
+    public static Result validate(MeepMeepTesting.AutoDefinition auto) {
+        DriveShim drive = new DriveShim(
+                DriveTrainType.MECANUM,
+                new Constraints(MeepMeepTesting.MAX_VEL, MeepMeepTesting.MAX_ACCEL, MeepMeepTesting.MAX_ANG_VEL,
+                        MeepMeepTesting.MAX_ANG_ACCEL, MeepMeepTesting.TRACK_WIDTH),
+                new Pose2d());
+        TrajectorySequence sequence = auto.builder.apply(drive);
+        Result result = new Result();
+
+        result.name = auto.name;
+        result.duration = sequence.duration();
+
+        for (int i = 0; i < sequence.size(); i++) {
+            SequenceSegment segment = sequence.get(i);
+            double duration = segment.getDuration();
+
+            for (double t = 0; t <= duration; t += SAMPLE_PERIOD) {
+                if (segment instanceof TrajectorySegment) {
+                    TrajectorySegment trajectorySegment = (TrajectorySegment) segment;
+                    checkSample(result, trajectorySegment.getTrajectory().get(t),
+                            trajectorySegment.getTrajectory().velocity(t),
+                            trajectorySegment.getTrajectory().acceleration(t));
+                } else if (segment instanceof TurnSegment) {
+                    MotionState state = ((TurnSegment) segment).getMotionProfile().get(t);
+                    Pose2d start = segment.getStartPose();
+                    checkSample(result, new Pose2d(start.getX(), start.getY(), state.getX()),
+                            new Pose2d(0, 0, state.getV()), new Pose2d(0, 0, state.getA()));
+                } else {
+                    // Wait segment, the robot doesn't move.
+                    checkSample(result, segment.getStartPose(), new Pose2d(), new Pose2d());
+                    break;
+                }
+            }
+        }
+
+        if (result.maxVel > MAX_WHEEL_VEL + TOLERANCE) {
+            result.errors.add(String.format(Locale.US, "Peak velocity %.1f exceeds %.1f", result.maxVel, MAX_WHEEL_VEL));
+        }
+        if (result.maxAccel > MAX_PROFILE_ACCEL + TOLERANCE || result.minAccel < MIN_PROFILE_ACCEL - TOLERANCE) {
+            result.errors.add(String.format(Locale.US, "Acceleration range [%.1f, %.1f] exceeds [%.1f, %.1f]",
+                    result.minAccel, result.maxAccel, MIN_PROFILE_ACCEL, MAX_PROFILE_ACCEL));
+        }
+        if (result.maxAngVel > MAX_ANG_VEL + TOLERANCE) {
+            result.errors.add(String.format(Locale.US, "Peak angular velocity %.2f exceeds %.2f",
+                    result.maxAngVel, MAX_ANG_VEL));
+        }
+        if (result.maxAngAccel > MAX_ANG_ACCEL + TOLERANCE) {
+            result.errors.add(String.format(Locale.US, "Peak angular acceleration %.2f exceeds %.2f",
+                    result.maxAngAccel, MAX_ANG_ACCEL));
+        }
+        if (result.minWallClearance < 0) {
+            result.errors.add(String.format(Locale.US, "Robot leaves the field by %.1f in", -result.minWallClearance));
+        }
+        if (result.minClearance < 0) {
+            result.errors.add(String.format(Locale.US, "Robot hits an obstacle by %.1f in", -result.minClearance));
+        }
+        if (result.duration > MAX_DURATION) {
+            result.errors.add(String.format(Locale.US, "Duration %.2f s exceeds %.2f s",
+                    result.duration, MAX_DURATION));
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates the result with one sample of the trajectory.
+     *
+     * @param pose field pose
+     * @param vel field velocity
+     * @param accel field acceleration
+     */
+    private static void checkSample(Result result, Pose2d pose, Pose2d vel, Pose2d accel) {
+        double speed = Math.hypot(vel.getX(), vel.getY());
+        // Acceleration along the direction of travel, comparable to the profile acceleration limits.
+        double tangentialAccel = speed > 1e-6 ?
+                (vel.getX() * accel.getX() + vel.getY() * accel.getY()) / speed : 0;
+
+        result.maxVel = Math.max(result.maxVel, speed);
+        result.minAccel = Math.min(result.minAccel, tangentialAccel);
+        result.maxAccel = Math.max(result.maxAccel, tangentialAccel);
+        result.maxAngVel = Math.max(result.maxAngVel, Math.abs(vel.getHeading()));
+        result.maxAngAccel = Math.max(result.maxAngAccel, Math.abs(accel.getHeading()));
+
+        double wallClearance = FIELD_HALF_SIZE - ROBOT_RADIUS -
+                Math.max(Math.abs(pose.getX()), Math.abs(pose.getY()));
+        result.minWallClearance = Math.min(result.minWallClearance, wallClearance);
+
+        for (double[] obstacle : OBSTACLES) {
+            double dx = Math.max(Math.max(obstacle[0] - pose.getX(), pose.getX() - obstacle[2]), 0);
+            double dy = Math.max(Math.max(obstacle[1] - pose.getY(), pose.getY() - obstacle[3]), 0);
+            result.minClearance = Math.min(result.minClearance, Math.hypot(dx, dy) - ROBOT_RADIUS);
+        }
+    }
+
+    /**
+     * Formats the results as a JSON document.
+     */
+    public static String toJson(List<Result> results) {
+        StringBuilder json = new StringBuilder("{\n  \"trajectories\": [");
+        boolean passed = true;
+
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            passed &= result.passed();
+
+            json.append(i > 0 ? ",\n" : "\n").append("    {")
+                    .append("\"name\": \"").append(escape(result.name)).append("\", ")
+                    .append("\"passed\": ").append(result.passed()).append(", ")
+                    .append(String.format(Locale.US,
+                            "\"duration\": %.3f, \"maxVel\": %.3f, \"minAccel\": %.3f, \"maxAccel\": %.3f, " +
+                            "\"maxAngVel\": %.3f, \"maxAngAccel\": %.3f, \"minClearance\": %.3f, " +
+                            "\"minWallClearance\": %.3f, ",
+                            result.duration, result.maxVel, result.minAccel, result.maxAccel, result.maxAngVel,
+                            result.maxAngAccel, finite(result.minClearance), finite(result.minWallClearance)))
+                    .append("\"errors\": [");
+            for (int j = 0; j < result.errors.size(); j++) {
+                json.append(j > 0 ? ", " : "").append('"').append(escape(result.errors.get(j))).append('"');
+            }
+            json.append("]}");
+        }
+
+        json.append("\n  ],\n  \"passed\": ").append(passed).append("\n}");
+        return json.toString();
+    }
+
+    private static double finite(double value) {
+        return Double.isInfinite(value) ? 0 : value;
+    }
+
+    private static String escape(String s) {
+        return s == null ? "" : s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
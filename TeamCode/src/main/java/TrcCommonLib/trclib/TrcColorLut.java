@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This class implements a color classifier based on a precomputed 3D lookup table. The first three channels of the
+ * camera pixel are quantized to 6 bits each (64x64x64 cells) and every cell stores one bit per color class (up to 8
+ * classes, e.g. red, blue and yellow pixels). The table is built once by running the configured color conversion and
+ * thresholds (same as the cvtColor/inRange path of TrcOpenCvColorBlobPipeline) on the center color of each cell, so
+ * classifying a frame is a single pass over the raw pixels without converting the frame. All classes are classified
+ * in the same pass.
+ * <p>
+ * Since a whole cell is classified by its center color, pixels within 2 levels (out of 255) of a threshold boundary
+ * in the source color space may be classified differently than the cvtColor/inRange path.
+ * <p>
+ * The table can be shared by multiple pipelines but classify is not thread-safe because of the reused pixel buffers.
+ */
+public class TrcColorLut
+{
+    public static final int MAX_CLASSES = 8;
+    private static final int QUANTIZE_SHIFT = 2;
+    private static final int LEVELS = 256 >> QUANTIZE_SHIFT;
+    private static final int TABLE_SIZE = LEVELS*LEVELS*LEVELS;
+
+    private final int colorConversion;
+    private final int numChannels;
+    private final int numClasses;
+    private final byte[] table = new byte[TABLE_SIZE];
+    private byte[] pixelBuffer = null;
+    private final byte[][] maskBuffers;
+    private final int[] activeClasses = new int[MAX_CLASSES];
+    private final byte[][] activeBuffers = new byte[MAX_CLASSES][];
+
+    /**
+     * Constructor: Create an instance of the object and builds the lookup table.
+     *
+     * @param colorConversion specifies color space conversion (Imgproc.COLOR_*) the thresholds are in.
+     * @param numChannels specifies the number of channels of the camera frames (3 or 4).
+     * @param classThresholds specifies the color thresholds of each class, each an array of 6 doubles in the same
+     *        format as the colorThresholds of TrcOpenCvColorBlobPipeline.
+     */
+    public TrcColorLut(int colorConversion, int numChannels, double[]... classThresholds)
+    {
+        if (numChannels != 3 && numChannels != 4)
+        {
+            throw new IllegalArgumentException("numChannels must be 3 or 4.");
+        }
+
+        if (classThresholds.length == 0 || classThresholds.length > MAX_CLASSES)
+        {
+            throw new IllegalArgumentException("Must have 1 to " + MAX_CLASSES + " classes.");
+        }
+
+        this.colorConversion = colorConversion;
+        this.numChannels = numChannels;
+        this.numClasses = classThresholds.length;
+        this.maskBuffers = new byte[numClasses][];
+        buildTable(classThresholds);
+    }   //TrcColorLut
+
+    /**
+     * This method returns the number of color classes.
+     *
+     * @return number of classes.
+     */
+    public int getNumClasses()
+    {
+        return numClasses;
+    }   //getNumClasses
+
+    /**
+     * This method returns the number of channels of the frames this table expects.
+     *
+     * @return number of channels.
+     */
+    public int getNumChannels()
+    {
+        return numChannels;
+    }   //getNumChannels
+
+    /**
+     * This method rebuilds the lookup table, typically after the thresholds have been tuned.
+     *
+     * @param classThresholds specifies the color thresholds of each class, must have the same number of classes.
+     */
+    public synchronized void rebuild(double[]... classThresholds)
+    {
+        if (classThresholds.length != numClasses)
+        {
+            throw new IllegalArgumentException("Must have " + numClasses + " classes.");
+        }
+
+        buildTable(classThresholds);
+    }   //rebuild
+
+    /**
+     * This method classifies the input frame into one binary mask per class in a single pass.
+     *
+     * @param input specifies the input frame (or ROI submat of it).
+     * @param masks specifies the Mats to receive the CV_8UC1 masks (255 if the pixel is of the class, 0 otherwise)
+     *        indexed by class, null entries are skipped.
+     */
+    public synchronized void classify(Mat input, Mat... masks)
+    {
+        final int numPixels = input.rows()*input.cols();
+        final int numMasks = Math.min(masks.length, numClasses);
+
+        if (input.channels() != numChannels)
+        {
+            throw new IllegalArgumentException(
+                "Expecting " + numChannels + " channels, got " + input.channels() + ".");
+        }
+
+        if (pixelBuffer == null || pixelBuffer.length != numPixels*numChannels)
+        {
+            pixelBuffer = new byte[numPixels*numChannels];
+        }
+
+        int numActive = 0;
+        for (int k = 0; k < numMasks; k++)
+        {
+            if (masks[k] != null)
+            {
+                if (maskBuffers[k] == null || maskBuffers[k].length != numPixels)
+                {
+                    maskBuffers[k] = new byte[numPixels];
+                }
+                activeClasses[numActive] = k;
+                activeBuffers[numActive] = maskBuffers[k];
+                numActive++;
+            }
+        }
+
+        input.get(0, 0, pixelBuffer);
+        if (numActive == 1)
+        {
+            classifyOneClass(numPixels, activeClasses[0]);
+        }
+        else if (numActive > 1)
+        {
+            classifyClasses(numPixels, numActive);
+        }
+
+        for (int k = 0; k < numMasks; k++)
+        {
+            if (masks[k] != null)
+            {
+                masks[k].create(input.rows(), input.cols(), CvType.CV_8UC1);
+                masks[k].put(0, 0, maskBuffers[k]);
+            }
+        }
+    }   //classify
+
+    /**
+     * This method classifies the pixel buffer for a single class, the common case.
+     *
+     * @param numPixels specifies the number of pixels.
+     * @param classIndex specifies the class index.
+     */
+    private void classifyOneClass(int numPixels, int classIndex)
+    {
+        final byte[] pixels = pixelBuffer;
+        final byte[] mask = maskBuffers[classIndex];
+
+        for (int i = 0, p = 0; i < numPixels; i++, p += numChannels)
+        {
+            // -(bit) turns 1 into 0xff and 0 into 0 without a branch.
+            mask[i] = (byte) -((table[tableIndex(pixels[p], pixels[p + 1], pixels[p + 2])] >> classIndex) & 1);
+        }
+    }   //classifyOneClass
+
+    /**
+     * This method classifies the pixel buffer for all active classes in one pass, looking up each pixel once.
+     *
+     * @param numPixels specifies the number of pixels.
+     * @param numActive specifies the number of active classes.
+     */
+    private void classifyClasses(int numPixels, int numActive)
+    {
+        final byte[] pixels = pixelBuffer;
+        final int[] classes = activeClasses;
+        final byte[][] buffers = activeBuffers;
+
+        for (int i = 0, p = 0; i < numPixels; i++, p += numChannels)
+        {
+            int bits = table[tableIndex(pixels[p], pixels[p + 1], pixels[p + 2])];
+
+            for (int j = 0; j < numActive; j++)
+            {
+                buffers[j][i] = (byte) -((bits >> classes[j]) & 1);
+            }
+        }
+    }   //classifyClasses
+
+    /**
+     * This method returns the table index of the given pixel.
+     *
+     * @param c0 specifies the first channel.
+     * @param c1 specifies the second channel.
+     * @param c2 specifies the third channel.
+     * @return table index.
+     */
+    private static int tableIndex(byte c0, byte c1, byte c2)
+    {
+        return ((c0 & 0xff) >> QUANTIZE_SHIFT) << 12 | ((c1 & 0xff) >> QUANTIZE_SHIFT) << 6 |
+               (c2 & 0xff) >> QUANTIZE_SHIFT;
+    }   //tableIndex
+
+    /**
+     * This method builds the lookup table by running the color conversion and thresholds on the center color of
+     * every cell. This is done with OpenCV on a 262144 pixel image so it only takes a few milliseconds.
+     *
+     * @param classThresholds specifies the color thresholds of each class.
+     */
+    private void buildTable(double[][] classThresholds)
+    {
+        final int halfCell = 1 << (QUANTIZE_SHIFT - 1);
+        byte[] cells = new byte[TABLE_SIZE*numChannels];
+        byte[] classMask = new byte[TABLE_SIZE];
+        Mat cellColors = new Mat(TABLE_SIZE, 1, numChannels == 4? CvType.CV_8UC4: CvType.CV_8UC3);
+        Mat converted = new Mat();
+        Mat mask = new Mat();
+
+        for (int i = 0, p = 0; i < TABLE_SIZE; i++, p += numChannels)
+        {
+            cells[p] = (byte) (((i >> 12) << QUANTIZE_SHIFT) + halfCell);
+            cells[p + 1] = (byte) ((((i >> 6) & (LEVELS - 1)) << QUANTIZE_SHIFT) + halfCell);
+            cells[p + 2] = (byte) (((i & (LEVELS - 1)) << QUANTIZE_SHIFT) + halfCell);
+            if (numChannels == 4)
+            {
+                cells[p + 3] = (byte) 255;
+            }
+        }
+        cellColors.put(0, 0, cells);
+        Imgproc.cvtColor(cellColors, converted, colorConversion);
+
+        for (int i = 0; i < TABLE_SIZE; i++)
+        {
+            table[i] = 0;
+        }
+
+        for (int k = 0; k < classThresholds.length; k++)
+        {
+            double[] thresholds = classThresholds[k];
+
+            if (thresholds == null || thresholds.length != 6)
+            {
+                throw new IllegalArgumentException("Color thresholds must be an array of 6 doubles.");
+            }
+
+            Core.inRange(
+                converted, new Scalar(thresholds[0], thresholds[2], thresholds[4]),
+                new Scalar(thresholds[1], thresholds[3], thresholds[5]), mask);
+            mask.get(0, 0, classMask);
+            for (int i = 0; i < TABLE_SIZE; i++)
+            {
+                if (classMask[i] != 0)
+                {
+                    table[i] |= (byte) (1 << k);
+                }
+            }
+        }
+
+        cellColors.release();
+        converted.release();
+        mask.release();
+    }   //buildTable
+
+}   //class TrcColorLut
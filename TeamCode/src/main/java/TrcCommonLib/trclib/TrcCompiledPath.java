@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+/**
+ * This class implements an arc-length indexed form of a TrcPath for fast path following. The waypoint positions,
+ * segment deltas, squared segment lengths and cumulative arc lengths are precomputed into primitive arrays when the
+ * path is compiled, so searching for the intersection of the robot's proximity circle with the path does not allocate
+ * memory.
+ * <p>
+ * Segment i goes from waypoint i - 1 to waypoint i, matching the path index convention of the pure pursuit drives.
+ * The intersection search skips over all segments that are provably inside the proximity circle by binary searching
+ * the cumulative arc length (a waypoint that is s further along the path can be at most s away) and then only
+ * examines the segments within a window of arc length beyond that point, so a dense path with hundreds of waypoints
+ * costs about the same per search as a sparse one.
+ * <p>
+ * The compiled path only captures the waypoint positions. If the positions of the source path are modified, the path
+ * must be compiled again. This class is not thread-safe.
+ */
+public class TrcCompiledPath
+{
+    private final TrcPath path;
+    private final int numWaypoints;
+    private final double[] x;
+    private final double[] y;
+    private final double[] segDx;
+    private final double[] segDy;
+    private final double[] segLengthSq;
+    private final double[] arcLength;
+    private double intersectionParam = 0.0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param path specifies the path to compile.
+     */
+    public TrcCompiledPath(TrcPath path)
+    {
+        this.path = path;
+        this.numWaypoints = path.getSize();
+        x = new double[numWaypoints];
+        y = new double[numWaypoints];
+        segDx = new double[numWaypoints];
+        segDy = new double[numWaypoints];
+        segLengthSq = new double[numWaypoints];
+        arcLength = new double[numWaypoints];
+
+        for (int i = 0; i < numWaypoints; i++)
+        {
+            TrcPose2D pose = path.getWaypoint(i).pose;
+
+            x[i] = pose.x;
+            y[i] = pose.y;
+            if (i > 0)
+            {
+                segDx[i] = x[i] - x[i - 1];
+                segDy[i] = y[i] - y[i - 1];
+                segLengthSq[i] = segDx[i]*segDx[i] + segDy[i]*segDy[i];
+                arcLength[i] = arcLength[i - 1] + Math.sqrt(segLengthSq[i]);
+            }
+        }
+    }   //TrcCompiledPath
+
+    /**
+     * This method returns the source path.
+     *
+     * @return source path.
+     */
+    public TrcPath getPath()
+    {
+        return path;
+    }   //getPath
+
+    /**
+     * This method returns the number of waypoints in the path.
+     *
+     * @return number of waypoints.
+     */
+    public int getSize()
+    {
+        return numWaypoints;
+    }   //getSize
+
+    /**
+     * This method returns the total arc length of the path.
+     *
+     * @return path length.
+     */
+    public double getLength()
+    {
+        return arcLength[numWaypoints - 1];
+    }   //getLength
+
+    /**
+     * This method returns the arc length from the start of the path to the given waypoint.
+     *
+     * @param index specifies the waypoint index.
+     * @return arc length to the waypoint.
+     */
+    public double getArcLength(int index)
+    {
+        return arcLength[index];
+    }   //getArcLength
+
+    /**
+     * This method returns the segment parameter of the intersection found by the last successful call to
+     * findIntersection, 0.0 being the start waypoint and 1.0 being the end waypoint of the segment.
+     *
+     * @return intersection parameter in the range of [0, 1].
+     */
+    public double getIntersectionParam()
+    {
+        return intersectionParam;
+    }   //getIntersectionParam
+
+    /**
+     * This method finds the first segment at or after the given segment that intersects the proximity circle of the
+     * robot with its furthest intersection point. The segment parameter of the intersection can be retrieved with
+     * getIntersectionParam. Only segments starting within the search window are examined, the window being the
+     * distance of the robot to the last waypoint known to be inside the circle plus twice the radius along the path.
+     *
+     * @param robotX specifies the robot x position.
+     * @param robotY specifies the robot y position.
+     * @param radius specifies the proximity radius.
+     * @param fromSegment specifies the first segment to search.
+     * @param fastMode specifies true to target the end of the first segment that ends outside of the proximity
+     *        circle instead of the intersection point.
+     * @return segment index of the intersection, -1 if none.
+     */
+    public int findIntersection(double robotX, double robotY, double radius, int fromSegment, boolean fastMode)
+    {
+        int anchor = Math.max(fromSegment, 1) - 1;
+        int segment = -1;
+
+        if (anchor >= numWaypoints - 1)
+        {
+            return -1;
+        }
+        //
+        // A waypoint further along the path by s is at most s away from the anchor waypoint, so all waypoints whose
+        // arc length is within the anchor's margin to the circle are strictly inside the circle. Segments ending
+        // inside the circle have no valid furthest intersection, so skip them.
+        //
+        for (;;)
+        {
+            double margin = radius - TrcUtil.magnitude(x[anchor] - robotX, y[anchor] - robotY);
+
+            if (margin <= 0.0)
+            {
+                break;
+            }
+
+            int next = findLastWaypointBefore(arcLength[anchor] + margin, anchor);
+            if (next == anchor)
+            {
+                break;
+            }
+            anchor = next;
+        }
+
+        double radiusSq = radius*radius;
+        double windowEnd =
+            arcLength[anchor] + TrcUtil.magnitude(x[anchor] - robotX, y[anchor] - robotY) + 2.0*radius;
+        for (int i = anchor + 1; i < numWaypoints && arcLength[i - 1] <= windowEnd && segment == -1; i++)
+        {
+            double endDx = x[i] - robotX;
+            double endDy = y[i] - robotY;
+            double endDistSq = endDx*endDx + endDy*endDy;
+
+            if (fastMode && endDistSq > radiusSq)
+            {
+                intersectionParam = 1.0;
+                segment = i;
+            }
+            else if (segLengthSq[i] > 0.0)
+            {
+                // Solve the quadratic for the intersection of the segment with the proximity circle.
+                double startDx = x[i - 1] - robotX;
+                double startDy = y[i - 1] - robotY;
+                double a = segLengthSq[i];
+                double b = 2.0*(startDx*segDx[i] + startDy*segDy[i]);
+                double c = startDx*startDx + startDy*startDy - radiusSq;
+                double discriminant = b*b - 4.0*a*c;
+
+                if (discriminant >= 0.0)
+                {
+                    // Take the furthest intersection point (the one closest to the end of the segment).
+                    double t = (-b + Math.sqrt(discriminant))/(2.0*a);
+
+                    if (t >= 0.0 && t <= 1.0)
+                    {
+                        intersectionParam = t;
+                        segment = i;
+                    }
+                }
+            }
+        }
+
+        return segment;
+    }   //findIntersection
+
+    /**
+     * This method finds the last waypoint whose arc length is less than the given arc length.
+     *
+     * @param length specifies the arc length.
+     * @param fromIndex specifies the waypoint to start searching from.
+     * @return index of the waypoint, fromIndex if the next waypoint is already at or beyond the given arc length.
+     */
+    private int findLastWaypointBefore(double length, int fromIndex)
+    {
+        int low = fromIndex;
+        int high = numWaypoints - 1;
+
+        while (low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+
+            if (arcLength[mid] < length)
+            {
+                low = mid;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }   //findLastWaypointBefore
+
+}   //class TrcCompiledPath
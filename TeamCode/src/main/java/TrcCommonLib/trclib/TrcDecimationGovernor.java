@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package TrcCommonLib.trclib;
+
+import java.util.Locale;
+
+/**
+ * This class implements a governor for the image decimation (and optionally the resolution) of a fiducial detector
+ * such as AprilTag. Every frame, it is given the processing time and a summary of the detections (how many tags
+ * within the required range, their weakest decode margin and the farthest range). It lowers the decimation when tags
+ * within the required range are barely decoded or no tag has been seen for a while and there is time to spare, and it
+ * raises the decimation when the processing time exceeds the frame time budget of the target frame rate and the tags
+ * are decoded comfortably. Resolution is only changed once decimation has reached its bound.
+ * <p>
+ * Changes are damped with hysteresis: a condition must hold for a number of consecutive frames and adjustments are
+ * at least a number of frames apart. Every adjustment is logged with the metrics that triggered it so the bounds can
+ * be tuned after the match.
+ */
+public class TrcDecimationGovernor
+{
+    /**
+     * This class contains the tuning parameters of the governor.
+     */
+    public static class Parameters
+    {
+        double minDecimation = 1.0;
+        double maxDecimation = 4.0;
+        double decimationStep = 0.5;
+        double initialDecimation = 2.0;
+        double targetFrameRate = 20.0;
+        double underBudgetRatio = 0.6;
+        double requiredRange = Double.POSITIVE_INFINITY;
+        double lowMargin = 20.0;
+        double highMargin = 50.0;
+        int settleFrames = 5;
+        int holdFrames = 10;
+        int searchFrames = 30;
+        int[][] resolutions = null;
+        int initialResolution = 0;
+
+        /**
+         * This method sets the decimation bounds.
+         *
+         * @param minDecimation specifies the minimum decimation (most detail).
+         * @param maxDecimation specifies the maximum decimation (least CPU).
+         * @param step specifies the decimation adjustment step.
+         * @param initialDecimation specifies the initial decimation.
+         * @return this object for chaining.
+         */
+        public Parameters setDecimationRange(
+            double minDecimation, double maxDecimation, double step, double initialDecimation)
+        {
+            this.minDecimation = minDecimation;
+            this.maxDecimation = maxDecimation;
+            this.decimationStep = step;
+            this.initialDecimation = TrcUtil.clipRange(initialDecimation, minDecimation, maxDecimation);
+            return this;
+        }   //setDecimationRange
+
+        /**
+         * This method sets the target frame rate. The processing time budget is the frame time of this rate.
+         *
+         * @param frameRate specifies the target frame rate in frames per second.
+         * @param underBudgetRatio specifies the fraction of the budget the processing time must be under before
+         *        decimation is lowered to search for tags (0.0 to 1.0).
+         * @return this object for chaining.
+         */
+        public Parameters setTargetFrameRate(double frameRate, double underBudgetRatio)
+        {
+            this.targetFrameRate = frameRate;
+            this.underBudgetRatio = underBudgetRatio;
+            return this;
+        }   //setTargetFrameRate
+
+        /**
+         * This method sets the range within which tags must be reliably decoded. Tags beyond this range do not affect
+         * the decode margin check.
+         *
+         * @param range specifies the required range in the detector's distance unit.
+         * @return this object for chaining.
+         */
+        public Parameters setRequiredRange(double range)
+        {
+            this.requiredRange = range;
+            return this;
+        }   //setRequiredRange
+
+        /**
+         * This method sets the decode margin thresholds.
+         *
+         * @param lowMargin specifies the margin below which a tag is considered barely decoded.
+         * @param highMargin specifies the margin above which a tag is considered comfortably decoded.
+         * @return this object for chaining.
+         */
+        public Parameters setMarginThresholds(double lowMargin, double highMargin)
+        {
+            this.lowMargin = lowMargin;
+            this.highMargin = highMargin;
+            return this;
+        }   //setMarginThresholds
+
+        /**
+         * This method sets the hysteresis of the governor.
+         *
+         * @param settleFrames specifies the number of consecutive frames a condition must hold before adjusting.
+         * @param holdFrames specifies the minimum number of frames between adjustments.
+         * @param searchFrames specifies the number of frames without any tag before lowering decimation to search.
+         * @return this object for chaining.
+         */
+        public Parameters setHysteresis(int settleFrames, int holdFrames, int searchFrames)
+        {
+            this.settleFrames = settleFrames;
+            this.holdFrames = holdFrames;
+            this.searchFrames = searchFrames;
+            return this;
+        }   //setHysteresis
+
+        /**
+         * This method sets the resolutions the governor may choose from once decimation has reached its bound.
+         *
+         * @param initialResolution specifies the index of the initial resolution.
+         * @param resolutions specifies the resolutions as {width, height} pairs from lowest to highest.
+         * @return this object for chaining.
+         */
+        public Parameters setResolutions(int initialResolution, int[]... resolutions)
+        {
+            this.resolutions = resolutions;
+            this.initialResolution = TrcUtil.clipRange(initialResolution, 0, resolutions.length - 1);
+            return this;
+        }   //setResolutions
+
+        /**
+         * This method returns the string form of all the parameters.
+         *
+         * @return string form of all the parameters.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(
+                Locale.US,
+                "decimation=[%.1f,%.1f]/%.1f,init=%.1f,fps=%.1f,underBudget=%.2f,range=%.1f,margin=[%.1f,%.1f]," +
+                "hysteresis=(%d,%d,%d),resolutions=%d",
+                minDecimation, maxDecimation, decimationStep, initialDecimation, targetFrameRate, underBudgetRatio,
+                requiredRange, lowMargin, highMargin, settleFrames, holdFrames, searchFrames,
+                resolutions != null? resolutions.length: 0);
+        }   //toString
+
+    }   //class Parameters
+
+    private final String instanceName;
+    private final Parameters params;
+    private TrcDbgTrace msgTracer = null;
+    private double decimation;
+    private int resolutionIndex;
+    private double avgProcessingTime = 0.0;
+    private int finerFrames = 0;
+    private int coarserFrames = 0;
+    private int framesSinceAdjustment = 0;
+    private int framesWithoutTags = 0;
+    private int numAdjustments = 0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param params specifies the governor parameters, null to use the defaults.
+     */
+    public TrcDecimationGovernor(String instanceName, Parameters params)
+    {
+        this.instanceName = instanceName;
+        this.params = params != null? params: new Parameters();
+        this.decimation = this.params.initialDecimation;
+        this.resolutionIndex = this.params.initialResolution;
+    }   //TrcDecimationGovernor
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method sets the message tracer for logging adjustments.
+     *
+     * @param tracer specifies the tracer for logging messages, null to disable.
+     */
+    public synchronized void setMsgTracer(TrcDbgTrace tracer)
+    {
+        msgTracer = tracer;
+    }   //setMsgTracer
+
+    /**
+     * This method returns the current decimation.
+     *
+     * @return decimation.
+     */
+    public synchronized double getDecimation()
+    {
+        return decimation;
+    }   //getDecimation
+
+    /**
+     * This method returns the current resolution.
+     *
+     * @return resolution as {width, height}, null if no resolutions are configured.
+     */
+    public synchronized int[] getResolution()
+    {
+        return params.resolutions != null? params.resolutions[resolutionIndex]: null;
+    }   //getResolution
+
+    /**
+     * This method returns the range within which tags must be reliably decoded.
+     *
+     * @return required range.
+     */
+    public double getRequiredRange()
+    {
+        return params.requiredRange;
+    }   //getRequiredRange
+
+    /**
+     * This method returns the smoothed processing time.
+     *
+     * @return processing time in seconds.
+     */
+    public synchronized double getAverageProcessingTime()
+    {
+        return avgProcessingTime;
+    }   //getAverageProcessingTime
+
+    /**
+     * This method resets the smoothed processing time, e.g. when a new camera resolution has taken effect, so that the
+     * next adjustment is not based on the processing time of frames of a different size.
+     */
+    public synchronized void resetProcessingTime()
+    {
+        avgProcessingTime = 0.0;
+    }   //resetProcessingTime
+
+    /**
+     * This method returns the number of adjustments made.
+     *
+     * @return number of adjustments.
+     */
+    public synchronized int getNumAdjustments()
+    {
+        return numAdjustments;
+    }   //getNumAdjustments
+
+    /**
+     * This method is called after every frame with the processing time and a summary of the detections. It updates
+     * the decimation and resolution if needed.
+     *
+     * @param timestamp specifies the frame capture time in seconds, used for logging.
+     * @param processingTime specifies the processing time of the frame in seconds.
+     * @param numTags specifies the number of detected tags.
+     * @param numTagsInRange specifies the number of detected tags within the required range.
+     * @param minMargin specifies the weakest decode margin of the tags within the required range.
+     * @param maxRange specifies the range of the farthest detected tag.
+     * @return true if the decimation or resolution has changed, false otherwise.
+     */
+    public synchronized boolean update(
+        double timestamp, double processingTime, int numTags, int numTagsInRange, double minMargin, double maxRange)
+    {
+        final String funcName = "update";
+        double budget = 1.0/params.targetFrameRate;
+        boolean changed = false;
+
+        avgProcessingTime = avgProcessingTime > 0.0? 0.8*avgProcessingTime + 0.2*processingTime: processingTime;
+        framesWithoutTags = numTags > 0? 0: framesWithoutTags + 1;
+        framesSinceAdjustment++;
+
+        boolean overBudget = avgProcessingTime > budget;
+        boolean underBudget = avgProcessingTime < budget*params.underBudgetRatio;
+        boolean weak = numTagsInRange > 0 && minMargin < params.lowMargin;
+        boolean searching = framesWithoutTags >= params.searchFrames && underBudget;
+        // Keeping tags decodable at the required range wins over the frame rate.
+        boolean finer = weak || searching;
+        boolean coarser = !finer && overBudget && (numTagsInRange == 0 || minMargin > params.highMargin);
+
+        finerFrames = finer? finerFrames + 1: 0;
+        coarserFrames = coarser? coarserFrames + 1: 0;
+
+        if (framesSinceAdjustment >= params.holdFrames)
+        {
+            String reason = null;
+            double prevDecimation = decimation;
+            int prevResolution = resolutionIndex;
+
+            if (finerFrames >= params.settleFrames)
+            {
+                reason = weak? "weak margin": "no tags";
+                if (decimation > params.minDecimation)
+                {
+                    decimation = Math.max(decimation - params.decimationStep, params.minDecimation);
+                }
+                else if (params.resolutions != null && resolutionIndex < params.resolutions.length - 1)
+                {
+                    resolutionIndex++;
+                }
+            }
+            else if (coarserFrames >= params.settleFrames)
+            {
+                reason = "over budget";
+                if (decimation < params.maxDecimation)
+                {
+                    decimation = Math.min(decimation + params.decimationStep, params.maxDecimation);
+                }
+                else if (params.resolutions != null && resolutionIndex > 0)
+                {
+                    resolutionIndex--;
+                }
+            }
+
+            changed = decimation != prevDecimation || resolutionIndex != prevResolution;
+            if (changed)
+            {
+                numAdjustments++;
+                framesSinceAdjustment = 0;
+                finerFrames = 0;
+                coarserFrames = 0;
+
+                if (msgTracer != null)
+                {
+                    msgTracer.traceInfo(
+                        funcName,
+                        "[%s] t=%.3f: %s: decimation %.1f->%.1f, resolution %s->%s " +
+                        "(avgTime=%.1fms, budget=%.1fms, tags=%d/%d, minMargin=%.1f, maxRange=%.1f)",
+                        instanceName, timestamp, reason, prevDecimation, decimation,
+                        resolutionString(prevResolution), resolutionString(resolutionIndex),
+                        avgProcessingTime*1000.0, budget*1000.0, numTagsInRange, numTags, minMargin, maxRange);
+                }
+            }
+        }
+
+        return changed;
+    }   //update
+
+    /**
+     * This method returns the string form of a resolution for logging.
+     *
+     * @param index specifies the resolution index.
+     * @return string form of the resolution.
+     */
+    private String resolutionString(int index)
+    {
+        return params.resolutions != null?
+            params.resolutions[index][0] + "x" + params.resolutions[index][1]: "n/a";
+    }   //resolutionString
+
+}   //class TrcDecimationGovernor
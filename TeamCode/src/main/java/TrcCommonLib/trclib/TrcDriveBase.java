@@ -22,10 +22,6 @@
 
 package TrcCommonLib.trclib;
 
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
-
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Stack;
@@ -243,6 +239,11 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
     protected double stallStartTime = 0.0;
     protected double stallVelThreshold = 0.0;
     private TrcDriveBaseOdometry driveBaseOdometry = null;
+    private TrcPoseEstimator poseEstimator = null;
+    // Pose history ring of {timestamp, x, y, angle} entries, guarded by odometry.
+    private double[] poseHistory = null;
+    private int poseHistoryNewest = -1;
+    private int poseHistoryCount = 0;
     protected MotorPowerMapper motorPowerMapper = null;
     private double sensitivity = DEF_SENSITIVITY;
 //    private double maxOutput = DEF_MAX_OUTPUT;
@@ -254,10 +255,7 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
     private boolean antiTippingEnabled = false;
     private Odometry referenceOdometry = null;
     private boolean synchronizeOdometries = false;
-    // Change of basis matrices to convert between coordinate systems
-    private final RealMatrix enuToNwuChangeOfBasis = MatrixUtils
-        .createRealMatrix(new double[][] { { 0, 1 }, { -1, 0 } });
-    private final RealMatrix nwuToEnuChangeOfBasis = enuToNwuChangeOfBasis.transpose();
+    private volatile boolean fastMathEnabled = false;
 
     /**
      * Constructor: Create an instance of the object.
@@ -507,6 +505,23 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         }
     }   //getFieldPosition
 
+    /**
+     * This method copies the robot position in reference to the field origin into the given pose without
+     * allocating memory.
+     *
+     * @param pose specifies the pose to store the robot position.
+     * @return the given pose.
+     */
+    public TrcPose2D getFieldPosition(TrcPose2D pose)
+    {
+        synchronized (odometry)
+        {
+            pose.setAs(odometry.position);
+        }
+
+        return pose;
+    }   //getFieldPosition
+
     /**
      * This method returns the robot velocity in reference to the field origin. By default, the field origin is the
      * robot's starting position.
@@ -521,6 +536,23 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         }
     }   //getFieldVelocity
 
+    /**
+     * This method copies the robot velocity in reference to the field origin into the given pose without
+     * allocating memory.
+     *
+     * @param velocity specifies the pose to store the robot velocity.
+     * @return the given pose.
+     */
+    public TrcPose2D getFieldVelocity(TrcPose2D velocity)
+    {
+        synchronized (odometry)
+        {
+            velocity.setAs(odometry.velocity);
+        }
+
+        return velocity;
+    }   //getFieldVelocity
+
     /**
      * This method sets the robot's absolute field position to the given pose. This can be used to set the robot's
      * starting position relative to the field origin.
@@ -533,6 +565,10 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         {
             resetOdometry();
             odometry.setPositionAs(pose);
+            if (poseEstimator != null)
+            {
+                poseEstimator.reset(pose);
+            }
         }
     }   //setFieldPosition
 
@@ -544,10 +580,24 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
      * @return position transformed into the new reference pose.
      */
     public TrcPose2D getPositionRelativeTo(TrcPose2D posPose, boolean transformAngle)
+    {
+        return getPositionRelativeTo(posPose, transformAngle, new TrcPose2D());
+    }   //getPositionRelativeTo
+
+    /**
+     * This method stores the robot position relative to <code>pose</code> in the given pose without allocating
+     * memory.
+     *
+     * @param posPose specifies the position to be referenced to.
+     * @param transformAngle specifies true to also transform angle, false to leave it alone.
+     * @param result specifies the pose to store the result.
+     * @return the result pose.
+     */
+    public TrcPose2D getPositionRelativeTo(TrcPose2D posPose, boolean transformAngle, TrcPose2D result)
     {
         synchronized (odometry)
         {
-            return odometry.position.relativeTo(posPose, transformAngle);
+            return odometry.position.relativeTo(posPose, transformAngle, result);
         }
     }   //getPositionRelativeTo
 
@@ -570,6 +620,20 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
      * @return velocity transformed into the new reference pose.
      */
     public TrcPose2D getVelocityRelativeTo(TrcPose2D velPose, double refAngle)
+    {
+        return getVelocityRelativeTo(velPose, refAngle, new TrcPose2D());
+    }   //getVelocityRelativeTo
+
+    /**
+     * This method stores the robot velocity relative to <code>pose</code> in the given pose without allocating
+     * memory.
+     *
+     * @param velPose specifies the velocity to be referenced to.
+     * @param refAngle specifies the reference angle to be relative to.
+     * @param result specifies the pose to store the result.
+     * @return the result pose.
+     */
+    public TrcPose2D getVelocityRelativeTo(TrcPose2D velPose, double refAngle, TrcPose2D result)
     {
         synchronized (odometry)
         {
@@ -578,9 +642,8 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
             // angle of velPose is really the angular velocity not an angle, so we must duplicate velPose to a new
             // pose and change the angle member to be the refAngle and let the caller provide that angle.
             //
-            TrcPose2D pose = velPose.clone();
-            pose.angle = refAngle;
-            return odometry.velocity.relativeTo(pose, false);
+            TrcPose2D pose = TrcPose2D.getScratch().set(velPose.x, velPose.y, refAngle);
+            return odometry.velocity.relativeTo(pose, false, result);
         }
     }   //getVelocityRelativeTo
 
@@ -600,6 +663,22 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         }
     }   //getRelativePosition
 
+    /**
+     * This method stores the robot position relative to the reference position, or the robot field position if
+     * there is no reference odometry set, in the given pose without allocating memory.
+     *
+     * @param pose specifies the pose to store the robot position.
+     * @return the given pose.
+     */
+    public TrcPose2D getRelativePosition(TrcPose2D pose)
+    {
+        synchronized (odometry)
+        {
+            return referenceOdometry == null ?
+                    getFieldPosition(pose) : getPositionRelativeTo(referenceOdometry.position, true, pose);
+        }
+    }   //getRelativePosition
+
     /**
      * This method returns the robot velocity relative to the reference velocity, or the robot field velocity if
      * there is no reference odometry set.
@@ -617,6 +696,24 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         }
     }   //getRelativeVelocity
 
+    /**
+     * This method stores the robot velocity relative to the reference velocity, or the robot field velocity if
+     * there is no reference odometry set, in the given pose without allocating memory.
+     *
+     * @param velocity specifies the pose to store the robot velocity.
+     * @return the given pose.
+     */
+    public TrcPose2D getRelativeVelocity(TrcPose2D velocity)
+    {
+        synchronized (odometry)
+        {
+            return referenceOdometry == null ?
+                    getFieldVelocity(velocity) :
+                    getVelocityRelativeTo(
+                        referenceOdometry.velocity, referenceOdometry.position.angle, velocity);
+        }
+    }   //getRelativeVelocity
+
     /**
      * This method returns the reference odometry if there is any.
      *
@@ -761,7 +858,7 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         final String funcName = "getXPosition";
         final double pos;
 
-        pos = getRelativePosition().x;
+        pos = getRelativePosition(TrcPose2D.getScratch()).x;
 
         if (debugEnabled)
         {
@@ -782,7 +879,7 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         final String funcName = "getYPosition";
         double pos;
 
-        pos = getRelativePosition().y;
+        pos = getRelativePosition(TrcPose2D.getScratch()).y;
 
         if (debugEnabled)
         {
@@ -828,7 +925,7 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         final String funcName = "getXVelocity";
         final double vel;
 
-        vel = getRelativeVelocity().x;
+        vel = getRelativeVelocity(TrcPose2D.getScratch()).x;
 
         if (debugEnabled)
         {
@@ -849,7 +946,7 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         final String funcName = "getYVelocity";
         final double vel;
 
-        vel = getRelativeVelocity().y;
+        vel = getRelativeVelocity(TrcPose2D.getScratch()).y;
 
         if (debugEnabled)
         {
@@ -941,6 +1038,13 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
 
             odometry.position.x = odometry.position.y = 0.0;
             odometry.velocity.x = odometry.velocity.y = 0.0;
+            if (poseEstimator != null)
+            {
+                poseEstimator.reset(odometry.position);
+            }
+            // The pose jumps, so the history no longer describes a continuous path.
+            poseHistoryNewest = -1;
+            poseHistoryCount = 0;
         }
 
         if (debugEnabled)
@@ -982,6 +1086,125 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         }
     }   //setDriveBaseOdometry
 
+    /**
+     * This method sets the pose estimator that fuses the drive base odometry with absolute pose measurements (e.g.
+     * AprilTag). When set, the estimator is reset to the current field position and fed with the odometry of every
+     * update. The fused pose is then reported as the drive base field position, so path following will follow the
+     * corrected pose.
+     *
+     * @param poseEstimator specifies the pose estimator, null to disable pose estimation.
+     */
+    public void setPoseEstimator(TrcPoseEstimator poseEstimator)
+    {
+        synchronized (odometry)
+        {
+            this.poseEstimator = poseEstimator;
+            if (poseEstimator != null)
+            {
+                poseEstimator.reset(odometry.position);
+            }
+        }
+    }   //setPoseEstimator
+
+    /**
+     * This method returns the pose estimator set on the drive base.
+     *
+     * @return pose estimator, null if none.
+     */
+    public TrcPoseEstimator getPoseEstimator()
+    {
+        return poseEstimator;
+    }   //getPoseEstimator
+
+    /**
+     * This method enables/disables the pose history. When enabled, the field position of every odometry update is
+     * recorded in a ring buffer so that the pose at a past time (e.g. the capture time of a vision frame) can be
+     * looked up with getFieldPositionAt.
+     *
+     * @param size specifies the number of odometry updates to keep, 0 to disable.
+     */
+    public void setPoseHistorySize(int size)
+    {
+        synchronized (odometry)
+        {
+            poseHistory = size > 0? new double[size*4]: null;
+            poseHistoryNewest = -1;
+            poseHistoryCount = 0;
+        }
+    }   //setPoseHistorySize
+
+    /**
+     * This method returns the robot field position at the given time, interpolated from the pose history. A time
+     * newer than the last odometry update returns the current field position.
+     *
+     * @param time specifies the time in seconds (TrcTimer.getCurrentTime time base).
+     * @param result specifies the pose to store the field position.
+     * @return result, null if the pose history is disabled or does not go back to the given time.
+     */
+    public TrcPose2D getFieldPositionAt(double time, TrcPose2D result)
+    {
+        synchronized (odometry)
+        {
+            if (poseHistoryCount == 0)
+            {
+                return null;
+            }
+
+            int capacity = poseHistory.length/4;
+            int index = poseHistoryNewest;
+
+            if (time >= poseHistory[index*4])
+            {
+                result.setAs(odometry.position);
+                return result;
+            }
+
+            for (int n = 1; n < poseHistoryCount; n++)
+            {
+                int prevIndex = (index - 1 + capacity) % capacity;
+                double prevTime = poseHistory[prevIndex*4];
+
+                if (time >= prevTime)
+                {
+                    double w = (time - prevTime)/(poseHistory[index*4] - prevTime);
+                    return result.set(
+                        poseHistory[prevIndex*4 + 1] + w*(poseHistory[index*4 + 1] - poseHistory[prevIndex*4 + 1]),
+                        poseHistory[prevIndex*4 + 2] + w*(poseHistory[index*4 + 2] - poseHistory[prevIndex*4 + 2]),
+                        poseHistory[prevIndex*4 + 3] + w*(poseHistory[index*4 + 3] - poseHistory[prevIndex*4 + 3]));
+                }
+                index = prevIndex;
+            }
+        }
+
+        return null;
+    }   //getFieldPositionAt
+
+    /**
+     * This method projects a target pose observed relative to the robot at a past time (e.g. a vision target
+     * relative to the robot when the frame was captured) into the current robot frame, compensating for how the
+     * robot has moved since. It requires the pose history to be enabled.
+     *
+     * @param capturedPose specifies the target pose relative to the robot at capture time.
+     * @param captureTime specifies the capture time in seconds (TrcTimer.getCurrentTime time base).
+     * @param result specifies the pose to store the target pose relative to the current robot pose, can be the
+     *        captured pose.
+     * @return result, null if the pose history does not go back to the capture time.
+     */
+    public TrcPose2D projectToCurrentRobotFrame(TrcPose2D capturedPose, double captureTime, TrcPose2D result)
+    {
+        TrcPose2D robotPose = TrcPose2D.getScratch();
+
+        if (getFieldPositionAt(captureTime, robotPose) == null)
+        {
+            return null;
+        }
+        // Target field pose, then relative to the current robot pose.
+        robotPose.addRelativePose(capturedPose, result);
+        getFieldPosition(robotPose);
+
+        return result.relativeTo(robotPose, true, result);
+    }   //projectToCurrentRobotFrame
+
     /**
      * This method is called to print the state info of all motors on the drive base for debugging purpose.
      *
@@ -1025,6 +1248,50 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         this.sensitivity = sensitivity;
     }   //setSensitivity
 
+    /**
+     * This method enables/disables the use of the TrcFastMath approximations for the trigonometry in the drive
+     * methods (i.e. polar drive, field reference frame and the drive base mixers). The approximation error is well
+     * below what matters for motor power. Odometry always uses the exact functions.
+     *
+     * @param enabled specifies true to use fast math, false to use java.lang.Math.
+     */
+    public void setFastMathEnabled(boolean enabled)
+    {
+        this.fastMathEnabled = enabled;
+    }   //setFastMathEnabled
+
+    /**
+     * This method checks if fast math is enabled for the drive methods.
+     *
+     * @return true if fast math is enabled, false otherwise.
+     */
+    public boolean isFastMathEnabled()
+    {
+        return fastMathEnabled;
+    }   //isFastMathEnabled
+
+    /**
+     * This method returns the sine of the given angle for the drive methods, using fast math if enabled.
+     *
+     * @param degrees specifies the angle in degrees.
+     * @return sine of the angle.
+     */
+    protected double sinDegrees(double degrees)
+    {
+        return fastMathEnabled? TrcFastMath.sin(degrees): Math.sin(Math.toRadians(degrees));
+    }   //sinDegrees
+
+    /**
+     * This method returns the cosine of the given angle for the drive methods, using fast math if enabled.
+     *
+     * @param degrees specifies the angle in degrees.
+     * @return cosine of the angle.
+     */
+    protected double cosDegrees(double degrees)
+    {
+        return fastMathEnabled? TrcFastMath.cos(degrees): Math.cos(Math.toRadians(degrees));
+    }   //cosDegrees
+
 //    /**
 //     * This method sets the maximum output value of the motor.
 //     *
@@ -1925,9 +2192,8 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
     public void holonomicDrive_Polar(String owner, double magnitude, double direction, double rotation,
         boolean inverted, double driveTime, TrcEvent event)
     {
-        double dirInRads = Math.toRadians(direction);
         holonomicDrive(
-                owner, magnitude * Math.sin(dirInRads), magnitude * Math.cos(dirInRads), rotation, inverted,
+                owner, magnitude * sinDegrees(direction), magnitude * cosDegrees(direction), rotation, inverted,
                 0.0, driveTime, event);
     }   //holonomicDrive_Polar
 
@@ -1965,9 +2231,8 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         String owner, double magnitude, double direction, double rotation, double gyroAngle, double driveTime,
         TrcEvent event)
     {
-        double dirInRads = Math.toRadians(direction);
         holonomicDrive(
-                owner, magnitude * Math.sin(dirInRads), magnitude * Math.cos(dirInRads), rotation, false,
+                owner, magnitude * sinDegrees(direction), magnitude * cosDegrees(direction), rotation, false,
                 gyroAngle, driveTime, event);
     }   //holonomicDrive_Polar
 
@@ -2017,9 +2282,8 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
     public void holonomicDrive_Polar(
         String owner, double magnitude, double direction, double rotation, double driveTime, TrcEvent event)
     {
-        double dirInRads = Math.toRadians(direction);
         holonomicDrive(
-                owner, magnitude * Math.sin(dirInRads), magnitude * Math.cos(dirInRads), rotation, false,
+                owner, magnitude * sinDegrees(direction), magnitude * cosDegrees(direction), rotation, false,
                 0.0, driveTime, event);
     }   //holonomicDrive_Polar
 
@@ -2074,6 +2338,9 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         synchronized (odometry)
         {
             Odometry odometryDelta;
+            double prevX = odometry.position.x;
+            double prevY = odometry.position.y;
+            double prevAngle = odometry.position.angle;
 
             if (driveBaseOdometry != null)
             {
@@ -2094,8 +2361,15 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
                 //
                 for (int i = 0; i < motors.length; i++)
                 {
+                    // Recycle the previous odometry object for the new reading to avoid allocating memory.
+                    TrcOdometrySensor.Odometry odom = motorsState.prevMotorOdometries[i];
                     motorsState.prevMotorOdometries[i] = motorsState.currMotorOdometries[i];
-                    motorsState.currMotorOdometries[i] = motors[i].getOdometry();
+                    if (odom == null)
+                    {
+                        odom = new TrcOdometrySensor.Odometry(motors[i]);
+                    }
+                    motors[i].getOdometry(0, odom);
+                    motorsState.currMotorOdometries[i] = odom;
                 }
 
                 if (synchronizeOdometries)
@@ -2141,6 +2415,26 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
                     dbgTrace.traceInfo(funcName, "odometry: %s", odometry);
                 }
             }
+
+            if (poseEstimator != null)
+            {
+                updatePoseEstimator(prevX, prevY, prevAngle);
+            }
+
+            if (poseHistory != null)
+            {
+                int capacity = poseHistory.length/4;
+
+                poseHistoryNewest = (poseHistoryNewest + 1) % capacity;
+                if (poseHistoryCount < capacity)
+                {
+                    poseHistoryCount++;
+                }
+                poseHistory[poseHistoryNewest*4] = TrcTimer.getCurrentTime();
+                poseHistory[poseHistoryNewest*4 + 1] = odometry.position.x;
+                poseHistory[poseHistoryNewest*4 + 2] = odometry.position.y;
+                poseHistory[poseHistoryNewest*4 + 3] = odometry.position.angle;
+            }
         }
 
         if (debugEnabled)
@@ -2217,6 +2511,30 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
         }
     }   //synchronizeOdometries
 
+    /**
+     * This method feeds the odometry update to the pose estimator and replaces the odometry position with the fused
+     * pose. The estimator is given the robot relative chord of the update so the curved path integration done by
+     * updateOdometry is preserved.
+     *
+     * @param prevX specifies the x position before the update.
+     * @param prevY specifies the y position before the update.
+     * @param prevAngle specifies the heading before the update.
+     */
+    private void updatePoseEstimator(double prevX, double prevY, double prevAngle)
+    {
+        double fieldDx = odometry.position.x - prevX;
+        double fieldDy = odometry.position.y - prevY;
+        double angleRad = Math.toRadians(prevAngle);
+        double cosA = Math.cos(angleRad);
+        double sinA = Math.sin(angleRad);
+
+        // Rotate the field delta counter-clockwise by the previous heading to make it robot relative.
+        poseEstimator.addOdometry(
+            TrcTimer.getCurrentTime(), fieldDx*cosA - fieldDy*sinA, fieldDx*sinA + fieldDy*cosA,
+            odometry.position.angle - prevAngle);
+        poseEstimator.getPose(odometry.position);
+    }   //updatePoseEstimator
+
     /**
      * This method updates the current robot odometry with the delta either using 0 or 1st order dynamics depending on
      * the value of <code>USE_CURVED_PATH</code>. If true, use a curved path (with nonzero curvature) otherwise model
@@ -2227,78 +2545,67 @@ public abstract class TrcDriveBase implements TrcExclusiveSubsystem
      */
     private void updateOdometry(Odometry delta, double angle)
     {
+        double angleRadians = Math.toRadians(angle);
+        double cosAngle = Math.cos(angleRadians);
+        double sinAngle = Math.sin(angleRadians);
+
         if (USE_CURVED_PATH)
         {
             // The math below uses a different coordinate system (NWU) so we have to convert
-            double[] posArr = enuToNwuChangeOfBasis.operate(new double[] { delta.position.x, delta.position.y });
-            double x = posArr[0];
-            double y = posArr[1];
+            double x = delta.position.y;
+            double y = -delta.position.x;
             // Convert clockwise degrees to counter-clockwise radians
             double theta = Math.toRadians(-delta.position.angle);
-            double headingRad = Math.toRadians(-angle);
-
+            //
             // The derivation of the following math is here in section 11.1
             // (https://file.tavsys.net/control/state-space-guide.pdf)
-            // A is a transformation matrix representing a CCW rotation by headingRad radians
-            // This is used to bring the change in pose into the global reference frame
-            RealMatrix A = MatrixUtils.createRealMatrix(
-                new double[][] { { Math.cos(headingRad), -Math.sin(headingRad), 0 },
-                                 { Math.sin(headingRad), Math.cos(headingRad), 0 },
-                                 { 0, 0, 1 } });
             // B is used to apply a nonzero curvature to the path. When the curvature is zero, B resolves to the
-            // identity matrix.
-            // The math involved isn't immediately intuitive, but it's basically the integration of the forward odometry
-            // matrix equation.
-            RealMatrix B;
+            // identity matrix. The math involved isn't immediately intuitive, but it's basically the integration of
+            // the forward odometry matrix equation. The matrices are expanded by hand so that it doesn't allocate
+            // memory on every odometry update.
+            //
+            double b00, b01, b10, b11;
             if (Math.abs(theta) <= 1E-9)
             {
                 // Use the taylor series approximations, since some values are indeterminate
-                B = MatrixUtils.createRealMatrix(new double[][] { { 1 - theta * theta / 6.0, -theta / 2.0, 0 },
-                    { theta / 2.0, 1 - theta * theta / 6.0, 0 }, { 0, 0, 1 } });
+                b00 = b11 = 1 - theta * theta / 6.0;
+                b01 = -theta / 2.0;
+                b10 = theta / 2.0;
             }
             else
             {
-                B = MatrixUtils.createRealMatrix(new double[][] { { Math.sin(theta), Math.cos(theta) - 1, 0 },
-                    { 1 - Math.cos(theta), Math.sin(theta), 0 }, { 0, 0, theta } });
-                B = B.scalarMultiply(1.0 / theta);
+                b00 = b11 = Math.sin(theta) / theta;
+                b01 = (Math.cos(theta) - 1) / theta;
+                b10 = (1 - Math.cos(theta)) / theta;
             }
-            // C is the column vector containing the "raw" change in pose. This is the immediate output of the forward
-            // odometry multiplied by timestep
-            RealVector C = MatrixUtils.createRealVector(new double[] { x, y, theta });
-            // Get the change in global pose
-            RealVector globalPose = A.multiply(B).operate(C);
-            // Convert back to our (ENU) reference frame
-            RealVector pos = nwuToEnuChangeOfBasis.operate(globalPose.getSubVector(0, 2));
-            // Convert back to clockwise degrees for angle
-            theta = Math.toDegrees(-globalPose.getEntry(2));
-
-            // Rotate the velocity vector into the global reference frame
-            RealVector vel = MatrixUtils.createRealVector(new double[] { delta.velocity.x, delta.velocity.y });
-            vel = TrcUtil.rotateCW(vel, angle);
-
-            // Update the odometry values
-            odometry.position.x += pos.getEntry(0);
-            odometry.position.y += pos.getEntry(1);
-            odometry.position.angle += theta;
-            odometry.velocity.x = vel.getEntry(0);
-            odometry.velocity.y = vel.getEntry(1);
-            odometry.velocity.angle = delta.velocity.angle;
+            double bx = b00 * x + b01 * y;
+            double by = b10 * x + b11 * y;
+            // A is a CCW rotation by the heading (-angle in radians) to bring the change in pose into the global
+            // reference frame.
+            double globalX = cosAngle * bx + sinAngle * by;
+            double globalY = -sinAngle * bx + cosAngle * by;
+
+            // Convert back to our (ENU) reference frame and to clockwise degrees for angle.
+            odometry.position.x += -globalY;
+            odometry.position.y += globalX;
+            odometry.position.angle += Math.toDegrees(-theta);
         }
         else
         {
-            RealVector pos = MatrixUtils.createRealVector(new double[] { delta.position.x, delta.position.y });
-            RealVector vel = MatrixUtils.createRealVector(new double[] { delta.velocity.x, delta.velocity.y });
-
-            pos = TrcUtil.rotateCW(pos, odometry.position.angle);
-            vel = TrcUtil.rotateCW(vel, odometry.position.angle);
-
-            odometry.position.x += pos.getEntry(0);
-            odometry.position.y += pos.getEntry(1);
-            odometry.velocity.x = vel.getEntry(0);
-            odometry.velocity.y = vel.getEntry(1);
+            double posAngleRadians = Math.toRadians(odometry.position.angle);
+            double cosPosAngle = Math.cos(posAngleRadians);
+            double sinPosAngle = Math.sin(posAngleRadians);
+            // Rotate the position delta clockwise into the global reference frame.
+            odometry.position.x += delta.position.x * cosPosAngle + delta.position.y * sinPosAngle;
+            odometry.position.y += -delta.position.x * sinPosAngle + delta.position.y * cosPosAngle;
             odometry.position.angle += delta.position.angle;
-            odometry.velocity.angle = delta.velocity.angle;
+            cosAngle = cosPosAngle;
+            sinAngle = sinPosAngle;
         }
+        // Rotate the velocity vector clockwise into the global reference frame.
+        odometry.velocity.x = delta.velocity.x * cosAngle + delta.velocity.y * sinAngle;
+        odometry.velocity.y = -delta.velocity.x * sinAngle + delta.velocity.y * cosAngle;
+        odometry.velocity.angle = delta.velocity.angle;
     }   //updateOdometry
 
 }   //class TrcDriveBase
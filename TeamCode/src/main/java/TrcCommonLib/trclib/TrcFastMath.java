@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+/**
+ * This class implements fast approximations of the trigonometric functions and angle wrapping used by the drive
+ * base and warp space control loops. All angles are in degrees like the rest of the library. The approximations
+ * have bounded error (see each method) and are meant for computing motor powers and steer angles where an error
+ * in the 1e-6 range makes no difference. Do not use them for odometry integration where errors accumulate.
+ * <p>
+ * sin/cos use a 4096 entry table over one revolution with linear interpolation. atan2 reduces the argument to the
+ * first octant and evaluates a minimax polynomial. Angle wrapping uses floor instead of the remainder operator so
+ * it has no data dependent branches.
+ * <p>
+ * Like java.lang.Math, all methods return NaN for a NaN argument, and sin, cos and the wrapping methods return NaN
+ * for an infinite angle.
+ */
+public final class TrcFastMath
+{
+    private static final int SIN_BITS = 12;
+    private static final int SIN_TABLE_SIZE = 1 << SIN_BITS;
+    private static final int SIN_MASK = SIN_TABLE_SIZE - 1;
+    private static final int QUARTER_TURN = SIN_TABLE_SIZE / 4;
+    private static final double DEGREES_TO_INDEX = SIN_TABLE_SIZE / 360.0;
+    // One extra entry so the interpolation never needs to wrap the upper index.
+    private static final double[] sinTable = new double[SIN_TABLE_SIZE + 1];
+    // Minimax coefficients of atan(a)/a as a polynomial in a^2 on [0, 1].
+    private static final double ATAN_C1 = 0.99997726;
+    private static final double ATAN_C3 = -0.33262347;
+    private static final double ATAN_C5 = 0.19354346;
+    private static final double ATAN_C7 = -0.11643287;
+    private static final double ATAN_C9 = 0.05265332;
+    private static final double ATAN_C11 = -0.01172120;
+
+    static
+    {
+        for (int i = 0; i <= SIN_TABLE_SIZE; i++)
+        {
+            sinTable[i] = Math.sin(2.0 * Math.PI * i / SIN_TABLE_SIZE);
+        }
+    }
+
+    /**
+     * Prevent instantiation.
+     */
+    private TrcFastMath()
+    {
+    }   //TrcFastMath
+
+    /**
+     * This method returns the sine of the given angle. The absolute error is at most 3.0e-7 for any finite angle
+     * with magnitude less than 1e9 degrees.
+     *
+     * @param degrees specifies the angle in degrees.
+     * @return sine of the angle.
+     */
+    public static double sin(double degrees)
+    {
+        double t = degrees * DEGREES_TO_INDEX;
+        double floor = Math.floor(t);
+        int i = (int) ((long) floor & SIN_MASK);
+        double y0 = sinTable[i];
+
+        return y0 + (t - floor)*(sinTable[i + 1] - y0);
+    }   //sin
+
+    /**
+     * This method returns the cosine of the given angle. The absolute error is at most 3.0e-7 for any finite angle
+     * with magnitude less than 1e9 degrees.
+     *
+     * @param degrees specifies the angle in degrees.
+     * @return cosine of the angle.
+     */
+    public static double cos(double degrees)
+    {
+        double t = degrees * DEGREES_TO_INDEX;
+        double floor = Math.floor(t);
+        int i = (int) (((long) floor + QUARTER_TURN) & SIN_MASK);
+        double y0 = sinTable[i];
+
+        return y0 + (t - floor)*(sinTable[i + 1] - y0);
+    }   //cos
+
+    /**
+     * This method computes both the sine and the cosine of the given angle with a single table index calculation.
+     * The error bounds are the same as {@link #sin(double)} and {@link #cos(double)}.
+     *
+     * @param degrees specifies the angle in degrees.
+     * @param result specifies the array to receive the sine at index 0 and the cosine at index 1.
+     * @return result array.
+     */
+    public static double[] sinCos(double degrees, double[] result)
+    {
+        double t = degrees * DEGREES_TO_INDEX;
+        double floor = Math.floor(t);
+        double frac = t - floor;
+        long index = (long) floor;
+        int i = (int) (index & SIN_MASK);
+        int j = (int) ((index + QUARTER_TURN) & SIN_MASK);
+
+        result[0] = sinTable[i] + frac*(sinTable[i + 1] - sinTable[i]);
+        result[1] = sinTable[j] + frac*(sinTable[j + 1] - sinTable[j]);
+        return result;
+    }   //sinCos
+
+    /**
+     * This method returns the angle of the vector (x, y) like {@link Math#atan2(double, double)} but in degrees.
+     * The absolute error is at most 1.0e-4 degrees. Infinite components give the same angles as Math.atan2. Unlike
+     * Math.atan2, the sign of zero components is ignored: it returns 0 if both x and y are 0, and 180 (not -180)
+     * for y = -0.0 and a negative x.
+     *
+     * @param y specifies the y component.
+     * @param x specifies the x component.
+     * @return angle in degrees in the range [-180, 180].
+     */
+    public static double atan2(double y, double x)
+    {
+        double absX = Math.abs(x);
+        double absY = Math.abs(y);
+        double max = Math.max(absX, absY);
+        // Equal magnitudes are handled separately so that infinite x and y give 45 degrees instead of NaN.
+        double a = absX == absY? (max == 0.0? 0.0: 1.0): Math.min(absX, absY) / max;
+        double s = a*a;
+        double angle =
+            a*(ATAN_C1 + s*(ATAN_C3 + s*(ATAN_C5 + s*(ATAN_C7 + s*(ATAN_C9 + s*ATAN_C11))))) * (180.0 / Math.PI);
+
+        if (absY > absX) angle = 90.0 - angle;
+        if (x < 0.0) angle = 180.0 - angle;
+        return y < 0.0? -angle: angle;
+    }   //atan2
+
+    /**
+     * This method wraps the given angle into the range [0, 360) by subtracting whole turns. Rounding can put
+     * angles just off a multiple of 360 exactly on 360 or up to 4 ulps of the angle below 0.
+     *
+     * @param degrees specifies the angle in degrees.
+     * @return wrapped angle.
+     */
+    public static double wrapAngle(double degrees)
+    {
+        return degrees - 360.0*Math.floor(degrees / 360.0);
+    }   //wrapAngle
+
+    /**
+     * This method wraps the given angle into the range [-180, 180) by subtracting whole turns. Rounding can put
+     * angles just below an odd multiple of 180 up to 4 ulps of the angle below -180.
+     *
+     * @param degrees specifies the angle in degrees.
+     * @return wrapped angle.
+     */
+    public static double wrapAngle180(double degrees)
+    {
+        return degrees - 360.0*Math.floor(degrees / 360.0 + 0.5);
+    }   //wrapAngle180
+
+    /**
+     * This method wraps the given value into the range [-range/2, range/2). This is the signed shortest distance in
+     * a warp space of the given range. Rounding can put values just below an odd multiple of range/2 up to 4 ulps
+     * of the value below -range/2.
+     *
+     * @param value specifies the value to wrap.
+     * @param range specifies the warp space range.
+     * @return wrapped value.
+     */
+    public static double wrapCentered(double value, double range)
+    {
+        return value - range*Math.floor(value / range + 0.5);
+    }   //wrapCentered
+
+}   //class TrcFastMath
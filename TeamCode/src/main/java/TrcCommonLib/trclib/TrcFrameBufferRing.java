@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import java.util.ArrayDeque;
+
+/**
+ * This class implements a ring of reference counted frame buffers shared between a video producer and its consumers
+ * (processing, annotation, streaming). The producer acquires a free buffer, fills it in place and publishes it as
+ * the latest frame. Consumers borrow the latest frame and release it when done, so a frame is never copied between
+ * the capture and the display. A buffer returns to the free list when its last reference is released.
+ * <p>
+ * The ring keeps one reference to the latest published frame until a newer one is published. Published frames are
+ * shared and read-only. A frame is writable only while a single owner holds it before it is published: the producer
+ * between acquireForWrite and publish, or the processing consumer that modifies frames in place (e.g. annotating
+ * them). In the latter case, the producer submits the frame instead of publishing it, the processing consumer takes
+ * it with takeSubmitted and publishes it to the other consumers when done. The ring rejects publishing a frame that
+ * is not writable, so a borrowed frame can never be handed on as a modified one.
+ * <p>
+ * When all buffers are in use, acquireForWrite follows the ExhaustionPolicy of the ring.
+ *
+ * @param <F> specifies the type of the frame buffer.
+ */
+public class TrcFrameBufferRing<F>
+{
+    /**
+     * This interface is implemented by the producer to allocate a frame buffer.
+     *
+     * @param <F> specifies the type of the frame buffer.
+     */
+    public interface BufferFactory<F>
+    {
+        /**
+         * This method is called to allocate a new frame buffer.
+         *
+         * @return newly allocated frame buffer.
+         */
+        F createBuffer();
+
+    }   //interface BufferFactory
+
+    /**
+     * This enum specifies what acquireForWrite does when no buffer is free.
+     */
+    public enum ExhaustionPolicy
+    {
+        /**
+         * Wait for a consumer to release a buffer, up to the acquire timeout. The frame is dropped on timeout.
+         */
+        BLOCK,
+        /**
+         * Drop the frame immediately, the producer does not wait.
+         */
+        SKIP,
+        /**
+         * Allocate a new buffer up to the maximum number of buffers, then drop the frame.
+         */
+        GROW
+
+    }   //enum ExhaustionPolicy
+
+    /**
+     * This class contains a frame buffer of the ring and its reference count. All fields are written under the ring
+     * lock, and consumers only get hold of a frame through the ring, so they always see its published state.
+     *
+     * @param <F> specifies the type of the frame buffer.
+     */
+    public static class Frame<F>
+    {
+        private final TrcFrameBufferRing<F> ring;
+        private final F buffer;
+        private int refCount = 0;
+        private boolean writable = false;
+        private long sequence = 0;
+        private double timestamp = 0.0;
+
+        /**
+         * Constructor: Create an instance of the object.
+         *
+         * @param ring specifies the ring that owns the frame.
+         * @param buffer specifies the frame buffer.
+         */
+        private Frame(TrcFrameBufferRing<F> ring, F buffer)
+        {
+            this.ring = ring;
+            this.buffer = buffer;
+        }   //Frame
+
+        /**
+         * This method returns the frame buffer. It is only valid while the caller holds a reference to the frame.
+         *
+         * @return frame buffer.
+         */
+        public F getBuffer()
+        {
+            return buffer;
+        }   //getBuffer
+
+        /**
+         * This method returns the sequence number assigned to the frame when it was published.
+         *
+         * @return frame sequence number, 0 if not yet published.
+         */
+        public long getSequence()
+        {
+            return sequence;
+        }   //getSequence
+
+        /**
+         * This method returns the capture time of the frame given when it was published.
+         *
+         * @return capture time in seconds (TrcTimer.getCurrentTime time base).
+         */
+        public double getTimestamp()
+        {
+            return timestamp;
+        }   //getTimestamp
+
+        /**
+         * This method checks if the frame buffer may be modified in place, i.e. the caller got the frame from
+         * acquireForWrite or takeSubmitted and has not published it yet.
+         *
+         * @return true if the frame is writable, false if it is published and read-only.
+         */
+        public boolean isWritable()
+        {
+            synchronized (ring)
+            {
+                return writable;
+            }
+        }   //isWritable
+
+        /**
+         * This method adds a reference to the frame, so a consumer can keep it beyond the release of the reference
+         * it was handed (e.g. to stream it asynchronously).
+         */
+        public void retain()
+        {
+            ring.retain(this);
+        }   //retain
+
+        /**
+         * This method releases a reference to the frame. The buffer goes back to the free list of the ring when its
+         * last reference is released.
+         */
+        public void release()
+        {
+            ring.release(this);
+        }   //release
+
+    }   //class Frame
+
+    private final String instanceName;
+    private final BufferFactory<F> bufferFactory;
+    private final ExhaustionPolicy exhaustionPolicy;
+    private final int maxBuffers;
+    private final ArrayDeque<Frame<F>> freeFrames;
+    private double acquireTimeout = 0.1;
+    private Frame<F> latestFrame = null;
+    private Frame<F> submittedFrame = null;
+    private long nextSequence = 1;
+    private int numBuffers = 0;
+    private long numPublished = 0;
+    private long numDropped = 0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param bufferFactory specifies the factory to allocate frame buffers.
+     * @param numBuffers specifies the number of buffers to allocate up front. It should be at least the number of
+     *        frames held at the same time (producer, submitted frame, latest frame and one per consumer) plus one.
+     * @param maxBuffers specifies the maximum number of buffers for the GROW policy, ignored by other policies.
+     * @param exhaustionPolicy specifies what to do when no buffer is free.
+     */
+    public TrcFrameBufferRing(
+        String instanceName, BufferFactory<F> bufferFactory, int numBuffers, int maxBuffers,
+        ExhaustionPolicy exhaustionPolicy)
+    {
+        if (numBuffers < 2)
+        {
+            throw new IllegalArgumentException("Frame ring needs at least 2 buffers.");
+        }
+
+        this.instanceName = instanceName;
+        this.bufferFactory = bufferFactory;
+        this.exhaustionPolicy = exhaustionPolicy;
+        this.maxBuffers = exhaustionPolicy == ExhaustionPolicy.GROW? Math.max(numBuffers, maxBuffers): numBuffers;
+        freeFrames = new ArrayDeque<>(this.maxBuffers);
+        for (int i = 0; i < numBuffers; i++)
+        {
+            freeFrames.add(new Frame<>(this, bufferFactory.createBuffer()));
+        }
+        this.numBuffers = numBuffers;
+    }   //TrcFrameBufferRing
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method sets how long acquireForWrite waits for a free buffer with the BLOCK policy.
+     *
+     * @param timeout specifies the timeout in seconds.
+     */
+    public synchronized void setAcquireTimeout(double timeout)
+    {
+        acquireTimeout = timeout;
+    }   //setAcquireTimeout
+
+    /**
+     * This method returns the exhaustion policy of the ring.
+     *
+     * @return exhaustion policy.
+     */
+    public ExhaustionPolicy getExhaustionPolicy()
+    {
+        return exhaustionPolicy;
+    }   //getExhaustionPolicy
+
+    /**
+     * This method is called by the producer to get a free buffer to fill in place. The producer holds the only
+     * reference to the returned frame until it calls publish, or release to abandon it.
+     *
+     * @return free frame, null if none is available under the exhaustion policy (the frame is counted as dropped).
+     */
+    public synchronized Frame<F> acquireForWrite()
+    {
+        Frame<F> frame = freeFrames.poll();
+
+        if (frame == null)
+        {
+            if (exhaustionPolicy == ExhaustionPolicy.GROW && numBuffers < maxBuffers)
+            {
+                frame = new Frame<>(this, bufferFactory.createBuffer());
+                numBuffers++;
+            }
+            else if (exhaustionPolicy == ExhaustionPolicy.BLOCK)
+            {
+                long deadline = TrcTimer.getNanoTime() + (long) (acquireTimeout*1000000000.0);
+
+                try
+                {
+                    for (long remaining = deadline - TrcTimer.getNanoTime();
+                         freeFrames.isEmpty() && remaining > 0;
+                         remaining = deadline - TrcTimer.getNanoTime())
+                    {
+                        wait(remaining/1000000, (int) (remaining%1000000));
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                frame = freeFrames.poll();
+            }
+        }
+
+        if (frame != null)
+        {
+            frame.refCount = 1;
+            frame.writable = true;
+        }
+        else
+        {
+            numDropped++;
+        }
+
+        return frame;
+    }   //acquireForWrite
+
+    /**
+     * This method is called by the producer to hand a filled frame to the processing consumer instead of publishing
+     * it. The producer's reference is handed over to the ring, so the producer must not release the frame afterwards.
+     * A submitted frame that has not been taken yet is dropped when a newer one is submitted.
+     *
+     * @param frame specifies the frame returned by acquireForWrite.
+     * @param timestamp specifies the capture time of the frame in seconds (TrcTimer.getCurrentTime time base).
+     * @throws IllegalStateException if the frame is not writable.
+     */
+    public synchronized void submit(Frame<F> frame, double timestamp)
+    {
+        checkWritable(frame);
+        frame.timestamp = timestamp;
+
+        if (submittedFrame != null)
+        {
+            releaseLocked(submittedFrame);
+            numDropped++;
+        }
+        submittedFrame = frame;
+        notifyAll();
+    }   //submit
+
+    /**
+     * This method is called by the processing consumer to take the submitted frame, waiting for one to be submitted
+     * if necessary. The caller holds the only reference to the frame and may modify it in place until it calls
+     * publish to hand it to the other consumers, or release to drop it.
+     *
+     * @param timeout specifies the maximum time to wait in seconds, 0 to not wait.
+     * @return submitted frame, null if none was submitted within the timeout.
+     */
+    public synchronized Frame<F> takeSubmitted(double timeout)
+    {
+        long deadline = TrcTimer.getNanoTime() + (long) (timeout*1000000000.0);
+        Frame<F> frame;
+
+        try
+        {
+            for (long remaining = deadline - TrcTimer.getNanoTime();
+                 submittedFrame == null && remaining > 0;
+                 remaining = deadline - TrcTimer.getNanoTime())
+            {
+                wait(remaining/1000000, (int) (remaining%1000000));
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        frame = submittedFrame;
+        submittedFrame = null;
+
+        return frame;
+    }   //takeSubmitted
+
+    /**
+     * This method publishes a writable frame as the latest frame. It is called by the producer with a frame from
+     * acquireForWrite, or by the processing consumer with a frame from takeSubmitted. The caller's reference is
+     * handed over to the ring, so the caller must not modify or release the frame afterwards.
+     *
+     * @param frame specifies the writable frame.
+     * @param timestamp specifies the capture time of the frame in seconds (TrcTimer.getCurrentTime time base).
+     * @throws IllegalStateException if the frame is not writable (e.g. it was borrowed).
+     */
+    public synchronized void publish(Frame<F> frame, double timestamp)
+    {
+        checkWritable(frame);
+        frame.writable = false;
+        frame.sequence = nextSequence++;
+        frame.timestamp = timestamp;
+
+        if (latestFrame != null)
+        {
+            releaseLocked(latestFrame);
+        }
+        latestFrame = frame;
+        numPublished++;
+        notifyAll();
+    }   //publish
+
+    /**
+     * This method borrows the latest published frame. The caller must release it when done.
+     *
+     * @return latest frame, null if none has been published.
+     */
+    public synchronized Frame<F> borrowLatest()
+    {
+        if (latestFrame != null)
+        {
+            latestFrame.refCount++;
+        }
+
+        return latestFrame;
+    }   //borrowLatest
+
+    /**
+     * This method borrows the latest published frame if it is newer than the given sequence number, waiting for one
+     * to be published if necessary. The caller must release it when done.
+     *
+     * @param sequence specifies the sequence number of the last frame the caller has seen.
+     * @param timeout specifies the maximum time to wait in seconds, 0 to not wait.
+     * @return newer frame, null if none was published within the timeout.
+     */
+    public synchronized Frame<F> borrowNewerThan(long sequence, double timeout)
+    {
+        long deadline = TrcTimer.getNanoTime() + (long) (timeout*1000000000.0);
+
+        try
+        {
+            for (long remaining = deadline - TrcTimer.getNanoTime();
+                 (latestFrame == null || latestFrame.sequence <= sequence) && remaining > 0;
+                 remaining = deadline - TrcTimer.getNanoTime())
+            {
+                wait(remaining/1000000, (int) (remaining%1000000));
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        return latestFrame != null && latestFrame.sequence > sequence? borrowLatest(): null;
+    }   //borrowNewerThan
+
+    /**
+     * This method drops the ring's references to the latest and the submitted frames, e.g. when the video source is
+     * stopped, so that consumers don't pick up a stale frame.
+     */
+    public synchronized void clear()
+    {
+        if (submittedFrame != null)
+        {
+            releaseLocked(submittedFrame);
+            submittedFrame = null;
+        }
+
+        if (latestFrame != null)
+        {
+            releaseLocked(latestFrame);
+            latestFrame = null;
+        }
+    }   //clear
+
+    /**
+     * This method returns the number of allocated buffers.
+     *
+     * @return number of buffers.
+     */
+    public synchronized int getNumBuffers()
+    {
+        return numBuffers;
+    }   //getNumBuffers
+
+    /**
+     * This method returns the number of free buffers.
+     *
+     * @return number of free buffers.
+     */
+    public synchronized int getNumFreeBuffers()
+    {
+        return freeFrames.size();
+    }   //getNumFreeBuffers
+
+    /**
+     * This method returns the number of frames published.
+     *
+     * @return number of published frames.
+     */
+    public synchronized long getNumPublished()
+    {
+        return numPublished;
+    }   //getNumPublished
+
+    /**
+     * This method returns the number of frames dropped because no buffer was free or a newer frame was submitted
+     * before they were taken.
+     *
+     * @return number of dropped frames.
+     */
+    public synchronized long getNumDropped()
+    {
+        return numDropped;
+    }   //getNumDropped
+
+    /**
+     * This method adds a reference to a frame.
+     *
+     * @param frame specifies the frame.
+     */
+    private synchronized void retain(Frame<F> frame)
+    {
+        checkOwnership(frame);
+        frame.refCount++;
+    }   //retain
+
+    /**
+     * This method releases a reference to a frame.
+     *
+     * @param frame specifies the frame.
+     */
+    private synchronized void release(Frame<F> frame)
+    {
+        checkOwnership(frame);
+        releaseLocked(frame);
+    }   //release
+
+    /**
+     * This method releases a reference to a frame and returns it to the free list if it was the last reference.
+     * Must be called with the lock held.
+     *
+     * @param frame specifies the frame.
+     */
+    private void releaseLocked(Frame<F> frame)
+    {
+        if (--frame.refCount == 0)
+        {
+            frame.writable = false;
+            freeFrames.add(frame);
+            notifyAll();
+        }
+    }   //releaseLocked
+
+    /**
+     * This method checks that the frame belongs to this ring and is referenced. Must be called with the lock held.
+     *
+     * @param frame specifies the frame.
+     * @throws IllegalStateException if the frame is not referenced (e.g. released twice).
+     */
+    private void checkOwnership(Frame<F> frame)
+    {
+        if (frame.ring != this || frame.refCount <= 0)
+        {
+            throw new IllegalStateException("[" + instanceName + "] Frame is not held.");
+        }
+    }   //checkOwnership
+
+    /**
+     * This method checks that the frame belongs to this ring, is referenced and has not been published. Must be
+     * called with the lock held.
+     *
+     * @param frame specifies the frame.
+     * @throws IllegalStateException if the frame is not writable.
+     */
+    private void checkWritable(Frame<F> frame)
+    {
+        checkOwnership(frame);
+        if (!frame.writable)
+        {
+            throw new IllegalStateException("[" + instanceName + "] Frame is not writable.");
+        }
+    }   //checkWritable
+
+}   //class TrcFrameBufferRing
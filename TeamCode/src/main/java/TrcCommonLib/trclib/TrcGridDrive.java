@@ -42,6 +42,8 @@ public class TrcGridDrive
     private final TrcEvent callbackEvent;
     private final ArrayList<TrcPose2D> gridDriveQueue = new ArrayList<>();
     private TrcDbgTrace msgTracer = null;
+    private TrcGridPathPlanner pathPlanner = null;
+    private TrcPose2D plannerFieldOrigin = null;
 
     /**
      * Constructor: Creates an instance of the object.
@@ -87,6 +89,38 @@ public class TrcGridDrive
         msgTracer = tracer;
     }   //setMsgTracer
 
+    /**
+     * This method sets the path planner for routing around field obstacles. When set, driveToEndPoint plans a
+     * collision-free path to the endpoint instead of snapping to the grid.
+     * <p>
+     * The drive base field position is relative to where odometry was last reset (usually the robot start pose)
+     * unless setFieldPosition was called, while the planner grid has its own field frame (e.g. field center origin).
+     * The pose of the drive base field frame origin in planner coordinates converts between the two. Both frames
+     * use the TrcPose2D convention (x right, y forward, clockwise degrees), so a pose from another convention (e.g.
+     * Road Runner headings) must be converted first.
+     *
+     * @param planner specifies the path planner, null to snap to the grid.
+     * @param fieldOrigin specifies the pose of the drive base field frame origin in planner coordinates, e.g. the
+     *        robot start pose in planner coordinates if odometry is reset at the start. Null if the drive base field
+     *        position is already in planner coordinates.
+     */
+    public void setPathPlanner(TrcGridPathPlanner planner, TrcPose2D fieldOrigin)
+    {
+        pathPlanner = planner;
+        plannerFieldOrigin = fieldOrigin != null? fieldOrigin.clone(): null;
+    }   //setPathPlanner
+
+    /**
+     * This method sets the path planner for routing around field obstacles. The drive base field position must
+     * already be in planner coordinates (i.e. setFieldPosition was called with a pose in the planner frame).
+     *
+     * @param planner specifies the path planner, null to snap to the grid.
+     */
+    public void setPathPlanner(TrcGridPathPlanner planner)
+    {
+        setPathPlanner(planner, null);
+    }   //setPathPlanner
+
     /**
      * This method cancels Grid Drive if one is in progress.
      */
@@ -315,7 +349,8 @@ public class TrcGridDrive
 
     /**
      * This method generate a path from the current robot pose to the endpoint that snaps to the grid so it moves
-     * only in square pattern, never diagonal.
+     * only in square pattern, never diagonal. If a path planner is set, it plans a collision-free path around the
+     * field obstacles instead.
      *
      * @param endPoint specifies the endpoint in real world units.
      */
@@ -326,18 +361,45 @@ public class TrcGridDrive
         if (driveBase.acquireExclusiveAccess(moduleName))
         {
             TrcPose2D robotPose = driveBase.getFieldPosition();
-            TrcPose2D startGridCell = adjustGridCellCenter(poseToGridCell(robotPose));
-            TrcPose2D endGridCell = adjustGridCellCenter(poseToGridCell(endPoint));
-            TrcPose2D intermediateGridCell = getIntermediateGridCell(startGridCell, endGridCell);
-            TrcPathBuilder pathBuilder = new TrcPathBuilder(robotPose, false).append(gridCellToPose(startGridCell));
+            TrcPath path;
 
-            if (intermediateGridCell != null)
+            if (pathPlanner != null)
             {
-                pathBuilder.append(gridCellToPose(intermediateGridCell));
+                // Plan in the planner frame and convert the path back to the drive base field frame.
+                path = plannerFieldOrigin == null? pathPlanner.planPath(robotPose, endPoint):
+                    pathPlanner.planPath(
+                        plannerFieldOrigin.addRelativePose(robotPose), plannerFieldOrigin.addRelativePose(endPoint));
+                if (path == null)
+                {
+                    if (msgTracer != null)
+                    {
+                        msgTracer.traceWarn(funcName, "EndPoint=%s is not reachable.", endPoint);
+                    }
+                    return;
+                }
+
+                if (plannerFieldOrigin != null)
+                {
+                    path = path.relativeTo(plannerFieldOrigin);
+                }
+                path = path.relativeTo(robotPose);
             }
+            else
+            {
+                TrcPose2D startGridCell = adjustGridCellCenter(poseToGridCell(robotPose));
+                TrcPose2D endGridCell = adjustGridCellCenter(poseToGridCell(endPoint));
+                TrcPose2D intermediateGridCell = getIntermediateGridCell(startGridCell, endGridCell);
+                TrcPathBuilder pathBuilder =
+                    new TrcPathBuilder(robotPose, false).append(gridCellToPose(startGridCell));
 
-            pathBuilder.append(gridCellToPose(endGridCell)).append(endPoint);
-            TrcPath path = pathBuilder.toRelativeStartPath();
+                if (intermediateGridCell != null)
+                {
+                    pathBuilder.append(gridCellToPose(intermediateGridCell));
+                }
+
+                pathBuilder.append(gridCellToPose(endGridCell)).append(endPoint);
+                path = pathBuilder.toRelativeStartPath();
+            }
 
             if (msgTracer != null)
             {
@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import java.util.Arrays;
+
+/**
+ * This class implements an any-angle (Theta*) path planner over a TrcOccupancyGrid. The robot is modeled as a circle
+ * with the given radius and the grid clearance (distance transform) is used to keep the robot away from obstacles.
+ * Cells with less clearance than the robot radius are not forbidden, they are heavily penalized, so that the planner
+ * can still get the robot out of a tight spot (e.g. parked against the backdrop) or into it. The resulting grid path
+ * is shortened by line of sight and returned as a TrcPath in field coordinates.
+ * <p>
+ * All search state is kept in primitive arrays allocated once with the planner and the open set is a binary heap of
+ * cell indices. The arrays are invalidated by bumping a search generation number instead of being cleared, so a plan
+ * on a typical field grid takes a few milliseconds and does not create garbage other than the resulting path. This
+ * class is not thread-safe, use one planner per thread.
+ */
+public class TrcGridPathPlanner
+{
+    private static final String moduleName = "TrcGridPathPlanner";
+    private static final TrcDbgTrace globalTracer = TrcDbgTrace.getGlobalTracer();
+    private static final boolean debugEnabled = false;
+
+    private static final int[] NEIGHBOR_COL = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] NEIGHBOR_ROW = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final double DIAGONAL = Math.sqrt(2.0);
+
+    private final TrcOccupancyGrid grid;
+    private final int numCols;
+    private final int numRows;
+    private final float[] gScore;
+    private final float[] fScore;
+    private final int[] parent;
+    private final int[] generation;
+    private final boolean[] closed;
+    private final int[] heap;
+    private final int[] heapPos;
+    private final int[] pathCells;
+    private int heapSize = 0;
+    private int currGeneration = 0;
+    private int goalCol, goalRow;
+    private double robotRadius;
+    private double clearancePenalty = 10.0;
+    private boolean anyAngle = true;
+    private double lastPlanTime = 0.0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param grid specifies the occupancy grid to plan on.
+     * @param robotRadius specifies the radius of the circle enclosing the robot in field units.
+     */
+    public TrcGridPathPlanner(TrcOccupancyGrid grid, double robotRadius)
+    {
+        int numCells;
+
+        this.grid = grid;
+        this.robotRadius = robotRadius;
+        numCols = grid.getNumCols();
+        numRows = grid.getNumRows();
+        numCells = numCols*numRows;
+        gScore = new float[numCells];
+        fScore = new float[numCells];
+        parent = new int[numCells];
+        generation = new int[numCells];
+        closed = new boolean[numCells];
+        heap = new int[numCells];
+        heapPos = new int[numCells];
+        pathCells = new int[numCells];
+    }   //TrcGridPathPlanner
+
+    /**
+     * This method returns the occupancy grid of the planner.
+     *
+     * @return occupancy grid.
+     */
+    public TrcOccupancyGrid getGrid()
+    {
+        return grid;
+    }   //getGrid
+
+    /**
+     * This method sets the robot radius.
+     *
+     * @param robotRadius specifies the radius of the circle enclosing the robot in field units.
+     */
+    public void setRobotRadius(double robotRadius)
+    {
+        this.robotRadius = robotRadius;
+    }   //setRobotRadius
+
+    /**
+     * This method sets the cost multiplier for driving through cells with less clearance than the robot radius. A
+     * cell with no clearance at all costs (1 + penalty) times a free cell.
+     *
+     * @param penalty specifies the clearance penalty.
+     */
+    public void setClearancePenalty(double penalty)
+    {
+        this.clearancePenalty = penalty;
+    }   //setClearancePenalty
+
+    /**
+     * This method enables/disables any-angle (Theta*) search. When disabled, the planner runs a plain 8-connected A*
+     * and only shortens the resulting path afterwards.
+     *
+     * @param enabled specifies true to enable any-angle search, false otherwise.
+     */
+    public void setAnyAngleEnabled(boolean enabled)
+    {
+        this.anyAngle = enabled;
+    }   //setAnyAngleEnabled
+
+    /**
+     * This method returns the time spent by the last call to planPath.
+     *
+     * @return planning time in seconds.
+     */
+    public double getLastPlanTime()
+    {
+        return lastPlanTime;
+    }   //getLastPlanTime
+
+    /**
+     * This method plans a collision-free path from the start pose to the end pose. The intermediate waypoints have
+     * the heading of the end pose so a holonomic robot turns to the final heading as it drives.
+     *
+     * @param startPose specifies the start pose in field coordinates.
+     * @param endPose specifies the end pose in field coordinates.
+     * @return path in field coordinates starting at startPose, null if the end pose is not reachable.
+     */
+    public TrcPath planPath(TrcPose2D startPose, TrcPose2D endPose)
+    {
+        final String funcName = "planPath";
+        double startTime = TrcTimer.getCurrentTime();
+        int startCell = grid.getIndex(grid.getCol(startPose.x), grid.getRow(startPose.y));
+        int goalCell = grid.getIndex(grid.getCol(endPose.x), grid.getRow(endPose.y));
+        TrcPath path = null;
+        int numPathCells = search(startCell, goalCell);
+
+        if (numPathCells > 0)
+        {
+            TrcPathBuilder pathBuilder = new TrcPathBuilder(startPose, false);
+            //
+            // The start and goal cells are replaced by the exact start and end poses. Greedily shortcut the
+            // remaining cell path by line of sight.
+            //
+            int from = 0;
+            while (from < numPathCells - 1)
+            {
+                int to = numPathCells - 1;
+
+                while (to > from + 1 && !grid.isLineClear(pathCells[from], pathCells[to], robotRadius))
+                {
+                    to--;
+                }
+
+                if (to < numPathCells - 1)
+                {
+                    int col = pathCells[to] % numCols;
+                    int row = pathCells[to] / numCols;
+
+                    pathBuilder.append(
+                        new TrcPose2D(grid.getCellCenterX(col), grid.getCellCenterY(row), endPose.angle));
+                }
+                from = to;
+            }
+            pathBuilder.append(endPose.clone());
+            path = pathBuilder.toPath();
+        }
+        lastPlanTime = TrcTimer.getCurrentTime() - startTime;
+
+        if (debugEnabled)
+        {
+            globalTracer.traceInfo(
+                funcName, "start=%s, end=%s, planTime=%.3f, path=%s", startPose, endPose, lastPlanTime, path);
+        }
+
+        return path;
+    }   //planPath
+
+    /**
+     * This method runs the search from the start cell to the goal cell.
+     *
+     * @param startCell specifies the start cell index.
+     * @param goalCell specifies the goal cell index.
+     * @return number of cells in the resulting path stored in pathCells, 0 if the goal is not reachable.
+     */
+    private int search(int startCell, int goalCell)
+    {
+        currGeneration++;
+        if (currGeneration == 0)
+        {
+            // Generation wrapped around, the stale marks can no longer be told apart so really clear them.
+            Arrays.fill(generation, 0);
+            currGeneration = 1;
+        }
+        heapSize = 0;
+        goalCol = goalCell % numCols;
+        goalRow = goalCell / numCols;
+
+        if (grid.isOccupied(goalCell))
+        {
+            return 0;
+        }
+
+        visit(startCell);
+        gScore[startCell] = 0.0f;
+        parent[startCell] = startCell;
+        heapPush(startCell, (float) heuristic(startCell));
+
+        while (heapSize > 0)
+        {
+            int cell = heapPop();
+
+            if (cell == goalCell)
+            {
+                return extractPath(startCell, goalCell);
+            }
+            closed[cell] = true;
+
+            int col = cell % numCols;
+            int row = cell / numCols;
+            for (int i = 0; i < NEIGHBOR_COL.length; i++)
+            {
+                int nCol = col + NEIGHBOR_COL[i];
+                int nRow = row + NEIGHBOR_ROW[i];
+
+                if (nCol < 0 || nCol >= numCols || nRow < 0 || nRow >= numRows)
+                {
+                    continue;
+                }
+
+                int neighbor = grid.getIndex(nCol, nRow);
+                if (grid.isOccupied(neighbor))
+                {
+                    continue;
+                }
+
+                boolean diagonal = NEIGHBOR_COL[i] != 0 && NEIGHBOR_ROW[i] != 0;
+                if (diagonal &&
+                    (grid.isOccupied(grid.getIndex(nCol, row)) || grid.isOccupied(grid.getIndex(col, nRow))))
+                {
+                    // Don't cut obstacle corners.
+                    continue;
+                }
+
+                if (generation[neighbor] != currGeneration)
+                {
+                    visit(neighbor);
+                }
+                else if (closed[neighbor])
+                {
+                    continue;
+                }
+
+                int from = cell;
+                double g;
+                int grandParent = parent[cell];
+                if (anyAngle && grandParent != cell && grid.isLineClear(grandParent, neighbor, robotRadius))
+                {
+                    // Theta*: connect directly to the parent of the current cell if it is in line of sight.
+                    from = grandParent;
+                    g = gScore[grandParent] + distance(grandParent, neighbor);
+                }
+                else
+                {
+                    g = gScore[cell] + (diagonal? DIAGONAL: 1.0)*grid.getCellSize()*cellCost(neighbor);
+                }
+
+                if (g < gScore[neighbor])
+                {
+                    gScore[neighbor] = (float) g;
+                    parent[neighbor] = from;
+                    float f = (float) (g + heuristic(neighbor));
+                    if (heapPos[neighbor] >= 0)
+                    {
+                        fScore[neighbor] = f;
+                        heapSiftUp(heapPos[neighbor]);
+                    }
+                    else
+                    {
+                        heapPush(neighbor, f);
+                    }
+                }
+            }
+        }
+
+        return 0;
+    }   //search
+
+    /**
+     * This method initializes the search state of a cell for the current search.
+     *
+     * @param cell specifies the cell index.
+     */
+    private void visit(int cell)
+    {
+        generation[cell] = currGeneration;
+        gScore[cell] = Float.MAX_VALUE;
+        closed[cell] = false;
+        heapPos[cell] = -1;
+    }   //visit
+
+    /**
+     * This method walks the parent links back from the goal and stores the cell path in forward order.
+     *
+     * @param startCell specifies the start cell index.
+     * @param goalCell specifies the goal cell index.
+     * @return number of cells in the path.
+     */
+    private int extractPath(int startCell, int goalCell)
+    {
+        int count = 0;
+
+        for (int cell = goalCell; ; cell = parent[cell])
+        {
+            pathCells[count++] = cell;
+            if (cell == startCell)
+            {
+                break;
+            }
+        }
+
+        for (int i = 0, j = count - 1; i < j; i++, j--)
+        {
+            int temp = pathCells[i];
+            pathCells[i] = pathCells[j];
+            pathCells[j] = temp;
+        }
+
+        return count;
+    }   //extractPath
+
+    /**
+     * This method returns the cost multiplier of driving through a cell.
+     *
+     * @param cell specifies the cell index.
+     * @return cost multiplier, 1.0 if the cell has enough clearance for the robot.
+     */
+    private double cellCost(int cell)
+    {
+        double clearance = grid.getClearance(cell);
+
+        return clearance >= robotRadius? 1.0: 1.0 + clearancePenalty*(robotRadius - clearance)/robotRadius;
+    }   //cellCost
+
+    /**
+     * This method returns the straight line distance between two cell centers.
+     *
+     * @param cell1 specifies the index of the first cell.
+     * @param cell2 specifies the index of the second cell.
+     * @return distance in field units.
+     */
+    private double distance(int cell1, int cell2)
+    {
+        return TrcUtil.magnitude(cell1 % numCols - cell2 % numCols, cell1 / numCols - cell2 / numCols)*
+               grid.getCellSize();
+    }   //distance
+
+    /**
+     * This method returns the straight line distance from a cell to the goal, which never overestimates the cost.
+     *
+     * @param cell specifies the cell index.
+     * @return heuristic cost to the goal.
+     */
+    private double heuristic(int cell)
+    {
+        return TrcUtil.magnitude(cell % numCols - goalCol, cell / numCols - goalRow)*grid.getCellSize();
+    }   //heuristic
+
+    /**
+     * This method adds a cell to the open set.
+     *
+     * @param cell specifies the cell index.
+     * @param f specifies the estimated total cost through the cell.
+     */
+    private void heapPush(int cell, float f)
+    {
+        fScore[cell] = f;
+        heap[heapSize] = cell;
+        heapPos[cell] = heapSize;
+        heapSiftUp(heapSize++);
+    }   //heapPush
+
+    /**
+     * This method removes the cell with the lowest estimated total cost from the open set.
+     *
+     * @return cell index.
+     */
+    private int heapPop()
+    {
+        int top = heap[0];
+
+        heapPos[top] = -1;
+        heapSize--;
+        if (heapSize > 0)
+        {
+            heap[0] = heap[heapSize];
+            heapPos[heap[0]] = 0;
+            heapSiftDown(0);
+        }
+
+        return top;
+    }   //heapPop
+
+    /**
+     * This method moves a heap entry up until the heap order is restored.
+     *
+     * @param pos specifies the heap position of the entry.
+     */
+    private void heapSiftUp(int pos)
+    {
+        int cell = heap[pos];
+        float f = fScore[cell];
+
+        while (pos > 0)
+        {
+            int parentPos = (pos - 1) >> 1;
+            int parentCell = heap[parentPos];
+
+            if (fScore[parentCell] <= f)
+            {
+                break;
+            }
+            heap[pos] = parentCell;
+            heapPos[parentCell] = pos;
+            pos = parentPos;
+        }
+        heap[pos] = cell;
+        heapPos[cell] = pos;
+    }   //heapSiftUp
+
+    /**
+     * This method moves a heap entry down until the heap order is restored.
+     *
+     * @param pos specifies the heap position of the entry.
+     */
+    private void heapSiftDown(int pos)
+    {
+        int cell = heap[pos];
+        float f = fScore[cell];
+
+        for (;;)
+        {
+            int child = 2*pos + 1;
+
+            if (child >= heapSize)
+            {
+                break;
+            }
+
+            if (child + 1 < heapSize && fScore[heap[child + 1]] < fScore[heap[child]])
+            {
+                child++;
+            }
+
+            if (fScore[heap[child]] >= f)
+            {
+                break;
+            }
+            heap[pos] = heap[child];
+            heapPos[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = cell;
+        heapPos[cell] = pos;
+    }   //heapSiftDown
+
+}   //class TrcGridPathPlanner
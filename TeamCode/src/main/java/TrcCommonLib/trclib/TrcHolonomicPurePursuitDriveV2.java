@@ -22,7 +22,7 @@
 
 package TrcCommonLib.trclib;
 
-import org.apache.commons.math3.linear.RealVector;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class implements a platform independent Pure Pursuit drive for holonomic robots.
@@ -46,11 +46,31 @@ import org.apache.commons.math3.linear.RealVector;
  * Technically, we could impose limits on the turning radius as a function of robot velocity and max rot vel, but that's
  * unnecessarily complicated, in my view. Additionally, it does point injection instead of interpolation, and path
  * smoothing, which we don't do, since a nonzero proximity radius will naturally smooth it anyway.
+ * <p>
+ * While a path is being followed, a replacement path can be handed over from another thread with replacePath (see
+ * TrcReplanner). The replacement is published through an atomic reference and picked up at the start of the next
+ * drive cycle, so the follower switches paths mid-stride without stopping or resetting its controllers.
  */
 public class TrcHolonomicPurePursuitDriveV2
 {
     private static final boolean debugEnabled = false;
 
+    /**
+     * This class holds a replacement path with its reference pose, published atomically to the drive task.
+     */
+    private static class PendingPath
+    {
+        final TrcPath path;
+        final TrcPose2D referencePose;
+
+        PendingPath(TrcPath path, TrcPose2D referencePose)
+        {
+            this.path = path;
+            this.referencePose = referencePose;
+        }   //PendingPath
+
+    }   //class PendingPath
+
     private final String instanceName;
     private final TrcDriveBase driveBase;
     private final TrcTaskMgr.TaskObject driveTaskObj;
@@ -59,6 +79,7 @@ public class TrcHolonomicPurePursuitDriveV2
     private volatile double posTolerance; // Volatile so it can be changed at runtime
     private volatile double proximityRadius; // Volatile so it can be changed at runtime
     private TrcPath path;
+    private final AtomicReference<PendingPath> pendingPath = new AtomicReference<>();
     private int pathIndex = 1;
     private TrcEvent onFinishedEvent;
     private double timedOutTime;
@@ -68,6 +89,10 @@ public class TrcHolonomicPurePursuitDriveV2
     private double moveOutputLimit = Double.POSITIVE_INFINITY;
     private double rotOutputLimit = Double.POSITIVE_INFINITY;
     private final double accelFF; // acceleration feedforward
+    // Buffers reused by the drive task so the control loop doesn't allocate.
+    private final TrcPose2D robotPoseBuffer = new TrcPose2D();
+    private final TrcWaypoint followingWaypoint = new TrcWaypoint(0.0, new TrcPose2D(), 0.0, 0.0, 0.0, 0.0);
+    private final TrcWaypoint targetWaypoint = new TrcWaypoint(0.0, new TrcPose2D(), 0.0, 0.0, 0.0, 0.0);
 
     /**
      * Constructor: Create an instance of the object.
@@ -352,6 +377,32 @@ public class TrcHolonomicPurePursuitDriveV2
         start(null, 0.0, startingPose, incrementalPath, poses);
     }   //start
 
+    /**
+     * This method replaces the path being followed without stopping. It can be called from any thread and does not
+     * block, the new path is picked up by the next drive cycle. The timeout, the completion event and the state of
+     * the velocity and turn controllers are kept, so the robot continues with its current velocity. The path should
+     * be profiled to start at the current velocity. If another replacement is still pending, it is superseded.
+     *
+     * @param path specifies the new path, relative to referencePose (i.e. starting at (0,0)).
+     * @param referencePose specifies the field pose the new path is relative to.
+     * @return true if the path is accepted, false if the follower is not active.
+     */
+    public boolean replacePath(TrcPath path, TrcPose2D referencePose)
+    {
+        if (path == null || path.getSize() == 0)
+        {
+            throw new IllegalArgumentException("Path cannot be null or empty!");
+        }
+
+        boolean accepted = isActive();
+        if (accepted)
+        {
+            pendingPath.set(new PendingPath(path, referencePose.clone()));
+        }
+
+        return accepted;
+    }   //replacePath
+
     /**
      * Checks if the robot is currently following a path.
      *
@@ -393,6 +444,7 @@ public class TrcHolonomicPurePursuitDriveV2
      */
     private synchronized void stop()
     {
+        pendingPath.set(null);
         driveTaskObj.unregisterTask();
         driveBase.stop();
     }   //stop
@@ -410,7 +462,18 @@ public class TrcHolonomicPurePursuitDriveV2
     private synchronized void driveTask(
         TrcTaskMgr.TaskType taskType, TrcRobot.RunMode runMode, boolean slowPeriodicLoop)
     {
-        TrcPose2D pose = driveBase.getPositionRelativeTo(referencePose, false);
+        PendingPath newPath = pendingPath.getAndSet(null);
+        if (newPath != null)
+        {
+            // Swap in the replacement path, keeping the controller states so the robot does not slow down.
+            path = newPath.path;
+            referencePose = newPath.referencePose;
+            // The new path is driven in the frame of its reference pose, field-oriented drive must follow it.
+            startHeading = referencePose.angle;
+            pathIndex = 1;
+        }
+
+        TrcPose2D pose = driveBase.getPositionRelativeTo(referencePose, false, robotPoseBuffer);
         TrcWaypoint followingPoint = getFollowingPoint(pose);
         TrcWaypoint targetPoint = getTargetPointDistParameterized(pose);
 
@@ -441,7 +504,7 @@ public class TrcHolonomicPurePursuitDriveV2
         // If we have timed out or finished, stop the operation.
 
         boolean timedOut = TrcTimer.getCurrentTime() >= timedOutTime;
-        boolean posOnTarget = pose.distanceTo(path.getLastWaypoint().getPositionPose()) <= posTolerance;
+        boolean posOnTarget = pose.distanceTo(path.getLastWaypoint().pose) <= posTolerance;
         boolean headingOnTarget = turnPidCtrl.isOnTarget();
         boolean velOnTarget = velocity <= velTolerance;
         if (timedOut || (posOnTarget && headingOnTarget && velOnTarget))
@@ -459,25 +522,27 @@ public class TrcHolonomicPurePursuitDriveV2
     }   //driveTask
 
     /**
-     * Interpolates a waypoint that's weighted between two given waypoints.
+     * Interpolates a waypoint that's weighted between two given waypoints and stores it in the given waypoint.
      *
      * @param point1 specifies the start point of the path segment.
      * @param point2 specifies the end point of the path segment.
      * @param weight specifies the weight between the two provided points.
+     * @param result specifies the waypoint to store the interpolated waypoint.
      * @return weighted interpolated waypoint.
      */
-    private TrcWaypoint interpolate(TrcWaypoint point1, TrcWaypoint point2, double weight)
+    private TrcWaypoint interpolate(TrcWaypoint point1, TrcWaypoint point2, double weight, TrcWaypoint result)
     {
-        double timestep = interpolate(point1.timeStep, point2.timeStep, weight);
-        double x = interpolate(point1.pose.x, point2.pose.x, weight);
-        double y = interpolate(point1.pose.y, point2.pose.y, weight);
-        double position = interpolate(point1.encoderPosition, point2.encoderPosition, weight);
-        double velocity = Math.sqrt(interpolate(Math.pow(point1.velocity, 2), Math.pow(point2.velocity, 2), weight));
-        double acceleration = point1.acceleration;//interpolate(point1.acceleration, point2.acceleration, weight);
-        double jerk = point1.jerk;//interpolate(point1.jerk, point2.jerk, weight);
-        double heading = interpolate(point1.pose.angle, warpSpace.getOptimizedTarget(point2.pose.angle, point1.pose.angle),
-            weight);
-        return new TrcWaypoint(timestep, new TrcPose2D(x, y, heading), position, velocity, acceleration, jerk);
+        result.timeStep = interpolate(point1.timeStep, point2.timeStep, weight);
+        result.pose.x = interpolate(point1.pose.x, point2.pose.x, weight);
+        result.pose.y = interpolate(point1.pose.y, point2.pose.y, weight);
+        result.pose.angle = interpolate(
+            point1.pose.angle, warpSpace.getOptimizedTarget(point2.pose.angle, point1.pose.angle), weight);
+        result.encoderPosition = interpolate(point1.encoderPosition, point2.encoderPosition, weight);
+        result.velocity = Math.sqrt(
+            interpolate(point1.velocity*point1.velocity, point2.velocity*point2.velocity, weight));
+        result.acceleration = point1.acceleration;//interpolate(point1.acceleration, point2.acceleration, weight);
+        result.jerk = point1.jerk;//interpolate(point1.jerk, point2.jerk, weight);
+        return result;
     }   //interpolate
 
     /**
@@ -505,21 +570,19 @@ public class TrcHolonomicPurePursuitDriveV2
      * @param prev specifies the start point of the path segment.
      * @param point specifies the end point of the path segment.
      * @param robotPose specifies the robot's position.
-     * @return calculated waypoint.
+     * @return calculated waypoint, valid until the next call.
      */
     private TrcWaypoint getFollowingPointOnSegment(TrcWaypoint prev, TrcWaypoint point, TrcPose2D robotPose)
     {
         // Find intersection of path segment with the proximity circle of the robot.
-        RealVector start = prev.getPositionPose().toPosVector();
-        RealVector end = point.getPositionPose().toPosVector();
-        RealVector robot = robotPose.toPosVector();
-
-        RealVector startToEnd = end.subtract(start);
-        RealVector robotToStart = start.subtract(robot);
+        double startToEndX = point.pose.x - prev.pose.x;
+        double startToEndY = point.pose.y - prev.pose.y;
+        double robotToStartX = prev.pose.x - robotPose.x;
+        double robotToStartY = prev.pose.y - robotPose.y;
         // Solve quadratic formula
-        double a = startToEnd.dotProduct(startToEnd);
-        double b = 2 * robotToStart.dotProduct(startToEnd);
-        double c = robotToStart.dotProduct(robotToStart) - proximityRadius * proximityRadius;
+        double a = startToEndX * startToEndX + startToEndY * startToEndY;
+        double b = 2 * (robotToStartX * startToEndX + robotToStartY * startToEndY);
+        double c = robotToStartX * robotToStartX + robotToStartY * robotToStartY - proximityRadius * proximityRadius;
 
         double discriminant = b * b - 4 * a * c;
         if (discriminant < 0)
@@ -552,31 +615,36 @@ public class TrcHolonomicPurePursuitDriveV2
                 return null;
             }
 
-            return interpolate(prev, point, t);
+            return interpolate(prev, point, t, followingWaypoint);
         }
     }   //getFollowingPointOnSegment
 
     private TrcWaypoint getTargetPointDistParameterized(TrcPose2D robotPose)
     {
-        RealVector robotPos = robotPose.toPosVector();
         double closestDist = Double.MAX_VALUE;
-        TrcWaypoint closestPoint = null;
+        int closestIndex = -1;
+        double closestT = 0.0;
+        // Find the closest point on the path first and only interpolate the waypoint for that one.
         for (int i = 0; i < path.getSize() - 1; i++)
         {
-            RealVector start = path.getWaypoint(i).getPositionPose().toPosVector();
-            RealVector startToEnd = path.getWaypoint(i + 1).getPositionPose().toPosVector().subtract(start);
-            RealVector startToRobot = robotPos.subtract(start);
-            double t = startToRobot.dotProduct(startToEnd) / Math.pow(startToEnd.getNorm(), 2);
+            TrcPose2D start = path.getWaypoint(i).pose;
+            TrcPose2D end = path.getWaypoint(i + 1).pose;
+            double startToEndX = end.x - start.x;
+            double startToEndY = end.y - start.y;
+            double t = ((robotPose.x - start.x) * startToEndX + (robotPose.y - start.y) * startToEndY) /
+                       (startToEndX * startToEndX + startToEndY * startToEndY);
             t = TrcUtil.clipRange(t, 0, 1);
-            TrcWaypoint point = interpolate(path.getWaypoint(i), path.getWaypoint(i + 1), t);
-            double dist = robotPos.getDistance(point.getPositionPose().toPosVector());
+            double dist = TrcUtil.magnitude(
+                start.x + t * startToEndX - robotPose.x, start.y + t * startToEndY - robotPose.y);
             if (dist < closestDist)
             {
                 closestDist = dist;
-                closestPoint = point;
+                closestIndex = i;
+                closestT = t;
             }
         }
-        return closestPoint;
+        return closestIndex < 0? null:
+            interpolate(path.getWaypoint(closestIndex), path.getWaypoint(closestIndex + 1), closestT, targetWaypoint);
     }   //getTargetPointDistParameterized
 
     /**
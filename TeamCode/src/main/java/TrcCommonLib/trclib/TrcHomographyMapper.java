@@ -90,7 +90,9 @@ public class TrcHomographyMapper
 
     }   //class Rectangle
 
-    private final Mat homographyMatrix;
+    // Row-major 3x3 homography matrix and its inverse, cached so that mapping a point does not touch the Mat.
+    private final double[] homography = new double[9];
+    private final double[] inverseHomography = new double[9];
 
     /**
      * Constructor: Create an instance of the object.
@@ -127,10 +129,14 @@ public class TrcHomographyMapper
         dstPoints.fromList(dstList);
 
         // Find the 3x3 homography matrix.
-        homographyMatrix = Calib3d.findHomography(srcPoints, dstPoints);
+        Mat homographyMatrix = Calib3d.findHomography(srcPoints, dstPoints);
         // release MatOfPoint2f to prevent memory leak.
         srcPoints.release();
         dstPoints.release();
+        // findHomography returns a CV_64F matrix, copy it out once and release the native memory.
+        homographyMatrix.get(0, 0, homography);
+        homographyMatrix.release();
+        invert(homography, inverseHomography);
     }   //TrcHomographyMapper
 
     /**
@@ -153,55 +159,159 @@ public class TrcHomographyMapper
      */
     public Point mapPoint(Point srcPoint)
     {
-        double[][] pmat = new double[3][1];
-        pmat[0][0] = srcPoint.x;
-        pmat[1][0] = srcPoint.y;
-        pmat[2][0] = 1.0;
+        return mapPoint(srcPoint.x, srcPoint.y, new Point());
+    }   //mapPoint
 
-        double[][] h = new double[3][3];
+    /**
+     * This method maps a source point to the destination point using the homography matrix. It does not allocate.
+     *
+     * @param srcX specifies the source point X.
+     * @param srcY specifies the source point Y.
+     * @param result specifies the point to hold the mapped destination point.
+     * @return result.
+     */
+    public Point mapPoint(double srcX, double srcY, Point result)
+    {
+        return transform(homography, srcX, srcY, result);
+    }   //mapPoint
 
-        for (int i = 0; i < homographyMatrix.rows(); i++)
-        {
-            for (int j = 0; j < homographyMatrix.cols(); j++)
-            {
-                h[i][j] = homographyMatrix.get(i, j)[0];
-            }
-        }
+    /**
+     * This method maps an array of source points to destination points using the homography matrix. It does not
+     * allocate. The destination arrays can be the same as the source arrays to map the points in place.
+     *
+     * @param srcX specifies the array of source point X.
+     * @param srcY specifies the array of source point Y.
+     * @param dstX specifies the array to hold the mapped destination point X.
+     * @param dstY specifies the array to hold the mapped destination point Y.
+     * @param count specifies the number of points to map.
+     */
+    public void mapPoints(double[] srcX, double[] srcY, double[] dstX, double[] dstY, int count)
+    {
+        transform(homography, srcX, srcY, dstX, dstY, count);
+    }   //mapPoints
+
+    /**
+     * This method maps a destination point back to the source point using the inverse homography matrix (e.g. to
+     * project a robot world coordinate into the camera image).
+     *
+     * @param dstPoint specifies the destination point.
+     * @return the mapped source point.
+     */
+    public Point inverseMapPoint(Point dstPoint)
+    {
+        return inverseMapPoint(dstPoint.x, dstPoint.y, new Point());
+    }   //inverseMapPoint
+
+    /**
+     * This method maps a destination point back to the source point using the inverse homography matrix. It does
+     * not allocate.
+     *
+     * @param dstX specifies the destination point X.
+     * @param dstY specifies the destination point Y.
+     * @param result specifies the point to hold the mapped source point.
+     * @return result.
+     */
+    public Point inverseMapPoint(double dstX, double dstY, Point result)
+    {
+        return transform(inverseHomography, dstX, dstY, result);
+    }   //inverseMapPoint
 
-        double[][] result = multiply(h, pmat);
+    /**
+     * This method maps an array of destination points back to source points using the inverse homography matrix.
+     * It does not allocate. The source arrays can be the same as the destination arrays to map the points in place.
+     *
+     * @param dstX specifies the array of destination point X.
+     * @param dstY specifies the array of destination point Y.
+     * @param srcX specifies the array to hold the mapped source point X.
+     * @param srcY specifies the array to hold the mapped source point Y.
+     * @param count specifies the number of points to map.
+     */
+    public void inverseMapPoints(double[] dstX, double[] dstY, double[] srcX, double[] srcY, int count)
+    {
+        transform(inverseHomography, dstX, dstY, srcX, srcY, count);
+    }   //inverseMapPoints
+
+    /**
+     * This method applies a 3x3 projective transform to a point. The result is scaled by the Z-axis.
+     *
+     * @param h specifies the row-major 3x3 transform matrix.
+     * @param x specifies the point X.
+     * @param y specifies the point Y.
+     * @param result specifies the point to hold the transformed point.
+     * @return result.
+     */
+    private static Point transform(double[] h, double x, double y, Point result)
+    {
+        double w = 1.0/(h[6]*x + h[7]*y + h[8]);
+
+        result.x = (h[0]*x + h[1]*y + h[2])*w;
+        result.y = (h[3]*x + h[4]*y + h[5])*w;
+
+        return result;
+    }   //transform
 
-        // Results need to be scaled by the Z-axis.
-        for (int i = 0; i < result.length; i++)
+    /**
+     * This method applies a 3x3 projective transform to an array of points. The result is scaled by the Z-axis.
+     *
+     * @param h specifies the row-major 3x3 transform matrix.
+     * @param inX specifies the array of point X.
+     * @param inY specifies the array of point Y.
+     * @param outX specifies the array to hold the transformed point X.
+     * @param outY specifies the array to hold the transformed point Y.
+     * @param count specifies the number of points to transform.
+     */
+    private static void transform(double[] h, double[] inX, double[] inY, double[] outX, double[] outY, int count)
+    {
+        // Copy the matrix to locals so the loop works out of registers.
+        double h0 = h[0], h1 = h[1], h2 = h[2];
+        double h3 = h[3], h4 = h[4], h5 = h[5];
+        double h6 = h[6], h7 = h[7], h8 = h[8];
+
+        for (int i = 0; i < count; i++)
         {
-            result[i][0] *= (1.0 / result[2][0]);
-        }
+            double x = inX[i];
+            double y = inY[i];
+            double w = 1.0/(h6*x + h7*y + h8);
 
-        return new Point(result[0][0], result[1][0]);
-    }   //mapPoint
+            outX[i] = (h0*x + h1*y + h2)*w;
+            outY[i] = (h3*x + h4*y + h5)*w;
+        }
+    }   //transform
 
     /**
-     * This method multiplies two matrixes. The multiply in Core.gemm is not functioning correctly for the job.
+     * This method inverts a 3x3 matrix using its adjugate. A homography is only defined up to scale, so the inverse
+     * is normalized to have a unit bottom right element when possible.
      *
-     * @param firstMatrix specifies the first matrix for the multiplication.
-     * @param secondMatrix specifies the second matrix for the multiplication.
-     * @return product matrix.
+     * @param m specifies the row-major 3x3 matrix to invert.
+     * @param inverse specifies the array to hold the row-major inverse matrix.
      */
-    private double[][] multiply(double[][] firstMatrix, double[][] secondMatrix)
+    private static void invert(double[] m, double[] inverse)
     {
-        double[][] product = new double[firstMatrix.length][secondMatrix[0].length];
+        double c00 = m[4]*m[8] - m[5]*m[7];
+        double c01 = m[5]*m[6] - m[3]*m[8];
+        double c02 = m[3]*m[7] - m[4]*m[6];
+        double det = m[0]*c00 + m[1]*c01 + m[2]*c02;
 
-        for (int i = 0; i < firstMatrix.length; i++)
+        if (det == 0.0)
         {
-            for (int j = 0; j < secondMatrix[0].length; j++)
-            {
-                for (int k = 0; k < firstMatrix[0].length; k++)
-                {
-                    product[i][j] += firstMatrix[i][k] * secondMatrix[k][j];
-                }
-            }
+            throw new IllegalArgumentException("Homography matrix is singular.");
         }
 
-        return product;
-    }   //multiply
+        inverse[0] = c00;
+        inverse[1] = m[2]*m[7] - m[1]*m[8];
+        inverse[2] = m[1]*m[5] - m[2]*m[4];
+        inverse[3] = c01;
+        inverse[4] = m[0]*m[8] - m[2]*m[6];
+        inverse[5] = m[2]*m[3] - m[0]*m[5];
+        inverse[6] = c02;
+        inverse[7] = m[1]*m[6] - m[0]*m[7];
+        inverse[8] = m[0]*m[4] - m[1]*m[3];
+
+        double scale = inverse[8] != 0.0? 1.0/inverse[8]: 1.0/det;
+        for (int i = 0; i < inverse.length; i++)
+        {
+            inverse[i] *= scale;
+        }
+    }   //invert
 
 }   //class TrcHomographyMapper
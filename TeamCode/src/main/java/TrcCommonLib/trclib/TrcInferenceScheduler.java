@@ -0,0 +1,629 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package TrcCommonLib.trclib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class implements an adaptive inference scheduler for expensive object detectors such as neural networks.
+ * Instead of running inference on every frame, it runs inference every N frames and carries the detections forward
+ * in between with a cheap constant velocity tracker. N adapts to the measured inference latency (so that inference
+ * takes at most a given fraction of the frame time) and to the robot speed (so that the robot does not move or turn
+ * too far between inferences). Inference is also forced early if the robot has moved or turned too far since the
+ * last inference or the confidence of a tracked detection has decayed too much.
+ * <p>
+ * The scheduler keeps metrics on the fraction of frames inferred and on tracking drift, i.e. how far the carried
+ * forward detections were from the fresh detections at the next inference.
+ * <p>
+ * startFrame and inferenceDone must be called from the same thread (typically the vision thread). The metrics can be
+ * read from any thread.
+ */
+public class TrcInferenceScheduler
+{
+    /**
+     * This class contains the tuning parameters of the scheduler.
+     */
+    public static class Parameters
+    {
+        int minInterval = 1;
+        int maxInterval = 10;
+        double maxInferenceLoad = 0.5;
+        double maxTrackingDistance = 6.0;
+        double maxTrackingAngle = 10.0;
+        double minTrackingConfidence = 0.3;
+        double confidenceDecay = 0.9;
+        double minMatchOverlap = 0.3;
+        double velocitySmoothing = 0.5;
+
+        /**
+         * This method sets the range of the inference interval.
+         *
+         * @param minInterval specifies the minimum number of frames between inferences, 1 to allow every frame.
+         * @param maxInterval specifies the maximum number of frames between inferences.
+         * @return this object for chaining.
+         */
+        public Parameters setIntervalRange(int minInterval, int maxInterval)
+        {
+            this.minInterval = Math.max(1, minInterval);
+            this.maxInterval = Math.max(this.minInterval, maxInterval);
+            return this;
+        }   //setIntervalRange
+
+        /**
+         * This method sets the maximum fraction of the frame time to be spent on inference. The inference interval
+         * is lengthened until the average inference load is within this fraction.
+         *
+         * @param maxLoad specifies the maximum inference load (0.0 to 1.0).
+         * @return this object for chaining.
+         */
+        public Parameters setMaxInferenceLoad(double maxLoad)
+        {
+            this.maxInferenceLoad = maxLoad;
+            return this;
+        }   //setMaxInferenceLoad
+
+        /**
+         * This method sets how far the robot may move between inferences.
+         *
+         * @param maxDistance specifies the maximum distance traveled between inferences in drive base units.
+         * @param maxAngle specifies the maximum angle turned between inferences in degrees.
+         * @return this object for chaining.
+         */
+        public Parameters setMaxTrackingMotion(double maxDistance, double maxAngle)
+        {
+            this.maxTrackingDistance = maxDistance;
+            this.maxTrackingAngle = maxAngle;
+            return this;
+        }   //setMaxTrackingMotion
+
+        /**
+         * This method sets how the confidence of carried forward detections decays.
+         *
+         * @param decay specifies the confidence multiplier applied on every carried forward frame.
+         * @param minConfidence specifies the tracked confidence below which inference is forced.
+         * @return this object for chaining.
+         */
+        public Parameters setTrackingConfidence(double decay, double minConfidence)
+        {
+            this.confidenceDecay = decay;
+            this.minTrackingConfidence = minConfidence;
+            return this;
+        }   //setTrackingConfidence
+
+        /**
+         * This method sets the minimum overlap (intersection over union) for a fresh detection to be matched with a
+         * tracked detection of the same label.
+         *
+         * @param minOverlap specifies the minimum overlap (0.0 to 1.0).
+         * @return this object for chaining.
+         */
+        public Parameters setMinMatchOverlap(double minOverlap)
+        {
+            this.minMatchOverlap = minOverlap;
+            return this;
+        }   //setMinMatchOverlap
+
+        /**
+         * This method sets the smoothing of the tracked velocity between inferences.
+         *
+         * @param smoothing specifies the weight of the previous velocity estimate (0.0 to 1.0).
+         * @return this object for chaining.
+         */
+        public Parameters setVelocitySmoothing(double smoothing)
+        {
+            this.velocitySmoothing = smoothing;
+            return this;
+        }   //setVelocitySmoothing
+
+        /**
+         * This method returns the string form of all the parameters.
+         *
+         * @return string form of all the parameters.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(
+                Locale.US,
+                "interval=[%d,%d],maxLoad=%.2f,maxMotion=(%.1f,%.1f),confidence=(%.2f,%.2f),minOverlap=%.2f," +
+                "velSmoothing=%.2f",
+                minInterval, maxInterval, maxInferenceLoad, maxTrackingDistance, maxTrackingAngle, confidenceDecay,
+                minTrackingConfidence, minMatchOverlap, velocitySmoothing);
+        }   //toString
+
+    }   //class Parameters
+
+    /**
+     * This class contains a detection. Fresh detections are passed to inferenceDone, the scheduler then keeps them
+     * as tracks and moves them along with their estimated image velocity on carried forward frames.
+     */
+    public static class Track
+    {
+        public final String label;
+        public final Object source;
+        public double x, y, width, height;
+        public double confidence;
+        // Image velocity in pixels per second.
+        double xVel = 0.0, yVel = 0.0;
+        // Position of the last fresh detection, used for estimating velocity.
+        double detectedCenterX, detectedCenterY, detectedTime;
+        int carriedFrames = 0;
+
+        /**
+         * Constructor: Create an instance of the object.
+         *
+         * @param label specifies the object label.
+         * @param source specifies the detection this track is created from (e.g. the detector's result object),
+         *        can be null.
+         * @param x specifies the left edge of the detection in pixels.
+         * @param y specifies the top edge of the detection in pixels.
+         * @param width specifies the width of the detection in pixels.
+         * @param height specifies the height of the detection in pixels.
+         * @param confidence specifies the detection confidence.
+         */
+        public Track(String label, Object source, double x, double y, double width, double height, double confidence)
+        {
+            this.label = label;
+            this.source = source;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.confidence = confidence;
+        }   //Track
+
+        /**
+         * This method returns the number of frames this track has been carried forward since its last detection.
+         *
+         * @return number of carried forward frames.
+         */
+        public int getCarriedFrames()
+        {
+            return carriedFrames;
+        }   //getCarriedFrames
+
+        /**
+         * This method returns the string form of the track.
+         *
+         * @return string form of the track.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(
+                Locale.US, "{%s,x=%.0f,y=%.0f,w=%.0f,h=%.0f,conf=%.2f,vel=(%.0f,%.0f),carried=%d}",
+                label, x, y, width, height, confidence, xVel, yVel, carriedFrames);
+        }   //toString
+
+    }   //class Track
+
+    private final String instanceName;
+    private final Parameters params;
+    private final TrcDriveBase driveBase;
+    private final TrcPose2D robotVelocity = new TrcPose2D();
+    private TrcDbgTrace msgTracer = null;
+    private List<Track> tracks = new ArrayList<>();
+    // Scheduling state, only accessed by the vision thread.
+    private double lastFrameTime = 0.0;
+    private double lastInferenceTime = 0.0;
+    private boolean hasInferred = false;
+    private int framesSinceInference = 0;
+    private double distanceSinceInference = 0.0;
+    private double angleSinceInference = 0.0;
+    // Smoothed timing and metrics, guarded by this.
+    private double avgFramePeriod = 0.0;
+    private double avgInferenceTime = 0.0;
+    private int inferenceInterval;
+    private long totalFrames = 0;
+    private long inferredFrames = 0;
+    private long driftSamples = 0;
+    private double totalDrift = 0.0;
+    private double maxDrift = 0.0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param params specifies the scheduler parameters, null to use the defaults.
+     * @param driveBase specifies the drive base to get the robot speed from, null if robot motion is not considered.
+     */
+    public TrcInferenceScheduler(String instanceName, Parameters params, TrcDriveBase driveBase)
+    {
+        this.instanceName = instanceName;
+        this.params = params != null? params: new Parameters();
+        this.driveBase = driveBase;
+        this.inferenceInterval = this.params.minInterval;
+    }   //TrcInferenceScheduler
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method sets the message tracer for logging scheduling decisions.
+     *
+     * @param tracer specifies the tracer for logging messages, null to disable.
+     */
+    public synchronized void setMsgTracer(TrcDbgTrace tracer)
+    {
+        msgTracer = tracer;
+    }   //setMsgTracer
+
+    /**
+     * This method is called at the start of every frame to decide if inference should run on it. If not, the tracks
+     * are moved to their predicted positions for this frame and the caller should use getTracks() as the detections
+     * of the frame. If so, the caller must run inference and call inferenceDone with the fresh detections.
+     *
+     * @param timestamp specifies the frame capture time in seconds.
+     * @return true to run inference on this frame, false to carry the detections forward.
+     */
+    public boolean startFrame(double timestamp)
+    {
+        final String funcName = "startFrame";
+        double dt = lastFrameTime > 0.0? timestamp - lastFrameTime: 0.0;
+        double speed = 0.0;
+        double turnRate = 0.0;
+
+        lastFrameTime = timestamp;
+        framesSinceInference++;
+
+        if (driveBase != null)
+        {
+            driveBase.getFieldVelocity(robotVelocity);
+            speed = TrcUtil.magnitude(robotVelocity.x, robotVelocity.y);
+            turnRate = Math.abs(robotVelocity.angle);
+            distanceSinceInference += speed*dt;
+            angleSinceInference += turnRate*dt;
+        }
+
+        double minConfidence = 1.0;
+        for (int i = 0; i < tracks.size(); i++)
+        {
+            minConfidence = Math.min(minConfidence, tracks.get(i).confidence*params.confidenceDecay);
+        }
+
+        boolean infer;
+        String reason;
+        int interval;
+
+        synchronized (this)
+        {
+            if (dt > 0.0)
+            {
+                avgFramePeriod = avgFramePeriod > 0.0? 0.9*avgFramePeriod + 0.1*dt: dt;
+            }
+            inferenceInterval = interval = computeInterval(speed, turnRate);
+
+            if (!hasInferred)
+            {
+                infer = true;
+                reason = "first";
+            }
+            else if (framesSinceInference >= interval)
+            {
+                infer = true;
+                reason = "interval";
+            }
+            else if (distanceSinceInference > params.maxTrackingDistance ||
+                     angleSinceInference > params.maxTrackingAngle)
+            {
+                infer = true;
+                reason = "motion";
+            }
+            else if (minConfidence < params.minTrackingConfidence)
+            {
+                infer = true;
+                reason = "confidence";
+            }
+            else
+            {
+                infer = false;
+                reason = "tracking";
+            }
+
+            totalFrames++;
+            if (infer)
+            {
+                inferredFrames++;
+            }
+
+            if (msgTracer != null)
+            {
+                msgTracer.traceInfo(
+                    funcName, "[%s] infer=%s (%s): interval=%d, frames=%d, motion=(%.1f,%.1f), minConf=%.2f",
+                    instanceName, infer, reason, interval, framesSinceInference, distanceSinceInference,
+                    angleSinceInference, minConfidence);
+            }
+        }
+
+        if (!infer)
+        {
+            for (int i = 0; i < tracks.size(); i++)
+            {
+                Track track = tracks.get(i);
+                track.x += track.xVel*dt;
+                track.y += track.yVel*dt;
+                track.confidence *= params.confidenceDecay;
+                track.carriedFrames++;
+            }
+        }
+
+        return infer;
+    }   //startFrame
+
+    /**
+     * This method is called with the fresh detections after running inference on a frame. It matches them with the
+     * tracks to estimate their image velocities and to measure tracking drift, and the detections become the new
+     * tracks.
+     *
+     * @param detections specifies the fresh detections, the scheduler takes ownership of them.
+     * @param timestamp specifies the frame capture time in seconds.
+     * @param inferenceTime specifies the time spent on inference in seconds.
+     */
+    public void inferenceDone(List<Track> detections, double timestamp, double inferenceTime)
+    {
+        boolean[] matched = new boolean[tracks.size()];
+        double frameDrift = 0.0;
+        int numDriftSamples = 0;
+        double frameMaxDrift = 0.0;
+
+        for (Track detection: detections)
+        {
+            double centerX = detection.x + detection.width/2.0;
+            double centerY = detection.y + detection.height/2.0;
+            int bestIndex = -1;
+            double bestOverlap = params.minMatchOverlap;
+
+            for (int i = 0; i < tracks.size(); i++)
+            {
+                Track track = tracks.get(i);
+                if (!matched[i] && track.label.equals(detection.label))
+                {
+                    double overlap = getOverlap(track, detection);
+                    if (overlap >= bestOverlap)
+                    {
+                        bestOverlap = overlap;
+                        bestIndex = i;
+                    }
+                }
+            }
+
+            detection.detectedCenterX = centerX;
+            detection.detectedCenterY = centerY;
+            detection.detectedTime = timestamp;
+
+            if (bestIndex >= 0)
+            {
+                Track track = tracks.get(bestIndex);
+                double dt = timestamp - track.detectedTime;
+
+                matched[bestIndex] = true;
+                if (track.carriedFrames > 0)
+                {
+                    // The track was carried forward, measure how far off its prediction was.
+                    double drift = TrcUtil.magnitude(
+                        track.x + track.width/2.0 - centerX, track.y + track.height/2.0 - centerY);
+                    frameDrift += drift;
+                    frameMaxDrift = Math.max(frameMaxDrift, drift);
+                    numDriftSamples++;
+                }
+
+                if (dt > 0.0)
+                {
+                    double s = params.velocitySmoothing;
+                    detection.xVel = s*track.xVel + (1.0 - s)*(centerX - track.detectedCenterX)/dt;
+                    detection.yVel = s*track.yVel + (1.0 - s)*(centerY - track.detectedCenterY)/dt;
+                }
+                else
+                {
+                    detection.xVel = track.xVel;
+                    detection.yVel = track.yVel;
+                }
+            }
+        }
+
+        tracks = detections;
+        hasInferred = true;
+        lastInferenceTime = timestamp;
+        framesSinceInference = 0;
+        distanceSinceInference = 0.0;
+        angleSinceInference = 0.0;
+
+        synchronized (this)
+        {
+            avgInferenceTime = avgInferenceTime > 0.0? 0.9*avgInferenceTime + 0.1*inferenceTime: inferenceTime;
+            totalDrift += frameDrift;
+            driftSamples += numDriftSamples;
+            maxDrift = Math.max(maxDrift, frameMaxDrift);
+        }
+    }   //inferenceDone
+
+    /**
+     * This method returns the current tracks, i.e. the detections of the last inference moved to their predicted
+     * positions of the current frame. It must be called from the thread calling startFrame.
+     *
+     * @return list of tracks.
+     */
+    public List<Track> getTracks()
+    {
+        return tracks;
+    }   //getTracks
+
+    /**
+     * This method returns the time of the last inference.
+     *
+     * @return capture time of the last inferred frame in seconds.
+     */
+    public double getLastInferenceTime()
+    {
+        return lastInferenceTime;
+    }   //getLastInferenceTime
+
+    /**
+     * This method resets the metrics.
+     */
+    public synchronized void resetMetrics()
+    {
+        totalFrames = 0;
+        inferredFrames = 0;
+        driftSamples = 0;
+        totalDrift = 0.0;
+        maxDrift = 0.0;
+    }   //resetMetrics
+
+    /**
+     * This method returns the current inference interval.
+     *
+     * @return number of frames between inferences.
+     */
+    public synchronized int getInferenceInterval()
+    {
+        return inferenceInterval;
+    }   //getInferenceInterval
+
+    /**
+     * This method returns the fraction of frames inferred since the metrics were reset.
+     *
+     * @return fraction of frames inferred (0.0 to 1.0).
+     */
+    public synchronized double getInferredFraction()
+    {
+        return totalFrames > 0? (double) inferredFrames/totalFrames: 0.0;
+    }   //getInferredFraction
+
+    /**
+     * This method returns the average inference time.
+     *
+     * @return smoothed inference time in seconds.
+     */
+    public synchronized double getAverageInferenceTime()
+    {
+        return avgInferenceTime;
+    }   //getAverageInferenceTime
+
+    /**
+     * This method returns the average tracking drift, i.e. the distance between the carried forward position of a
+     * detection and its fresh position at the next inference.
+     *
+     * @return average drift in pixels.
+     */
+    public synchronized double getAverageDrift()
+    {
+        return driftSamples > 0? totalDrift/driftSamples: 0.0;
+    }   //getAverageDrift
+
+    /**
+     * This method returns the maximum tracking drift since the metrics were reset.
+     *
+     * @return maximum drift in pixels.
+     */
+    public synchronized double getMaxDrift()
+    {
+        return maxDrift;
+    }   //getMaxDrift
+
+    /**
+     * This method prints the scheduler metrics using the given tracer.
+     *
+     * @param tracer specifies the tracer to print the metrics with.
+     */
+    public synchronized void printMetrics(TrcDbgTrace tracer)
+    {
+        final String funcName = "printMetrics";
+
+        if (tracer != null)
+        {
+            tracer.traceInfo(
+                funcName, "[%s] Inferred %d/%d frames (%.1f%%), interval=%d, avgInferenceTime=%.3f, " +
+                "drift(avg/max)=%.1f/%.1f px",
+                instanceName, inferredFrames, totalFrames, getInferredFraction()*100.0, inferenceInterval,
+                avgInferenceTime, getAverageDrift(), maxDrift);
+        }
+    }   //printMetrics
+
+    /**
+     * This method computes the inference interval. The interval is long enough to keep the inference load within
+     * the limit, but short enough that the robot at its current speed does not exceed the tracking motion limits
+     * between inferences. Must be called with the lock held.
+     *
+     * @param speed specifies the robot speed.
+     * @param turnRate specifies the absolute robot turn rate in degrees per second.
+     * @return inference interval in frames.
+     */
+    private int computeInterval(double speed, double turnRate)
+    {
+        int interval = params.minInterval;
+
+        if (avgFramePeriod > 0.0)
+        {
+            if (params.maxInferenceLoad > 0.0)
+            {
+                interval = Math.max(
+                    interval, (int) Math.ceil(avgInferenceTime/(params.maxInferenceLoad*avgFramePeriod)));
+            }
+
+            double maxFrames = Double.POSITIVE_INFINITY;
+            if (speed > 0.0)
+            {
+                maxFrames = params.maxTrackingDistance/(speed*avgFramePeriod);
+            }
+            if (turnRate > 0.0)
+            {
+                maxFrames = Math.min(maxFrames, params.maxTrackingAngle/(turnRate*avgFramePeriod));
+            }
+            // Robot motion wins over the inference load.
+            interval = (int) Math.min(interval, Math.max(1.0, Math.floor(maxFrames)));
+        }
+
+        return TrcUtil.clipRange(interval, 1, params.maxInterval);
+    }   //computeInterval
+
+    /**
+     * This method computes the overlap (intersection over union) of two detections.
+     *
+     * @param a specifies the first detection.
+     * @param b specifies the second detection.
+     * @return overlap (0.0 to 1.0).
+     */
+    private static double getOverlap(Track a, Track b)
+    {
+        double intersectWidth = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        double intersectHeight = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        double intersection =
+            intersectWidth > 0.0 && intersectHeight > 0.0? intersectWidth*intersectHeight: 0.0;
+        double union = a.width*a.height + b.width*b.height - intersection;
+
+        return union > 0.0? intersection/union: 0.0;
+    }   //getOverlap
+
+}   //class TrcInferenceScheduler
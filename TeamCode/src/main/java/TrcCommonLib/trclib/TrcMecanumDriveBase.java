@@ -108,8 +108,8 @@ public class TrcMecanumDriveBase extends TrcSimpleDriveBase
                 y = -y;
             }
 
-            double cosA = Math.cos(Math.toRadians(gyroAngle));
-            double sinA = Math.sin(Math.toRadians(gyroAngle));
+            double cosA = cosDegrees(gyroAngle);
+            double sinA = sinDegrees(gyroAngle);
             double x1 = x*cosA - y*sinA;
             double y1 = x*sinA + y*cosA;
 
@@ -131,17 +131,25 @@ public class TrcMecanumDriveBase extends TrcSimpleDriveBase
                 y1 /= maxMag;
             }
 
-            double[] wheelPowers = new double[4];
-            wheelPowers[MotorType.LEFT_FRONT.value] = x1 + y1 + rotation;
-            wheelPowers[MotorType.RIGHT_FRONT.value] = -x1 + y1 - rotation;
-            wheelPowers[MotorType.LEFT_BACK.value] = -x1 + y1 + rotation;
-            wheelPowers[MotorType.RIGHT_BACK.value] = x1 + y1 - rotation;
-            TrcUtil.normalizeInPlace(wheelPowers);
+            // Wheel powers are kept in locals instead of an array so that the drive loop doesn't allocate memory.
+            double lfPower = x1 + y1 + rotation;
+            double rfPower = -x1 + y1 - rotation;
+            double lbPower = -x1 + y1 + rotation;
+            double rbPower = x1 + y1 - rotation;
+            double maxPower = Math.max(
+                Math.max(Math.abs(lfPower), Math.abs(rfPower)), Math.max(Math.abs(lbPower), Math.abs(rbPower)));
+            if (maxPower > 1.0)
+            {
+                lfPower /= maxPower;
+                rfPower /= maxPower;
+                lbPower /= maxPower;
+                rbPower /= maxPower;
+            }
 
             double wheelPower;
             boolean wheelsPowered = false;
 
-            wheelPower = wheelPowers[MotorType.LEFT_FRONT.value];
+            wheelPower = lfPower;
             if (motorPowerMapper != null)
             {
                 wheelPower = motorPowerMapper.translateMotorPower(wheelPower, lfMotor.getVelocity());
@@ -149,7 +157,7 @@ public class TrcMecanumDriveBase extends TrcSimpleDriveBase
             lfMotor.setPower(wheelPower);
             if (wheelPower != 0.0) wheelsPowered = true;
 
-            wheelPower = wheelPowers[MotorType.RIGHT_FRONT.value];
+            wheelPower = rfPower;
             if (motorPowerMapper != null)
             {
                 wheelPower = motorPowerMapper.translateMotorPower(wheelPower, rfMotor.getVelocity());
@@ -157,7 +165,7 @@ public class TrcMecanumDriveBase extends TrcSimpleDriveBase
             rfMotor.setPower(wheelPower);
             if (wheelPower != 0.0) wheelsPowered = true;
 
-            wheelPower = wheelPowers[MotorType.LEFT_BACK.value];
+            wheelPower = lbPower;
             if (motorPowerMapper != null)
             {
                 wheelPower = motorPowerMapper.translateMotorPower(wheelPower, lbMotor.getVelocity());
@@ -165,7 +173,7 @@ public class TrcMecanumDriveBase extends TrcSimpleDriveBase
             lbMotor.setPower(wheelPower);
             if (wheelPower != 0.0) wheelsPowered = true;
 
-            wheelPower = wheelPowers[MotorType.RIGHT_BACK.value];
+            wheelPower = rbPower;
             if (motorPowerMapper != null)
             {
                 wheelPower = motorPowerMapper.translateMotorPower(wheelPower, rbMotor.getVelocity());
@@ -204,21 +212,22 @@ public class TrcMecanumDriveBase extends TrcSimpleDriveBase
         //
         Odometry delta = super.getOdometryDelta(prevOdometries, currOdometries);
 
-        delta.position.x = xScale * TrcUtil.average(
-                currOdometries[MotorType.LEFT_FRONT.value].currPos
-                - prevOdometries[MotorType.LEFT_FRONT.value].currPos,
-                currOdometries[MotorType.RIGHT_BACK.value].currPos
-                - prevOdometries[MotorType.RIGHT_BACK.value].currPos,
-                -(currOdometries[MotorType.RIGHT_FRONT.value].currPos
-                  - prevOdometries[MotorType.RIGHT_FRONT.value].currPos),
-                -(currOdometries[MotorType.LEFT_BACK.value].currPos
-                  - prevOdometries[MotorType.LEFT_BACK.value].currPos));
-
-        delta.velocity.x = xScale * TrcUtil.average(
-                currOdometries[MotorType.LEFT_FRONT.value].velocity,
-                currOdometries[MotorType.RIGHT_BACK.value].velocity,
-                -currOdometries[MotorType.RIGHT_FRONT.value].velocity,
-                -currOdometries[MotorType.LEFT_BACK.value].velocity);
+        // Average of the four wheels, spelled out to avoid allocating the varargs array on every update.
+        delta.position.x = xScale * (
+                (currOdometries[MotorType.LEFT_FRONT.value].currPos
+                 - prevOdometries[MotorType.LEFT_FRONT.value].currPos)
+                + (currOdometries[MotorType.RIGHT_BACK.value].currPos
+                   - prevOdometries[MotorType.RIGHT_BACK.value].currPos)
+                - (currOdometries[MotorType.RIGHT_FRONT.value].currPos
+                   - prevOdometries[MotorType.RIGHT_FRONT.value].currPos)
+                - (currOdometries[MotorType.LEFT_BACK.value].currPos
+                   - prevOdometries[MotorType.LEFT_BACK.value].currPos)) / 4.0;
+
+        delta.velocity.x = xScale * (
+                currOdometries[MotorType.LEFT_FRONT.value].velocity
+                + currOdometries[MotorType.RIGHT_BACK.value].velocity
+                - currOdometries[MotorType.RIGHT_FRONT.value].velocity
+                - currOdometries[MotorType.LEFT_BACK.value].velocity) / 4.0;
 
         if (Math.abs(delta.velocity.x) > stallVelThreshold)
         {
@@ -131,6 +131,9 @@ public abstract class TrcMotor implements TrcMotorController, TrcExclusiveSubsys
     private double sensorOffset = 0.0;
     private double zeroPosition = 0.0;
     private double currMotorPower = 0.0;
+    // Power budget support: requested power before scaling and the scale assigned by TrcPowerBudget.
+    private double requestedMotorPower = 0.0;
+    private volatile double powerBudgetScale = 1.0;
     // Used to remember previous set values so to optimize if value set is the same as previous set values.
     private Double controllerPower;
     private Double controllerVelocity;
@@ -698,6 +701,16 @@ public abstract class TrcMotor implements TrcMotorController, TrcExclusiveSubsys
         softwarePidEnabled = enabled;
     }   //setSoftwarePidEnabled
 
+    /**
+     * This method checks if software PID is the close-loop control.
+     *
+     * @return true if software PID control is enabled, false if using motor built-in PID.
+     */
+    public boolean isSoftwarePidEnabled()
+    {
+        return softwarePidEnabled;
+    }   //isSoftwarePidEnabled
+
     /**
      * This method checks which PID controller to use for close-loop control.
      *
@@ -763,23 +776,88 @@ public abstract class TrcMotor implements TrcMotorController, TrcExclusiveSubsys
                 controllerPower = null;
             }
 
-            currMotorPower = power;
-            if (motorSetPowerElapsedTimer != null) motorSetPowerElapsedTimer.recordStartTime();
-            setMotorPower(currMotorPower);
-            if (motorSetPowerElapsedTimer != null) motorSetPowerElapsedTimer.recordEndTime();
-
-            synchronized (followingMotorsList)
+            // Update the requested power and apply it atomically so that a concurrent setPowerBudgetScale
+            // won't apply the scale to a stale requested power.
+            synchronized (taskParams)
             {
-                for (TrcMotor follower : followingMotorsList)
-                {
-                    if (motorSetPowerElapsedTimer != null) motorSetPowerElapsedTimer.recordStartTime();
-                    follower.setMotorPower(currMotorPower);
-                    if (motorSetPowerElapsedTimer != null) motorSetPowerElapsedTimer.recordEndTime();
-                }
+                requestedMotorPower = power;
+                applyMotorPower(power * powerBudgetScale);
             }
         }
     }   //setControllerMotorPower
 
+    /**
+     * This method sends the given power to the motor and its followers.
+     *
+     * @param power specifies the percentage power (range -1.0 to 1.0) to be set.
+     */
+    private void applyMotorPower(double power)
+    {
+        currMotorPower = power;
+        if (motorSetPowerElapsedTimer != null) motorSetPowerElapsedTimer.recordStartTime();
+        setMotorPower(currMotorPower);
+        if (motorSetPowerElapsedTimer != null) motorSetPowerElapsedTimer.recordEndTime();
+
+        synchronized (followingMotorsList)
+        {
+            for (TrcMotor follower : followingMotorsList)
+            {
+                if (motorSetPowerElapsedTimer != null) motorSetPowerElapsedTimer.recordStartTime();
+                follower.setMotorPower(currMotorPower);
+                if (motorSetPowerElapsedTimer != null) motorSetPowerElapsedTimer.recordEndTime();
+            }
+        }
+    }   //applyMotorPower
+
+    /**
+     * This method returns the power requested by the caller before power budget scaling. It only applies to power
+     * control mode and software PID control. If the motor controller is doing its own close-loop control, the motor
+     * power is not managed by the power budget and this returns zero.
+     *
+     * @return requested motor power.
+     */
+    double getBudgetRequestedPower()
+    {
+        synchronized (taskParams)
+        {
+            return taskParams.currControlMode == ControlMode.Power || taskParams.pidCtrl != null?
+                requestedMotorPower: 0.0;
+        }
+    }   //getBudgetRequestedPower
+
+    /**
+     * This method returns the number of following motors. It is used by TrcPowerBudget to account for the current
+     * drawn by the followers.
+     *
+     * @return number of following motors.
+     */
+    int getNumFollowers()
+    {
+        synchronized (followingMotorsList)
+        {
+            return followingMotorsList.size();
+        }
+    }   //getNumFollowers
+
+    /**
+     * This method is called by TrcPowerBudget to set the scale applied to the requested motor power. If the motor is
+     * in power control mode, the scaled power is applied immediately. Software PID control will pick up the new
+     * scale on its next cycle.
+     *
+     * @param scale specifies the scale (range 0.0 to 1.0).
+     */
+    void setPowerBudgetScale(double scale)
+    {
+        synchronized (taskParams)
+        {
+            powerBudgetScale = scale;
+            if (taskParams.currControlMode == ControlMode.Power && taskParams.pidCtrl == null)
+            {
+                applyMotorPower(requestedMotorPower * scale);
+            }
+        }
+    }   //setPowerBudgetScale
+
     /**
      * This method sets the motor velocity and will do the same to the followers. This method should be used instead
      * of setMotorVelocity because this will set the correct control mode and do the optimization of not sending same
@@ -3210,6 +3288,27 @@ public abstract class TrcMotor implements TrcMotorController, TrcExclusiveSubsys
         return odom;
     }   //getOdometry
 
+    /**
+     * This method copies the odometry data of the specified axis into the given odometry object without allocating
+     * memory.
+     *
+     * @param axisIndex specifies the axis index if it is a multi-axes sensor, 0 if it is a single axis sensor (not used).
+     * @param odom specifies the odometry object to copy the data into.
+     */
+    @Override
+    public void getOdometry(int axisIndex, Odometry odom)
+    {
+        synchronized (odometry)
+        {
+            if (!odometryEnabled)
+            {
+                throw new RuntimeException("Motor odometry is not enabled.");
+            }
+
+            odom.setAs(odometry);
+        }
+    }   //getOdometry
+
     /**
      * This method is called periodically to update motor odometry data. Odometry data includes position and velocity
      * data. By using this task to update odometry at a periodic rate, it allows robot code to obtain odometry data
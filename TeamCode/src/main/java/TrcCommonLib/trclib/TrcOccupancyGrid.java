@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import java.util.Arrays;
+
+/**
+ * This class implements an occupancy grid of the field for path planning. The field is divided into square cells
+ * and static obstacles are added as rectangles in field coordinates. The grid keeps a precomputed distance transform
+ * (the clearance of each cell to the nearest obstacle or field wall) so that the planner can check whether the robot
+ * fits in a cell with a single array lookup regardless of the robot size.
+ * <p>
+ * The distance transform is a two-pass chamfer transform with orthogonal and diagonal steps, so the clearance is an
+ * approximation of the Euclidean distance that may overestimate it by up to about 8%. It is recomputed lazily the
+ * first time it is needed after the obstacles are changed. This class is not thread-safe.
+ */
+public class TrcOccupancyGrid
+{
+    private static final double DIAGONAL = Math.sqrt(2.0);
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int numCols;
+    private final int numRows;
+    private final boolean[] occupied;
+    private final float[] clearance;
+    private boolean clearanceValid = false;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param minX specifies the field x coordinate of the left edge of the grid.
+     * @param minY specifies the field y coordinate of the bottom edge of the grid.
+     * @param maxX specifies the field x coordinate of the right edge of the grid.
+     * @param maxY specifies the field y coordinate of the top edge of the grid.
+     * @param cellSize specifies the size of a grid cell in field units.
+     */
+    public TrcOccupancyGrid(double minX, double minY, double maxX, double maxY, double cellSize)
+    {
+        if (cellSize <= 0.0 || maxX <= minX || maxY <= minY)
+        {
+            throw new IllegalArgumentException("Invalid grid dimensions.");
+        }
+
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.numCols = (int) Math.ceil((maxX - minX)/cellSize);
+        this.numRows = (int) Math.ceil((maxY - minY)/cellSize);
+        occupied = new boolean[numCols*numRows];
+        clearance = new float[numCols*numRows];
+    }   //TrcOccupancyGrid
+
+    /**
+     * This method returns the number of columns of the grid.
+     *
+     * @return number of columns.
+     */
+    public int getNumCols()
+    {
+        return numCols;
+    }   //getNumCols
+
+    /**
+     * This method returns the number of rows of the grid.
+     *
+     * @return number of rows.
+     */
+    public int getNumRows()
+    {
+        return numRows;
+    }   //getNumRows
+
+    /**
+     * This method returns the grid cell size.
+     *
+     * @return cell size in field units.
+     */
+    public double getCellSize()
+    {
+        return cellSize;
+    }   //getCellSize
+
+    /**
+     * This method returns the column of the cell containing the given field x coordinate.
+     *
+     * @param x specifies the field x coordinate.
+     * @return column of the cell, clamped to the grid.
+     */
+    public int getCol(double x)
+    {
+        return (int) TrcUtil.clipRange(Math.floor((x - minX)/cellSize), 0.0, numCols - 1);
+    }   //getCol
+
+    /**
+     * This method returns the row of the cell containing the given field y coordinate.
+     *
+     * @param y specifies the field y coordinate.
+     * @return row of the cell, clamped to the grid.
+     */
+    public int getRow(double y)
+    {
+        return (int) TrcUtil.clipRange(Math.floor((y - minY)/cellSize), 0.0, numRows - 1);
+    }   //getRow
+
+    /**
+     * This method returns the cell index of the given column and row.
+     *
+     * @param col specifies the column.
+     * @param row specifies the row.
+     * @return cell index.
+     */
+    public int getIndex(int col, int row)
+    {
+        return row*numCols + col;
+    }   //getIndex
+
+    /**
+     * This method returns the field x coordinate of the center of the cells in the given column.
+     *
+     * @param col specifies the column.
+     * @return field x coordinate of the cell center.
+     */
+    public double getCellCenterX(int col)
+    {
+        return minX + (col + 0.5)*cellSize;
+    }   //getCellCenterX
+
+    /**
+     * This method returns the field y coordinate of the center of the cells in the given row.
+     *
+     * @param row specifies the row.
+     * @return field y coordinate of the cell center.
+     */
+    public double getCellCenterY(int row)
+    {
+        return minY + (row + 0.5)*cellSize;
+    }   //getCellCenterY
+
+    /**
+     * This method marks all cells overlapping the given rectangle as occupied.
+     *
+     * @param x1 specifies the field x coordinate of one corner of the rectangle.
+     * @param y1 specifies the field y coordinate of one corner of the rectangle.
+     * @param x2 specifies the field x coordinate of the opposite corner of the rectangle.
+     * @param y2 specifies the field y coordinate of the opposite corner of the rectangle.
+     */
+    public void addObstacle(double x1, double y1, double x2, double y2)
+    {
+        int startCol = getCol(Math.min(x1, x2));
+        int endCol = getCol(Math.max(x1, x2));
+        int startRow = getRow(Math.min(y1, y2));
+        int endRow = getRow(Math.max(y1, y2));
+
+        for (int row = startRow; row <= endRow; row++)
+        {
+            for (int col = startCol; col <= endCol; col++)
+            {
+                occupied[getIndex(col, row)] = true;
+            }
+        }
+        clearanceValid = false;
+    }   //addObstacle
+
+    /**
+     * This method removes all obstacles from the grid.
+     */
+    public void clearObstacles()
+    {
+        Arrays.fill(occupied, false);
+        clearanceValid = false;
+    }   //clearObstacles
+
+    /**
+     * This method checks if the given cell is occupied by an obstacle.
+     *
+     * @param index specifies the cell index.
+     * @return true if the cell is occupied, false otherwise.
+     */
+    public boolean isOccupied(int index)
+    {
+        return occupied[index];
+    }   //isOccupied
+
+    /**
+     * This method returns the clearance of the given cell, i.e. the approximate distance from the cell center to the
+     * nearest obstacle or field wall.
+     *
+     * @param index specifies the cell index.
+     * @return clearance in field units, 0 if the cell is occupied.
+     */
+    public double getClearance(int index)
+    {
+        if (!clearanceValid)
+        {
+            updateClearance();
+        }
+
+        return clearance[index];
+    }   //getClearance
+
+    /**
+     * This method checks if the straight line between the centers of two cells only crosses cells that have at
+     * least the given clearance.
+     *
+     * @param fromIndex specifies the cell index of the start of the line.
+     * @param toIndex specifies the cell index of the end of the line.
+     * @param minClearance specifies the minimum clearance.
+     * @return true if the line is clear, false otherwise.
+     */
+    public boolean isLineClear(int fromIndex, int toIndex, double minClearance)
+    {
+        if (!clearanceValid)
+        {
+            updateClearance();
+        }
+
+        int col = fromIndex % numCols, row = fromIndex / numCols;
+        int endCol = toIndex % numCols, endRow = toIndex / numCols;
+        int dCol = Math.abs(endCol - col), dRow = Math.abs(endRow - row);
+        int stepCol = col < endCol? 1: -1, stepRow = row < endRow? 1: -1;
+        int error = dCol - dRow;
+        //
+        // Walk the cells along the line with Bresenham's algorithm. When the line crosses a cell corner diagonally,
+        // both side cells are checked as well so the line never squeezes between two blocked cells. The line only
+        // touches the corner of the side cells, so they are allowed half a cell less clearance.
+        //
+        double sideClearance = minClearance - cellSize/2.0;
+        for (;;)
+        {
+            if (clearance[getIndex(col, row)] < minClearance)
+            {
+                return false;
+            }
+
+            if (col == endCol && row == endRow)
+            {
+                return true;
+            }
+
+            int error2 = 2*error;
+            boolean stepX = error2 > -dRow;
+            boolean stepY = error2 < dCol;
+
+            if (stepX && stepY &&
+                (clearance[getIndex(col + stepCol, row)] < sideClearance ||
+                 clearance[getIndex(col, row + stepRow)] < sideClearance))
+            {
+                return false;
+            }
+
+            if (stepX)
+            {
+                error -= dRow;
+                col += stepCol;
+            }
+
+            if (stepY)
+            {
+                error += dCol;
+                row += stepRow;
+            }
+        }
+    }   //isLineClear
+
+    /**
+     * This method recomputes the distance transform of the grid. The field walls are treated as obstacles.
+     */
+    private void updateClearance()
+    {
+        float halfCell = (float) (cellSize/2.0);
+        //
+        // Seed with the distance to the field walls. Obstacle cells are seeded with minus half a cell so that their
+        // neighbors end up with the distance to the obstacle edge rather than to the obstacle cell center.
+        //
+        for (int row = 0; row < numRows; row++)
+        {
+            for (int col = 0; col < numCols; col++)
+            {
+                int index = getIndex(col, row);
+                int wallCells = Math.min(Math.min(col, numCols - 1 - col), Math.min(row, numRows - 1 - row));
+
+                clearance[index] = occupied[index]? -halfCell: (float) (wallCells*cellSize) + halfCell;
+            }
+        }
+        //
+        // Forward pass propagates from the left and bottom neighbors, backward pass from the right and top neighbors.
+        //
+        for (int row = 0; row < numRows; row++)
+        {
+            for (int col = 0; col < numCols; col++)
+            {
+                relaxCell(col, row, -1, -1);
+            }
+        }
+
+        for (int row = numRows - 1; row >= 0; row--)
+        {
+            for (int col = numCols - 1; col >= 0; col--)
+            {
+                relaxCell(col, row, 1, 1);
+            }
+        }
+
+        for (int i = 0; i < clearance.length; i++)
+        {
+            if (occupied[i])
+            {
+                clearance[i] = 0.0f;
+            }
+        }
+        clearanceValid = true;
+    }   //updateClearance
+
+    /**
+     * This method updates the distance of a cell from the already visited neighbors of a chamfer pass.
+     *
+     * @param col specifies the column of the cell.
+     * @param row specifies the row of the cell.
+     * @param colDir specifies the column direction of the visited neighbors.
+     * @param rowDir specifies the row direction of the visited neighbors.
+     */
+    private void relaxCell(int col, int row, int colDir, int rowDir)
+    {
+        int index = getIndex(col, row);
+
+        if (!occupied[index])
+        {
+            float orthoStep = (float) cellSize;
+            float diagStep = (float) (cellSize*DIAGONAL);
+            int nextCol = col + colDir;
+            int nextRow = row + rowDir;
+            boolean hasCol = nextCol >= 0 && nextCol < numCols;
+            boolean hasRow = nextRow >= 0 && nextRow < numRows;
+            float d = clearance[index];
+
+            if (hasCol)
+            {
+                d = Math.min(d, clearance[getIndex(nextCol, row)] + orthoStep);
+            }
+
+            if (hasRow)
+            {
+                d = Math.min(d, clearance[getIndex(col, nextRow)] + orthoStep);
+                if (hasCol)
+                {
+                    d = Math.min(d, clearance[getIndex(nextCol, nextRow)] + diagStep);
+                }
+                // The diagonal neighbor on the other side of the previous row has also been visited.
+                int otherCol = col - colDir;
+                if (otherCol >= 0 && otherCol < numCols)
+                {
+                    d = Math.min(d, clearance[getIndex(otherCol, nextRow)] + diagStep);
+                }
+            }
+            clearance[index] = d;
+        }
+    }   //relaxCell
+
+}   //class TrcOccupancyGrid
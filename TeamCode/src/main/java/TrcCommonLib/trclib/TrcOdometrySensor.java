@@ -120,6 +120,22 @@ public interface TrcOdometrySensor
             return new Odometry(sensor, prevTimestamp, currTimestamp, prevPos, currPos, velocity, acceleration);
         }   //clone
 
+        /**
+         * This method sets this odometry to be the same as the given odometry.
+         *
+         * @param odometry specifies the odometry to copy from.
+         */
+        public void setAs(Odometry odometry)
+        {
+            this.sensor = odometry.sensor;
+            this.prevTimestamp = odometry.prevTimestamp;
+            this.currTimestamp = odometry.currTimestamp;
+            this.prevPos = odometry.prevPos;
+            this.currPos = odometry.currPos;
+            this.velocity = odometry.velocity;
+            this.acceleration = odometry.acceleration;
+        }   //setAs
+
     }   //class Odometry
 
     /**
@@ -139,6 +155,18 @@ public interface TrcOdometrySensor
      */
     Odometry getOdometry(int axisIndex);
 
+    /**
+     * This method copies the odometry data of the specified axis into the given odometry object. Sensors that are
+     * read in periodic loops should override it to copy the data without allocating memory.
+     *
+     * @param axisIndex specifies the axis index if it is a multi-axes sensor, 0 if it is a single axis sensor.
+     * @param odometry specifies the odometry object to copy the data into.
+     */
+    default void getOdometry(int axisIndex, Odometry odometry)
+    {
+        odometry.setAs(getOdometry(axisIndex));
+    }   //getOdometry
+
     /**
      * This method returns a copy of the odometry data. It must be a copy so it won't change while the caller is
      * accessing the data fields. This assumes the odometry sensor has only one axis.
@@ -28,6 +28,7 @@ import org.opencv.core.Mat;
 import org.opencv.core.MatOfInt;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
@@ -35,7 +36,7 @@ import org.opencv.imgproc.Imgproc;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class implements a generic OpenCV color blob detection pipeline.
@@ -169,6 +170,36 @@ public class TrcOpenCvColorBlobPipeline implements TrcOpenCvPipeline<TrcOpenCvDe
 
     }   //class FilterContourParams
 
+    /**
+     * This class holds the native Mats and buffers reused by every frame so that processing a frame doesn't allocate
+     * native memory other than the contours returned by OpenCV. The Mats are released on reset and OpenCV
+     * reallocates them on next use.
+     */
+    private static class Workspace
+    {
+        final Mat hierarchy = new Mat();
+        final MatOfPoint2f contour2f = new MatOfPoint2f();
+        final MatOfInt hullIndices = new MatOfInt();
+        final Point contourOffset = new Point();
+        final Scalar colorThresholdLow = new Scalar(0.0, 0.0, 0.0);
+        final Scalar colorThresholdHigh = new Scalar(0.0, 0.0, 0.0);
+        final ArrayList<MatOfPoint> contours = new ArrayList<>();
+        final ArrayList<MatOfPoint> filteredContours = new ArrayList<>();
+        // Contour points as interleaved (x, y) pairs and hull point indices, grown as needed.
+        int[] contourPoints = new int[512];
+        int[] hullIndexBuffer = new int[256];
+
+        void release()
+        {
+            hierarchy.release();
+            contour2f.release();
+            hullIndices.release();
+            contours.clear();
+            filteredContours.clear();
+        }   //release
+
+    }   //class Workspace
+
     private static final Scalar ANNOTATE_RECT_COLOR = new Scalar(0, 255, 0, 255);
     private static final Scalar ANNOTATE_RECT_WHITE = new Scalar(255, 255, 255, 255);
     private static final int ANNOTATE_RECT_THICKNESS = 3;
@@ -180,11 +211,19 @@ public class TrcOpenCvColorBlobPipeline implements TrcOpenCvPipeline<TrcOpenCvDe
     private final TrcDbgTrace tracer;
     private final Mat colorThresholdOutput = new Mat();
     private final Mat[] intermediateMats;
+    private final Workspace workspace = new Workspace();
 
     private final TrcVisionPerformanceMetrics performanceMetrics = new TrcVisionPerformanceMetrics();
-    private final AtomicReference<DetectedObject[]> detectedObjectsUpdate = new AtomicReference<>();
+    private final TrcVisionResultCache<DetectedObject[]> resultCache = new TrcVisionResultCache<>();
+    private final AtomicLong consumedSequence = new AtomicLong();
     private int intermediateStep = 0;
     private boolean annotateEnabled = false;
+    private volatile TrcRoiTracker roiTracker = null;
+    // Color lookup table classification.
+    private volatile boolean colorLutEnabled = false;
+    private volatile TrcColorLut colorLut = null;
+    private volatile int colorLutClass = 0;
+    private Mat[] colorLutMasks = null;
 
     /**
      * Constructor: Create an instance of the object.
@@ -232,13 +271,19 @@ public class TrcOpenCvColorBlobPipeline implements TrcOpenCvPipeline<TrcOpenCvDe
     //
 
     /**
-     * This method is called to reset the state of the pipeline if any.
+     * This method is called to reset the state of the pipeline if any. It also releases the native memory of the
+     * pooled workspace.
      */
     @Override
     public void reset()
     {
         performanceMetrics.reset();
         intermediateStep = 0;
+        workspace.release();
+        if (roiTracker != null)
+        {
+            roiTracker.reset();
+        }
     }   //reset
 
     /**
@@ -250,31 +295,31 @@ public class TrcOpenCvColorBlobPipeline implements TrcOpenCvPipeline<TrcOpenCvDe
     @Override
     public DetectedObject[] process(Mat input)
     {
-        DetectedObject[] detectedObjects = null;
-        ArrayList<MatOfPoint> contoursOutput = new ArrayList<>();
-        ArrayList<MatOfPoint> filterContoursOutput = new ArrayList<>();
+        return process(input, TrcTimer.getCurrentTime());
+    }   //process
+
+    /**
+     * This method is called to process the input image through the pipeline.
+     *
+     * @param input specifies the input image to be processed.
+     * @param captureTime specifies the capture time of the image in seconds (TrcTimer.getCurrentTime time base).
+     * @return array of detected objects.
+     */
+    public DetectedObject[] process(Mat input, double captureTime)
+    {
         double startTime = TrcTimer.getCurrentTime();
+        Rect roi = getSearchRect(input, startTime);
 
         intermediateMats[0] = input;
-        filterByColor(input, colorConversion, colorThresholds, colorThresholdOutput);
-        findContours(colorThresholdOutput, false, contoursOutput);
-        if (filterContourParams != null)
-        {
-            filterContours(contoursOutput, filterContourParams, filterContoursOutput);
-            contoursOutput = filterContoursOutput;
-        }
+        threshold(input, roi, colorThresholdOutput);
+        DetectedObject[] detectedObjects = detectObjects(colorThresholdOutput, roi, startTime);
         performanceMetrics.logProcessingTime(startTime);
         performanceMetrics.printMetrics(tracer);
 
-        if (contoursOutput.size() > 0)
+        if (detectedObjects != null)
         {
-            detectedObjects = new DetectedObject[contoursOutput.size()];
-            for (int i = 0; i < detectedObjects.length; i++)
-            {
-                detectedObjects[i] = new DetectedObject(contoursOutput.get(i));
-            }
-
-            if (annotateEnabled)
+            // When tracking, the threshold output only covers the ROI, so the rects only line up with the input.
+            if (annotateEnabled && (roi == null || intermediateStep == 0))
             {
                 Mat output = getIntermediateOutput(intermediateStep);
                 Scalar color = intermediateStep == 0? ANNOTATE_RECT_COLOR: ANNOTATE_RECT_WHITE;
@@ -282,24 +327,204 @@ public class TrcOpenCvColorBlobPipeline implements TrcOpenCvPipeline<TrcOpenCvDe
 //                // This line is for tuning Homography.
 //                Imgproc.line(output, new Point(0, 120), new Point(639, 120), new Scalar(255, 255, 255), 2);
             }
-
-            detectedObjectsUpdate.set(detectedObjects);
         }
+        // Publish empty results too, so cache readers can tell a lost target from a frame not yet processed.
+        resultCache.put(detectedObjects, captureTime);
 
         return detectedObjects;
     }   //process
 
     /**
-     * This method returns the array of detected objects.
+     * This method enables/disables color lookup table classification. When enabled, a TrcColorLut is built from the
+     * color conversion and thresholds of this pipeline on the first frame, and the threshold stage classifies the
+     * raw frame with it in a single pass instead of doing cvtColor and inRange. Call this again to rebuild the table
+     * after the thresholds have been changed.
+     *
+     * @param enabled specifies true to enable lookup table classification, false to use cvtColor and inRange.
+     */
+    public void setColorLutEnabled(boolean enabled)
+    {
+        colorLut = null;
+        colorLutClass = 0;
+        colorLutEnabled = enabled;
+    }   //setColorLutEnabled
+
+    /**
+     * This method sets a shared color lookup table, typically built with the thresholds of several pipelines so
+     * that one classify pass can produce the masks of all of them (see TrcColorLut.classify).
+     *
+     * @param lut specifies the color lookup table, null to use cvtColor and inRange.
+     * @param classIndex specifies the class of the lookup table for this pipeline.
+     */
+    public void setColorLut(TrcColorLut lut, int classIndex)
+    {
+        colorLutEnabled = false;
+        colorLutClass = classIndex;
+        colorLut = lut;
+    }   //setColorLut
+
+    /**
+     * This method sets the ROI tracker. When set, once an object is detected, only a region around its predicted
+     * position is processed until it is lost for a number of frames. The tracker must predict the ROI of a frame
+     * after it has been updated with the previous one, so it does not support running getSearchRect/threshold and
+     * detectObjects of consecutive frames concurrently (i.e. pipelined processing).
+     *
+     * @param tracker specifies the ROI tracker, null to always process the full frame.
+     */
+    public void setRoiTracker(TrcRoiTracker tracker)
+    {
+        roiTracker = tracker;
+    }   //setRoiTracker
+
+    /**
+     * This method returns the ROI tracker.
+     *
+     * @return ROI tracker, null if none.
+     */
+    public TrcRoiTracker getRoiTracker()
+    {
+        return roiTracker;
+    }   //getRoiTracker
+
+    /**
+     * This method returns the region of the input image to be processed.
+     *
+     * @param input specifies the input image.
+     * @param timestamp specifies the frame timestamp in seconds.
+     * @return ROI to be processed, null to process the full frame.
+     */
+    public Rect getSearchRect(Mat input, double timestamp)
+    {
+        TrcRoiTracker tracker = roiTracker;
+        return tracker != null? tracker.predict(input.cols(), input.rows(), timestamp): null;
+    }   //getSearchRect
+
+    /**
+     * This method does the first stage of the pipeline: color space conversion and color thresholding. It can be
+     * called on a different thread than detectObjects for pipelined processing, but not concurrently with itself
+     * or process.
+     *
+     * @param input specifies the input image.
+     * @param roi specifies the region of the input image to process, null for the full frame.
+     * @param output specifies the Mat to receive the binary threshold image of the ROI.
+     */
+    public void threshold(Mat input, Rect roi, Mat output)
+    {
+        if (roi == null)
+        {
+            classifyColor(input, output);
+        }
+        else
+        {
+            // The submat shares the input pixels, only the header is allocated.
+            Mat roiInput = input.submat(roi);
+            classifyColor(roiInput, output);
+            roiInput.release();
+        }
+    }   //threshold
+
+    /**
+     * This method does the first stage of the pipeline on the full frame.
+     *
+     * @param input specifies the input image.
+     * @param output specifies the Mat to receive the binary threshold image.
+     */
+    public void threshold(Mat input, Mat output)
+    {
+        threshold(input, null, output);
+    }   //threshold
+
+    /**
+     * This method does the second stage of the pipeline: contour detection and filtering. It can be called on a
+     * different thread than threshold for pipelined processing, but not concurrently with itself or process.
+     * If there is an ROI tracker, it is updated with the biggest detected object.
+     *
+     * @param thresholdOutput specifies the binary threshold image produced by threshold.
+     * @param roi specifies the ROI passed to threshold, null for the full frame. The contours are offset by the ROI
+     *        origin so the detected objects are in full frame coordinates.
+     * @param timestamp specifies the frame timestamp in seconds.
+     * @return array of detected objects, null if none detected.
+     */
+    public DetectedObject[] detectObjects(Mat thresholdOutput, Rect roi, double timestamp)
+    {
+        DetectedObject[] detectedObjects = null;
+        List<MatOfPoint> contoursOutput = workspace.contours;
+        TrcRoiTracker tracker = roiTracker;
+        Rect trackedRect = null;
+
+        workspace.contourOffset.x = roi != null? roi.x: 0.0;
+        workspace.contourOffset.y = roi != null? roi.y: 0.0;
+        findContours(thresholdOutput, false, contoursOutput);
+        if (filterContourParams != null)
+        {
+            filterContours(contoursOutput, filterContourParams, workspace.filteredContours);
+            contoursOutput = workspace.filteredContours;
+        }
+
+        if (contoursOutput.size() > 0)
+        {
+            detectedObjects = new DetectedObject[contoursOutput.size()];
+            for (int i = 0; i < detectedObjects.length; i++)
+            {
+                detectedObjects[i] = new DetectedObject(contoursOutput.get(i));
+                if (tracker != null)
+                {
+                    Rect rect = detectedObjects[i].getRect();
+                    if (trackedRect == null || rect.area() > trackedRect.area())
+                    {
+                        trackedRect = rect;
+                    }
+                }
+            }
+        }
+
+        if (tracker != null)
+        {
+            tracker.update(trackedRect, timestamp);
+        }
+
+        return detectedObjects;
+    }   //detectObjects
+
+    /**
+     * This method does the second stage of the pipeline on the full frame.
+     *
+     * @param thresholdOutput specifies the binary threshold image produced by threshold.
+     * @return array of detected objects, null if none detected.
+     */
+    public DetectedObject[] detectObjects(Mat thresholdOutput)
+    {
+        return detectObjects(thresholdOutput, null, TrcTimer.getCurrentTime());
+    }   //detectObjects
+
+    /**
+     * This method returns the array of detected objects. Note that this call consumes the objects, meaning if this
+     * method is called again before the next frame is finished processing, it will return a null. Use getResultCache
+     * for non-destructive access by multiple readers.
      *
      * @return array of detected objects.
      */
     @Override
     public DetectedObject[] getDetectedObjects()
     {
-        return detectedObjectsUpdate.getAndSet(null);
+        TrcVisionResultCache.Result<DetectedObject[]> result = resultCache.getLatest();
+
+        return result != null && consumedSequence.getAndAccumulate(result.sequence, Math::max) < result.sequence?
+            result.value: null;
     }   //getDetectedObjects
 
+    /**
+     * This method returns the result cache. Every processed frame publishes its detected objects to the cache with
+     * the frame capture time, the processing latency and a sequence number. The detected objects are null if nothing
+     * was detected in the frame.
+     *
+     * @return result cache.
+     */
+    public TrcVisionResultCache<DetectedObject[]> getResultCache()
+    {
+        return resultCache;
+    }   //getResultCache
+
     /**
      * This method enables/disables image annotation of the detected object.
      *
@@ -377,6 +602,39 @@ public class TrcOpenCvColorBlobPipeline implements TrcOpenCvPipeline<TrcOpenCvDe
         return getIntermediateOutput(intermediateStep);
     }   //getSelectedOutput
 
+    /**
+     * This method produces the binary threshold image either with the color lookup table if enabled or with
+     * cvtColor and inRange.
+     *
+     * @param input specifies the input frame.
+     * @param out specifies the output frame for the result.
+     */
+    private void classifyColor(Mat input, Mat out)
+    {
+        TrcColorLut lut = colorLut;
+
+        if (lut == null && colorLutEnabled)
+        {
+            lut = new TrcColorLut(colorConversion, input.channels(), colorThresholds);
+            colorLut = lut;
+        }
+
+        if (lut != null)
+        {
+            if (colorLutMasks == null || colorLutMasks.length != lut.getNumClasses())
+            {
+                colorLutMasks = new Mat[lut.getNumClasses()];
+            }
+            colorLutMasks[colorLutClass] = out;
+            lut.classify(input, colorLutMasks);
+            colorLutMasks[colorLutClass] = null;
+        }
+        else
+        {
+            filterByColor(input, colorConversion, colorThresholds, out);
+        }
+    }   //classifyColor
+
     /**
      * This method process the image by filtering with the specified color ranges.
      *
@@ -388,10 +646,15 @@ public class TrcOpenCvColorBlobPipeline implements TrcOpenCvPipeline<TrcOpenCvDe
      */
     private void filterByColor(Mat input, int colorConversion, double[] colorThresholds, Mat out)
     {
+        // Thresholds are copied every frame so they can be tuned at runtime.
+        workspace.colorThresholdLow.val[0] = colorThresholds[0];
+        workspace.colorThresholdLow.val[1] = colorThresholds[2];
+        workspace.colorThresholdLow.val[2] = colorThresholds[4];
+        workspace.colorThresholdHigh.val[0] = colorThresholds[1];
+        workspace.colorThresholdHigh.val[1] = colorThresholds[3];
+        workspace.colorThresholdHigh.val[2] = colorThresholds[5];
         Imgproc.cvtColor(input, out, colorConversion);
-        Core.inRange(
-            out, new Scalar(colorThresholds[0], colorThresholds[2], colorThresholds[4]),
-            new Scalar(colorThresholds[1], colorThresholds[3], colorThresholds[5]), out);
+        Core.inRange(out, workspace.colorThresholdLow, workspace.colorThresholdHigh, out);
     }   //filterByColor
 
     /**
@@ -399,20 +662,19 @@ public class TrcOpenCvColorBlobPipeline implements TrcOpenCvPipeline<TrcOpenCvDe
      *
      * @param input specifies the image from which to find object contours.
      * @param externalOnly specifies true to use EXTERNAL mode, false to use LIST mode.
-     * @param contours specifies the list to hold the contours found.
+     * @param contours specifies the list to hold the contours found, offset by the workspace contour offset.
      */
     private void findContours(Mat input, boolean externalOnly, List<MatOfPoint> contours)
     {
-        Mat hierarchy = new Mat();
-
         contours.clear();
         Imgproc.findContours(
-            input, contours, hierarchy, externalOnly? Imgproc.RETR_EXTERNAL: Imgproc.RETR_LIST,
-            Imgproc.CHAIN_APPROX_SIMPLE);
+            input, contours, workspace.hierarchy, externalOnly? Imgproc.RETR_EXTERNAL: Imgproc.RETR_LIST,
+            Imgproc.CHAIN_APPROX_SIMPLE, workspace.contourOffset);
     }   //findContours
 
     /**
-     * This method filters out contours that do not meet certain criteria.
+     * This method filters out contours that do not meet certain criteria. The native memory of the rejected
+     * contours is released right away since nothing else refers to them.
      *
      * @param inputContours specifies the input list of contours.
      * @param filterContourParams specifies the filter contour parameters.
@@ -421,66 +683,118 @@ public class TrcOpenCvColorBlobPipeline implements TrcOpenCvPipeline<TrcOpenCvDe
     private void filterContours(
         List<MatOfPoint> inputContours, FilterContourParams filterContourParams, List<MatOfPoint> output)
     {
-        final MatOfInt hull = new MatOfInt();
         output.clear();
-        //
-        // Perform the filtering.
-        //
         for (int i = 0; i < inputContours.size(); i++)
         {
             final MatOfPoint contour = inputContours.get(i);
-            final Rect bb = Imgproc.boundingRect(contour);
-            // Check width.
-            if (bb.width < filterContourParams.widthRange[0] || bb.width > filterContourParams.widthRange[1])
-            {
-                continue;
-            }
-            // Check height.
-            if (bb.height < filterContourParams.heightRange[0] || bb.height > filterContourParams.heightRange[1])
-            {
-                continue;
-            }
-            // Check area.
-            final double area = Imgproc.contourArea(contour);
-            if (area < filterContourParams.minArea)
-            {
-                continue;
-            }
-            // Check perimeter.
-            if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < filterContourParams.minPerimeter)
-            {
-                continue;
-            }
-            // Check solidity.
-            Imgproc.convexHull(contour, hull);
-            MatOfPoint mopHull = new MatOfPoint();
-            mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-            for (int j = 0; j < hull.size().height; j++)
-            {
-                int index = (int)hull.get(j, 0)[0];
-                double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
-                mopHull.put(j, 0, point);
-            }
-            final double solid = 100 * area / Imgproc.contourArea(mopHull);
-            if (solid < filterContourParams.solidityRange[0] || solid > filterContourParams.solidityRange[1])
+
+            if (isContourAccepted(contour, filterContourParams))
             {
-                continue;
+                output.add(contour);
             }
-            // Check vertex count.
-            if (contour.rows() < filterContourParams.verticesRange[0] ||
-                contour.rows() > filterContourParams.verticesRange[1])
+            else
             {
-                continue;
+                contour.release();
             }
-            // Check aspect ratio.
-            final double ratio = bb.width / (double)bb.height;
-            if (ratio < filterContourParams.aspectRatioRange[0] || ratio > filterContourParams.aspectRatioRange[1])
+        }
+    }   //filterContours
+
+    /**
+     * This method checks if the contour meets the filter criteria. The cheap checks on the bounding box and vertex
+     * count are done first, followed by area, perimeter and solidity.
+     *
+     * @param contour specifies the contour to check.
+     * @param filterContourParams specifies the filter contour parameters.
+     * @return true if the contour passes all the checks, false otherwise.
+     */
+    private boolean isContourAccepted(MatOfPoint contour, FilterContourParams filterContourParams)
+    {
+        final Rect bb = Imgproc.boundingRect(contour);
+        // Check width.
+        if (bb.width < filterContourParams.widthRange[0] || bb.width > filterContourParams.widthRange[1])
+        {
+            return false;
+        }
+        // Check height.
+        if (bb.height < filterContourParams.heightRange[0] || bb.height > filterContourParams.heightRange[1])
+        {
+            return false;
+        }
+        // Check aspect ratio.
+        final double ratio = bb.width / (double)bb.height;
+        if (ratio < filterContourParams.aspectRatioRange[0] || ratio > filterContourParams.aspectRatioRange[1])
+        {
+            return false;
+        }
+        // Check vertex count.
+        final int numVertices = contour.rows();
+        if (numVertices < filterContourParams.verticesRange[0] || numVertices > filterContourParams.verticesRange[1])
+        {
+            return false;
+        }
+        // Check area.
+        final double area = Imgproc.contourArea(contour);
+        if (area < filterContourParams.minArea)
+        {
+            return false;
+        }
+        // Check perimeter.
+        if (filterContourParams.minPerimeter > 0.0)
+        {
+            contour.convertTo(workspace.contour2f, CvType.CV_32F);
+            if (Imgproc.arcLength(workspace.contour2f, true) < filterContourParams.minPerimeter)
             {
-                continue;
+                return false;
             }
+        }
+        // Check solidity.
+        final double solid = 100 * area / getHullArea(contour);
+        return solid >= filterContourParams.solidityRange[0] && solid <= filterContourParams.solidityRange[1];
+    }   //isContourAccepted
 
-            output.add(contour);
+    /**
+     * This method calculates the area of the convex hull of the contour. The hull is not built as a Mat, its area
+     * is calculated from the hull indices and the contour points copied into reusable buffers.
+     *
+     * @param contour specifies the contour.
+     * @return area of the convex hull.
+     */
+    private double getHullArea(MatOfPoint contour)
+    {
+        final int numPoints = contour.rows();
+        Imgproc.convexHull(contour, workspace.hullIndices);
+        final int numHullPoints = workspace.hullIndices.rows();
+
+        if (numHullPoints == 0)
+        {
+            return 0.0;
         }
-    }   //filterContours
+
+        if (workspace.contourPoints.length < 2*numPoints)
+        {
+            workspace.contourPoints = new int[4*numPoints];
+        }
+
+        if (workspace.hullIndexBuffer.length < numHullPoints)
+        {
+            workspace.hullIndexBuffer = new int[2*numHullPoints];
+        }
+
+        final int[] points = workspace.contourPoints;
+        final int[] indices = workspace.hullIndexBuffer;
+        contour.get(0, 0, points);
+        workspace.hullIndices.get(0, 0, indices);
+        // Shoelace formula over the hull vertices.
+        double sum = 0.0;
+        int prev = indices[numHullPoints - 1];
+        for (int i = 0; i < numHullPoints; i++)
+        {
+            int curr = indices[i];
+            sum += (double) points[2*prev]*points[2*curr + 1] - (double) points[2*curr]*points[2*prev + 1];
+            prev = curr;
+        }
+
+        return Math.abs(sum) / 2.0;
+    }   //getHullArea
 
 }  //class TrcOpenCvColorBlobPipeline
@@ -23,10 +23,13 @@
 package TrcCommonLib.trclib;
 
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class implements a generic OpenCV detector. Typically, it is extended by a specific detector that provides
@@ -73,11 +76,32 @@ public abstract class TrcOpenCvDetector implements TrcVisionProcessor<Mat, TrcOp
         boolean validateTarget(DetectedObject<?> object);
     }   //interface FilterTarget
 
+    /**
+     * This class holds the buffers of a frame going through the pipelined vision task.
+     */
+    private static class PipelinedFrame
+    {
+        final Mat image = new Mat();
+        final Mat thresholdOutput = new Mat();
+        double timestamp = 0.0;
+        Rect roi = null;
+        DetectedObject<?>[] detectedObjects = null;
+    }   //class PipelinedFrame
+
+    private static final Scalar ANNOTATE_RECT_COLOR = new Scalar(0, 255, 0, 255);
+    private static final int ANNOTATE_RECT_THICKNESS = 3;
+
     private final String instanceName;
     private final TrcDbgTrace tracer;
     private final TrcHomographyMapper homographyMapper;
     private final TrcVisionTask<Mat, DetectedObject<?>> visionTask;
     private volatile TrcOpenCvPipeline<DetectedObject<?>> openCvPipeline = null;
+    // Pipelined processing.
+    private volatile TrcPipelinedVisionTask<PipelinedFrame> pipelinedTask = null;
+    private final AtomicReference<ArrayList<TrcVisionTargetInfo<DetectedObject<?>>>> mappedTargets =
+        new AtomicReference<>();
+    private volatile double mappedObjHeightOffset = 0.0;
+    private volatile double mappedCameraHeight = 0.0;
 
     /**
      * Constructor: Create an instance of the object.
@@ -151,9 +175,15 @@ public abstract class TrcOpenCvDetector implements TrcVisionProcessor<Mat, TrcOp
      * This method sets the OpenCV pipeline to be used for the detection and enables it.
      *
      * @param pipeline specifies the pipeline to be used for detection, can be null to disable vision.
+     * @throws IllegalStateException if pipelined processing is enabled and the pipeline is in tracking mode.
      */
     public synchronized void setPipeline(TrcOpenCvPipeline<DetectedObject<?>> pipeline)
     {
+        if (pipelinedTask != null && isTrackingEnabled(pipeline))
+        {
+            throw new IllegalStateException("Pipeline " + pipeline + " is tracking, not supported in pipelined mode.");
+        }
+
         if (pipeline != openCvPipeline)
         {
             // Pipeline has changed.
@@ -162,10 +192,172 @@ public abstract class TrcOpenCvDetector implements TrcVisionProcessor<Mat, TrcOp
                 pipeline.reset();
             }
             openCvPipeline = pipeline;
-            visionTask.setTaskEnabled(pipeline != null);
+            if (pipelinedTask != null)
+            {
+                mappedTargets.set(null);
+                pipelinedTask.setTaskEnabled(pipeline != null);
+            }
+            else
+            {
+                visionTask.setTaskEnabled(pipeline != null);
+            }
         }
     }   //setPipeline
 
+    /**
+     * This method enables/disables pipelined processing. In pipelined mode, capture, color threshold, contour
+     * detection and pose mapping run on separate threads connected by latest frame wins mailboxes (see
+     * TrcPipelinedVisionTask), so the frame rate is limited by the slowest stage instead of the sum of all stages.
+     * Color threshold and contour detection are separate stages only for TrcOpenCvColorBlobPipeline, other pipelines
+     * are processed as a whole in the threshold stage. The processing interval does not apply and selecting an
+     * intermediate output is not supported in pipelined mode, the annotated input frame is displayed.
+     * <p>
+     * Tracking mode is not supported in pipelined mode: the threshold stage would predict the ROI of a frame before
+     * the contours stage has corrected the tracker with the detection of the previous frame, so the tracker would
+     * always lag behind. Pipelined processing can't be enabled while tracking is enabled and vice versa.
+     *
+     * @param enabled specifies true to enable pipelined processing, false to use the sequential vision task.
+     * @param numFrames specifies the number of frame buffers for pipelined processing, should be about two per
+     *        stage (i.e. 8).
+     * @throws IllegalStateException if enabling pipelined processing while the pipeline is in tracking mode.
+     */
+    public synchronized void setPipelinedProcessingEnabled(boolean enabled, int numFrames)
+    {
+        boolean taskEnabled = openCvPipeline != null;
+
+        if (enabled && isTrackingEnabled(openCvPipeline))
+        {
+            throw new IllegalStateException("Pipelined processing is not supported in tracking mode.");
+        }
+
+        if (enabled && pipelinedTask == null)
+        {
+            PipelinedFrame[] frames = new PipelinedFrame[numFrames];
+            for (int i = 0; i < frames.length; i++)
+            {
+                frames[i] = new PipelinedFrame();
+            }
+
+            pipelinedTask = new TrcPipelinedVisionTask<>(instanceName + ".pipelined", frames);
+            pipelinedTask.addStage("capture", this::captureStage)
+                         .addStage("threshold", this::thresholdStage)
+                         .addStage("contours", this::contoursStage)
+                         .addStage("poseMapping", this::poseMappingStage);
+            pipelinedTask.setPerfReportEnabled(tracer);
+            visionTask.setTaskEnabled(false);
+            mappedTargets.set(null);
+            pipelinedTask.setTaskEnabled(taskEnabled);
+        }
+        else if (!enabled && pipelinedTask != null)
+        {
+            pipelinedTask.setTaskEnabled(false);
+            pipelinedTask = null;
+            visionTask.setTaskEnabled(taskEnabled);
+        }
+    }   //setPipelinedProcessingEnabled
+
+    /**
+     * This method returns the pipelined vision task for accessing its stage metrics.
+     *
+     * @return pipelined vision task, null if pipelined processing is not enabled.
+     */
+    public synchronized TrcPipelinedVisionTask<?> getPipelinedTask()
+    {
+        return pipelinedTask;
+    }   //getPipelinedTask
+
+    /**
+     * This method is the capture stage of pipelined processing.
+     *
+     * @param frame specifies the frame context.
+     * @return true if a frame is captured, false otherwise.
+     */
+    private boolean captureStage(PipelinedFrame frame)
+    {
+        frame.detectedObjects = null;
+        frame.timestamp = TrcTimer.getCurrentTime();
+        return getFrame(frame.image);
+    }   //captureStage
+
+    /**
+     * This method is the color threshold stage of pipelined processing. Pipelines other than the color blob
+     * pipeline are processed as a whole here.
+     *
+     * @param frame specifies the frame context.
+     * @return true if the frame is processed, false if there is no pipeline.
+     */
+    private boolean thresholdStage(PipelinedFrame frame)
+    {
+        TrcOpenCvPipeline<DetectedObject<?>> pipeline = openCvPipeline;
+
+        if (pipeline instanceof TrcOpenCvColorBlobPipeline)
+        {
+            TrcOpenCvColorBlobPipeline colorBlobPipeline = (TrcOpenCvColorBlobPipeline) pipeline;
+            frame.roi = colorBlobPipeline.getSearchRect(frame.image, frame.timestamp);
+            colorBlobPipeline.threshold(frame.image, frame.roi, frame.thresholdOutput);
+        }
+        else if (pipeline != null)
+        {
+            frame.detectedObjects = pipeline.process(frame.image);
+        }
+
+        return pipeline != null;
+    }   //thresholdStage
+
+    /**
+     * This method is the contour detection stage of pipelined processing.
+     *
+     * @param frame specifies the frame context.
+     * @return true always.
+     */
+    private boolean contoursStage(PipelinedFrame frame)
+    {
+        TrcOpenCvPipeline<DetectedObject<?>> pipeline = openCvPipeline;
+
+        if (pipeline instanceof TrcOpenCvColorBlobPipeline)
+        {
+            frame.detectedObjects = ((TrcOpenCvColorBlobPipeline) pipeline).detectObjects(
+                frame.thresholdOutput, frame.roi, frame.timestamp);
+        }
+
+        return true;
+    }   //contoursStage
+
+    /**
+     * This method is the pose mapping stage of pipelined processing. It maps the detected objects to target info
+     * with the object and camera heights of the last getDetectedTargetsInfo call, publishes them and displays the
+     * annotated frame.
+     *
+     * @param frame specifies the frame context.
+     * @return true always.
+     */
+    private boolean poseMappingStage(PipelinedFrame frame)
+    {
+        TrcOpenCvPipeline<DetectedObject<?>> pipeline = openCvPipeline;
+
+        if (frame.detectedObjects != null)
+        {
+            ArrayList<TrcVisionTargetInfo<DetectedObject<?>>> targets = new ArrayList<>(frame.detectedObjects.length);
+            double objHeightOffset = mappedObjHeightOffset;
+            double cameraHeight = mappedCameraHeight;
+
+            for (DetectedObject<?> obj : frame.detectedObjects)
+            {
+                targets.add(new TrcVisionTargetInfo<>(obj, homographyMapper, objHeightOffset, cameraHeight));
+            }
+            mappedTargets.set(targets);
+
+            if (pipeline != null && pipeline.isAnnotateEnabled())
+            {
+                pipeline.annotateFrame(
+                    frame.image, frame.detectedObjects, ANNOTATE_RECT_COLOR, ANNOTATE_RECT_THICKNESS);
+            }
+        }
+        putFrame(frame.image);
+
+        return true;
+    }   //poseMappingStage
+
     /**
      * This method returns the current pipeline.
      *
@@ -176,6 +368,43 @@ public abstract class TrcOpenCvDetector implements TrcVisionProcessor<Mat, TrcOp
         return openCvPipeline;
     }   //getPipeline
 
+    /**
+     * This method enables/disables tracking mode of the current pipeline. In tracking mode, once an object is
+     * detected, only a padded region around its predicted position is processed until it is lost for a number of
+     * frames. Only TrcOpenCvColorBlobPipeline supports tracking mode, and only with sequential processing (see
+     * setPipelinedProcessingEnabled).
+     *
+     * @param params specifies the tracker parameters, null to disable tracking.
+     * @throws IllegalStateException if the pipeline does not support tracking, or enabling tracking while
+     *         pipelined processing is enabled.
+     */
+    public synchronized void setTrackingEnabled(TrcRoiTracker.Parameters params)
+    {
+        if (!(openCvPipeline instanceof TrcOpenCvColorBlobPipeline))
+        {
+            throw new IllegalStateException("Pipeline " + openCvPipeline + " does not support tracking.");
+        }
+
+        if (params != null && pipelinedTask != null)
+        {
+            throw new IllegalStateException("Tracking is not supported in pipelined mode.");
+        }
+
+        ((TrcOpenCvColorBlobPipeline) openCvPipeline).setRoiTracker(params != null? new TrcRoiTracker(params): null);
+    }   //setTrackingEnabled
+
+    /**
+     * This method checks if the given pipeline is in tracking mode.
+     *
+     * @param pipeline specifies the pipeline, can be null.
+     * @return true if the pipeline is in tracking mode, false otherwise.
+     */
+    private static boolean isTrackingEnabled(TrcOpenCvPipeline<?> pipeline)
+    {
+        return pipeline instanceof TrcOpenCvColorBlobPipeline &&
+               ((TrcOpenCvColorBlobPipeline) pipeline).getRoiTracker() != null;
+    }   //isTrackingEnabled
+
     /**
      * This method returns an array of detected targets from Grip vision.
      *
@@ -192,22 +421,52 @@ public abstract class TrcOpenCvDetector implements TrcVisionProcessor<Mat, TrcOp
     {
         final String funcName = instanceName + ".getDetectedTargetsInfo";
         TrcVisionTargetInfo<DetectedObject<?>>[] detectedTargets = null;
-        DetectedObject<?>[] objects = visionTask.getDetectedObjects();
+        ArrayList<TrcVisionTargetInfo<DetectedObject<?>>> targetList = null;
+
+        if (pipelinedTask != null)
+        {
+            ArrayList<TrcVisionTargetInfo<DetectedObject<?>>> mappedList = mappedTargets.getAndSet(null);
 
-        if (objects != null)
+            if (mappedList != null)
+            {
+                targetList = new ArrayList<>();
+                for (TrcVisionTargetInfo<DetectedObject<?>> targetInfo : mappedList)
+                {
+                    if (filter == null || filter.validateTarget(targetInfo.detectedObj))
+                    {
+                        // The pose mapping stage uses the heights of the last call, remap if they have changed.
+                        targetList.add(
+                            objHeightOffset == mappedObjHeightOffset && cameraHeight == mappedCameraHeight?
+                                targetInfo:
+                                new TrcVisionTargetInfo<>(
+                                    targetInfo.detectedObj, homographyMapper, objHeightOffset, cameraHeight));
+                    }
+                }
+            }
+            mappedObjHeightOffset = objHeightOffset;
+            mappedCameraHeight = cameraHeight;
+        }
+        else
         {
-            ArrayList<TrcVisionTargetInfo<DetectedObject<?>>> targetList = new ArrayList<>();
+            DetectedObject<?>[] objects = visionTask.getDetectedObjects();
 
-            for (DetectedObject<?> obj : objects)
+            if (objects != null)
             {
-                if (filter == null || filter.validateTarget(obj))
+                targetList = new ArrayList<>();
+                for (DetectedObject<?> obj : objects)
                 {
-                    TrcVisionTargetInfo<DetectedObject<?>> targetInfo =
-                        new TrcVisionTargetInfo<>(obj, homographyMapper, objHeightOffset, cameraHeight);
-                    targetList.add(targetInfo);
+                    if (filter == null || filter.validateTarget(obj))
+                    {
+                        TrcVisionTargetInfo<DetectedObject<?>> targetInfo =
+                            new TrcVisionTargetInfo<>(obj, homographyMapper, objHeightOffset, cameraHeight);
+                        targetList.add(targetInfo);
+                    }
                 }
             }
+        }
 
+        if (targetList != null)
+        {
             if (targetList.size() > 0)
             {
                 detectedTargets = targetList.toArray(new TrcVisionTargetInfo[0]);
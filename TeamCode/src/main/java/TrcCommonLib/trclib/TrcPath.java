@@ -22,6 +22,7 @@
 
 package TrcCommonLib.trclib;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
@@ -32,6 +33,9 @@ import java.util.Arrays;
  */
 public class TrcPath
 {
+    // Default number of segments timeOptimalVelocity resamples a path into.
+    private static final int DEF_PROFILE_SEGMENTS = 100;
+
     /**
      * This method loads waypoints from a CSV file and create a path with them.
      *
@@ -277,6 +281,77 @@ public class TrcPath
         return path;
     }   //trapezoidVelocity
 
+    /**
+     * Set the velocities, accelerations and timesteps of the waypoints in the path to the time-optimal velocity
+     * profile that satisfies the constraints of the given profiler (max velocity and acceleration, centripetal
+     * acceleration in curves, wheel speed limits and region speed caps). The profile is only evaluated at the
+     * waypoints, so the path is first resampled so that no segment is longer than the given spacing. The original
+     * waypoints are kept so corners are preserved. For polyline paths, set the curvature span of the profiler (see
+     * TrcVelocityProfiler.Parameters.setCurvatureSpan) so the corners are profiled as the turn the follower drives.
+     *
+     * @param profiler specifies the velocity profiler with the constraints.
+     * @param maxSpacing specifies the maximum distance between waypoints of the profiled path, with matching units.
+     * @return A new {@link TrcPath} object, with the velocities and accelerations matching the profile.
+     */
+    public TrcPath timeOptimalVelocity(TrcVelocityProfiler profiler, double maxSpacing)
+    {
+        TrcPath path = resample(maxSpacing);
+        profiler.profile(path);
+        return path;
+    }   //timeOptimalVelocity
+
+    /**
+     * Set the velocities, accelerations and timesteps of the waypoints in the path to the time-optimal velocity
+     * profile that satisfies the constraints of the given profiler. The path is resampled into at least
+     * DEF_PROFILE_SEGMENTS segments so that sparse paths (e.g. from TrcPathBuilder) get resolved ramps. A path
+     * without arc length (e.g. a turn in place) is profiled without resampling.
+     *
+     * @param profiler specifies the velocity profiler with the constraints.
+     * @return A new {@link TrcPath} object, with the velocities and accelerations matching the profile.
+     */
+    public TrcPath timeOptimalVelocity(TrcVelocityProfiler profiler)
+    {
+        double arcLength = getArcLength();
+        TrcPath path = arcLength > 0.0? resample(arcLength/DEF_PROFILE_SEGMENTS): clone();
+
+        profiler.profile(path);
+        return path;
+    }   //timeOptimalVelocity
+
+    /**
+     * This method returns a copy of the path with waypoints interpolated into every segment longer than the given
+     * spacing, so that each segment is split into equal parts no longer than the spacing. The original waypoints are
+     * kept.
+     *
+     * @param maxSpacing specifies the maximum distance between waypoints, with matching units.
+     * @return A new {@link TrcPath} object with the interpolated waypoints.
+     * @throws IllegalArgumentException if maxSpacing is not positive.
+     */
+    public TrcPath resample(double maxSpacing)
+    {
+        if (!(maxSpacing > 0.0))
+        {
+            throw new IllegalArgumentException("Spacing must be positive: " + maxSpacing);
+        }
+
+        ArrayList<TrcWaypoint> points = new ArrayList<>();
+        points.add(new TrcWaypoint(waypoints[0]));
+        for (int i = 0; i < waypoints.length - 1; i++)
+        {
+            TrcWaypoint from = waypoints[i];
+            TrcWaypoint to = waypoints[i + 1];
+            int numSegments = Math.max((int) Math.ceil(from.distanceTo(to)/maxSpacing), 1);
+
+            for (int j = 1; j < numSegments; j++)
+            {
+                points.add(interpolate(from, to, (double) j/numSegments));
+            }
+            points.add(new TrcWaypoint(to));
+        }
+
+        return new TrcPath(inDegrees, points.toArray(new TrcWaypoint[0]));
+    }   //resample
+
     /**
      * This method returns a waypoint that is interpolated between the two specified waypoints with the specified
      * weight between the points.
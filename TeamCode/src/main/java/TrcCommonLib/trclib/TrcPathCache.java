@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * This class implements a binary cache of compiled paths. A path is built and profiled once, either ahead of time by
+ * running the main method of this class on a desktop JVM or on the robot the first time it is requested, and saved
+ * in a compact binary file. Subsequent requests memory-map the file and read the waypoints directly from the mapped
+ * buffer without any text parsing, which makes op-mode init faster and guarantees the paths are bit-for-bit the same
+ * on every run.
+ * <p>
+ * Each file is tagged with a source hash supplied by the caller that should change whenever the inputs of the path
+ * (waypoints, constraints, profiler parameters) change. A missing, corrupted or stale file (different source hash or
+ * format version) is regenerated by calling the path builder at runtime.
+ * <p>
+ * File format (big endian): magic "TRCP", format version, source hash, inDegrees flag, number of waypoints, then for
+ * each waypoint the 8 values timeStep, x, y, heading, encoderPosition, velocity, acceleration and jerk (same order as
+ * the CSV files), followed by the CRC32 of everything before it.
+ * <p>
+ * This class does not use the global tracer so it can run on a desktop JVM without the robot debug log.
+ */
+public class TrcPathCache
+{
+    public static final String FILE_EXTENSION = ".path";
+    private static final int MAGIC = 0x54524350;    // "TRCP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+    private static final int VALUES_PER_WAYPOINT = 8;
+    private static final int WAYPOINT_SIZE = VALUES_PER_WAYPOINT*8;
+
+    /**
+     * This interface is implemented by the caller to build and profile a path at runtime when the cached file is
+     * missing or stale.
+     */
+    public interface PathBuilder
+    {
+        /**
+         * This method builds the path.
+         *
+         * @return built path.
+         */
+        TrcPath buildPath();
+
+    }   //interface PathBuilder
+
+    /**
+     * This interface is implemented by the robot code to declare all the paths to be compiled ahead of time. The
+     * implementing class must have a public no-argument constructor so it can be instantiated by the main method.
+     */
+    public interface PathSet
+    {
+        /**
+         * This method is called to compile all the paths into the given cache. Implementation should call
+         * getPath for each path with the same name, source hash and builder as used by the robot code.
+         *
+         * @param cache specifies the path cache to compile the paths into.
+         */
+        void compilePaths(TrcPathCache cache);
+
+    }   //interface PathSet
+
+    private final String cacheFolderPath;
+    private TrcDbgTrace msgTracer = null;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param cacheFolderPath specifies the folder path of the cached path files.
+     */
+    public TrcPathCache(String cacheFolderPath)
+    {
+        this.cacheFolderPath = cacheFolderPath;
+    }   //TrcPathCache
+
+    /**
+     * This method sets the message tracer for logging cache misses and errors.
+     *
+     * @param tracer specifies the tracer for logging messages.
+     */
+    public void setMsgTracer(TrcDbgTrace tracer)
+    {
+        msgTracer = tracer;
+    }   //setMsgTracer
+
+    /**
+     * This method returns the path with the given name. It is loaded from the cache if there is a valid cached file
+     * with the same source hash, otherwise it is built with the given builder and written to the cache.
+     *
+     * @param name specifies the name of the path, used as the file name.
+     * @param sourceHash specifies the hash of the inputs of the path, used to detect stale files.
+     * @param builder specifies the builder to build the path if it is not cached.
+     * @return path.
+     */
+    public TrcPath getPath(String name, long sourceHash, PathBuilder builder)
+    {
+        final String funcName = "getPath";
+        File file = getFile(name);
+        TrcPath path = null;
+
+        if (file.exists())
+        {
+            try
+            {
+                path = readPath(file, sourceHash);
+            }
+            catch (IOException e)
+            {
+                if (msgTracer != null)
+                {
+                    msgTracer.traceWarn(funcName, "Failed to read cached path %s: %s", file, e.getMessage());
+                }
+            }
+        }
+
+        if (path == null)
+        {
+            if (msgTracer != null)
+            {
+                msgTracer.traceInfo(funcName, "Path %s is not cached or stale, building it.", name);
+            }
+
+            path = builder.buildPath();
+            try
+            {
+                writePath(file, sourceHash, path);
+            }
+            catch (IOException e)
+            {
+                // The path is still usable, it will just be built again next time.
+                if (msgTracer != null)
+                {
+                    msgTracer.traceWarn(funcName, "Failed to write cached path %s: %s", file, e.getMessage());
+                }
+            }
+        }
+
+        return path;
+    }   //getPath
+
+    /**
+     * This method computes a source hash from the given values, typically the waypoint coordinates and the profile
+     * constraints. The hash depends on the exact bits of the values so any change will invalidate the cached path.
+     *
+     * @param values specifies the values.
+     * @return source hash.
+     */
+    public static long computeSourceHash(double... values)
+    {
+        // 64-bit FNV-1a over the raw bits of the values.
+        long hash = 0xcbf29ce484222325L;
+
+        for (double value: values)
+        {
+            long bits = Double.doubleToLongBits(value);
+            for (int i = 0; i < 8; i++)
+            {
+                hash ^= (bits >>> (i*8)) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+        }
+
+        return hash;
+    }   //computeSourceHash
+
+    /**
+     * This method returns the cache file of the given path name.
+     *
+     * @param name specifies the name of the path.
+     * @return cache file.
+     */
+    private File getFile(String name)
+    {
+        return new File(cacheFolderPath, name + FILE_EXTENSION);
+    }   //getFile
+
+    /**
+     * This method reads a cached path file by memory-mapping it.
+     *
+     * @param file specifies the cache file.
+     * @param sourceHash specifies the expected source hash.
+     * @return path read, null if the file is stale or corrupted.
+     * @throws IOException if the file cannot be read.
+     */
+    private static TrcPath readPath(File file, long sourceHash) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+        {
+            long size = channel.size();
+
+            if (size < HEADER_SIZE + 8)
+            {
+                return null;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            int numWaypoints = buffer.getInt(20);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getLong(8) != sourceHash ||
+                numWaypoints < 2 || size != HEADER_SIZE + (long) numWaypoints*WAYPOINT_SIZE + 8)
+            {
+                return null;
+            }
+
+            int dataSize = (int) size - 8;
+            CRC32 crc = new CRC32();
+            byte[] chunk = new byte[Math.min(dataSize, 4096)];
+            ByteBuffer data = buffer.duplicate();
+            data.limit(dataSize);
+            // CRC32.update(ByteBuffer) is not available on older Android API levels, checksum in chunks instead.
+            while (data.hasRemaining())
+            {
+                int length = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+
+            if (crc.getValue() != buffer.getLong(dataSize))
+            {
+                return null;
+            }
+
+            TrcWaypoint[] waypoints = new TrcWaypoint[numWaypoints];
+            int offset = HEADER_SIZE;
+            for (int i = 0; i < numWaypoints; i++)
+            {
+                waypoints[i] = new TrcWaypoint(
+                    buffer.getDouble(offset), buffer.getDouble(offset + 8), buffer.getDouble(offset + 16),
+                    buffer.getDouble(offset + 24), buffer.getDouble(offset + 32), buffer.getDouble(offset + 40),
+                    buffer.getDouble(offset + 48), buffer.getDouble(offset + 56));
+                offset += WAYPOINT_SIZE;
+            }
+
+            return new TrcPath(buffer.getInt(16) != 0, waypoints);
+        }
+    }   //readPath
+
+    /**
+     * This method writes a path to a cache file. The file is written to a temporary file first and renamed over the
+     * cache file so a partially written file is never read.
+     *
+     * @param file specifies the cache file.
+     * @param sourceHash specifies the source hash.
+     * @param path specifies the path to write.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void writePath(File file, long sourceHash, TrcPath path) throws IOException
+    {
+        TrcWaypoint[] waypoints = path.getAllWaypoints();
+        int dataSize = HEADER_SIZE + waypoints.length*WAYPOINT_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(dataSize + 8).order(ByteOrder.BIG_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(sourceHash);
+        buffer.putInt(path.isInDegrees()? 1: 0);
+        buffer.putInt(waypoints.length);
+        for (TrcWaypoint waypoint: waypoints)
+        {
+            buffer.putDouble(waypoint.timeStep);
+            buffer.putDouble(waypoint.pose.x);
+            buffer.putDouble(waypoint.pose.y);
+            buffer.putDouble(waypoint.pose.angle);
+            buffer.putDouble(waypoint.encoderPosition);
+            buffer.putDouble(waypoint.velocity);
+            buffer.putDouble(waypoint.acceleration);
+            buffer.putDouble(waypoint.jerk);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, dataSize);
+        buffer.putLong(crc.getValue());
+
+        File folder = file.getParentFile();
+        if (folder != null && !folder.exists() && !folder.mkdirs())
+        {
+            throw new IOException("Failed to create folder " + folder);
+        }
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile))
+        {
+            out.write(buffer.array());
+            out.getFD().sync();
+        }
+
+        if (!tmpFile.renameTo(file))
+        {
+            // Some file systems don't support renaming over an existing file.
+            if (!file.delete() || !tmpFile.renameTo(file))
+            {
+                throw new IOException("Failed to rename " + tmpFile + " to " + file);
+            }
+        }
+    }   //writePath
+
+    /**
+     * This method compiles all the paths of a path set ahead of time. It runs on a desktop JVM as part of the build
+     * so the cached files can be deployed with the robot code, e.g.
+     * java -cp classes TrcCommonLib.trclib.TrcPathCache com.example.AutoPaths out/paths
+     *
+     * @param args specifies the class name of the PathSet and the output folder.
+     * @throws Exception if the path set cannot be instantiated or the files cannot be written.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: TrcPathCache <PathSet class name> <output folder>");
+            System.exit(1);
+        }
+
+        // Path building code may trace, so send all trace messages to the console.
+        TrcDbgTrace.setDbgLog(
+            new TrcDbgTrace.DbgLog()
+            {
+                @Override
+                public void msg(TrcDbgTrace.MsgLevel level, String msg)
+                {
+                    System.out.println(level + ": " + msg);
+                }
+
+                @Override
+                public void traceMsg(String msg)
+                {
+                    System.out.print(msg);
+                }
+            });
+
+        PathSet pathSet = (PathSet) Class.forName(args[0]).getDeclaredConstructor().newInstance();
+        File folder = new File(args[1]);
+        // Always rebuild when compiling ahead of time.
+        File[] oldFiles = folder.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+        if (oldFiles != null)
+        {
+            for (File file: oldFiles)
+            {
+                if (!file.delete())
+                {
+                    throw new IOException("Failed to delete " + file);
+                }
+            }
+        }
+
+        pathSet.compilePaths(new TrcPathCache(args[1]));
+        File[] newFiles = folder.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+        System.out.printf("Compiled %d paths into %s.%n", newFiles != null? newFiles.length: 0, folder);
+    }   //main
+
+}   //class TrcPathCache
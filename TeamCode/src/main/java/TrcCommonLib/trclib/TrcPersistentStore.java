@@ -0,0 +1,652 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * This class implements a small memory resident key-value store for tuning parameters that persists to file storage
+ * in the background. All reads are served from memory. Writes update memory immediately and are queued; a standalone
+ * task periodically appends the queued writes as a batch to an append-only log file, so the caller (e.g. a tuning
+ * menu on the robot thread) never blocks on file I/O. When the log grows beyond a threshold, it is compacted into a
+ * snapshot file. The snapshot is written to a temporary file and atomically renamed into place before the log is
+ * truncated, so a crash at any point leaves either the old or the new snapshot plus a log that can be replayed.
+ * <p>
+ * Each record is a line of text in the form "+key=v1,v2,...*crc" for a put or "-key*crc" for a removal where crc is
+ * the CRC32 of the record text. Records that fail the CRC check (e.g. a torn write from a power loss) are ignored.
+ */
+public class TrcPersistentStore
+{
+    private static final String moduleName = "TrcPersistentStore";
+    private static final TrcDbgTrace globalTracer = TrcDbgTrace.getGlobalTracer();
+    private static final boolean debugEnabled = false;
+
+    public static final long DEF_FLUSH_INTERVAL_MS = 100;
+    public static final int DEF_COMPACT_THRESHOLD = 256;
+
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String LOG_SUFFIX = ".log";
+    private static final double[] REMOVED = new double[0];
+
+    /**
+     * This class encapsulates the feed forward coefficients of a mechanism (static, velocity and acceleration gains).
+     */
+    public static class FeedforwardCoefficients
+    {
+        public double kS;
+        public double kV;
+        public double kA;
+
+        /**
+         * Constructor: Create an instance of the object.
+         *
+         * @param kS specifies the static gain.
+         * @param kV specifies the velocity gain.
+         * @param kA specifies the acceleration gain.
+         */
+        public FeedforwardCoefficients(double kS, double kV, double kA)
+        {
+            this.kS = kS;
+            this.kV = kV;
+            this.kA = kA;
+        }   //FeedforwardCoefficients
+
+        /**
+         * This method returns all the coefficients as a string.
+         *
+         * @return coefficients string.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.US, "(kS=%f,kV=%f,kA=%f)", kS, kV, kA);
+        }   //toString
+
+    }   //class FeedforwardCoefficients
+
+    private final String instanceName;
+    private final File snapshotFile;
+    private final File tempFile;
+    private final File logFile;
+    private final int compactThreshold;
+    private final ConcurrentHashMap<String, double[]> store = new ConcurrentHashMap<>();
+    private final TrcTaskMgr.TaskObject flushTaskObj;
+    private final TrcTaskMgr.TaskObject stopTaskObj;
+    private final CRC32 crc = new CRC32();
+    private final StringBuilder recordBuilder = new StringBuilder();
+    // Pending writes are double buffered: callers add to pendingWrites, the flush task swaps it with flushingWrites.
+    private LinkedHashMap<String, double[]> pendingWrites = new LinkedHashMap<>();
+    private LinkedHashMap<String, double[]> flushingWrites = new LinkedHashMap<>();
+    private FileOutputStream logStream = null;
+    private Writer logWriter = null;
+    private int logRecordCount = 0;
+
+    /**
+     * Constructor: Create an instance of the object. It loads the snapshot and replays the log file synchronously so
+     * the store is fully populated when the constructor returns. This should be called at robot init time.
+     *
+     * @param instanceName specifies the instance name, also used as the file name prefix.
+     * @param folderPath specifies the folder for the store files.
+     * @param flushInterval specifies the batching interval in msec of the background writes.
+     * @param compactThreshold specifies the number of log records that triggers compaction.
+     */
+    public TrcPersistentStore(String instanceName, String folderPath, long flushInterval, int compactThreshold)
+    {
+        File folder = new File(folderPath);
+        folder.mkdirs();
+
+        this.instanceName = instanceName;
+        this.snapshotFile = new File(folder, instanceName + SNAPSHOT_SUFFIX);
+        this.tempFile = new File(folder, instanceName + SNAPSHOT_SUFFIX + TEMP_SUFFIX);
+        this.logFile = new File(folder, instanceName + LOG_SUFFIX);
+        this.compactThreshold = compactThreshold;
+
+        // A leftover temp file means a compaction was interrupted before the rename, the log still has everything.
+        if (tempFile.exists())
+        {
+            tempFile.delete();
+        }
+        loadFile(snapshotFile);
+        logRecordCount = loadFile(logFile);
+
+        flushTaskObj = TrcTaskMgr.createTask(instanceName + ".flushTask", this::flushTask);
+        flushTaskObj.registerTask(TrcTaskMgr.TaskType.STANDALONE_TASK, flushInterval);
+        stopTaskObj = TrcTaskMgr.createTask(instanceName + ".stopTask", this::stopTask);
+        stopTaskObj.registerTask(TrcTaskMgr.TaskType.STOP_TASK);
+    }   //TrcPersistentStore
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name, also used as the file name prefix.
+     * @param folderPath specifies the folder for the store files.
+     */
+    public TrcPersistentStore(String instanceName, String folderPath)
+    {
+        this(instanceName, folderPath, DEF_FLUSH_INTERVAL_MS, DEF_COMPACT_THRESHOLD);
+    }   //TrcPersistentStore
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method checks if the store has a value for the given key.
+     *
+     * @param key specifies the key.
+     * @return true if the store has the key, false otherwise.
+     */
+    public boolean containsKey(String key)
+    {
+        return store.containsKey(key);
+    }   //containsKey
+
+    /**
+     * This method returns the values stored for the given key.
+     *
+     * @param key specifies the key.
+     * @param defValues specifies the values to return if the key is not found.
+     * @return a copy of the stored values, or a copy of defValues if not found.
+     */
+    public double[] getDoubles(String key, double... defValues)
+    {
+        double[] values = store.get(key);
+
+        if (values == null)
+        {
+            values = defValues;
+        }
+
+        return values != null? values.clone(): null;
+    }   //getDoubles
+
+    /**
+     * This method stores the values for the given key. The values are persisted by the background flush task.
+     *
+     * @param key specifies the key, must not contain '=', '*' or line breaks.
+     * @param values specifies the values to store.
+     */
+    public void putDoubles(String key, double... values)
+    {
+        validateKey(key);
+        double[] copy = values.clone();
+
+        // Update memory and the pending writes together so concurrent puts to the same key persist the value that
+        // ends up in memory.
+        synchronized (this)
+        {
+            store.put(key, copy);
+            pendingWrites.put(key, copy);
+        }
+    }   //putDoubles
+
+    /**
+     * This method removes the given key from the store.
+     *
+     * @param key specifies the key to be removed.
+     */
+    public void remove(String key)
+    {
+        synchronized (this)
+        {
+            if (store.remove(key) != null)
+            {
+                pendingWrites.put(key, REMOVED);
+            }
+        }
+    }   //remove
+
+    /**
+     * This method returns the value stored for the given key.
+     *
+     * @param key specifies the key.
+     * @param defValue specifies the value to return if the key is not found.
+     * @return stored value, or defValue if not found.
+     */
+    public double getDouble(String key, double defValue)
+    {
+        double[] values = store.get(key);
+        return values != null && values.length > 0? values[0]: defValue;
+    }   //getDouble
+
+    /**
+     * This method stores the value for the given key.
+     *
+     * @param key specifies the key.
+     * @param value specifies the value to store.
+     */
+    public void putDouble(String key, double value)
+    {
+        putDoubles(key, value);
+    }   //putDouble
+
+    /**
+     * This method returns the PID coefficients stored for the given key.
+     *
+     * @param key specifies the key.
+     * @param defPidCoeff specifies the PID coefficients to return if the key is not found.
+     * @return stored PID coefficients, or defPidCoeff if not found.
+     */
+    public TrcPidController.PidCoefficients getPidCoefficients(String key, TrcPidController.PidCoefficients defPidCoeff)
+    {
+        double[] values = store.get(key);
+        return values != null && values.length == 5?
+            new TrcPidController.PidCoefficients(values[0], values[1], values[2], values[3], values[4]): defPidCoeff;
+    }   //getPidCoefficients
+
+    /**
+     * This method stores the PID coefficients for the given key.
+     *
+     * @param key specifies the key.
+     * @param pidCoeff specifies the PID coefficients to store.
+     */
+    public void putPidCoefficients(String key, TrcPidController.PidCoefficients pidCoeff)
+    {
+        putDoubles(key, pidCoeff.kP, pidCoeff.kI, pidCoeff.kD, pidCoeff.kF, pidCoeff.iZone);
+    }   //putPidCoefficients
+
+    /**
+     * This method returns the feed forward coefficients stored for the given key.
+     *
+     * @param key specifies the key.
+     * @param defFfCoeff specifies the feed forward coefficients to return if the key is not found.
+     * @return stored feed forward coefficients, or defFfCoeff if not found.
+     */
+    public FeedforwardCoefficients getFeedforwardCoefficients(String key, FeedforwardCoefficients defFfCoeff)
+    {
+        double[] values = store.get(key);
+        return values != null && values.length == 3?
+            new FeedforwardCoefficients(values[0], values[1], values[2]): defFfCoeff;
+    }   //getFeedforwardCoefficients
+
+    /**
+     * This method stores the feed forward coefficients for the given key.
+     *
+     * @param key specifies the key.
+     * @param ffCoeff specifies the feed forward coefficients to store.
+     */
+    public void putFeedforwardCoefficients(String key, FeedforwardCoefficients ffCoeff)
+    {
+        putDoubles(key, ffCoeff.kS, ffCoeff.kV, ffCoeff.kA);
+    }   //putFeedforwardCoefficients
+
+    /**
+     * This method returns the preset table stored for the given key (e.g. for TrcMotor.setPosPresets).
+     *
+     * @param key specifies the key.
+     * @param defPresets specifies the presets to return if the key is not found.
+     * @return stored presets, or defPresets if not found.
+     */
+    public double[] getPresets(String key, double... defPresets)
+    {
+        return getDoubles(key, defPresets);
+    }   //getPresets
+
+    /**
+     * This method stores the preset table for the given key.
+     *
+     * @param key specifies the key.
+     * @param presets specifies the presets to store.
+     */
+    public void putPresets(String key, double... presets)
+    {
+        putDoubles(key, presets);
+    }   //putPresets
+
+    /**
+     * This method writes all pending changes to the log file synchronously. It is called periodically by the flush
+     * task and can be called by the caller to force the changes to file storage (e.g. before shutting down).
+     */
+    public void flush()
+    {
+        final String funcName = "flush";
+        LinkedHashMap<String, double[]> batch;
+
+        // Serialize flushes so that the flush task and an explicit flush don't interleave their writes.
+        synchronized (logFile)
+        {
+            synchronized (this)
+            {
+                if (pendingWrites.isEmpty())
+                {
+                    return;
+                }
+                batch = pendingWrites;
+                pendingWrites = flushingWrites;
+                flushingWrites = batch;
+            }
+
+            try
+            {
+                if (logWriter == null)
+                {
+                    logStream = new FileOutputStream(logFile, true);
+                    logWriter = new BufferedWriter(new OutputStreamWriter(logStream, StandardCharsets.UTF_8));
+                }
+
+                for (Map.Entry<String, double[]> entry: batch.entrySet())
+                {
+                    logWriter.write(encodeRecord(entry.getKey(), entry.getValue()));
+                    logRecordCount++;
+                }
+                logWriter.flush();
+                logStream.getFD().sync();
+
+                if (debugEnabled)
+                {
+                    globalTracer.traceInfo(
+                        funcName, "%s: flushed %d records, logSize=%d", instanceName, batch.size(), logRecordCount);
+                }
+            }
+            catch (IOException e)
+            {
+                globalTracer.traceErr(funcName, "%s: failed to write log file (%s).", instanceName, e.getMessage());
+            }
+            batch.clear();
+
+            if (logRecordCount >= compactThreshold)
+            {
+                compact();
+            }
+        }
+    }   //flush
+
+    /**
+     * This method flushes all pending changes and stops the background flush task. The store is still readable
+     * after it is closed but further changes will not be persisted.
+     */
+    public void close()
+    {
+        flushTaskObj.unregisterTask();
+        stopTaskObj.unregisterTask();
+        flush();
+
+        synchronized (logFile)
+        {
+            closeLog();
+        }
+    }   //close
+
+    /**
+     * This method compacts the log into a new snapshot. The snapshot is written to a temporary file, synced and
+     * renamed over the old snapshot, then the log is truncated. This assumes the caller holds the logFile lock.
+     */
+    private void compact()
+    {
+        final String funcName = "compact";
+
+        try (FileOutputStream out = new FileOutputStream(tempFile, false))
+        {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+            for (Map.Entry<String, double[]> entry: store.entrySet())
+            {
+                writer.write(encodeRecord(entry.getKey(), entry.getValue()));
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        catch (IOException e)
+        {
+            globalTracer.traceErr(funcName, "%s: failed to write snapshot (%s).", instanceName, e.getMessage());
+            return;
+        }
+
+        if (!tempFile.renameTo(snapshotFile))
+        {
+            globalTracer.traceErr(funcName, "%s: failed to rename snapshot.", instanceName);
+            return;
+        }
+        // The snapshot now has everything, it's safe to truncate the log. If we crash before this, replaying the log
+        // over the new snapshot yields the same result.
+        closeLog();
+        try
+        {
+            new FileOutputStream(logFile, false).close();
+            logRecordCount = 0;
+        }
+        catch (IOException e)
+        {
+            globalTracer.traceErr(funcName, "%s: failed to truncate log (%s).", instanceName, e.getMessage());
+        }
+
+        if (debugEnabled)
+        {
+            globalTracer.traceInfo(funcName, "%s: compacted %d keys.", instanceName, store.size());
+        }
+    }   //compact
+
+    /**
+     * This method closes the log file if it is open. This assumes the caller holds the logFile lock.
+     */
+    private void closeLog()
+    {
+        if (logWriter != null)
+        {
+            try
+            {
+                logWriter.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing we can do, the data has already been synced.
+            }
+            logWriter = null;
+            logStream = null;
+        }
+    }   //closeLog
+
+    /**
+     * This method reads records from the given file and applies them to the store.
+     *
+     * @param file specifies the file to read.
+     * @return number of valid records read.
+     */
+    private int loadFile(File file)
+    {
+        final String funcName = "loadFile";
+        int count = 0;
+
+        if (file.exists())
+        {
+            try (BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)))
+            {
+                String line;
+
+                while ((line = reader.readLine()) != null)
+                {
+                    if (decodeRecord(line))
+                    {
+                        count++;
+                    }
+                    else
+                    {
+                        globalTracer.traceWarn(funcName, "%s: skipping corrupted record <%s>.", instanceName, line);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                globalTracer.traceErr(funcName, "%s: failed to read %s (%s).", instanceName, file, e.getMessage());
+            }
+        }
+
+        return count;
+    }   //loadFile
+
+    /**
+     * This method encodes a put or remove record into a line of text with CRC.
+     *
+     * @param key specifies the key.
+     * @param values specifies the values, REMOVED for a removal.
+     * @return encoded record line.
+     */
+    private String encodeRecord(String key, double[] values)
+    {
+        recordBuilder.setLength(0);
+        if (values == REMOVED)
+        {
+            recordBuilder.append('-').append(key);
+        }
+        else
+        {
+            recordBuilder.append('+').append(key).append('=');
+            for (int i = 0; i < values.length; i++)
+            {
+                if (i > 0) recordBuilder.append(',');
+                recordBuilder.append(values[i]);
+            }
+        }
+
+        String record = recordBuilder.toString();
+        crc.reset();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+
+        return record + '*' + Long.toHexString(crc.getValue()) + '\n';
+    }   //encodeRecord
+
+    /**
+     * This method decodes a record line and applies it to the store.
+     *
+     * @param line specifies the record line.
+     * @return true if the record is valid, false otherwise.
+     */
+    private boolean decodeRecord(String line)
+    {
+        int crcIndex = line.lastIndexOf('*');
+
+        if (line.length() < 2 || crcIndex < 0)
+        {
+            return false;
+        }
+
+        String record = line.substring(0, crcIndex);
+        crc.reset();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        try
+        {
+            if (Long.parseLong(line.substring(crcIndex + 1), 16) != crc.getValue())
+            {
+                return false;
+            }
+
+            if (record.charAt(0) == '-')
+            {
+                store.remove(record.substring(1));
+            }
+            else if (record.charAt(0) == '+')
+            {
+                int eqIndex = record.indexOf('=');
+                if (eqIndex < 0)
+                {
+                    return false;
+                }
+
+                String valueString = record.substring(eqIndex + 1);
+                String[] tokens = valueString.isEmpty()? new String[0]: valueString.split(",");
+                double[] values = new double[tokens.length];
+                for (int i = 0; i < tokens.length; i++)
+                {
+                    values[i] = Double.parseDouble(tokens[i]);
+                }
+                store.put(record.substring(1, eqIndex), values);
+            }
+            else
+            {
+                return false;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+
+        return true;
+    }   //decodeRecord
+
+    /**
+     * This method validates that the key can be encoded into a record.
+     *
+     * @param key specifies the key.
+     * @throws IllegalArgumentException if the key is invalid.
+     */
+    private static void validateKey(String key)
+    {
+        if (key.isEmpty() || key.indexOf('=') >= 0 || key.indexOf('*') >= 0 ||
+            key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0)
+        {
+            throw new IllegalArgumentException("Invalid key <" + key + ">.");
+        }
+    }   //validateKey
+
+    /**
+     * This method is called periodically on its own thread to write pending changes to the log file.
+     *
+     * @param taskType specifies the type of task being run.
+     * @param runMode specifies the competition mode that is running.
+     * @param slowPeriodicLoop specifies true if it is running the slow periodic loop on the main robot thread,
+     *        false otherwise.
+     */
+    private void flushTask(TrcTaskMgr.TaskType taskType, TrcRobot.RunMode runMode, boolean slowPeriodicLoop)
+    {
+        flush();
+    }   //flushTask
+
+    /**
+     * This method is called when the competition mode is about to end to make sure pending changes are persisted
+     * before the standalone task thread is terminated.
+     *
+     * @param taskType specifies the type of task being run.
+     * @param runMode specifies the competition mode that is about to end (e.g. Autonomous, TeleOp, Test).
+     * @param slowPeriodicLoop specifies true if it is running the slow periodic loop on the main robot thread,
+     *        false otherwise.
+     */
+    private void stopTask(TrcTaskMgr.TaskType taskType, TrcRobot.RunMode runMode, boolean slowPeriodicLoop)
+    {
+        flush();
+    }   //stopTask
+
+}   //class TrcPersistentStore
@@ -0,0 +1,715 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import java.util.Locale;
+
+/**
+ * This class implements a relay feedback PID auto-tuner (Astrom-Hagglund method) for a TrcMotor. The tuner replaces
+ * the PID controller with a relay (bang-bang with hysteresis) around a set point, which drives the mechanism into a
+ * limit cycle oscillation. From the amplitude and period of the oscillation, it identifies the ultimate gain Ku and
+ * the ultimate period Tu of the mechanism and derives PID coefficients using the chosen tuning rule. The suggested
+ * coefficients are then validated with a step test before being applied to the motor. The tuner runs on the output
+ * thread alongside the motor's PID control task so the relay switching is not affected by the main robot loop.
+ * <p>
+ * The identified coefficients are in units of motor power per sensor unit, so they are only applicable to software
+ * PID control (i.e. setSoftwarePidEnabled(true)) and the tuner refuses to start otherwise. Once tuning is done,
+ * the caller can persist the coefficients with FtcPidCoeffCache.writeAutoTunedPidCoeff.
+ */
+public class TrcPidAutoTuner
+{
+    private static final String moduleName = "TrcPidAutoTuner";
+
+    /**
+     * This specifies which close-loop control of the motor to tune.
+     */
+    public enum TuneTarget
+    {
+        Position,
+        Velocity
+    }   //enum TuneTarget
+
+    /**
+     * This specifies the rule used to convert ultimate gain and period into PID coefficients. Tyreus-Luyben is more
+     * conservative than Ziegler-Nichols and is a better choice for mechanisms with a lot of inertia (e.g. arms).
+     */
+    public enum TuningRule
+    {
+        ZieglerNicholsPID(0.6, 0.5, 0.125),
+        ZieglerNicholsPI(0.45, 1.0/1.2, 0.0),
+        TyreusLuybenPID(1.0/2.2, 2.2, 1.0/6.3),
+        TyreusLuybenPI(1.0/3.2, 2.2, 0.0);
+
+        // Kp = kpFactor * Ku, Ti = tiFactor * Tu, Td = tdFactor * Tu.
+        public final double kpFactor;
+        public final double tiFactor;
+        public final double tdFactor;
+
+        TuningRule(double kpFactor, double tiFactor, double tdFactor)
+        {
+            this.kpFactor = kpFactor;
+            this.tiFactor = tiFactor;
+            this.tdFactor = tdFactor;
+        }   //TuningRule
+
+    }   //enum TuningRule
+
+    /**
+     * This class contains all the parameters related to the auto-tuner.
+     */
+    public static class Parameters
+    {
+        public TrcDbgTrace msgTracer = null;
+        public TuneTarget tuneTarget = TuneTarget.Position;
+        public TuningRule tuningRule = TuningRule.ZieglerNicholsPID;
+        public double relayAmplitude = 0.3;
+        public double relayBias = 0.0;
+        public double hysteresis = 0.0;
+        public int settleCycles = 2;
+        public int measureCycles = 4;
+        public double relayTimeout = 10.0;
+        public double stepSize = 0.0;
+        public double stepTimeout = 3.0;
+        public double stepTolerance = 1.0;
+        public double maxOvershoot = 0.25;
+
+        /**
+         * This method returns the string form of all the parameters.
+         *
+         * @return string form of all the parameters.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(
+                Locale.US,
+                "target=%s,rule=%s,relay=%.3f,bias=%.3f,hysteresis=%.3f,cycles=%d/%d,relayTimeout=%.1f," +
+                "step=%.3f,stepTimeout=%.1f,stepTolerance=%.3f,maxOvershoot=%.2f",
+                tuneTarget, tuningRule, relayAmplitude, relayBias, hysteresis, settleCycles, measureCycles,
+                relayTimeout, stepSize, stepTimeout, stepTolerance, maxOvershoot);
+        }   //toString
+
+        /**
+         * This method sets the message tracer for logging trace messages.
+         *
+         * @param tracer specifies the tracer for logging messages.
+         * @return this parameter object.
+         */
+        public Parameters setMsgTracer(TrcDbgTrace tracer)
+        {
+            this.msgTracer = tracer;
+            return this;
+        }   //setMsgTracer
+
+        /**
+         * This method sets the control loop to tune and the rule for computing the PID coefficients.
+         *
+         * @param tuneTarget specifies which close-loop control to tune.
+         * @param tuningRule specifies the tuning rule.
+         * @return this parameter object.
+         */
+        public Parameters setTuning(TuneTarget tuneTarget, TuningRule tuningRule)
+        {
+            this.tuneTarget = tuneTarget;
+            this.tuningRule = tuningRule;
+            return this;
+        }   //setTuning
+
+        /**
+         * This method sets the relay parameters.
+         *
+         * @param amplitude specifies the relay output amplitude in motor power (d).
+         * @param bias specifies the power added to the relay output (e.g. gravity compensation or velocity feed
+         *        forward so the relay oscillates around the set point).
+         * @param hysteresis specifies the relay hysteresis band in sensor units to reject sensor noise.
+         * @return this parameter object.
+         */
+        public Parameters setRelay(double amplitude, double bias, double hysteresis)
+        {
+            this.relayAmplitude = Math.abs(amplitude);
+            this.relayBias = bias;
+            this.hysteresis = Math.abs(hysteresis);
+            return this;
+        }   //setRelay
+
+        /**
+         * This method sets the number of oscillation cycles to run.
+         *
+         * @param settleCycles specifies the number of cycles to ignore before the oscillation is stable.
+         * @param measureCycles specifies the number of cycles to average for the measurement.
+         * @param timeout specifies the maximum time in seconds allowed for the relay test.
+         * @return this parameter object.
+         */
+        public Parameters setCycles(int settleCycles, int measureCycles, double timeout)
+        {
+            this.settleCycles = Math.max(settleCycles, 0);
+            this.measureCycles = Math.max(measureCycles, 1);
+            this.relayTimeout = timeout;
+            return this;
+        }   //setCycles
+
+        /**
+         * This method sets the step test parameters for validating the tuned coefficients.
+         *
+         * @param stepSize specifies the step size in sensor units relative to the set point, 0.0 to skip the step
+         *        test.
+         * @param timeout specifies the time in seconds allowed for the step response to settle.
+         * @param tolerance specifies the error tolerance in sensor units to consider settled.
+         * @param maxOvershoot specifies the maximum allowed overshoot as a fraction of the step size.
+         * @return this parameter object.
+         */
+        public Parameters setStepTest(double stepSize, double timeout, double tolerance, double maxOvershoot)
+        {
+            this.stepSize = stepSize;
+            this.stepTimeout = timeout;
+            this.stepTolerance = Math.abs(tolerance);
+            this.maxOvershoot = Math.abs(maxOvershoot);
+            return this;
+        }   //setStepTest
+
+    }   //class Parameters
+
+    /**
+     * This class contains the tuning result.
+     */
+    public static class Result
+    {
+        public double ultimateGain = 0.0;
+        public double ultimatePeriod = 0.0;
+        public double oscillationAmplitude = 0.0;
+        public TrcPidController.PidCoefficients pidCoeff = null;
+        public boolean stepTested = false;
+        public double overshoot = 0.0;
+        public double settlingTime = 0.0;
+        public boolean passed = false;
+
+        /**
+         * This method returns the string form of the result.
+         *
+         * @return string form of the result.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(
+                Locale.US, "Ku=%.6f,Tu=%.3f,amplitude=%.3f,pidCoeff=%s,stepTested=%s,overshoot=%.3f," +
+                "settlingTime=%.3f,passed=%s",
+                ultimateGain, ultimatePeriod, oscillationAmplitude, pidCoeff, stepTested, overshoot, settlingTime,
+                passed);
+        }   //toString
+
+    }   //class Result
+
+    private enum State
+    {
+        RelayTest,
+        StepTest,
+        Done
+    }   //enum State
+
+    private final String instanceName;
+    private final TrcMotor motor;
+    private final Parameters params;
+    private final TrcTaskMgr.TaskObject tunerTaskObj;
+    private final TrcTaskMgr.TaskObject stopTaskObj;
+    // Tuning states, accessed under the lock of this object.
+    private State state = State.Done;
+    private String owner = null;
+    private TrcEvent completionEvent = null;
+    private TrcPidController.PidCoefficients prevPidCoeff = null;
+    private Result result = null;
+    private double setPoint;
+    private double startTime;
+    private boolean relayHigh;
+    private int cycleCount;
+    private double cycleStartTime;
+    private double cycleMax;
+    private double cycleMin;
+    private double amplitudeSum;
+    private double periodSum;
+    private int measuredCycles;
+    private double stepTarget;
+    private double stepDirection;
+    private double peakExcursion;
+    private double settledStartTime;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param motor specifies the motor to be tuned.
+     * @param params specifies the tuning parameters.
+     */
+    public TrcPidAutoTuner(String instanceName, TrcMotor motor, Parameters params)
+    {
+        this.instanceName = instanceName;
+        this.motor = motor;
+        this.params = params;
+        tunerTaskObj = TrcTaskMgr.createTask(instanceName + ".tunerTask", this::tunerTask);
+        stopTaskObj = TrcTaskMgr.createTask(instanceName + ".stopTask", this::stopTask);
+    }   //TrcPidAutoTuner
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method returns the motor being tuned.
+     *
+     * @return motor being tuned.
+     */
+    public TrcMotor getMotor()
+    {
+        return motor;
+    }   //getMotor
+
+    /**
+     * This method returns the motor PID controller being tuned. Since the tuned coefficients only apply to software
+     * PID control, this will return null if the motor is not doing software PID.
+     *
+     * @return motor PID controller being tuned, null if software PID is not enabled.
+     */
+    public TrcPidController getPidController()
+    {
+        return !motor.isSoftwarePidEnabled()? null:
+            params.tuneTarget == TuneTarget.Position?
+                motor.getPositionPidController(): motor.getVelocityPidController();
+    }   //getPidController
+
+    /**
+     * This method checks if the auto-tuner is running.
+     *
+     * @return true if tuning is in progress, false otherwise.
+     */
+    public synchronized boolean isActive()
+    {
+        return state != State.Done;
+    }   //isActive
+
+    /**
+     * This method returns the result of the last tuning session.
+     *
+     * @return tuning result, null if tuning has not completed.
+     */
+    public synchronized Result getResult()
+    {
+        return state == State.Done? result: null;
+    }   //getResult
+
+    /**
+     * This method starts the auto-tuning session. The relay oscillates the motor around the given set point. For
+     * position tuning, the mechanism must be free to travel at least a few oscillation amplitudes on both sides of
+     * the set point.
+     *
+     * @param owner specifies the owner ID to check if the caller has ownership of the motor.
+     * @param setPoint specifies the position (sensor units) or velocity (sensor units/sec) to oscillate around.
+     * @param event specifies the event to signal when tuning is done, can be null if not provided.
+     * @throws IllegalStateException if the motor is not using software PID control.
+     */
+    public synchronized void start(String owner, double setPoint, TrcEvent event)
+    {
+        final String funcName = "start";
+
+        if (!motor.isSoftwarePidEnabled())
+        {
+            // The tuned coefficients are in software PID units, applying them to the motor's native PID is wrong.
+            throw new IllegalStateException(
+                "Motor " + motor + " must use software PID control for auto-tuning " + instanceName + ".");
+        }
+
+        if (isActive())
+        {
+            cancel();
+        }
+
+        if (event != null)
+        {
+            event.clear();
+        }
+
+        if (owner == null || motor.acquireExclusiveAccess(owner))
+        {
+            this.owner = owner;
+            this.completionEvent = event;
+            this.setPoint = setPoint;
+            prevPidCoeff = params.tuneTarget == TuneTarget.Position?
+                motor.getPositionPidCoefficients(): motor.getVelocityPidCoefficients();
+            result = new Result();
+            startTime = TrcTimer.getCurrentTime();
+            relayHigh = getProcessValue() < setPoint;
+            cycleCount = 0;
+            cycleStartTime = 0.0;
+            cycleMax = Double.NEGATIVE_INFINITY;
+            cycleMin = Double.POSITIVE_INFINITY;
+            amplitudeSum = 0.0;
+            periodSum = 0.0;
+            measuredCycles = 0;
+            state = State.RelayTest;
+            setRelayOutput();
+            tunerTaskObj.registerTask(TrcTaskMgr.TaskType.OUTPUT_TASK);
+            stopTaskObj.registerTask(TrcTaskMgr.TaskType.STOP_TASK);
+
+            if (params.msgTracer != null)
+            {
+                params.msgTracer.traceInfo(
+                    funcName, "%s: setPoint=%.3f, params=(%s)", instanceName, setPoint, params);
+            }
+        }
+        else if (event != null)
+        {
+            event.cancel();
+        }
+    }   //start
+
+    /**
+     * This method starts the auto-tuning session.
+     *
+     * @param setPoint specifies the position (sensor units) or velocity (sensor units/sec) to oscillate around.
+     * @param event specifies the event to signal when tuning is done, can be null if not provided.
+     * @throws IllegalStateException if the motor is not using software PID control.
+     */
+    public void start(double setPoint, TrcEvent event)
+    {
+        start(null, setPoint, event);
+    }   //start
+
+    /**
+     * This method cancels the tuning session. It stops the motor and restores the original PID coefficients.
+     */
+    public synchronized void cancel()
+    {
+        final String funcName = "cancel";
+
+        if (isActive())
+        {
+            if (params.msgTracer != null)
+            {
+                params.msgTracer.traceInfo(funcName, "%s: Canceling in state %s.", instanceName, state);
+            }
+
+            restorePidCoefficients();
+            finish(true);
+        }
+    }   //cancel
+
+    /**
+     * This method returns the process value being tuned.
+     *
+     * @return motor position or velocity depending on tune target.
+     */
+    private double getProcessValue()
+    {
+        return params.tuneTarget == TuneTarget.Position? motor.getPosition(): motor.getVelocity();
+    }   //getProcessValue
+
+    /**
+     * This method applies the relay output to the motor according to the current relay state.
+     */
+    private void setRelayOutput()
+    {
+        double power = params.relayBias + (relayHigh? params.relayAmplitude: -params.relayAmplitude);
+        motor.setPower(owner, 0.0, TrcUtil.clipRange(power), 0.0, null);
+    }   //setRelayOutput
+
+    /**
+     * This method restores the PID coefficients the motor had before tuning.
+     */
+    private void restorePidCoefficients()
+    {
+        if (prevPidCoeff != null)
+        {
+            setPidCoefficients(prevPidCoeff);
+        }
+    }   //restorePidCoefficients
+
+    /**
+     * This method applies the given PID coefficients to the close-loop control being tuned.
+     *
+     * @param pidCoeff specifies the PID coefficients.
+     */
+    private void setPidCoefficients(TrcPidController.PidCoefficients pidCoeff)
+    {
+        if (params.tuneTarget == TuneTarget.Position)
+        {
+            motor.setPositionPidCoefficients(pidCoeff);
+        }
+        else
+        {
+            motor.setVelocityPidCoefficients(pidCoeff);
+        }
+    }   //setPidCoefficients
+
+    /**
+     * This method stops the tuner task, stops the motor and signals the completion event.
+     *
+     * @param canceled specifies true if tuning was canceled, false otherwise.
+     */
+    private void finish(boolean canceled)
+    {
+        final String funcName = "finish";
+
+        tunerTaskObj.unregisterTask();
+        stopTaskObj.unregisterTask();
+        motor.stop(owner);
+        if (owner != null)
+        {
+            motor.releaseExclusiveAccess(owner);
+            owner = null;
+        }
+        state = State.Done;
+
+        if (params.msgTracer != null)
+        {
+            params.msgTracer.traceInfo(funcName, "%s: canceled=%s, result=%s", instanceName, canceled, result);
+        }
+
+        if (completionEvent != null)
+        {
+            if (canceled)
+            {
+                completionEvent.cancel();
+            }
+            else
+            {
+                completionEvent.signal();
+            }
+            completionEvent = null;
+        }
+    }   //finish
+
+    /**
+     * This method computes the ultimate gain, ultimate period and PID coefficients from the relay measurements.
+     * The describing function of a relay with hysteresis gives Ku = 4d / (pi * sqrt(a^2 - e^2)).
+     */
+    private void computeCoefficients()
+    {
+        double amplitude = amplitudeSum / measuredCycles;
+        double effAmplitude = Math.sqrt(Math.max(amplitude*amplitude - params.hysteresis*params.hysteresis, 0.0));
+
+        result.oscillationAmplitude = amplitude;
+        result.ultimatePeriod = periodSum / measuredCycles;
+        result.ultimateGain = effAmplitude > 0.0? 4.0*params.relayAmplitude/(Math.PI*effAmplitude): 0.0;
+
+        double kP = params.tuningRule.kpFactor * result.ultimateGain;
+        double tI = params.tuningRule.tiFactor * result.ultimatePeriod;
+        double tD = params.tuningRule.tdFactor * result.ultimatePeriod;
+        // Keep the existing feed forward and iZone, they are not identified by the relay test.
+        result.pidCoeff = new TrcPidController.PidCoefficients(
+            kP, tI > 0.0? kP/tI: 0.0, kP*tD, prevPidCoeff != null? prevPidCoeff.kF: 0.0,
+            prevPidCoeff != null? prevPidCoeff.iZone: 0.0);
+    }   //computeCoefficients
+
+    /**
+     * This method starts the step test with the suggested PID coefficients.
+     */
+    private void startStepTest()
+    {
+        setPidCoefficients(result.pidCoeff);
+        stepTarget = setPoint + params.stepSize;
+        stepDirection = Math.signum(params.stepSize);
+        peakExcursion = 0.0;
+        settledStartTime = 0.0;
+        startTime = TrcTimer.getCurrentTime();
+        result.stepTested = true;
+        state = State.StepTest;
+
+        if (params.tuneTarget == TuneTarget.Position)
+        {
+            motor.setPosition(owner, 0.0, stepTarget, true, 1.0, null, 0.0);
+        }
+        else
+        {
+            motor.setVelocity(owner, 0.0, stepTarget, 0.0, null);
+        }
+    }   //startStepTest
+
+    /**
+     * This method runs one cycle of the relay test. A cycle is counted on every rising relay switch. The peak to
+     * peak swing and the time between rising switches give the oscillation amplitude and period.
+     *
+     * @param currTime specifies the current time.
+     * @param value specifies the current process value.
+     */
+    private void relayTest(double currTime, double value)
+    {
+        final String funcName = "relayTest";
+
+        cycleMax = Math.max(cycleMax, value);
+        cycleMin = Math.min(cycleMin, value);
+
+        if (relayHigh && value > setPoint + params.hysteresis)
+        {
+            relayHigh = false;
+            setRelayOutput();
+        }
+        else if (!relayHigh && value < setPoint - params.hysteresis)
+        {
+            relayHigh = true;
+            setRelayOutput();
+
+            if (cycleStartTime > 0.0)
+            {
+                cycleCount++;
+                if (cycleCount > params.settleCycles)
+                {
+                    amplitudeSum += (cycleMax - cycleMin)/2.0;
+                    periodSum += currTime - cycleStartTime;
+                    measuredCycles++;
+                }
+
+                if (params.msgTracer != null)
+                {
+                    params.msgTracer.traceInfo(
+                        funcName, "%s: cycle=%d, period=%.3f, max=%.3f, min=%.3f",
+                        instanceName, cycleCount, currTime - cycleStartTime, cycleMax, cycleMin);
+                }
+            }
+            cycleStartTime = currTime;
+            cycleMax = Double.NEGATIVE_INFINITY;
+            cycleMin = Double.POSITIVE_INFINITY;
+        }
+
+        if (measuredCycles >= params.measureCycles)
+        {
+            computeCoefficients();
+            if (result.ultimateGain > 0.0 && params.stepSize != 0.0)
+            {
+                startStepTest();
+            }
+            else
+            {
+                // No step test requested, accept the suggested coefficients if the relay produced a limit cycle.
+                result.passed = result.ultimateGain > 0.0;
+                if (result.passed)
+                {
+                    setPidCoefficients(result.pidCoeff);
+                }
+                else
+                {
+                    restorePidCoefficients();
+                }
+                finish(false);
+            }
+        }
+        else if (params.relayTimeout > 0.0 && currTime - startTime > params.relayTimeout)
+        {
+            // The mechanism never settled into a limit cycle (e.g. relay amplitude too small to overcome friction).
+            if (params.msgTracer != null)
+            {
+                params.msgTracer.traceWarn(
+                    funcName, "%s: relay test timed out after %d cycles.", instanceName, cycleCount);
+            }
+            restorePidCoefficients();
+            finish(false);
+        }
+    }   //relayTest
+
+    /**
+     * This method monitors the step response of the suggested PID coefficients. The step passes if the overshoot
+     * is within limit and the error stays within tolerance for the PID settling time before the step timeout.
+     *
+     * @param currTime specifies the current time.
+     * @param value specifies the current process value.
+     */
+    private void stepTest(double currTime, double value)
+    {
+        double error = stepTarget - value;
+        boolean settled = false;
+
+        peakExcursion = Math.max(peakExcursion, -error*stepDirection);
+        if (Math.abs(error) <= params.stepTolerance)
+        {
+            if (settledStartTime == 0.0)
+            {
+                settledStartTime = currTime;
+            }
+            settled = currTime - settledStartTime >= TrcPidController.DEF_SETTLING_TIME;
+        }
+        else
+        {
+            settledStartTime = 0.0;
+        }
+
+        if (settled || currTime - startTime > params.stepTimeout)
+        {
+            result.overshoot = peakExcursion / Math.abs(params.stepSize);
+            result.settlingTime = settled? settledStartTime - startTime: currTime - startTime;
+            result.passed = settled && result.overshoot <= params.maxOvershoot;
+            if (!result.passed)
+            {
+                restorePidCoefficients();
+            }
+            finish(false);
+        }
+    }   //stepTest
+
+    /**
+     * This method is called periodically on the output thread to run the relay and step tests.
+     *
+     * @param taskType specifies the type of task being run.
+     * @param runMode specifies the competition mode that is running.
+     * @param slowPeriodicLoop specifies true if it is running the slow periodic loop on the main robot thread,
+     *        false otherwise.
+     */
+    private synchronized void tunerTask(
+        TrcTaskMgr.TaskType taskType, TrcRobot.RunMode runMode, boolean slowPeriodicLoop)
+    {
+        double currTime = TrcTimer.getCurrentTime();
+        double value = getProcessValue();
+
+        switch (state)
+        {
+            case RelayTest:
+                relayTest(currTime, value);
+                break;
+
+            case StepTest:
+                stepTest(currTime, value);
+                break;
+
+            default:
+                break;
+        }
+    }   //tunerTask
+
+    /**
+     * This method is called when the competition mode is about to end to stop the tuner.
+     *
+     * @param taskType specifies the type of task being run.
+     * @param runMode specifies the competition mode that is about to end (e.g. Autonomous, TeleOp, Test).
+     * @param slowPeriodicLoop specifies true if it is running the slow periodic loop on the main robot thread,
+     *        false otherwise.
+     */
+    private void stopTask(TrcTaskMgr.TaskType taskType, TrcRobot.RunMode runMode, boolean slowPeriodicLoop)
+    {
+        cancel();
+    }   //stopTask
+
+}   //class TrcPidAutoTuner
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class implements a pipelined vision task. Unlike TrcVisionTask that grabs and processes a frame one step after
+ * another, the processing is split into stages (e.g. capture, color threshold, contour detection and pose mapping)
+ * and each stage runs on its own thread, so different frames are being worked on by different stages at the same
+ * time. The frame rate is then limited by the slowest stage instead of the sum of all stages. Like TrcVisionTask,
+ * each stage is a TrcTaskMgr standalone task, so the stage threads are terminated with the rest of the robot tasks
+ * when the op mode ends.
+ * <p>
+ * Frames are recycled from a fixed pool. Stages are connected by single slot lock-free mailboxes with a latest frame
+ * wins policy: if a stage produces a frame before the next stage has taken the previous one, the previous frame is
+ * dropped and returned to the pool. So a slow stage always works on the newest frame and frame latency stays bounded.
+ * To keep every stage busy, the pool should have about two frames per stage.
+ * <p>
+ * Each stage has its own performance metrics including the latency of the frame (time since capture) at the end of
+ * the stage.
+ *
+ * @param <F> specifies the type of the frame context passed along the stages.
+ */
+public class TrcPipelinedVisionTask<F>
+{
+    private static final long IDLE_PARK_NANOS = 2000000L;
+
+    /**
+     * This interface is implemented by each processing stage.
+     *
+     * @param <F> specifies the type of the frame context.
+     */
+    public interface Stage<F>
+    {
+        /**
+         * This method is called on the stage thread to process a frame.
+         *
+         * @param frame specifies the frame context.
+         * @return true to pass the frame to the next stage, false to drop the frame.
+         */
+        boolean process(F frame);
+
+    }   //interface Stage
+
+    /**
+     * This class holds a frame context and its capture timestamp.
+     */
+    private static class FrameSlot<F>
+    {
+        final F frame;
+        double captureTime = 0.0;
+
+        FrameSlot(F frame)
+        {
+            this.frame = frame;
+        }   //FrameSlot
+
+    }   //class FrameSlot
+
+    /**
+     * This class implements a stage task and its input mailbox.
+     */
+    private class StageRunner
+    {
+        final String name;
+        final Stage<F> stage;
+        final TrcVisionPerformanceMetrics metrics;
+        final TrcTaskMgr.TaskObject taskObj;
+        final AtomicReference<FrameSlot<F>> inbox = new AtomicReference<>();
+        final AtomicLong droppedFrames = new AtomicLong();
+        // Thread of the standalone task, recorded by the task itself so other stages can wake it up.
+        volatile Thread thread = null;
+
+        StageRunner(String name, Stage<F> stage, int index)
+        {
+            this.name = name;
+            this.stage = stage;
+            this.metrics = new TrcVisionPerformanceMetrics(instanceName + "." + name);
+            this.taskObj = TrcTaskMgr.createTask(
+                instanceName + "." + name, (taskType, runMode, slowPeriodicLoop) -> stageTask(index));
+        }   //StageRunner
+
+    }   //class StageRunner
+
+    private final String instanceName;
+    private final ArrayList<FrameSlot<F>> frameSlots = new ArrayList<>();
+    private final ConcurrentLinkedQueue<FrameSlot<F>> freeFrames = new ConcurrentLinkedQueue<>();
+    private final ArrayList<StageRunner> stages = new ArrayList<>();
+    private volatile boolean taskEnabled = false;
+    private volatile TrcDbgTrace tracer = null;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param frames specifies the pool of frame contexts.
+     */
+    public TrcPipelinedVisionTask(String instanceName, F[] frames)
+    {
+        this.instanceName = instanceName;
+        for (F frame : frames)
+        {
+            frameSlots.add(new FrameSlot<>(frame));
+        }
+    }   //TrcPipelinedVisionTask
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method adds a processing stage. Stages are run in the order they are added, the first stage is the
+     * capture stage that fills in a frame from the pool. Stages can only be added while the task is disabled.
+     *
+     * @param name specifies the stage name.
+     * @param stage specifies the stage.
+     * @return this object for chaining.
+     */
+    public synchronized TrcPipelinedVisionTask<F> addStage(String name, Stage<F> stage)
+    {
+        if (taskEnabled)
+        {
+            throw new IllegalStateException("Cannot add stage while " + instanceName + " is enabled.");
+        }
+
+        stages.add(new StageRunner(name, stage, stages.size()));
+        return this;
+    }   //addStage
+
+    /**
+     * This method enables/disables performance report. When enabled, the metrics of all stages are traced for every
+     * frame that makes it through the last stage.
+     *
+     * @param tracer specifies a tracer to enable performance report, null to disable.
+     */
+    public void setPerfReportEnabled(TrcDbgTrace tracer)
+    {
+        this.tracer = tracer;
+    }   //setPerfReportEnabled
+
+    /**
+     * This method enables/disables the task. On enable, it registers a standalone task for each stage. On disable,
+     * it unregisters the stage tasks and waits for them to finish the frames in progress.
+     *
+     * @param enabled specifies true to enable, false to disable.
+     */
+    public synchronized void setTaskEnabled(boolean enabled)
+    {
+        if (enabled && !taskEnabled)
+        {
+            if (stages.isEmpty())
+            {
+                throw new IllegalStateException(instanceName + " has no stages.");
+            }
+
+            freeFrames.clear();
+            freeFrames.addAll(frameSlots);
+            taskEnabled = true;
+            for (int i = 0; i < stages.size(); i++)
+            {
+                StageRunner runner = stages.get(i);
+
+                runner.inbox.set(null);
+                runner.droppedFrames.set(0);
+                runner.metrics.reset();
+                runner.thread = null;
+                runner.taskObj.registerTask(TrcTaskMgr.TaskType.STANDALONE_TASK);
+            }
+        }
+        else if (!enabled && taskEnabled)
+        {
+            taskEnabled = false;
+            // Unregistering interrupts the task threads, which also wakes up the idle ones.
+            for (StageRunner runner : stages)
+            {
+                runner.taskObj.unregisterTask();
+            }
+
+            for (StageRunner runner : stages)
+            {
+                Thread thread = runner.thread;
+                if (thread != null)
+                {
+                    try
+                    {
+                        thread.join();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    runner.thread = null;
+                }
+            }
+        }
+    }   //setTaskEnabled
+
+    /**
+     * This method returns the state of the task.
+     *
+     * @return true if the task is enabled, false otherwise.
+     */
+    public boolean isTaskEnabled()
+    {
+        return taskEnabled;
+    }   //isTaskEnabled
+
+    /**
+     * This method returns the number of stages.
+     *
+     * @return number of stages.
+     */
+    public synchronized int getNumStages()
+    {
+        return stages.size();
+    }   //getNumStages
+
+    /**
+     * This method returns the performance metrics of the specified stage.
+     *
+     * @param index specifies the stage index.
+     * @return stage performance metrics.
+     */
+    public synchronized TrcVisionPerformanceMetrics getStageMetrics(int index)
+    {
+        return stages.get(index).metrics;
+    }   //getStageMetrics
+
+    /**
+     * This method returns the number of frames dropped at the input of the specified stage because a newer frame
+     * arrived before the stage was ready.
+     *
+     * @param index specifies the stage index.
+     * @return number of dropped frames.
+     */
+    public synchronized long getDroppedFrames(int index)
+    {
+        return stages.get(index).droppedFrames.get();
+    }   //getDroppedFrames
+
+    /**
+     * This method returns a frame slot to the pool and wakes up the capture stage in case it is waiting for one.
+     *
+     * @param slot specifies the frame slot to be recycled.
+     */
+    private void recycleFrame(FrameSlot<F> slot)
+    {
+        freeFrames.offer(slot);
+        LockSupport.unpark(stages.get(0).thread);
+    }   //recycleFrame
+
+    /**
+     * This method is called periodically on the standalone task thread of a stage. It takes a frame from the pool
+     * (capture stage) or the stage mailbox, processes it and hands it to the next stage.
+     *
+     * @param index specifies the stage index.
+     */
+    private void stageTask(int index)
+    {
+        final StageRunner runner = stages.get(index);
+        final StageRunner nextRunner = index + 1 < stages.size()? stages.get(index + 1): null;
+
+        runner.thread = Thread.currentThread();
+        if (taskEnabled)
+        {
+            FrameSlot<F> slot = index == 0? freeFrames.poll(): runner.inbox.getAndSet(null);
+
+            if (slot == null)
+            {
+                // Nothing to do, wait for the previous stage (or a recycled frame) to wake us up.
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                return;
+            }
+
+            double startTime = TrcTimer.getCurrentTime();
+            boolean passed = runner.stage.process(slot.frame);
+            runner.metrics.logProcessingTime(startTime);
+            if (index == 0)
+            {
+                slot.captureTime = TrcTimer.getCurrentTime();
+            }
+
+            if (!passed)
+            {
+                recycleFrame(slot);
+            }
+            else
+            {
+                runner.metrics.logLatency(slot.captureTime);
+                if (nextRunner == null)
+                {
+                    recycleFrame(slot);
+                    if (tracer != null)
+                    {
+                        for (StageRunner stageRunner : stages)
+                        {
+                            stageRunner.metrics.printMetrics(tracer);
+                        }
+                    }
+                }
+                else
+                {
+                    FrameSlot<F> droppedSlot = nextRunner.inbox.getAndSet(slot);
+                    if (droppedSlot != null)
+                    {
+                        nextRunner.droppedFrames.incrementAndGet();
+                        recycleFrame(droppedSlot);
+                    }
+                    LockSupport.unpark(nextRunner.thread);
+                }
+            }
+        }
+        // Frames left in the mailboxes when the task is disabled are returned to the pool on the next enable.
+    }   //stageTask
+
+}   //class TrcPipelinedVisionTask
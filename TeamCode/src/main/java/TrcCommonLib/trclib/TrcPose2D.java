@@ -22,7 +22,6 @@
 
 package TrcCommonLib.trclib;
 
-import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealVector;
 
 import java.io.BufferedReader;
@@ -36,6 +35,10 @@ import java.util.Objects;
 
 /**
  * This class implements a 2D pose object that represents the positional state of an object.
+ * <p>
+ * The pose math methods come in two forms: the ones returning a new pose, and the ones taking a destination pose
+ * (which may be one of the operands) that do not allocate memory. Code running in the periodic loops should use the
+ * latter, with either its own preallocated poses or the per-thread scratch poses from getScratch.
  */
 public class TrcPose2D
 {
@@ -45,8 +48,35 @@ public class TrcPose2D
     private static final boolean useGlobalTracer = false;
     private static final TrcDbgTrace.TraceLevel traceLevel = TrcDbgTrace.TraceLevel.API;
     private static final TrcDbgTrace.MsgLevel msgLevel = TrcDbgTrace.MsgLevel.INFO;
+    private static final int NUM_SCRATCH_POSES = 16;
+    private static final ThreadLocal<ScratchPool> scratchPool = new ThreadLocal<ScratchPool>()
+    {
+        @Override
+        protected ScratchPool initialValue()
+        {
+            return new ScratchPool();
+        }
+    };
     private TrcDbgTrace dbgTrace = null;
 
+    /**
+     * This class implements a small ring of reusable poses per thread.
+     */
+    private static class ScratchPool
+    {
+        final TrcPose2D[] poses = new TrcPose2D[NUM_SCRATCH_POSES];
+        int next = 0;
+
+        ScratchPool()
+        {
+            for (int i = 0; i < poses.length; i++)
+            {
+                poses[i] = new TrcPose2D();
+            }
+        }   //ScratchPool
+
+    }   //class ScratchPool
+
     public double x;
     public double y;
     public double angle;
@@ -227,7 +257,7 @@ public class TrcPose2D
      */
     public double distanceTo(TrcPose2D pose)
     {
-        return toPosVector().getDistance(pose.toPosVector());
+        return TrcUtil.magnitude(pose.x - x, pose.y - y);
     }   //distanceTo
 
     /**
@@ -243,26 +273,68 @@ public class TrcPose2D
     }   //setAs
 
     /**
-     * This method returns a transformed pose relative to the given pose.
+     * This method sets the components of this pose.
+     *
+     * @param x specifies the x component of the position.
+     * @param y specifies the y component of the position.
+     * @param angle specifies the angle.
+     * @return this pose.
+     */
+    public TrcPose2D set(double x, double y, double angle)
+    {
+        this.x = x;
+        this.y = y;
+        this.angle = angle;
+        return this;
+    }   //set
+
+    /**
+     * This method returns a scratch pose of the calling thread. The scratch poses are reused in a ring of 16 per
+     * thread, so the returned pose is only valid until the thread asks for 16 more. It is meant for short-lived
+     * intermediate results within a method, never store it.
+     *
+     * @return scratch pose with unspecified content.
+     */
+    public static TrcPose2D getScratch()
+    {
+        ScratchPool pool = scratchPool.get();
+        TrcPose2D pose = pool.poses[pool.next];
+
+        pool.next = (pool.next + 1) % NUM_SCRATCH_POSES;
+        return pose;
+    }   //getScratch
+
+    /**
+     * This method transforms this pose to be relative to the given pose and stores the result in the given
+     * destination pose without allocating memory.
      *
      * @param pose           specifies the reference pose.
      * @param transformAngle specifies true to also transform angle, false to leave it alone.
-     * @return pose relative to the given pose.
+     * @param result         specifies the pose to store the result, can be this pose or the reference pose.
+     * @return result pose.
      */
-    public TrcPose2D relativeTo(TrcPose2D pose, boolean transformAngle)
+    public TrcPose2D relativeTo(TrcPose2D pose, boolean transformAngle, TrcPose2D result)
     {
         double deltaX = x - pose.x;
         double deltaY = y - pose.y;
-        double newAngle = angle;
-
-        RealVector newPos =
-            TrcUtil.rotateCCW(MatrixUtils.createRealVector(new double[]{deltaX, deltaY}), pose.angle);
-        if (transformAngle)
-        {
-            newAngle -= pose.angle;
-        }
+        double angleRadians = Math.toRadians(pose.angle);
+        double cosAngle = Math.cos(angleRadians);
+        double sinAngle = Math.sin(angleRadians);
+        double newAngle = transformAngle? angle - pose.angle: angle;
+        // Rotate the delta counter-clockwise by the angle of the reference pose.
+        return result.set(deltaX*cosAngle - deltaY*sinAngle, deltaX*sinAngle + deltaY*cosAngle, newAngle);
+    }   //relativeTo
 
-        return new TrcPose2D(newPos.getEntry(0), newPos.getEntry(1), newAngle);
+    /**
+     * This method returns a transformed pose relative to the given pose.
+     *
+     * @param pose           specifies the reference pose.
+     * @param transformAngle specifies true to also transform angle, false to leave it alone.
+     * @return pose relative to the given pose.
+     */
+    public TrcPose2D relativeTo(TrcPose2D pose, boolean transformAngle)
+    {
+        return relativeTo(pose, transformAngle, new TrcPose2D());
     }   //relativeTo
 
     /**
@@ -276,6 +348,25 @@ public class TrcPose2D
         return relativeTo(pose, true);
     }   //relativeTo
 
+    /**
+     * This method translates this pose with the x and y offset in reference to the angle of the pose and stores
+     * the result in the given destination pose without allocating memory.
+     *
+     * @param xOffset specifies the x offset in reference to the angle of the pose.
+     * @param yOffset specifies the y offset in reference to the angle of the pose.
+     * @param result  specifies the pose to store the result, can be this pose.
+     * @return result pose.
+     */
+    public TrcPose2D translatePose(double xOffset, double yOffset, TrcPose2D result)
+    {
+        double angleRadians = Math.toRadians(angle);
+        double cosAngle = Math.cos(angleRadians);
+        double sinAngle = Math.sin(angleRadians);
+
+        return result.set(
+            x + xOffset * cosAngle + yOffset * sinAngle, y - xOffset * sinAngle + yOffset * cosAngle, angle);
+    }   //translatePose
+
     /**
      * This method translates this pose with the x and y offset in reference to the angle of the pose.
      *
@@ -286,13 +377,7 @@ public class TrcPose2D
     public TrcPose2D translatePose(double xOffset, double yOffset)
     {
         final String funcName = "translatePose";
-        TrcPose2D newPose = clone();
-        double angleRadians = Math.toRadians(newPose.angle);
-        double cosAngle = Math.cos(angleRadians);
-        double sinAngle = Math.sin(angleRadians);
-
-        newPose.x += xOffset * cosAngle + yOffset * sinAngle;
-        newPose.y += -xOffset * sinAngle + yOffset * cosAngle;
+        TrcPose2D newPose = translatePose(xOffset, yOffset, new TrcPose2D());
 
         if (debugEnabled)
         {
@@ -303,6 +388,26 @@ public class TrcPose2D
         return newPose;
     }   //translatePose
 
+    /**
+     * This method adds a relative pose to the this pose and stores the resulting pose in the given destination pose
+     * without allocating memory. The relative pose has a relative vector and relative angle from this pose.
+     *
+     * @param relativePose specifies the pose relative to the previous pose.
+     * @param result       specifies the pose to store the result, can be this pose or the relative pose.
+     * @return result pose.
+     */
+    public TrcPose2D addRelativePose(TrcPose2D relativePose, TrcPose2D result)
+    {
+        double angleRadians = Math.toRadians(angle);
+        double cosAngle = Math.cos(angleRadians);
+        double sinAngle = Math.sin(angleRadians);
+        // Rotate the relative vector clockwise by the angle of this pose.
+        return result.set(
+            x + relativePose.x*cosAngle + relativePose.y*sinAngle,
+            y - relativePose.x*sinAngle + relativePose.y*cosAngle,
+            angle + relativePose.angle);
+    }   //addRelativePose
+
     /**
      * This method adds a relative pose to the this pose and return the resulting pose. The relative pose has a
      * relative vector and relative angle from this pose.
@@ -312,9 +417,7 @@ public class TrcPose2D
      */
     public TrcPose2D addRelativePose(TrcPose2D relativePose)
     {
-        RealVector vec = TrcUtil.createVector(this.x, this.y).add(
-                TrcUtil.rotateCW(relativePose.toPosVector(), this.angle));
-        return new TrcPose2D(vec.getEntry(0), vec.getEntry(1), this.angle + relativePose.angle);
+        return addRelativePose(relativePose, new TrcPose2D());
     }   //addRelativePose
 
 }   //class TrcPose2D
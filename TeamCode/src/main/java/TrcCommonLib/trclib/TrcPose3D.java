@@ -38,6 +38,34 @@ import java.util.Objects;
  */
 public class TrcPose3D
 {
+    private static final int NUM_SCRATCH_POSES = 16;
+    private static final ThreadLocal<ScratchPool> scratchPool = new ThreadLocal<ScratchPool>()
+    {
+        @Override
+        protected ScratchPool initialValue()
+        {
+            return new ScratchPool();
+        }
+    };
+
+    /**
+     * This class implements a small ring of reusable poses per thread.
+     */
+    private static class ScratchPool
+    {
+        final TrcPose3D[] poses = new TrcPose3D[NUM_SCRATCH_POSES];
+        int next = 0;
+
+        ScratchPool()
+        {
+            for (int i = 0; i < poses.length; i++)
+            {
+                poses[i] = new TrcPose3D();
+            }
+        }   //ScratchPool
+
+    }   //class ScratchPool
+
     public double x;
     public double y;
     public double z;
@@ -227,7 +255,7 @@ public class TrcPose3D
      */
     public double distanceTo(TrcPose3D pose)
     {
-        return toPosVector().getDistance(pose.toPosVector());
+        return TrcUtil.magnitude(pose.x - x, pose.y - y, pose.z - z);
     }   //distanceTo
 
     /**
@@ -245,6 +273,44 @@ public class TrcPose3D
         this.roll = pose.roll;
     }   //setAs
 
+    /**
+     * This method sets the components of this pose.
+     *
+     * @param x specifies the x component of the position.
+     * @param y specifies the y component of the position.
+     * @param z specifies the z component of the position.
+     * @param yaw specifies the yaw angle.
+     * @param pitch specifies the pitch angle.
+     * @param roll specifies the roll angle.
+     * @return this pose.
+     */
+    public TrcPose3D set(double x, double y, double z, double yaw, double pitch, double roll)
+    {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.roll = roll;
+        return this;
+    }   //set
+
+    /**
+     * This method returns a scratch pose of the calling thread. The scratch poses are reused in a ring of 16 per
+     * thread, so the returned pose is only valid until the thread asks for 16 more. It is meant for short-lived
+     * intermediate results within a method, never store it.
+     *
+     * @return scratch pose with unspecified content.
+     */
+    public static TrcPose3D getScratch()
+    {
+        ScratchPool pool = scratchPool.get();
+        TrcPose3D pose = pool.poses[pool.next];
+
+        pool.next = (pool.next + 1) % NUM_SCRATCH_POSES;
+        return pose;
+    }   //getScratch
+
     // TODO: implement these methods.
 //    /**
 //     * This method returns a transformed pose relative to the given pose.
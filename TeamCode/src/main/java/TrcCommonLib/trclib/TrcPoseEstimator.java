@@ -0,0 +1,656 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import java.util.Locale;
+
+/**
+ * This class implements a latency compensated pose estimator using an extended Kalman filter. It fuses the drive
+ * base odometry with absolute pose measurements such as AprilTag detections that arrive some time after the camera
+ * frame was captured. The state is the field pose (x, y, heading) and its 3x3 covariance.
+ * <p>
+ * Every odometry update is recorded in a fixed-size ring buffer of primitive arrays together with the robot relative
+ * odometry delta and the resulting posterior. When a delayed measurement arrives, the filter rewinds to the entry
+ * closest to the capture time, applies the measurement there and replays the recorded odometry deltas to the present.
+ * The cost of a measurement update is therefore bounded by the ring buffer capacity and no memory is allocated after
+ * construction. Measurements older than the ring buffer history are rejected.
+ * <p>
+ * The estimator can be attached to a drive base with TrcDriveBase.setPoseEstimator, in which case the drive base
+ * feeds it odometry and reports the fused pose as its field position so that path following uses the corrected pose.
+ * The coordinate system follows the rest of the library: x is to the right, y is forward, heading is in degrees with
+ * positive being clockwise.
+ */
+public class TrcPoseEstimator
+{
+    private static final String moduleName = "TrcPoseEstimator";
+    private static final TrcDbgTrace globalTracer = TrcDbgTrace.getGlobalTracer();
+    private static final boolean debugEnabled = false;
+
+    private static final double DEG_TO_RAD = Math.PI / 180.0;
+
+    /**
+     * This class contains all the parameters of the pose estimator.
+     */
+    public static class Parameters
+    {
+        public int historySize = 100;
+        public double translationStdDevPerUnit = 0.02;
+        public double headingStdDevPerDegree = 0.01;
+        public double initialTranslationStdDev = 1.0;
+        public double initialHeadingStdDev = 2.0;
+        public double outlierGate = 0.0;
+
+        /**
+         * This method returns the string form of all the parameters.
+         *
+         * @return string form of all the parameters.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(
+                Locale.US,
+                "historySize=%d,transStdDevPerUnit=%.3f,headingStdDevPerDeg=%.3f,initTransStdDev=%.1f," +
+                "initHeadingStdDev=%.1f,outlierGate=%.1f",
+                historySize, translationStdDevPerUnit, headingStdDevPerDegree, initialTranslationStdDev,
+                initialHeadingStdDev, outlierGate);
+        }   //toString
+
+        /**
+         * This method sets the number of odometry updates kept for replay. It must cover the worst case measurement
+         * latency at the odometry update rate (e.g. 100 entries cover one second at 10 msec per update).
+         *
+         * @param size specifies the history size.
+         * @return this parameter object.
+         */
+        public Parameters setHistorySize(int size)
+        {
+            this.historySize = size;
+            return this;
+        }   //setHistorySize
+
+        /**
+         * This method sets the odometry process noise. The standard deviation of the odometry error grows linearly
+         * with the distance traveled and the angle turned in each update.
+         *
+         * @param translationStdDevPerUnit specifies the translation standard deviation per unit traveled.
+         * @param headingStdDevPerDegree specifies the heading standard deviation per degree turned.
+         * @return this parameter object.
+         */
+        public Parameters setOdometryStdDevs(double translationStdDevPerUnit, double headingStdDevPerDegree)
+        {
+            this.translationStdDevPerUnit = translationStdDevPerUnit;
+            this.headingStdDevPerDegree = headingStdDevPerDegree;
+            return this;
+        }   //setOdometryStdDevs
+
+        /**
+         * This method sets the uncertainty of the pose when the estimator is reset.
+         *
+         * @param translationStdDev specifies the translation standard deviation.
+         * @param headingStdDev specifies the heading standard deviation in degrees.
+         * @return this parameter object.
+         */
+        public Parameters setInitialStdDevs(double translationStdDev, double headingStdDev)
+        {
+            this.initialTranslationStdDev = translationStdDev;
+            this.initialHeadingStdDev = headingStdDev;
+            return this;
+        }   //setInitialStdDevs
+
+        /**
+         * This method sets the outlier gate. A measurement is rejected if its squared Mahalanobis distance from the
+         * estimate exceeds the gate (e.g. 11.34 for 99% confidence with 3 degrees of freedom).
+         *
+         * @param gate specifies the chi-square gate, zero to disable outlier rejection.
+         * @return this parameter object.
+         */
+        public Parameters setOutlierGate(double gate)
+        {
+            this.outlierGate = gate;
+            return this;
+        }   //setOutlierGate
+
+    }   //class Parameters
+
+    private final String instanceName;
+    private final Parameters params;
+    private final int capacity;
+    // Ring buffer of odometry updates: timestamp, robot relative delta and the posterior after applying it.
+    private final double[] timestamps;
+    private final double[] deltaX;
+    private final double[] deltaY;
+    private final double[] deltaAngle;
+    private final double[] stateX;
+    private final double[] stateY;
+    private final double[] stateAngle;
+    private final double[] covariances;
+    private int newestIndex = -1;
+    private int count = 0;
+    // Scratch data for the filter, index [row*3 + col].
+    private final double[] p = new double[9];
+    private final double[] s = new double[9];
+    private final double[] sInv = new double[9];
+    private final double[] k = new double[9];
+    private final double[] innovation = new double[3];
+    private double x, y, angle;
+    private TrcDbgTrace msgTracer = null;
+    private int numAccepted = 0;
+    private int numRejected = 0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param params specifies the estimator parameters.
+     */
+    public TrcPoseEstimator(String instanceName, Parameters params)
+    {
+        if (params.historySize < 2)
+        {
+            throw new IllegalArgumentException("History size must be at least 2.");
+        }
+
+        this.instanceName = instanceName;
+        this.params = params;
+        this.capacity = params.historySize;
+        timestamps = new double[capacity];
+        deltaX = new double[capacity];
+        deltaY = new double[capacity];
+        deltaAngle = new double[capacity];
+        stateX = new double[capacity];
+        stateY = new double[capacity];
+        stateAngle = new double[capacity];
+        covariances = new double[capacity*9];
+        reset(0.0, 0.0, 0.0);
+    }   //TrcPoseEstimator
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     */
+    public TrcPoseEstimator(String instanceName)
+    {
+        this(instanceName, new Parameters());
+    }   //TrcPoseEstimator
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method sets the message tracer for logging rejected measurements.
+     *
+     * @param tracer specifies the tracer for logging messages.
+     */
+    public void setMsgTracer(TrcDbgTrace tracer)
+    {
+        msgTracer = tracer;
+    }   //setMsgTracer
+
+    /**
+     * This method resets the estimator to the given pose with the initial uncertainty and clears the odometry history.
+     *
+     * @param x specifies the x position.
+     * @param y specifies the y position.
+     * @param angle specifies the heading in degrees.
+     */
+    public synchronized void reset(double x, double y, double angle)
+    {
+        this.x = x;
+        this.y = y;
+        this.angle = angle;
+        for (int i = 0; i < 9; i++)
+        {
+            p[i] = 0.0;
+        }
+        p[0] = p[4] = params.initialTranslationStdDev*params.initialTranslationStdDev;
+        p[8] = params.initialHeadingStdDev*params.initialHeadingStdDev;
+        newestIndex = -1;
+        count = 0;
+    }   //reset
+
+    /**
+     * This method resets the estimator to the given pose with the initial uncertainty and clears the odometry history.
+     *
+     * @param pose specifies the pose.
+     */
+    public void reset(TrcPose2D pose)
+    {
+        reset(pose.x, pose.y, pose.angle);
+    }   //reset
+
+    /**
+     * This method propagates the estimate with an odometry update. The delta is robot relative, i.e. relative to the
+     * robot pose at the previous update, which is what the drive base odometry computes every cycle.
+     *
+     * @param timestamp specifies the time of the odometry update in seconds.
+     * @param dx specifies the robot relative x (strafe) distance traveled since the last update.
+     * @param dy specifies the robot relative y (forward) distance traveled since the last update.
+     * @param dAngle specifies the heading change in degrees since the last update.
+     */
+    public synchronized void addOdometry(double timestamp, double dx, double dy, double dAngle)
+    {
+        predict(dx, dy, dAngle);
+
+        newestIndex = (newestIndex + 1) % capacity;
+        if (count < capacity)
+        {
+            count++;
+        }
+        timestamps[newestIndex] = timestamp;
+        deltaX[newestIndex] = dx;
+        deltaY[newestIndex] = dy;
+        deltaAngle[newestIndex] = dAngle;
+        saveState(newestIndex);
+    }   //addOdometry
+
+    /**
+     * This method fuses an absolute pose measurement captured at the given time. The filter is rewound to the
+     * odometry update closest to the capture time, corrected there and replayed to the present.
+     *
+     * @param captureTime specifies the time the measurement was captured (not received) in seconds.
+     * @param measX specifies the measured x position.
+     * @param measY specifies the measured y position.
+     * @param measAngle specifies the measured heading in degrees.
+     * @param xStdDev specifies the standard deviation of the x measurement.
+     * @param yStdDev specifies the standard deviation of the y measurement.
+     * @param angleStdDev specifies the standard deviation of the heading measurement in degrees, zero or negative
+     *        if the measurement has no heading information.
+     * @return true if the measurement is applied, false if it is rejected for being too old or an outlier.
+     */
+    public synchronized boolean addMeasurement(
+        double captureTime, double measX, double measY, double measAngle,
+        double xStdDev, double yStdDev, double angleStdDev)
+    {
+        final String funcName = "addMeasurement";
+        int index = findIndex(captureTime);
+        boolean accepted = false;
+
+        if (index == -1 && count > 0)
+        {
+            // Older than the oldest entry in the history.
+            numRejected++;
+            if (msgTracer != null)
+            {
+                msgTracer.traceInfo(funcName, "[%s] Measurement too old (captureTime=%.3f).", instanceName, captureTime);
+            }
+        }
+        else
+        {
+            if (index != -1)
+            {
+                loadState(index);
+            }
+
+            if (correct(measX, measY, measAngle, xStdDev, yStdDev, angleStdDev))
+            {
+                accepted = true;
+                numAccepted++;
+                if (index != -1)
+                {
+                    saveState(index);
+                    // Replay the recorded odometry from the corrected entry to the present.
+                    for (int i = index; i != newestIndex;)
+                    {
+                        i = (i + 1) % capacity;
+                        predict(deltaX[i], deltaY[i], deltaAngle[i]);
+                        saveState(i);
+                    }
+                }
+            }
+            else
+            {
+                numRejected++;
+                if (msgTracer != null)
+                {
+                    msgTracer.traceInfo(
+                        funcName, "[%s] Measurement rejected as outlier (pose=%.1f,%.1f,%.1f).",
+                        instanceName, measX, measY, measAngle);
+                }
+                if (index != -1)
+                {
+                    loadState(newestIndex);
+                }
+            }
+        }
+
+        if (debugEnabled)
+        {
+            globalTracer.traceInfo(
+                funcName, "[%s] captureTime=%.3f, index=%d, meas=(%.1f,%.1f,%.1f), accepted=%s, est=(%.1f,%.1f,%.1f)",
+                instanceName, captureTime, index, measX, measY, measAngle, accepted, x, y, angle);
+        }
+
+        return accepted;
+    }   //addMeasurement
+
+    /**
+     * This method fuses an absolute pose measurement captured at the given time.
+     *
+     * @param captureTime specifies the time the measurement was captured (not received) in seconds.
+     * @param pose specifies the measured pose.
+     * @param translationStdDev specifies the standard deviation of the x and y measurement.
+     * @param angleStdDev specifies the standard deviation of the heading measurement in degrees, zero or negative
+     *        if the measurement has no heading information.
+     * @return true if the measurement is applied, false if it is rejected for being too old or an outlier.
+     */
+    public boolean addMeasurement(
+        double captureTime, TrcPose2D pose, double translationStdDev, double angleStdDev)
+    {
+        return addMeasurement(
+            captureTime, pose.x, pose.y, pose.angle, translationStdDev, translationStdDev, angleStdDev);
+    }   //addMeasurement
+
+    /**
+     * This method copies the current pose estimate into the given pose without allocating memory.
+     *
+     * @param pose specifies the pose to receive the estimate.
+     * @return the given pose.
+     */
+    public synchronized TrcPose2D getPose(TrcPose2D pose)
+    {
+        pose.x = x;
+        pose.y = y;
+        pose.angle = angle;
+        return pose;
+    }   //getPose
+
+    /**
+     * This method returns a copy of the current pose estimate.
+     *
+     * @return current pose estimate.
+     */
+    public TrcPose2D getPose()
+    {
+        return getPose(new TrcPose2D());
+    }   //getPose
+
+    /**
+     * This method returns the standard deviation of the estimate for the given state element.
+     *
+     * @param element specifies 0 for x, 1 for y and 2 for heading (in degrees).
+     * @return standard deviation of the state element.
+     */
+    public synchronized double getStdDev(int element)
+    {
+        return Math.sqrt(p[element*4]);
+    }   //getStdDev
+
+    /**
+     * This method returns the number of measurements applied since construction.
+     *
+     * @return number of accepted measurements.
+     */
+    public synchronized int getNumAccepted()
+    {
+        return numAccepted;
+    }   //getNumAccepted
+
+    /**
+     * This method returns the number of measurements rejected since construction.
+     *
+     * @return number of rejected measurements.
+     */
+    public synchronized int getNumRejected()
+    {
+        return numRejected;
+    }   //getNumRejected
+
+    /**
+     * This method returns the ring buffer index of the odometry update closest to the given time.
+     *
+     * @param time specifies the time in seconds.
+     * @return ring buffer index, -1 if there is no history or the time is older than the oldest entry.
+     */
+    private int findIndex(double time)
+    {
+        int index = -1;
+
+        if (count > 0)
+        {
+            int oldestIndex = (newestIndex - count + 1 + capacity) % capacity;
+
+            if (time >= timestamps[oldestIndex])
+            {
+                // Search backward from the newest since measurements are usually recent.
+                index = newestIndex;
+                for (int n = 1; n < count && timestamps[index] > time; n++)
+                {
+                    int prevIndex = (index - 1 + capacity) % capacity;
+                    // Stop at the entry closer to the given time.
+                    if (timestamps[prevIndex] <= time && time - timestamps[prevIndex] > timestamps[index] - time)
+                    {
+                        break;
+                    }
+                    index = prevIndex;
+                }
+            }
+        }
+
+        return index;
+    }   //findIndex
+
+    /**
+     * This method propagates the current state and covariance with a robot relative odometry delta.
+     *
+     * @param dx specifies the robot relative x distance.
+     * @param dy specifies the robot relative y distance.
+     * @param dAngle specifies the heading change in degrees.
+     */
+    private void predict(double dx, double dy, double dAngle)
+    {
+        double angleRad = angle*DEG_TO_RAD;
+        double cosA = Math.cos(angleRad);
+        double sinA = Math.sin(angleRad);
+        // Rotate the robot relative delta clockwise by the heading (same as TrcPose2D.addRelativePose).
+        double fieldDx = dx*cosA + dy*sinA;
+        double fieldDy = -dx*sinA + dy*cosA;
+        // Jacobian of the motion model: F = [1 0 a; 0 1 b; 0 0 1] with heading in degrees.
+        double a = fieldDy*DEG_TO_RAD;
+        double b = -fieldDx*DEG_TO_RAD;
+
+        x += fieldDx;
+        y += fieldDy;
+        angle += dAngle;
+        // P = F*P*F' computed in place.
+        double p02 = p[2] + a*p[8];
+        double p12 = p[5] + b*p[8];
+        double p00 = p[0] + 2.0*a*p[2] + a*a*p[8];
+        double p11 = p[4] + 2.0*b*p[5] + b*b*p[8];
+        double p01 = p[1] + a*p[5] + b*p[2] + a*b*p[8];
+        // Add process noise proportional to the motion.
+        double transStdDev = params.translationStdDevPerUnit*Math.sqrt(dx*dx + dy*dy);
+        double headingStdDev = params.headingStdDevPerDegree*Math.abs(dAngle);
+
+        p[0] = p00 + transStdDev*transStdDev;
+        p[4] = p11 + transStdDev*transStdDev;
+        p[8] += headingStdDev*headingStdDev;
+        p[1] = p[3] = p01;
+        p[2] = p[6] = p02;
+        p[5] = p[7] = p12;
+    }   //predict
+
+    /**
+     * This method corrects the current state and covariance with an absolute pose measurement.
+     *
+     * @param measX specifies the measured x position.
+     * @param measY specifies the measured y position.
+     * @param measAngle specifies the measured heading in degrees.
+     * @param xStdDev specifies the standard deviation of the x measurement.
+     * @param yStdDev specifies the standard deviation of the y measurement.
+     * @param angleStdDev specifies the standard deviation of the heading measurement, zero or negative to ignore.
+     * @return true if the measurement is applied, false if it is an outlier.
+     */
+    private boolean correct(
+        double measX, double measY, double measAngle, double xStdDev, double yStdDev, double angleStdDev)
+    {
+        boolean useHeading = angleStdDev > 0.0;
+        double angleErr = measAngle - angle;
+
+        innovation[0] = measX - x;
+        innovation[1] = measY - y;
+        // Wrap the heading innovation into [-180, 180).
+        innovation[2] = useHeading? angleErr - 360.0*Math.floor((angleErr + 180.0)/360.0): 0.0;
+        // S = P + R. A measurement without heading is modeled as having infinite heading variance, which reduces to
+        // the 2x2 position update.
+        for (int i = 0; i < 9; i++)
+        {
+            s[i] = p[i];
+        }
+        s[0] += xStdDev*xStdDev;
+        s[4] += yStdDev*yStdDev;
+        if (useHeading)
+        {
+            s[8] += angleStdDev*angleStdDev;
+        }
+        else
+        {
+            s[2] = s[5] = s[6] = s[7] = 0.0;
+            s[8] = 1.0;
+        }
+
+        if (!invert3x3(s, sInv))
+        {
+            return false;
+        }
+
+        if (!useHeading)
+        {
+            sInv[8] = 0.0;
+        }
+
+        if (params.outlierGate > 0.0)
+        {
+            double d2 = 0.0;
+            for (int r = 0; r < 3; r++)
+            {
+                for (int c = 0; c < 3; c++)
+                {
+                    d2 += innovation[r]*sInv[r*3 + c]*innovation[c];
+                }
+            }
+
+            if (d2 > params.outlierGate)
+            {
+                return false;
+            }
+        }
+        // K = P*S^-1.
+        for (int r = 0; r < 3; r++)
+        {
+            for (int c = 0; c < 3; c++)
+            {
+                k[r*3 + c] = p[r*3]*sInv[c] + p[r*3 + 1]*sInv[3 + c] + p[r*3 + 2]*sInv[6 + c];
+            }
+        }
+        // x = x + K*innovation.
+        x += k[0]*innovation[0] + k[1]*innovation[1] + k[2]*innovation[2];
+        y += k[3]*innovation[0] + k[4]*innovation[1] + k[5]*innovation[2];
+        angle += k[6]*innovation[0] + k[7]*innovation[1] + k[8]*innovation[2];
+        // P = (I - K)*P, using s as scratch and symmetrized to keep it well conditioned.
+        for (int r = 0; r < 3; r++)
+        {
+            for (int c = 0; c < 3; c++)
+            {
+                s[r*3 + c] = p[r*3 + c] - (k[r*3]*p[c] + k[r*3 + 1]*p[3 + c] + k[r*3 + 2]*p[6 + c]);
+            }
+        }
+        p[0] = s[0];
+        p[4] = s[4];
+        p[8] = s[8];
+        p[1] = p[3] = (s[1] + s[3])/2.0;
+        p[2] = p[6] = (s[2] + s[6])/2.0;
+        p[5] = p[7] = (s[5] + s[7])/2.0;
+
+        return true;
+    }   //correct
+
+    /**
+     * This method inverts a 3x3 matrix.
+     *
+     * @param m specifies the matrix to invert.
+     * @param inv specifies the array to receive the inverse.
+     * @return true if the matrix is invertible, false otherwise.
+     */
+    private static boolean invert3x3(double[] m, double[] inv)
+    {
+        double c00 = m[4]*m[8] - m[5]*m[7];
+        double c01 = m[5]*m[6] - m[3]*m[8];
+        double c02 = m[3]*m[7] - m[4]*m[6];
+        double det = m[0]*c00 + m[1]*c01 + m[2]*c02;
+
+        if (Math.abs(det) < 1.0e-12)
+        {
+            return false;
+        }
+
+        double invDet = 1.0/det;
+        inv[0] = c00*invDet;
+        inv[1] = (m[2]*m[7] - m[1]*m[8])*invDet;
+        inv[2] = (m[1]*m[5] - m[2]*m[4])*invDet;
+        inv[3] = c01*invDet;
+        inv[4] = (m[0]*m[8] - m[2]*m[6])*invDet;
+        inv[5] = (m[2]*m[3] - m[0]*m[5])*invDet;
+        inv[6] = c02*invDet;
+        inv[7] = (m[1]*m[6] - m[0]*m[7])*invDet;
+        inv[8] = (m[0]*m[4] - m[1]*m[3])*invDet;
+
+        return true;
+    }   //invert3x3
+
+    /**
+     * This method saves the current state and covariance into the ring buffer entry.
+     *
+     * @param index specifies the ring buffer index.
+     */
+    private void saveState(int index)
+    {
+        stateX[index] = x;
+        stateY[index] = y;
+        stateAngle[index] = angle;
+        System.arraycopy(p, 0, covariances, index*9, 9);
+    }   //saveState
+
+    /**
+     * This method restores the current state and covariance from the ring buffer entry.
+     *
+     * @param index specifies the ring buffer index.
+     */
+    private void loadState(int index)
+    {
+        x = stateX[index];
+        y = stateY[index];
+        angle = stateAngle[index];
+        System.arraycopy(covariances, index*9, p, 0, 9);
+    }   //loadState
+
+}   //class TrcPoseEstimator
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * This class implements a global current budget allocator for all registered motors. Every cycle, it collects the
+ * power requested by each motor, estimates the current each motor will draw from a simple DC motor model and
+ * estimates the bus voltage from the battery internal resistance. If the total current would pull the bus voltage
+ * below the brownout threshold, the requested power is scaled down in priority order: higher priority motors get
+ * their full demand first, the priority tier that exceeds the budget is scaled proportionally and lower tiers get
+ * nothing. The allocator runs on the output thread alongside the motor control tasks.
+ * <p>
+ * Motors are sorted by priority at registration time, so the allocation runs in O(n) and the per cycle work does
+ * not allocate memory. Only motors in power control mode or software PID control can be scaled. Motors running the
+ * motor controller's own close-loop control are not managed.
+ */
+public class TrcPowerBudget
+{
+    private static final String moduleName = "TrcPowerBudget";
+    private static final TrcDbgTrace globalTracer = TrcDbgTrace.getGlobalTracer();
+    private static final boolean debugEnabled = false;
+
+    private static final double SCALE_CHANGE_THRESHOLD = 0.01;
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * This class contains all the parameters related to the power budget.
+     */
+    public static class Parameters
+    {
+        public double internalResistance = 0.05;
+        public double brownoutVoltage = 7.5;
+        public double nominalVoltage = 12.0;
+
+        /**
+         * This method returns the string form of all the parameters.
+         *
+         * @return string form of all the parameters.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(
+                Locale.US, "internalResistance=%.3f,brownoutVoltage=%.1f,nominalVoltage=%.1f",
+                internalResistance, brownoutVoltage, nominalVoltage);
+        }   //toString
+
+        /**
+         * This method sets the battery internal resistance including wiring and connectors.
+         *
+         * @param resistance specifies the internal resistance in ohms.
+         * @return this parameter object.
+         */
+        public Parameters setInternalResistance(double resistance)
+        {
+            this.internalResistance = resistance;
+            return this;
+        }   //setInternalResistance
+
+        /**
+         * This method sets the minimum bus voltage the allocator tries to maintain.
+         *
+         * @param voltage specifies the brownout threshold in volts.
+         * @return this parameter object.
+         */
+        public Parameters setBrownoutVoltage(double voltage)
+        {
+            this.brownoutVoltage = voltage;
+            return this;
+        }   //setBrownoutVoltage
+
+        /**
+         * This method sets the nominal voltage the motor models are specified at.
+         *
+         * @param voltage specifies the nominal voltage in volts.
+         * @return this parameter object.
+         */
+        public Parameters setNominalVoltage(double voltage)
+        {
+            this.nominalVoltage = voltage;
+            return this;
+        }   //setNominalVoltage
+
+    }   //class Parameters
+
+    private final String instanceName;
+    private final TrcRobotBattery battery;
+    private final Parameters params;
+    private final TrcTaskMgr.TaskObject budgetTaskObj;
+    private TrcDbgTrace msgTracer = null;
+    // Per motor data, sorted by priority in descending order.
+    private TrcMotor[] motors = new TrcMotor[INITIAL_CAPACITY];
+    private int[] priorities = new int[INITIAL_CAPACITY];
+    private double[] stallCurrents = new double[INITIAL_CAPACITY];
+    private double[] freeSpeeds = new double[INITIAL_CAPACITY];
+    private double[] demands = new double[INITIAL_CAPACITY];
+    private double[] scales = new double[INITIAL_CAPACITY];
+    private int numMotors = 0;
+    // Allocation states.
+    private double estimatedCurrent = 0.0;
+    private double estimatedVoltage = 0.0;
+    private double totalDemand = 0.0;
+    private boolean limiting = false;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param battery specifies the battery object for reading bus voltage.
+     * @param params specifies the power budget parameters.
+     */
+    public TrcPowerBudget(String instanceName, TrcRobotBattery battery, Parameters params)
+    {
+        this.instanceName = instanceName;
+        this.battery = battery;
+        this.params = params;
+        budgetTaskObj = TrcTaskMgr.createTask(instanceName + ".budgetTask", this::budgetTask);
+    }   //TrcPowerBudget
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method sets the message tracer for logging when the budget starts or stops limiting.
+     *
+     * @param tracer specifies the tracer for logging messages.
+     */
+    public void setMsgTracer(TrcDbgTrace tracer)
+    {
+        msgTracer = tracer;
+    }   //setMsgTracer
+
+    /**
+     * This method registers a motor with the power budget. This should be called at robot init time. Followers of
+     * the motor are accounted for automatically and should not be registered.
+     *
+     * @param motor specifies the motor.
+     * @param priority specifies the priority of the motor, higher value gets power first.
+     * @param stallCurrent specifies the stall current of the motor at nominal voltage in amperes.
+     * @param freeSpeed specifies the free speed of the motor at nominal voltage in sensor units per second, zero
+     *        to ignore back EMF (conservative, estimates stall current for the requested power).
+     */
+    public synchronized void addMotor(TrcMotor motor, int priority, double stallCurrent, double freeSpeed)
+    {
+        if (numMotors == motors.length)
+        {
+            int capacity = motors.length*2;
+            motors = Arrays.copyOf(motors, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+            stallCurrents = Arrays.copyOf(stallCurrents, capacity);
+            freeSpeeds = Arrays.copyOf(freeSpeeds, capacity);
+            demands = Arrays.copyOf(demands, capacity);
+            scales = Arrays.copyOf(scales, capacity);
+        }
+        // Insertion sort to keep the arrays sorted by priority in descending order.
+        int i = numMotors;
+        while (i > 0 && priorities[i - 1] < priority)
+        {
+            motors[i] = motors[i - 1];
+            priorities[i] = priorities[i - 1];
+            stallCurrents[i] = stallCurrents[i - 1];
+            freeSpeeds[i] = freeSpeeds[i - 1];
+            scales[i] = scales[i - 1];
+            i--;
+        }
+        motors[i] = motor;
+        priorities[i] = priority;
+        stallCurrents[i] = stallCurrent;
+        freeSpeeds[i] = freeSpeed;
+        scales[i] = 1.0;
+        numMotors++;
+    }   //addMotor
+
+    /**
+     * This method enables/disables the power budget. When disabled, all motors are restored to full power.
+     *
+     * @param enabled specifies true to enable, false to disable.
+     */
+    public synchronized void setEnabled(boolean enabled)
+    {
+        if (enabled)
+        {
+            budgetTaskObj.registerTask(TrcTaskMgr.TaskType.OUTPUT_TASK);
+        }
+        else
+        {
+            budgetTaskObj.unregisterTask();
+            for (int i = 0; i < numMotors; i++)
+            {
+                scales[i] = 1.0;
+                motors[i].setPowerBudgetScale(1.0);
+            }
+            limiting = false;
+        }
+    }   //setEnabled
+
+    /**
+     * This method checks if the power budget is enabled.
+     *
+     * @return true if enabled, false otherwise.
+     */
+    public boolean isEnabled()
+    {
+        return budgetTaskObj.isRegistered();
+    }   //isEnabled
+
+    /**
+     * This method returns the total current estimated for the last cycle after scaling.
+     *
+     * @return estimated total current in amperes.
+     */
+    public synchronized double getEstimatedCurrent()
+    {
+        return estimatedCurrent;
+    }   //getEstimatedCurrent
+
+    /**
+     * This method returns the bus voltage estimated for the last cycle after scaling.
+     *
+     * @return estimated bus voltage in volts.
+     */
+    public synchronized double getEstimatedVoltage()
+    {
+        return estimatedVoltage;
+    }   //getEstimatedVoltage
+
+    /**
+     * This method checks if the power budget is currently limiting any motor.
+     *
+     * @return true if limiting, false otherwise.
+     */
+    public synchronized boolean isLimiting()
+    {
+        return limiting;
+    }   //isLimiting
+
+    /**
+     * This method estimates the current drawn by a motor for the given power. The motor is modeled as a DC motor
+     * where current is proportional to the difference between applied voltage and back EMF.
+     *
+     * @param index specifies the motor index.
+     * @param power specifies the requested power.
+     * @param voltageRatio specifies the ratio of the open circuit voltage to the nominal voltage.
+     * @return estimated current in amperes.
+     */
+    private double estimateCurrent(int index, double power, double voltageRatio)
+    {
+        double current = 0.0;
+
+        if (power != 0.0)
+        {
+            double backEmf = 0.0;
+
+            if (freeSpeeds[index] > 0.0)
+            {
+                // Back EMF reduces current when turning with the power, plugging (reversing) increases it.
+                backEmf = motors[index].getVelocity()/freeSpeeds[index]*Math.signum(power);
+            }
+            current = stallCurrents[index]*Math.max(Math.abs(power)*voltageRatio - backEmf, 0.0)*
+                      (1 + motors[index].getNumFollowers());
+        }
+
+        return current;
+    }   //estimateCurrent
+
+    /**
+     * This method is called periodically on the output thread to allocate the current budget.
+     *
+     * @param taskType specifies the type of task being run.
+     * @param runMode specifies the competition mode that is running.
+     * @param slowPeriodicLoop specifies true if it is running the slow periodic loop on the main robot thread,
+     *        false otherwise.
+     */
+    private synchronized void budgetTask(
+        TrcTaskMgr.TaskType taskType, TrcRobot.RunMode runMode, boolean slowPeriodicLoop)
+    {
+        final String funcName = "budgetTask";
+        // Estimate open circuit voltage from the measured bus voltage and the current we let through last cycle.
+        double openVoltage = battery.getVoltage() + estimatedCurrent*params.internalResistance;
+        double voltageRatio = openVoltage/params.nominalVoltage;
+        double budget = Math.max(openVoltage - params.brownoutVoltage, 0.0)/params.internalResistance;
+        double remaining = budget;
+        double allowed = 0.0;
+        boolean wasLimiting = limiting;
+
+        totalDemand = 0.0;
+        for (int i = 0; i < numMotors; i++)
+        {
+            demands[i] = estimateCurrent(i, motors[i].getBudgetRequestedPower(), voltageRatio);
+            totalDemand += demands[i];
+        }
+
+        limiting = totalDemand > budget;
+        int tierStart = 0;
+        while (tierStart < numMotors)
+        {
+            // Sum up the demand of the tier (motors with the same priority are contiguous).
+            int tierEnd = tierStart;
+            double tierDemand = 0.0;
+            while (tierEnd < numMotors && priorities[tierEnd] == priorities[tierStart])
+            {
+                tierDemand += demands[tierEnd];
+                tierEnd++;
+            }
+
+            double tierScale = !limiting || tierDemand <= remaining? 1.0: remaining/tierDemand;
+            remaining = Math.max(remaining - tierDemand, 0.0);
+            allowed += tierDemand*tierScale;
+
+            for (int i = tierStart; i < tierEnd; i++)
+            {
+                if (Math.abs(tierScale - scales[i]) >= SCALE_CHANGE_THRESHOLD || tierScale == 1.0 && scales[i] != 1.0)
+                {
+                    scales[i] = tierScale;
+                    motors[i].setPowerBudgetScale(tierScale);
+                }
+            }
+            tierStart = tierEnd;
+        }
+
+        estimatedCurrent = allowed;
+        estimatedVoltage = openVoltage - allowed*params.internalResistance;
+
+        if (msgTracer != null && limiting != wasLimiting)
+        {
+            msgTracer.traceInfo(
+                funcName, "%s: limiting=%s, openVoltage=%.2f, demand=%.1f, budget=%.1f, estVoltage=%.2f",
+                instanceName, limiting, openVoltage, totalDemand, budget, estimatedVoltage);
+        }
+    }   //budgetTask
+
+}   //class TrcPowerBudget
@@ -22,8 +22,6 @@
 
 package TrcCommonLib.trclib;
 
-import org.apache.commons.math3.linear.RealVector;
-
 /**
  * This class implements a platform independent Pure Pursuit drive for holonomic or non-holonomic robots.
  * Essentially, a pure pursuit drive navigates the robot to chase a point along the path. The point to chase is
@@ -120,11 +118,16 @@ public class TrcPurePursuitDrive
 
     private String owner = null;
     private TrcPath path;
+    private TrcCompiledPath compiledPath;
+    private final TrcWaypoint targetWaypoint = new TrcWaypoint(0.0, new TrcPose2D(), 0.0, 0.0, 0.0, 0.0);
     private TrcEvent onFinishedEvent;
     private double timedOutTime;
     private int pathIndex;
     private TrcPose2D referencePose;
     private TrcPose2D relativeTargetPose;
+    // Reused by driveTask so the control loop doesn't allocate poses.
+    private final TrcPose2D robotPoseBuffer = new TrcPose2D();
+    private final TrcPose2D relativeTargetPoseBuffer = new TrcPose2D();
     private boolean fastModeEnabled = false;
     private boolean resetError = false;
 
@@ -583,6 +586,7 @@ public class TrcPurePursuitDrive
             }
 
             this.path = maxVel != null && maxAccel != null? path.trapezoidVelocity(maxVel, maxAccel): path;
+            compiledPath = new TrcCompiledPath(this.path);
 
             double currTime = TrcTimer.getCurrentTime();
             timedOutTime = timeout == 0.0 ? Double.POSITIVE_INFINITY : currTime + timeout;
@@ -945,6 +949,7 @@ public class TrcPurePursuitDrive
         driveTaskObj.unregisterTask();
         driveBase.stop(owner);
         path = null;
+        compiledPath = null;
         owner = null;
     }   //stop
 
@@ -1000,9 +1005,9 @@ public class TrcPurePursuitDrive
         TrcTaskMgr.TaskType taskType, TrcRobot.RunMode runMode, boolean slowPeriodicLoop)
     {
         final String funcName = moduleName + ".driveTask";
-        TrcPose2D robotPose = driveBase.getPositionRelativeTo(referencePose, true);
+        TrcPose2D robotPose = driveBase.getPositionRelativeTo(referencePose, true, robotPoseBuffer);
         TrcWaypoint targetPoint = getFollowingPoint(robotPose);
-        relativeTargetPose = targetPoint.pose.relativeTo(robotPose, true);
+        relativeTargetPose = targetPoint.pose.relativeTo(robotPose, true, relativeTargetPoseBuffer);
 
         if (!invertedTarget)
         {
@@ -1162,21 +1167,23 @@ public class TrcPurePursuitDrive
      * @param point2 specifies the end point of the path segment.
      * @param weight specifies the weight between the two provided points.
      * @param robotPose specifies the robot's position, set to null for holonomic drivebase.
-     * @return weighted interpolated waypoint.
+     * @param result specifies the waypoint to receive the weighted interpolated waypoint.
+     * @return weighted interpolated waypoint (same as result).
      */
-    private TrcWaypoint interpolate(TrcWaypoint point1, TrcWaypoint point2, double weight, TrcPose2D robotPose)
+    private TrcWaypoint interpolate(
+        TrcWaypoint point1, TrcWaypoint point2, double weight, TrcPose2D robotPose, TrcWaypoint result)
     {
-        double timestep = interpolate(point1.timeStep, point2.timeStep, weight);
-        double x = interpolate(point1.pose.x, point2.pose.x, weight);
-        double y = interpolate(point1.pose.y, point2.pose.y, weight);
-        double position = interpolate(point1.encoderPosition, point2.encoderPosition, weight);
-        double velocity = interpolate(point1.velocity, point2.velocity, weight);
-        double acceleration = interpolate(point1.acceleration, point2.acceleration, weight);
-        double jerk = interpolate(point1.jerk, point2.jerk, weight);
-
-        double heading;
+        result.timeStep = interpolate(point1.timeStep, point2.timeStep, weight);
+        result.pose.x = interpolate(point1.pose.x, point2.pose.x, weight);
+        result.pose.y = interpolate(point1.pose.y, point2.pose.y, weight);
+        result.encoderPosition = interpolate(point1.encoderPosition, point2.encoderPosition, weight);
+        result.velocity = interpolate(point1.velocity, point2.velocity, weight);
+        result.acceleration = interpolate(point1.acceleration, point2.acceleration, weight);
+        result.jerk = interpolate(point1.jerk, point2.jerk, weight);
+
         double turningRadius = proximityRadius + posTolerance;
-        if (robotPose == null || robotPose.distanceTo(point2.pose) <= turningRadius)
+        if (robotPose == null ||
+            TrcUtil.magnitude(point2.pose.x - robotPose.x, point2.pose.y - robotPose.y) <= turningRadius)
         {
             if (robotPose != null)
             {
@@ -1186,102 +1193,27 @@ public class TrcPurePursuitDrive
                 // The heading weight is the percentage distance of the robot position to the end-waypoint over
                 // proximity radius.
                 //
-                weight = 1 - point2.pose.distanceTo(point1.pose)*(1 - weight)/turningRadius;
+                weight = 1 - point2.distanceTo(point1)*(1 - weight)/turningRadius;
             }
-            heading = interpolate(
+            result.pose.angle = interpolate(
                 point1.pose.angle, warpSpace.getOptimizedTarget(point2.pose.angle, point1.pose.angle), weight);
         }
         else
         {
             //
             // For non-holonomic drivebase, maintain the robot heading pointing to the end-waypoint unless the
-            // end-waypoint is within the robot's proximity circle.
+            // end-waypoint is within the robot's proximity circle. This is the start point heading plus the heading
+            // of the start point relative to the robot.
             //
-            TrcPose2D endpointPose = point2.pose.clone();
-            endpointPose.angle = point1.pose.angle;
-            heading = point1.pose.angle + endpointPose.relativeTo(robotPose).angle;
+            result.pose.angle = point1.pose.angle + (point1.pose.angle - robotPose.angle);
         }
 
-        return new TrcWaypoint(timestep, new TrcPose2D(x, y, heading), position, velocity, acceleration, jerk);
+        return result;
     }   //interpolate
 
     /**
-     * This method calculates the waypoint on the path segment that intersects the robot's proximity circle that is
-     * closest to the end point of the path segment. The algorithm is based on this article:
-     * https://stackoverflow.com/questions/1073336/circle-line-segment-collision-detection-algorithm
-     *
-     * @param startWaypoint specifies the start point of the path segment.
-     * @param endWaypoint specifies the end point of the path segment.
-     * @param robotPose specifies the robot's position.
-     * @return calculated waypoint.
-     */
-    private TrcWaypoint getFollowingPointOnSegment(
-        TrcWaypoint startWaypoint, TrcWaypoint endWaypoint, TrcPose2D robotPose)
-    {
-        if (fastModeEnabled && robotPose.distanceTo(endWaypoint.getPositionPose()) > proximityRadius)
-        {
-            return interpolate(
-                startWaypoint, endWaypoint, 1.0, !incrementalTurn? robotPose: null);
-        }
-        else
-        {
-            // Find intersection of path segment with the proximity circle of the robot.
-            RealVector startVector = startWaypoint.getPositionPose().toPosVector();
-            RealVector endVector = endWaypoint.getPositionPose().toPosVector();
-            RealVector robotVector = robotPose.toPosVector();
-
-            RealVector startToEnd = endVector.subtract(startVector);
-            RealVector robotToStart = startVector.subtract(robotVector);
-            // Solve quadratic formula
-            double a = startToEnd.dotProduct(startToEnd);
-            double b = 2 * robotToStart.dotProduct(startToEnd);
-            double c = robotToStart.dotProduct(robotToStart) - proximityRadius * proximityRadius;
-
-            double discriminant = b * b - 4 * a * c;
-            if (discriminant < 0 || a == 0.0)
-            {
-                // No valid intersection or end waypoint has the same location as the start waypoint.
-                // (i.e. same x and y but could have different angles).
-                return null;
-            }
-//            else if (a == 0.0)
-//            {
-//                // The end waypoint has the same location as the start waypoint (i.e. same x and y but could have
-//                // different angles), just return the end waypoint to make it a turn-only drive.
-//                return endWaypoint;
-//            }
-            else
-            {
-                // line is a parametric equation, where t=0 is start waypoint, t=1 is end waypoint of the line segment.
-                discriminant = Math.sqrt(discriminant);
-                //
-                // t1 and t2 represent the relative positions of the intersection points on the line segment. If they are
-                // in the range of 0.0 and 1.0, they are on the line segment. Otherwise, the intersection points are
-                // outside of the line segment. If the relative position is towards 0.0, it is closer to the start
-                // waypoint of the line segment. If the relative position is towards 1.0, it is closer to the end
-                // waypoint of the line segment.
-                //
-                // t represents the furthest intersection point (the one closest to the end waypoint of the line segment).
-                //
-                double t1 = (-b - discriminant)/(2*a);
-                double t2 = (-b + discriminant)/(2*a);
-                double t = Math.max(t1, t2);
-
-                if (!TrcUtil.inRange(t, 0.0, 1.0))
-                {
-                    //
-                    // The furthest intersection point is not on the line segment, so skip this segment.
-                    //
-                    return null;
-                }
-
-                return interpolate(startWaypoint, endWaypoint, t, xPosPidCtrl == null? robotPose: null);
-            }
-        }
-    }   //getFollowingPointOnSegment
-
-    /**
-     * Determines the next target point for Pure Pursuit Drive to follow.
+     * Determines the next target point for Pure Pursuit Drive to follow. The returned waypoint is reused by
+     * subsequent calls, so the caller must not hold on to it.
      *
      * @param robotPose specifies the robot's location.
      * @return next target point for the robot to follow.
@@ -1293,33 +1225,46 @@ public class TrcPurePursuitDrive
         // Find the next segment that intersects with the proximity circle of the robot.
         // If there are tiny segments that are completely within the proximity circle, we will skip them all.
         //
-        for (int i = Math.max(pathIndex, 1); i < path.getSize(); i++)
+        int i = compiledPath.findIntersection(
+            robotPose.x, robotPose.y, proximityRadius, pathIndex, fastModeEnabled);
+
+        if (i != -1)
         {
             TrcWaypoint segmentStart = path.getWaypoint(i - 1);
             TrcWaypoint segmentEnd = path.getWaypoint(i);
-            // If there is a valid intersection, return it.
-            TrcWaypoint interpolated = getFollowingPointOnSegment(segmentStart, segmentEnd, robotPose);
-            if (interpolated != null)
+
+            if (fastModeEnabled &&
+                TrcUtil.magnitude(segmentEnd.pose.x - robotPose.x, segmentEnd.pose.y - robotPose.y) >
+                proximityRadius)
+            {
+                // Fast mode: the end point is outside of the proximity circle, target the end point.
+                interpolate(segmentStart, segmentEnd, 1.0, !incrementalTurn? robotPose: null, targetWaypoint);
+            }
+            else
             {
-                if (pathIndex != i)
+                interpolate(
+                    segmentStart, segmentEnd, compiledPath.getIntersectionParam(),
+                    xPosPidCtrl == null? robotPose: null, targetWaypoint);
+            }
+
+            if (pathIndex != i)
+            {
+                //
+                // We are moving to the next waypoint.
+                //
+                if (waypointEventHandler != null)
+                {
+                    waypointEventHandler.waypointEvent(i - 1, segmentStart);
+                }
+
+                if (msgTracer != null)
                 {
-                    //
-                    // We are moving to the next waypoint.
-                    //
-                    if (waypointEventHandler != null)
-                    {
-                        waypointEventHandler.waypointEvent(i - 1, segmentStart);
-                    }
-
-                    if (msgTracer != null)
-                    {
-                        msgTracer.traceInfo(funcName, "Segment[%d:%s->%d:%s] PrevIndex=%d, Target=%s",
-                                            i - 1, segmentStart, i, segmentEnd, pathIndex, interpolated);
-                    }
-                    pathIndex = i;
+                    msgTracer.traceInfo(funcName, "Segment[%d:%s->%d:%s] PrevIndex=%d, Target=%s",
+                                        i - 1, segmentStart, i, segmentEnd, pathIndex, targetWaypoint);
                 }
-                return interpolated;
+                pathIndex = i;
             }
+            return targetWaypoint;
         }
         //
         // Found no intersection. The robot must be off-path. Just proceed to the immediate next waypoint.
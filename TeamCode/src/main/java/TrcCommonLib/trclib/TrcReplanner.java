@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+/**
+ * This class implements a background path replanning service for TrcHolonomicPurePursuitDriveV2. Replan requests
+ * are processed on a TrcTaskMgr standalone task: the planner builds and profiles the replacement path starting from the pose
+ * the robot is predicted to be at when the path is ready, and the result is handed to the follower with an atomic
+ * swap, so none of the path building cost is on the robot control loop and the robot keeps moving.
+ * <p>
+ * Requests are coalesced: if several requests arrive while the planner is busy, only the latest one is planned.
+ * When the replan is done, an optional event is signaled. The replanner is disabled when the competition mode ends,
+ * so the planner thread does not outlive the op mode.
+ */
+public class TrcReplanner
+{
+    private static final String moduleName = "TrcReplanner";
+    private static final TrcDbgTrace globalTracer = TrcDbgTrace.getGlobalTracer();
+    private static final boolean debugEnabled = false;
+    // Maximum time to wait for a request in seconds, so the task can be unregistered promptly.
+    private static final double REQUEST_WAIT_TIMEOUT = 0.1;
+
+    /**
+     * This interface is implemented by the caller to plan the replacement path.
+     */
+    public interface PathPlanner
+    {
+        /**
+         * This method is called on the replanner task thread to build and profile the replacement path.
+         *
+         * @param startPose specifies the predicted field pose of the robot at the start of the new path.
+         * @param startVelocity specifies the predicted speed of the robot at the start of the new path, the velocity
+         *        profile of the path should start at this speed.
+         * @return the new path relative to startPose (i.e. starting at (0,0)), null to keep the current path.
+         */
+        TrcPath planPath(TrcPose2D startPose, double startVelocity);
+
+    }   //interface PathPlanner
+
+    private final String instanceName;
+    private final TrcDriveBase driveBase;
+    private final TrcHolonomicPurePursuitDriveV2 follower;
+    private final TrcTaskMgr.TaskObject plannerTaskObj;
+    private final TrcTaskMgr.TaskObject stopTaskObj;
+    private volatile double predictionTime;
+    private TrcDbgTrace msgTracer = null;
+    private boolean enabled = false;
+    // Pending request, guarded by this.
+    private PathPlanner pendingPlanner = null;
+    private TrcEvent pendingEvent = null;
+    // Statistics, guarded by this.
+    private int numReplans = 0;
+    private double totalPlanTime = 0.0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param driveBase specifies the drive base to get the current pose and velocity.
+     * @param follower specifies the path follower to hand the replacement paths to.
+     * @param predictionTime specifies the expected planning time in seconds. The start pose of the new path is
+     *        extrapolated from the current pose and velocity by this amount.
+     */
+    public TrcReplanner(
+        String instanceName, TrcDriveBase driveBase, TrcHolonomicPurePursuitDriveV2 follower, double predictionTime)
+    {
+        this.instanceName = instanceName;
+        this.driveBase = driveBase;
+        this.follower = follower;
+        this.predictionTime = predictionTime;
+        plannerTaskObj = TrcTaskMgr.createTask(instanceName + ".plannerTask", this::plannerTask);
+        stopTaskObj = TrcTaskMgr.createTask(instanceName + ".stopTask", this::stopTask);
+    }   //TrcReplanner
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method sets the message tracer for logging replans.
+     *
+     * @param tracer specifies the tracer for logging messages.
+     */
+    public synchronized void setMsgTracer(TrcDbgTrace tracer)
+    {
+        msgTracer = tracer;
+    }   //setMsgTracer
+
+    /**
+     * This method sets the expected planning time used to predict the start pose of the new path.
+     *
+     * @param predictionTime specifies the prediction time in seconds.
+     */
+    public void setPredictionTime(double predictionTime)
+    {
+        this.predictionTime = predictionTime;
+    }   //setPredictionTime
+
+    /**
+     * This method enables/disables the replanner. On enable, it registers the planner standalone task. On disable,
+     * it cancels the pending request and unregisters the planner task, whose thread exits after the replan in
+     * progress (if any) is done. The replanner is also disabled when the competition mode ends.
+     *
+     * @param enabled specifies true to enable, false to disable.
+     */
+    public synchronized void setEnabled(boolean enabled)
+    {
+        if (enabled && !this.enabled)
+        {
+            plannerTaskObj.registerTask(TrcTaskMgr.TaskType.STANDALONE_TASK);
+            stopTaskObj.registerTask(TrcTaskMgr.TaskType.STOP_TASK);
+        }
+        else if (!enabled && this.enabled)
+        {
+            cancelPendingRequest();
+            // Unregistering interrupts the task thread, which also wakes it up if it is waiting for a request.
+            plannerTaskObj.unregisterTask();
+            stopTaskObj.unregisterTask();
+        }
+        this.enabled = enabled;
+    }   //setEnabled
+
+    /**
+     * This method checks if the replanner is enabled.
+     *
+     * @return true if enabled, false otherwise.
+     */
+    public synchronized boolean isEnabled()
+    {
+        return enabled;
+    }   //isEnabled
+
+    /**
+     * This method requests a replan. It does not block. If a previous request has not been started yet, it is
+     * superseded and its event is canceled.
+     *
+     * @param planner specifies the planner to build the replacement path.
+     * @param event specifies the event to signal when the new path is handed to the follower, can be null. The event
+     *        is canceled if the request is superseded, the planner returns no path or the follower is not active.
+     */
+    public synchronized void requestReplan(PathPlanner planner, TrcEvent event)
+    {
+        if (!enabled)
+        {
+            throw new IllegalStateException("Replanner " + instanceName + " is not enabled.");
+        }
+
+        if (event != null)
+        {
+            event.clear();
+        }
+        cancelPendingRequest();
+        pendingPlanner = planner;
+        pendingEvent = event;
+        notifyAll();
+    }   //requestReplan
+
+    /**
+     * This method returns the average time spent planning a path in seconds.
+     *
+     * @return average planning time.
+     */
+    public synchronized double getAveragePlanTime()
+    {
+        return numReplans > 0? totalPlanTime/numReplans: 0.0;
+    }   //getAveragePlanTime
+
+    /**
+     * This method cancels the pending request if there is one. Must be called with the lock held.
+     */
+    private void cancelPendingRequest()
+    {
+        if (pendingEvent != null)
+        {
+            pendingEvent.cancel();
+        }
+        pendingPlanner = null;
+        pendingEvent = null;
+    }   //cancelPendingRequest
+
+    /**
+     * This method is called periodically on the planner standalone task thread. It waits for a request, predicts the
+     * start pose, plans the path and hands it to the follower.
+     *
+     * @param taskType specifies the type of task being run.
+     * @param runMode specifies the current robot run mode.
+     * @param slowPeriodicLoop specifies true if it is running the slow periodic loop on the main robot thread,
+     *        false otherwise.
+     */
+    private void plannerTask(TrcTaskMgr.TaskType taskType, TrcRobot.RunMode runMode, boolean slowPeriodicLoop)
+    {
+        final String funcName = "plannerTask";
+        PathPlanner planner;
+        TrcEvent event;
+
+        synchronized (this)
+        {
+            long deadline = TrcTimer.getNanoTime() + (long) (REQUEST_WAIT_TIMEOUT*1000000000.0);
+
+            try
+            {
+                for (long remaining = deadline - TrcTimer.getNanoTime();
+                     pendingPlanner == null && remaining > 0;
+                     remaining = deadline - TrcTimer.getNanoTime())
+                {
+                    wait(remaining/1000000, (int) (remaining%1000000));
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // The task is being unregistered, let the task thread see the interrupt and exit.
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (pendingPlanner == null)
+            {
+                return;
+            }
+            planner = pendingPlanner;
+            event = pendingEvent;
+            pendingPlanner = null;
+            pendingEvent = null;
+        }
+        //
+        // Extrapolate the robot pose to when the new path is expected to be ready.
+        //
+        TrcPose2D pose = driveBase.getFieldPosition();
+        TrcPose2D velocity = driveBase.getFieldVelocity();
+        double dt = predictionTime;
+        pose.x += velocity.x*dt;
+        pose.y += velocity.y*dt;
+        pose.angle += velocity.angle*dt;
+
+        double startTime = TrcTimer.getCurrentTime();
+        TrcPath path;
+        try
+        {
+            path = planner.planPath(pose, TrcUtil.magnitude(velocity.x, velocity.y));
+        }
+        catch (RuntimeException e)
+        {
+            // A failed replan keeps the current path, the replanner keeps serving requests.
+            globalTracer.traceErr(funcName, "[%s] Planner failed: %s", instanceName, e);
+            path = null;
+        }
+        double planTime = TrcTimer.getCurrentTime() - startTime;
+        boolean swapped = path != null && follower.replacePath(path, pose);
+
+        synchronized (this)
+        {
+            numReplans++;
+            totalPlanTime += planTime;
+            if (msgTracer != null)
+            {
+                msgTracer.traceInfo(
+                    funcName, "[%s] Replanned from %s in %.3f sec (swapped=%s).",
+                    instanceName, pose, planTime, swapped);
+            }
+        }
+
+        if (debugEnabled)
+        {
+            globalTracer.traceInfo(funcName, "[%s] path=%s", instanceName, path);
+        }
+
+        if (event != null)
+        {
+            if (swapped)
+            {
+                event.signal();
+            }
+            else
+            {
+                event.cancel();
+            }
+        }
+    }   //plannerTask
+
+    /**
+     * This method is called when the competition mode is about to end to disable the replanner, so the planner task
+     * does not keep planning for a drive base of the ended op mode.
+     *
+     * @param taskType specifies the type of task being run.
+     * @param runMode specifies the competition mode that is about to end (e.g. Autonomous, TeleOp, Test).
+     * @param slowPeriodicLoop specifies true if it is running the slow periodic loop on the main robot thread,
+     *        false otherwise.
+     */
+    private void stopTask(TrcTaskMgr.TaskType taskType, TrcRobot.RunMode runMode, boolean slowPeriodicLoop)
+    {
+        setEnabled(false);
+    }   //stopTask
+
+}   //class TrcReplanner
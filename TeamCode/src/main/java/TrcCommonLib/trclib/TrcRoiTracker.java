@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import org.opencv.core.Rect;
+
+import java.util.Locale;
+
+/**
+ * This class implements a predictive region of interest (ROI) tracker for vision pipelines. Once an object is
+ * detected with enough confidence, it tracks the object center with a constant velocity Kalman filter (one per image
+ * axis) and smooths the object size. For every frame, it predicts where the object will be and returns a padded ROI
+ * around the prediction so the pipeline only needs to process that part of the image. The padding grows with the
+ * prediction uncertainty. After a number of consecutive misses, it gives up tracking and the pipeline goes back to
+ * searching the full frame.
+ * <p>
+ * The tracker is thread-safe so that prediction and update can be called from different stages of a pipelined
+ * vision task. Update always corrects the most recent prediction.
+ */
+public class TrcRoiTracker
+{
+    /**
+     * This class contains the tuning parameters of the tracker.
+     */
+    public static class Parameters
+    {
+        double minTrackingArea = 0.0;
+        int maxMisses = 3;
+        double paddingScale = 0.5;
+        double numSigmas = 3.0;
+        double minRoiSize = 32.0;
+        double maxRoiFraction = 0.5;
+        double accelNoise = 2000.0;
+        double measurementNoise = 4.0;
+        double sizeSmoothing = 0.5;
+
+        /**
+         * This method sets the minimum area of a detection to start tracking.
+         *
+         * @param minArea specifies the minimum area in pixels.
+         * @return this object for chaining.
+         */
+        public Parameters setMinTrackingArea(double minArea)
+        {
+            this.minTrackingArea = minArea;
+            return this;
+        }   //setMinTrackingArea
+
+        /**
+         * This method sets the number of consecutive misses before falling back to full frame search.
+         *
+         * @param maxMisses specifies the maximum number of misses.
+         * @return this object for chaining.
+         */
+        public Parameters setMaxMisses(int maxMisses)
+        {
+            this.maxMisses = maxMisses;
+            return this;
+        }   //setMaxMisses
+
+        /**
+         * This method sets the ROI padding.
+         *
+         * @param paddingScale specifies the padding on each side as a fraction of the object size.
+         * @param numSigmas specifies the additional padding in standard deviations of the predicted position.
+         * @param minRoiSize specifies the minimum ROI width and height in pixels.
+         * @return this object for chaining.
+         */
+        public Parameters setPadding(double paddingScale, double numSigmas, double minRoiSize)
+        {
+            this.paddingScale = paddingScale;
+            this.numSigmas = numSigmas;
+            this.minRoiSize = minRoiSize;
+            return this;
+        }   //setPadding
+
+        /**
+         * This method sets the maximum ROI size as a fraction of the image area. If the ROI is bigger than that, the
+         * full frame is processed instead since the ROI would not save much.
+         *
+         * @param maxRoiFraction specifies the maximum ROI area as a fraction of the image area.
+         * @return this object for chaining.
+         */
+        public Parameters setMaxRoiFraction(double maxRoiFraction)
+        {
+            this.maxRoiFraction = maxRoiFraction;
+            return this;
+        }   //setMaxRoiFraction
+
+        /**
+         * This method sets the Kalman filter noise parameters.
+         *
+         * @param accelNoise specifies the standard deviation of the object acceleration in pixels/sec^2.
+         * @param measurementNoise specifies the standard deviation of the detected center in pixels.
+         * @return this object for chaining.
+         */
+        public Parameters setNoise(double accelNoise, double measurementNoise)
+        {
+            this.accelNoise = accelNoise;
+            this.measurementNoise = measurementNoise;
+            return this;
+        }   //setNoise
+
+        /**
+         * This method sets the smoothing factor of the object size.
+         *
+         * @param sizeSmoothing specifies the weight of the new measurement between 0 and 1.
+         * @return this object for chaining.
+         */
+        public Parameters setSizeSmoothing(double sizeSmoothing)
+        {
+            this.sizeSmoothing = sizeSmoothing;
+            return this;
+        }   //setSizeSmoothing
+
+        @Override
+        public String toString()
+        {
+            return String.format(
+                Locale.US,
+                "minArea=%.1f, maxMisses=%d, padding=%.2f, sigmas=%.1f, minRoi=%.0f, maxRoiFraction=%.2f, " +
+                "accelNoise=%.1f, measurementNoise=%.1f, sizeSmoothing=%.2f",
+                minTrackingArea, maxMisses, paddingScale, numSigmas, minRoiSize, maxRoiFraction, accelNoise,
+                measurementNoise, sizeSmoothing);
+        }   //toString
+
+    }   //class Parameters
+
+    /**
+     * This class implements a constant velocity Kalman filter for one axis.
+     */
+    private static class AxisFilter
+    {
+        double pos, vel;
+        // Covariance matrix [[p00, p01], [p01, p11]].
+        double p00, p01, p11;
+
+        void init(double pos, double posVariance, double velVariance)
+        {
+            this.pos = pos;
+            this.vel = 0.0;
+            p00 = posVariance;
+            p01 = 0.0;
+            p11 = velVariance;
+        }   //init
+
+        void predict(double dt, double accelVariance)
+        {
+            double dt2 = dt*dt;
+
+            pos += vel*dt;
+            // P = F P F' + Q with F = [[1, dt], [0, 1]] and Q from white noise acceleration.
+            p00 += dt*(2.0*p01 + dt*p11) + accelVariance*dt2*dt2/4.0;
+            p01 += dt*p11 + accelVariance*dt2*dt/2.0;
+            p11 += accelVariance*dt2;
+        }   //predict
+
+        void correct(double measurement, double measurementVariance)
+        {
+            double s = p00 + measurementVariance;
+            double k0 = p00/s;
+            double k1 = p01/s;
+            double residual = measurement - pos;
+
+            pos += k0*residual;
+            vel += k1*residual;
+            // P = (I - K H) P
+            p11 -= k1*p01;
+            p01 -= k0*p01;
+            p00 -= k0*p00;
+        }   //correct
+
+    }   //class AxisFilter
+
+    private final Parameters params;
+    private final AxisFilter xFilter = new AxisFilter();
+    private final AxisFilter yFilter = new AxisFilter();
+    private double width, height;
+    private double lastTime;
+    private boolean tracking = false;
+    private int numMisses = 0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param params specifies the tracker parameters.
+     */
+    public TrcRoiTracker(Parameters params)
+    {
+        this.params = params;
+    }   //TrcRoiTracker
+
+    /**
+     * This method returns the tracker state.
+     *
+     * @return tracker state.
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return tracking?
+            String.format(
+                Locale.US, "tracking: center=(%.1f,%.1f), vel=(%.1f,%.1f), size=%.1fx%.1f, misses=%d",
+                xFilter.pos, yFilter.pos, xFilter.vel, yFilter.vel, width, height, numMisses):
+            "searching";
+    }   //toString
+
+    /**
+     * This method stops tracking so that the next frame is searched in full.
+     */
+    public synchronized void reset()
+    {
+        tracking = false;
+        numMisses = 0;
+    }   //reset
+
+    /**
+     * This method checks if an object is being tracked.
+     *
+     * @return true if tracking, false if searching the full frame.
+     */
+    public synchronized boolean isTracking()
+    {
+        return tracking;
+    }   //isTracking
+
+    /**
+     * This method predicts the object position at the given time and returns the ROI to be processed.
+     *
+     * @param imageWidth specifies the image width.
+     * @param imageHeight specifies the image height.
+     * @param timestamp specifies the frame timestamp in seconds.
+     * @return ROI clipped to the image, null if the full frame should be processed.
+     */
+    public synchronized Rect predict(int imageWidth, int imageHeight, double timestamp)
+    {
+        Rect roi = null;
+
+        if (tracking)
+        {
+            double dt = Math.max(timestamp - lastTime, 0.0);
+            double accelVariance = params.accelNoise*params.accelNoise;
+
+            xFilter.predict(dt, accelVariance);
+            yFilter.predict(dt, accelVariance);
+            lastTime = timestamp;
+
+            double halfWidth = Math.max(
+                width*(0.5 + params.paddingScale) + params.numSigmas*Math.sqrt(xFilter.p00), params.minRoiSize/2.0);
+            double halfHeight = Math.max(
+                height*(0.5 + params.paddingScale) + params.numSigmas*Math.sqrt(yFilter.p00), params.minRoiSize/2.0);
+            int left = (int) Math.max(Math.floor(xFilter.pos - halfWidth), 0.0);
+            int top = (int) Math.max(Math.floor(yFilter.pos - halfHeight), 0.0);
+            int right = (int) Math.min(Math.ceil(xFilter.pos + halfWidth), imageWidth);
+            int bottom = (int) Math.min(Math.ceil(yFilter.pos + halfHeight), imageHeight);
+
+            if (right - left > 0 && bottom - top > 0 &&
+                (double) (right - left)*(bottom - top) <= params.maxRoiFraction*imageWidth*imageHeight)
+            {
+                roi = new Rect(left, top, right - left, bottom - top);
+            }
+        }
+
+        return roi;
+    }   //predict
+
+    /**
+     * This method updates the tracker with the detection of the last predicted frame. If not tracking, tracking
+     * starts if the detection is big enough.
+     *
+     * @param detection specifies the detected object rect in full frame coordinates, null if nothing was detected.
+     * @param timestamp specifies the frame timestamp in seconds, only used when tracking starts.
+     */
+    public synchronized void update(Rect detection, double timestamp)
+    {
+        if (detection == null || !tracking && (double) detection.width*detection.height < params.minTrackingArea)
+        {
+            if (tracking && ++numMisses > params.maxMisses)
+            {
+                tracking = false;
+            }
+        }
+        else
+        {
+            double centerX = detection.x + detection.width/2.0;
+            double centerY = detection.y + detection.height/2.0;
+            double measurementVariance = params.measurementNoise*params.measurementNoise;
+
+            if (tracking)
+            {
+                xFilter.correct(centerX, measurementVariance);
+                yFilter.correct(centerY, measurementVariance);
+                width += params.sizeSmoothing*(detection.width - width);
+                height += params.sizeSmoothing*(detection.height - height);
+            }
+            else
+            {
+                // Start with the object standing still but with a velocity uncertainty of about one object size per
+                // second so the first ROIs are generous.
+                xFilter.init(centerX, measurementVariance, (double) detection.width*detection.width);
+                yFilter.init(centerY, measurementVariance, (double) detection.height*detection.height);
+                width = detection.width;
+                height = detection.height;
+                lastTime = timestamp;
+                tracking = true;
+            }
+            numMisses = 0;
+        }
+    }   //update
+
+}   //class TrcRoiTracker
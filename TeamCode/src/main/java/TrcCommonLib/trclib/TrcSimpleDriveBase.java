@@ -52,6 +52,7 @@ public class TrcSimpleDriveBase extends TrcDriveBase
     protected final TrcMotor rbMotor;
     protected final TrcMotor lcMotor;
     protected final TrcMotor rcMotor;
+    private final Odometry odometryDelta = new Odometry();
 
     /**
      * Constructor: Create an instance of a 6-wheel drive base.
@@ -346,7 +347,8 @@ public class TrcSimpleDriveBase extends TrcDriveBase
         TrcOdometrySensor.Odometry[] prevOdometries, TrcOdometrySensor.Odometry[] currOdometries)
     {
         final String funcName = "getOdometryDelta";
-        Odometry delta = new Odometry();
+        // Reuse the same delta object on every update, all of its fields are overwritten below.
+        Odometry delta = odometryDelta;
 
         if (debugEnabled)
         {
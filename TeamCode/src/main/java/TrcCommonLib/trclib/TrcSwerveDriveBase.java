@@ -22,9 +22,6 @@
 
 package TrcCommonLib.trclib;
 
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.RealVector;
-
 import java.util.Arrays;
 
 /**
@@ -38,8 +35,16 @@ import java.util.Arrays;
 public class TrcSwerveDriveBase extends TrcSimpleDriveBase
 {
     private final TrcSwerveModule lfModule, rfModule, lbModule, rbModule;
-    private final double wheelBaseWidth, wheelBaseLength, wheelBaseDiagonal;
-    private final TrcHashMap<TrcMotor, TrcSwerveModule> driveMotorToModuleMap = new TrcHashMap<>();
+    private final double wheelBaseWidth, wheelBaseLength;
+    // Modules in the kinematics order (lf, rf, lb, rb). Note that the constructor takes them as (lf, lb, rf, rb).
+    private final TrcSwerveModule[] modules;
+    private final TrcSwerveKinematics driveKinematics;
+    private final TrcSwerveKinematics odometryKinematics;
+    // Scratch buffers so that drive and odometry calls don't allocate.
+    private final double[] driveSteerAngles = new double[TrcSwerveKinematics.NUM_MODULES];
+    private final double[] odometrySteerAngles = new double[TrcSwerveKinematics.NUM_MODULES];
+    private final double[] odometryWheelMotions = new double[TrcSwerveKinematics.NUM_MODULES];
+    private final Odometry odometryDelta = new Odometry();
     private boolean antiDefenseModeEnabled = false;
 
     /**
@@ -65,11 +70,9 @@ public class TrcSwerveDriveBase extends TrcSimpleDriveBase
         this.rbModule = rbModule;
         this.wheelBaseWidth = wheelBaseWidth;
         this.wheelBaseLength = wheelBaseLength;
-        this.wheelBaseDiagonal = TrcUtil.magnitude(wheelBaseWidth, wheelBaseLength);
-        driveMotorToModuleMap.add(lfModule.driveMotor, lfModule);
-        driveMotorToModuleMap.add(rfModule.driveMotor, rfModule);
-        driveMotorToModuleMap.add(lbModule.driveMotor, lbModule);
-        driveMotorToModuleMap.add(rbModule.driveMotor, rbModule);
+        this.modules = new TrcSwerveModule[] {lfModule, rfModule, lbModule, rbModule};
+        this.driveKinematics = new TrcSwerveKinematics(wheelBaseWidth, wheelBaseLength);
+        this.odometryKinematics = new TrcSwerveKinematics(wheelBaseWidth, wheelBaseLength);
     }   //TrcSwerveDriveBase
 
     /**
@@ -89,6 +92,19 @@ public class TrcSwerveDriveBase extends TrcSimpleDriveBase
         this(lfModule, lbModule, rfModule, rbModule, null, wheelBaseWidth, wheelBaseLength);
     }   //TrcSwerveDriveBase
 
+    /**
+     * This method enables/disables the use of fast math in the drive methods including the module angle
+     * calculation of the swerve kinematics.
+     *
+     * @param enabled specifies true to use fast math, false to use java.lang.Math.
+     */
+    @Override
+    public void setFastMathEnabled(boolean enabled)
+    {
+        super.setFastMathEnabled(enabled);
+        driveKinematics.setFastMathEnabled(enabled);
+    }   //setFastMathEnabled
+
     /**
      * This method does zero calibration on the steer angle encoders.
      */
@@ -371,9 +387,10 @@ public class TrcSwerveDriveBase extends TrcSimpleDriveBase
                             "You should not be using inverted and field reference frame at the same time!");
                     }
 
-                    double gyroRadians = Math.toRadians(gyroAngle);
-                    double temp = y * Math.cos(gyroRadians) + x * Math.sin(gyroRadians);
-                    x = -y * Math.sin(gyroRadians) + x * Math.cos(gyroRadians);
+                    double cosA = cosDegrees(gyroAngle);
+                    double sinA = sinDegrees(gyroAngle);
+                    double temp = y * cosA + x * sinA;
+                    x = -y * sinA + x * cosA;
                     y = temp;
                 }
 
@@ -388,50 +405,32 @@ public class TrcSwerveDriveBase extends TrcSimpleDriveBase
                     y += getAntiTippingPower(false);
                 }
 
-                double a = x - (rotation * wheelBaseLength / wheelBaseDiagonal);
-                double b = x + (rotation * wheelBaseLength / wheelBaseDiagonal);
-                double c = y - (rotation * wheelBaseWidth / wheelBaseDiagonal);
-                double d = y + (rotation * wheelBaseWidth / wheelBaseDiagonal);
-
-                // The white paper goes in order rf, lf, lb, rb. We like to do lf, rf, lb, rb.
-                // Note: atan2(y, x) in java will take care of x being zero.
-                //       It will return pi/2 for positive y and -pi/2 for negative y.
-                double lfAngle = Math.toDegrees(Math.atan2(b, d));
-                double rfAngle = Math.toDegrees(Math.atan2(b, c));
-                double lbAngle = Math.toDegrees(Math.atan2(a, d));
-                double rbAngle = Math.toDegrees(Math.atan2(a, c));
-
-                // The white paper goes in order rf, lf, lb, rb. We like to do lf, rf, lb, rb.
-                double lfPower = TrcUtil.magnitude(b, d);
-                double rfPower = TrcUtil.magnitude(b, c);
-                double lbPower = TrcUtil.magnitude(a, d);
-                double rbPower = TrcUtil.magnitude(a, c);
-
-//                double[] normalizedPowers = TrcUtil.normalize(lfPower, rfPower, lbPower, rbPower);
-//                lfPower = this.clipMotorOutput(normalizedPowers[0]);
-//                rfPower = this.clipMotorOutput(normalizedPowers[1]);
-//                lbPower = this.clipMotorOutput(normalizedPowers[2]);
-//                rbPower = this.clipMotorOutput(normalizedPowers[3]);
-
-                if (motorPowerMapper != null)
+                driveKinematics.inverse(x, y, rotation);
+                driveKinematics.desaturate(1.0);
+                for (int i = 0; i < modules.length; i++)
                 {
-                    lfPower = motorPowerMapper.translateMotorPower(lfPower, lfModule.driveMotor.getVelocity());
-                    rfPower = motorPowerMapper.translateMotorPower(rfPower, rfModule.driveMotor.getVelocity());
-                    lbPower = motorPowerMapper.translateMotorPower(lbPower, lbModule.driveMotor.getVelocity());
-                    rbPower = motorPowerMapper.translateMotorPower(rbPower, rbModule.driveMotor.getVelocity());
+                    driveSteerAngles[i] = modules[i].getSteerAngle();
                 }
+                // Steer each module the shortest way, reversing the wheel if it needs to turn more than 90 degrees.
+                driveKinematics.optimize(driveSteerAngles);
 
-                lfModule.setSteerAngle(lfAngle);
-                rfModule.setSteerAngle(rfAngle);
-                lbModule.setSteerAngle(lbAngle);
-                rbModule.setSteerAngle(rbAngle);
+                double[] moduleAngles = driveKinematics.getModuleAngles();
+                double[] modulePowers = driveKinematics.getModuleSpeeds();
+                boolean stopped = true;
+                for (int i = 0; i < modules.length; i++)
+                {
+                    double power = modulePowers[i];
 
-                lfModule.setPower(lfPower);
-                rfModule.setPower(rfPower);
-                lbModule.setPower(lbPower);
-                rbModule.setPower(rbPower);
+                    if (motorPowerMapper != null)
+                    {
+                        power = motorPowerMapper.translateMotorPower(power, modules[i].driveMotor.getVelocity());
+                    }
+                    modules[i].setSteerAngle(moduleAngles[i], driveSteerAngles[i], false, true);
+                    modules[i].setPower(power);
+                    stopped &= power == 0.0;
+                }
 
-                if (lfPower == 0.0 && rfPower == 0.0 && lbPower == 0.0 && rbPower == 0.0)
+                if (stopped)
                 {
                     // reset stall start time to zero if drive base is stopped.
                     stallStartTime = 0.0;
@@ -498,45 +497,31 @@ public class TrcSwerveDriveBase extends TrcSimpleDriveBase
         TrcOdometrySensor.Odometry[] currOdometries)
     {
         final String funcName = "getOdometryDelta";
-        Odometry delta = new Odometry();
+        // The delta is only consumed by the odometry task before the next call, so it is safe to reuse.
+        Odometry delta = odometryDelta;
 
         if (debugEnabled)
         {
             dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.TASK);
         }
         //
-        // Average the posDelta vectors and velocity vectors of all four wheels:
-        //  (sum posDelta vectors of all wheels)/num_of_wheels
-        //  (sum velocity vectors of all wheels)/num_of_wheels
+        // Solve the forward kinematics for the position delta and velocity of the drive base. Each odometry is mapped
+        // to its module by its drive motor so we don't depend on the order of the drive base motor array.
         //
-        int numMotors = currOdometries.length;
-        RealVector[] wheelPosVectors = new RealVector[numMotors];
-        RealVector[] wheelVelVectors = new RealVector[numMotors];
-        RealVector posSum = new ArrayRealVector(2);
-        RealVector velSum = new ArrayRealVector(2);
-        for (int i = 0; i < numMotors; i++)
+        for (int i = 0; i < currOdometries.length; i++)
         {
-            TrcSwerveModule swerveModule = driveMotorToModuleMap.get(currOdometries[i].sensor);
-            // swerveModule won't be null but checking it to shut up the compiler warning.
-            double angle = swerveModule != null? swerveModule.getSteerAngle(): 0.0;
-            double posDelta = currOdometries[i].currPos - prevOdometries[i].currPos;
+            int moduleIndex = getModuleIndex(currOdometries[i].sensor);
+            odometrySteerAngles[moduleIndex] = modules[moduleIndex].getSteerAngle();
             // xScale and yScale on SwerveDrive should be identical.
-            wheelPosVectors[i] = TrcUtil.polarToCartesian(posDelta, angle).mapMultiply(xScale);
-            wheelVelVectors[i] = TrcUtil.polarToCartesian(currOdometries[i].velocity, angle).mapMultiply(xScale);
-            posSum = posSum.add(wheelPosVectors[i]);
-            velSum = velSum.add(wheelVelVectors[i]);
+            odometryWheelMotions[moduleIndex] = (currOdometries[i].currPos - prevOdometries[i].currPos) * xScale;
         }
-        double multiplier = 1.0 / numMotors;
-        posSum.mapMultiplyToSelf(multiplier);
-        velSum.mapMultiplyToSelf(multiplier);
-        //
-        // Calculate the odometry delta.
-        //
-        delta.position.x = posSum.getEntry(0);
-        delta.position.y = posSum.getEntry(1);
+        odometryKinematics.forward(odometrySteerAngles, odometryWheelMotions, delta.position);
 
-        delta.velocity.x = velSum.getEntry(0);
-        delta.velocity.y = velSum.getEntry(1);
+        for (int i = 0; i < currOdometries.length; i++)
+        {
+            odometryWheelMotions[getModuleIndex(currOdometries[i].sensor)] = currOdometries[i].velocity * xScale;
+        }
+        odometryKinematics.forward(odometrySteerAngles, odometryWheelMotions, delta.velocity);
 
         if (TrcUtil.magnitude(delta.velocity.x, delta.velocity.y) > stallVelThreshold)
         {
@@ -544,27 +529,6 @@ public class TrcSwerveDriveBase extends TrcSimpleDriveBase
             stallStartTime = TrcTimer.getCurrentTime();
         }
 
-        double x = wheelBaseWidth / 2;
-        double y = wheelBaseLength / 2;
-        // This is black magic math, and it actually needs to be tested.
-        // CodeReview: Please put a reference to your research material so we know where it came from.
-        double dRot = x * (wheelPosVectors[0].getEntry(1) + wheelPosVectors[2].getEntry(1) -
-                           wheelPosVectors[1].getEntry(1) - wheelPosVectors[3].getEntry(1)) +
-                      y * (wheelPosVectors[0].getEntry(0) + wheelPosVectors[1].getEntry(0) -
-                           wheelPosVectors[2].getEntry(0) - wheelPosVectors[3].getEntry(0));
-
-        dRot /= 4 * Math.pow(wheelBaseDiagonal, 2);
-        dRot = Math.toDegrees(dRot);
-        delta.position.angle = dRot;
-
-        double rotVel = x * (wheelVelVectors[0].getEntry(1) + wheelVelVectors[2].getEntry(1) -
-                             wheelVelVectors[1].getEntry(1) - wheelVelVectors[3].getEntry(1)) +
-                        y * (wheelVelVectors[0].getEntry(0) + wheelVelVectors[1].getEntry(0) -
-                             wheelVelVectors[2].getEntry(0) - wheelVelVectors[3].getEntry(0));
-        rotVel /= 4 * Math.pow(wheelBaseDiagonal, 2);
-        rotVel = Math.toDegrees(rotVel);
-        delta.velocity.angle = rotVel;
-
         if (debugEnabled)
         {
             dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.TASK);
@@ -573,4 +537,24 @@ public class TrcSwerveDriveBase extends TrcSimpleDriveBase
         return delta;
     }   //getOdometryDelta
 
+    /**
+     * This method returns the kinematics index of the module driven by the given drive motor.
+     *
+     * @param driveMotor specifies the drive motor of the module.
+     * @return kinematics index of the module.
+     * @throws IllegalArgumentException if the motor does not drive any of the modules.
+     */
+    private int getModuleIndex(Object driveMotor)
+    {
+        for (int i = 0; i < modules.length; i++)
+        {
+            if (modules[i].driveMotor == driveMotor)
+            {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("Motor " + driveMotor + " is not a swerve drive motor.");
+    }   //getModuleIndex
+
 }   //class TrcSwerveDriveBase
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+/**
+ * This class implements the kinematics of a 4-wheel swerve drive base on primitive arrays. The module geometry is
+ * precomputed at construction time and all results are written into preallocated arrays owned by this object, so
+ * neither the inverse (drive) nor the forward (odometry) computation allocates memory. Modules are indexed left
+ * front, right front, left back, right back (see the *_INDEX constants). This is not the argument order of the swerve
+ * drive base constructor (left front, left back, right front, right back), so callers must map their data to these
+ * indices explicitly (e.g. by drive motor) rather than assume the orders match.
+ * <p>
+ * The coordinate system follows the rest of the library: x is to the right, y is forward, angles are in degrees
+ * with 0 being forward and positive being clockwise. Rotation power is normalized so that a rotation of 1.0 spins
+ * the wheels at the same speed as a translation of 1.0 (see Ether's white paper).
+ * <p>
+ * This class is not thread-safe, each caller should have its own instance.
+ */
+public class TrcSwerveKinematics
+{
+    public static final int LF_INDEX = 0;
+    public static final int RF_INDEX = 1;
+    public static final int LB_INDEX = 2;
+    public static final int RB_INDEX = 3;
+    public static final int NUM_MODULES = 4;
+
+    private final double[] moduleX = new double[NUM_MODULES];
+    private final double[] moduleY = new double[NUM_MODULES];
+    // Wheel vector contributed by a unit of rotation: (rotation * rotCoeffX[i], rotation * rotCoeffY[i]).
+    private final double[] rotCoeffX = new double[NUM_MODULES];
+    private final double[] rotCoeffY = new double[NUM_MODULES];
+    private final double sumRadiusSquared;
+    private final double rotationScale;
+    // Inverse kinematics results.
+    private final double[] moduleAngles = new double[NUM_MODULES];
+    private final double[] moduleSpeeds = new double[NUM_MODULES];
+    private boolean fastMathEnabled = false;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param wheelBaseWidth specifies the width of the wheel base.
+     * @param wheelBaseLength specifies the length of the wheel base.
+     */
+    public TrcSwerveKinematics(double wheelBaseWidth, double wheelBaseLength)
+    {
+        double halfWidth = wheelBaseWidth / 2.0;
+        double halfLength = wheelBaseLength / 2.0;
+        double diagonal = TrcUtil.magnitude(wheelBaseWidth, wheelBaseLength);
+
+        moduleX[LF_INDEX] = -halfWidth;
+        moduleY[LF_INDEX] = halfLength;
+        moduleX[RF_INDEX] = halfWidth;
+        moduleY[RF_INDEX] = halfLength;
+        moduleX[LB_INDEX] = -halfWidth;
+        moduleY[LB_INDEX] = -halfLength;
+        moduleX[RB_INDEX] = halfWidth;
+        moduleY[RB_INDEX] = -halfLength;
+
+        // Normalized rotation maps to an angular rate of 2/diagonal rad per unit so the corner wheels spin at unit
+        // speed. A clockwise rotation moves a wheel at (x, y) along (y, -x).
+        rotationScale = 2.0 / diagonal;
+        double sum = 0.0;
+        for (int i = 0; i < NUM_MODULES; i++)
+        {
+            rotCoeffX[i] = moduleY[i] * rotationScale;
+            rotCoeffY[i] = -moduleX[i] * rotationScale;
+            sum += moduleX[i]*moduleX[i] + moduleY[i]*moduleY[i];
+        }
+        sumRadiusSquared = sum;
+    }   //TrcSwerveKinematics
+
+    /**
+     * This method enables/disables the use of the TrcFastMath approximation for the module angles of the inverse
+     * kinematics. The forward kinematics is used for odometry and always uses the exact functions.
+     *
+     * @param enabled specifies true to use fast math, false to use java.lang.Math.
+     */
+    public void setFastMathEnabled(boolean enabled)
+    {
+        this.fastMathEnabled = enabled;
+    }   //setFastMathEnabled
+
+    /**
+     * This method returns the module angle array computed by the last inverse kinematics call. The caller must not
+     * hold on to the array across calls.
+     *
+     * @return module angles in degrees.
+     */
+    public double[] getModuleAngles()
+    {
+        return moduleAngles;
+    }   //getModuleAngles
+
+    /**
+     * This method returns the module speed array computed by the last inverse kinematics call. The caller must not
+     * hold on to the array across calls.
+     *
+     * @return module speeds.
+     */
+    public double[] getModuleSpeeds()
+    {
+        return moduleSpeeds;
+    }   //getModuleSpeeds
+
+    /**
+     * This method computes the steer angle and wheel speed of each module for the given robot relative drive
+     * command. If the command is all zero, the module angles are left unchanged so the wheels don't snap to zero.
+     *
+     * @param x specifies the x (strafe) power or velocity.
+     * @param y specifies the y (forward) power or velocity.
+     * @param rotation specifies the normalized clockwise rotation power.
+     */
+    public void inverse(double x, double y, double rotation)
+    {
+        for (int i = 0; i < NUM_MODULES; i++)
+        {
+            double wheelX = x + rotation * rotCoeffX[i];
+            double wheelY = y + rotation * rotCoeffY[i];
+
+            if (wheelX != 0.0 || wheelY != 0.0)
+            {
+                // atan2(x, y) gives the compass angle: 0 is forward, positive is clockwise.
+                moduleAngles[i] = fastMathEnabled?
+                    TrcFastMath.atan2(wheelX, wheelY): Math.toDegrees(Math.atan2(wheelX, wheelY));
+            }
+            moduleSpeeds[i] = Math.sqrt(wheelX*wheelX + wheelY*wheelY);
+        }
+    }   //inverse
+
+    /**
+     * This method scales down all module speeds proportionally if any of them exceeds the given maximum so that the
+     * drive direction is preserved.
+     *
+     * @param maxSpeed specifies the maximum wheel speed.
+     */
+    public void desaturate(double maxSpeed)
+    {
+        double max = 0.0;
+
+        for (int i = 0; i < NUM_MODULES; i++)
+        {
+            max = Math.max(max, Math.abs(moduleSpeeds[i]));
+        }
+
+        if (max > maxSpeed)
+        {
+            double scale = maxSpeed / max;
+            for (int i = 0; i < NUM_MODULES; i++)
+            {
+                moduleSpeeds[i] *= scale;
+            }
+        }
+    }   //desaturate
+
+    /**
+     * This method optimizes the computed module angles against the current steer angles so that no module steers
+     * more than 90 degrees. If the shortest rotation to the target is more than 90 degrees, the module steers to the
+     * opposite angle and reverses its wheel instead. The resulting angles are expressed relative to the current
+     * angles (i.e. not wrapped) so the steering controller turns the short way.
+     *
+     * @param currAngles specifies the current steer angles in degrees, can be any multiple of 360.
+     */
+    public void optimize(double[] currAngles)
+    {
+        for (int i = 0; i < NUM_MODULES; i++)
+        {
+            // Wrap the steer delta into [-180, 180).
+            double delta = TrcFastMath.wrapAngle180(moduleAngles[i] - currAngles[i]);
+
+            if (delta > 90.0)
+            {
+                delta -= 180.0;
+                moduleSpeeds[i] = -moduleSpeeds[i];
+            }
+            else if (delta < -90.0)
+            {
+                delta += 180.0;
+                moduleSpeeds[i] = -moduleSpeeds[i];
+            }
+            moduleAngles[i] = currAngles[i] + delta;
+        }
+    }   //optimize
+
+    /**
+     * This method computes the robot relative motion from the motion of each wheel. The translation is the average
+     * of the wheel vectors and the rotation is the least squares fit of the residual wheel motion to a rotation
+     * about the center of the wheel base. This can be used for both position deltas and velocities.
+     *
+     * @param wheelAngles specifies the steer angle of each module in degrees.
+     * @param wheelMotions specifies the signed distance (or velocity) traveled by each wheel.
+     * @param result specifies the pose to receive the robot relative x, y and clockwise rotation in degrees.
+     */
+    public void forward(double[] wheelAngles, double[] wheelMotions, TrcPose2D result)
+    {
+        double sumX = 0.0;
+        double sumY = 0.0;
+        double sumRot = 0.0;
+
+        for (int i = 0; i < NUM_MODULES; i++)
+        {
+            double angleRad = Math.toRadians(wheelAngles[i]);
+            double wheelX = wheelMotions[i] * Math.sin(angleRad);
+            double wheelY = wheelMotions[i] * Math.cos(angleRad);
+
+            sumX += wheelX;
+            sumY += wheelY;
+            // Projection of the wheel motion onto the clockwise rotation direction (y, -x) of the module.
+            sumRot += wheelX * moduleY[i] - wheelY * moduleX[i];
+        }
+
+        result.x = sumX / NUM_MODULES;
+        result.y = sumY / NUM_MODULES;
+        result.angle = Math.toDegrees(sumRot / sumRadiusSquared);
+    }   //forward
+
+}   //class TrcSwerveKinematics
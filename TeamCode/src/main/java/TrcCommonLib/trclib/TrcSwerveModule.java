@@ -211,9 +211,22 @@ public class TrcSwerveModule
      * @param hold     specifies true to hold the angle, false otherwise.
      */
     public void setSteerAngle(double angle, boolean optimize, boolean hold)
+    {
+        setSteerAngle(angle, getSteerAngle(), optimize, hold);
+    }   //setSteerAngle
+
+    /**
+     * This method sets the steer angle given the current steer angle already read by the caller. This saves reading
+     * the steering sensor again when the caller has just read it (e.g. for swerve kinematics optimization).
+     *
+     * @param angle    specifies the angle in degrees to set the steer motor to. Not necessarily within [0,360).
+     * @param prevSteerAngle specifies the current steer angle in degrees.
+     * @param optimize specifies true to optimize steering angle to be no greater than 90 degrees, false otherwise.
+     * @param hold     specifies true to hold the angle, false otherwise.
+     */
+    void setSteerAngle(double angle, double prevSteerAngle, boolean optimize, boolean hold)
     {
         final String funcName = "setSteerAngle";
-        double prevSteerAngle = getSteerAngle();
         angle = warpSpace.getOptimizedTarget(angle, prevSteerAngle);
         double angleDelta = angle - prevSteerAngle;
         double newAngle = angle;
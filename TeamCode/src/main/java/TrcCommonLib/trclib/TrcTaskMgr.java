@@ -294,11 +294,15 @@ public class TrcTaskMgr
          */
         public synchronized boolean unregisterTask(TaskType type)
         {
+            //
+            // Only drop the thread when unregistering the standalone type. unregisterTask() goes through all types,
+            // clearing it for the other types would lose the thread before it gets terminated.
+            //
             if (type == TaskType.STANDALONE_TASK && taskThread != null)
             {
                 taskThread.terminateTask();
+                taskThread = null;
             }
-            taskThread = null;
 
             return taskTypes.remove(type);
         }   //unregisterTask
@@ -207,6 +207,32 @@ public class TrcUtil
         // return Math.sqrt(Arrays.stream(nums).map(e -> e*e).sum());
     }   //magnitude
 
+    /**
+     * This method calculates the magnitude of a 2D vector. Unlike the variable argument version, it does not
+     * allocate memory, so it is preferred in periodic loops.
+     *
+     * @param x specifies the x component.
+     * @param y specifies the y component.
+     * @return magnitude of the vector.
+     */
+    public static double magnitude(double x, double y)
+    {
+        return Math.sqrt(x*x + y*y);
+    }   //magnitude
+
+    /**
+     * This method calculates the magnitude of a 3D vector without allocating memory.
+     *
+     * @param x specifies the x component.
+     * @param y specifies the y component.
+     * @param z specifies the z component.
+     * @return magnitude of the vector.
+     */
+    public static double magnitude(double x, double y, double z)
+    {
+        return Math.sqrt(x*x + y*y + z*z);
+    }   //magnitude
+
     /**
      * This method returns the maximum magnitude of numbers in the specified array.
      *
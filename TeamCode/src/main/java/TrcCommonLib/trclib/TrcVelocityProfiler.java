@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * This class implements a time-optimal velocity profiler for a path. It first computes the maximum velocity allowed
+ * at each waypoint from the constraints: the max velocity, the centripetal acceleration limit for the local path
+ * curvature, the wheel speed limit of a mecanum or swerve drive base given the translation direction and the rate of
+ * heading change, and optional speed caps over regions of the path. It then makes a forward pass limiting
+ * acceleration and a backward pass limiting deceleration. The result is the fastest velocity profile that satisfies
+ * all constraints and it is written back into the waypoints together with consistent accelerations and time steps.
+ * <p>
+ * The profiler works in place on the path with primitive scratch arrays owned by this object and runs in linear time
+ * in the number of waypoints (times the number of speed caps, which is expected to be small).
+ * The profile is only evaluated at the waypoints, so the path must be sampled densely enough for the ramps and the
+ * curves to be resolved. TrcPath.timeOptimalVelocity resamples the path before profiling; callers of profile must
+ * resample sparse paths themselves (see TrcPath.resample).
+ * This class is not thread-safe.
+ */
+public class TrcVelocityProfiler
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * This enum specifies the drive base kinematics used for the wheel speed limit.
+     */
+    public enum WheelLimitType
+    {
+        None,
+        Mecanum,
+        Swerve
+    }   //enum WheelLimitType
+
+    /**
+     * This class contains all the parameters of the velocity profiler.
+     */
+    public static class Parameters
+    {
+        public double maxVelocity = Double.POSITIVE_INFINITY;
+        public double maxAcceleration = Double.POSITIVE_INFINITY;
+        public double maxDeceleration = Double.POSITIVE_INFINITY;
+        public double maxCentripetalAcceleration = Double.POSITIVE_INFINITY;
+        public double curvatureSpan = 0.0;
+        public WheelLimitType wheelLimitType = WheelLimitType.None;
+        public double maxWheelSpeed = Double.POSITIVE_INFINITY;
+        public double trackWidth = 0.0;
+        public double wheelBase = 0.0;
+        public double startVelocity = 0.0;
+        public double endVelocity = 0.0;
+
+        /**
+         * This method returns the string form of all the parameters.
+         *
+         * @return string form of all the parameters.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(
+                Locale.US,
+                "maxVel=%.1f,maxAccel=%.1f,maxDecel=%.1f,maxCentripetalAccel=%.1f,curvatureSpan=%.1f,wheelLimit=%s," +
+                "maxWheelSpeed=%.1f,trackWidth=%.1f,wheelBase=%.1f,startVel=%.1f,endVel=%.1f",
+                maxVelocity, maxAcceleration, maxDeceleration, maxCentripetalAcceleration, curvatureSpan,
+                wheelLimitType, maxWheelSpeed, trackWidth, wheelBase, startVelocity, endVelocity);
+        }   //toString
+
+        /**
+         * This method sets the maximum velocity and acceleration.
+         *
+         * @param maxVel specifies the maximum velocity.
+         * @param maxAccel specifies the maximum acceleration.
+         * @param maxDecel specifies the maximum deceleration (positive value).
+         * @return this parameter object.
+         */
+        public Parameters setLimits(double maxVel, double maxAccel, double maxDecel)
+        {
+            this.maxVelocity = Math.abs(maxVel);
+            this.maxAcceleration = Math.abs(maxAccel);
+            this.maxDeceleration = Math.abs(maxDecel);
+            return this;
+        }   //setLimits
+
+        /**
+         * This method sets the maximum centripetal acceleration, limiting the velocity in curves to avoid slipping.
+         *
+         * @param maxAccel specifies the maximum centripetal acceleration.
+         * @return this parameter object.
+         */
+        public Parameters setMaxCentripetalAcceleration(double maxAccel)
+        {
+            this.maxCentripetalAcceleration = Math.abs(maxAccel);
+            return this;
+        }   //setMaxCentripetalAcceleration
+
+        /**
+         * This method sets the arc length over which the path curvature is measured. The curvature at a waypoint is
+         * computed from the waypoints at least this far before and after it. On a densely sampled polyline path
+         * (e.g. resampled by TrcPath.timeOptimalVelocity), adjacent waypoints make every corner look like a near
+         * zero radius turn, so this should be set to about the lookahead distance of the path follower, which cuts
+         * the corners over that distance.
+         *
+         * @param span specifies the curvature span in path units, 0 to use the adjacent waypoints.
+         * @return this parameter object.
+         */
+        public Parameters setCurvatureSpan(double span)
+        {
+            this.curvatureSpan = Math.abs(span);
+            return this;
+        }   //setCurvatureSpan
+
+        /**
+         * This method sets the wheel speed limit of the drive base. The wheel speed is computed from the robot
+         * relative translation and the rate of heading change along the path.
+         *
+         * @param type specifies the drive base kinematics.
+         * @param maxWheelSpeed specifies the maximum wheel speed in path units per second.
+         * @param trackWidth specifies the distance between the left and right wheels.
+         * @param wheelBase specifies the distance between the front and back wheels.
+         * @return this parameter object.
+         */
+        public Parameters setWheelLimit(WheelLimitType type, double maxWheelSpeed, double trackWidth, double wheelBase)
+        {
+            this.wheelLimitType = type;
+            this.maxWheelSpeed = Math.abs(maxWheelSpeed);
+            this.trackWidth = trackWidth;
+            this.wheelBase = wheelBase;
+            return this;
+        }   //setWheelLimit
+
+        /**
+         * This method sets the velocities at the start and end of the path.
+         *
+         * @param startVel specifies the start velocity.
+         * @param endVel specifies the end velocity.
+         * @return this parameter object.
+         */
+        public Parameters setStartEndVelocity(double startVel, double endVel)
+        {
+            this.startVelocity = Math.abs(startVel);
+            this.endVelocity = Math.abs(endVel);
+            return this;
+        }   //setStartEndVelocity
+
+    }   //class Parameters
+
+    private final Parameters params;
+    // Speed caps over arc length regions of the path.
+    private double[] capStarts = new double[4];
+    private double[] capEnds = new double[4];
+    private double[] capVelocities = new double[4];
+    private int numCaps = 0;
+    // Per waypoint scratch arrays.
+    private double[] segLengths = new double[INITIAL_CAPACITY];
+    private double[] velocities = new double[INITIAL_CAPACITY];
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param params specifies the profiler parameters.
+     */
+    public TrcVelocityProfiler(Parameters params)
+    {
+        this.params = params;
+    }   //TrcVelocityProfiler
+
+    /**
+     * This method returns the profiler parameters.
+     *
+     * @return profiler parameters.
+     */
+    public Parameters getParameters()
+    {
+        return params;
+    }   //getParameters
+
+    /**
+     * This method adds a speed cap over a region of the path, specified by the arc length from the start of the path.
+     *
+     * @param startDistance specifies the start of the region.
+     * @param endDistance specifies the end of the region.
+     * @param maxVel specifies the maximum velocity in the region.
+     */
+    public void addSpeedCap(double startDistance, double endDistance, double maxVel)
+    {
+        if (numCaps == capStarts.length)
+        {
+            capStarts = Arrays.copyOf(capStarts, numCaps*2);
+            capEnds = Arrays.copyOf(capEnds, numCaps*2);
+            capVelocities = Arrays.copyOf(capVelocities, numCaps*2);
+        }
+        capStarts[numCaps] = startDistance;
+        capEnds[numCaps] = endDistance;
+        capVelocities[numCaps] = Math.abs(maxVel);
+        numCaps++;
+    }   //addSpeedCap
+
+    /**
+     * This method removes all speed caps.
+     */
+    public void clearSpeedCaps()
+    {
+        numCaps = 0;
+    }   //clearSpeedCaps
+
+    /**
+     * This method computes the time-optimal velocity profile of the path and writes the velocity, acceleration and
+     * time step of each waypoint in place. The time step of a waypoint is the time to reach the next waypoint.
+     *
+     * @param path specifies the path to profile.
+     * @return the total duration of the path in seconds.
+     */
+    public double profile(TrcPath path)
+    {
+        TrcWaypoint[] waypoints = path.getAllWaypoints();
+        int n = waypoints.length;
+        double headingScale = path.isInDegrees()? Math.PI/180.0: 1.0;
+        double duration = 0.0;
+
+        if (segLengths.length < n)
+        {
+            int capacity = Math.max(n, segLengths.length*2);
+            segLengths = new double[capacity];
+            velocities = new double[capacity];
+        }
+        //
+        // Compute the segment lengths and the velocity limit at each waypoint.
+        //
+        for (int i = 0; i < n - 1; i++)
+        {
+            segLengths[i] = waypoints[i].distanceTo(waypoints[i + 1]);
+        }
+
+        double arcLength = 0.0;
+        for (int i = 0; i < n; i++)
+        {
+            velocities[i] = getVelocityLimit(waypoints, i, arcLength, headingScale);
+            if (i < n - 1)
+            {
+                arcLength += segLengths[i];
+            }
+        }
+        velocities[0] = Math.min(velocities[0], params.startVelocity);
+        velocities[n - 1] = Math.min(velocities[n - 1], params.endVelocity);
+        //
+        // Forward pass: limit acceleration.
+        //
+        for (int i = 1; i < n; i++)
+        {
+            double reachable = Math.sqrt(
+                velocities[i - 1]*velocities[i - 1] + 2.0*params.maxAcceleration*segLengths[i - 1]);
+            velocities[i] = Math.min(velocities[i], reachable);
+        }
+        //
+        // Backward pass: limit deceleration.
+        //
+        for (int i = n - 2; i >= 0; i--)
+        {
+            double reachable = Math.sqrt(
+                velocities[i + 1]*velocities[i + 1] + 2.0*params.maxDeceleration*segLengths[i]);
+            velocities[i] = Math.min(velocities[i], reachable);
+        }
+        //
+        // Write the profile back with constant acceleration over each segment.
+        //
+        for (int i = 0; i < n; i++)
+        {
+            TrcWaypoint waypoint = waypoints[i];
+
+            waypoint.velocity = velocities[i];
+            if (i < n - 1)
+            {
+                double avgVel = (velocities[i] + velocities[i + 1])/2.0;
+
+                if (segLengths[i] > 0.0 && avgVel > 0.0)
+                {
+                    waypoint.acceleration =
+                        (velocities[i + 1]*velocities[i + 1] - velocities[i]*velocities[i])/(2.0*segLengths[i]);
+                    waypoint.timeStep = segLengths[i]/avgVel;
+                }
+                else
+                {
+                    waypoint.acceleration = 0.0;
+                    waypoint.timeStep = 0.0;
+                }
+                duration += waypoint.timeStep;
+            }
+            else
+            {
+                // Same as TrcPath.inferTimeSteps: last waypoint has the same time step as the second to last.
+                waypoint.acceleration = 0.0;
+                waypoint.timeStep = waypoints[i - 1].timeStep;
+            }
+        }
+
+        return duration;
+    }   //profile
+
+    /**
+     * This method computes the velocity limit at a waypoint from the static constraints.
+     *
+     * @param waypoints specifies the waypoints of the path.
+     * @param index specifies the index of the waypoint.
+     * @param arcLength specifies the arc length from the start of the path to the waypoint.
+     * @param headingScale specifies the scale to convert heading to radians.
+     * @return velocity limit.
+     */
+    private double getVelocityLimit(TrcWaypoint[] waypoints, int index, double arcLength, double headingScale)
+    {
+        int n = waypoints.length;
+        double limit = params.maxVelocity;
+        //
+        // Centripetal acceleration limit: v^2 * curvature <= maxCentripetalAccel.
+        //
+        if (index > 0 && index < n - 1 && params.maxCentripetalAcceleration < Double.POSITIVE_INFINITY)
+        {
+            int prevIndex = index - 1;
+            int nextIndex = index + 1;
+            // Widen the neighbors to the curvature span. The segment lengths are computed for the whole path.
+            for (double dist = segLengths[prevIndex]; dist < params.curvatureSpan && prevIndex > 0; )
+            {
+                prevIndex--;
+                dist += segLengths[prevIndex];
+            }
+
+            for (double dist = segLengths[index]; dist < params.curvatureSpan && nextIndex < n - 1; )
+            {
+                dist += segLengths[nextIndex];
+                nextIndex++;
+            }
+
+            double curvature = getCurvature(
+                waypoints[prevIndex].pose, waypoints[index].pose, waypoints[nextIndex].pose);
+            if (curvature > 0.0)
+            {
+                limit = Math.min(limit, Math.sqrt(params.maxCentripetalAcceleration/curvature));
+            }
+        }
+        //
+        // Wheel speed limit, taking the worse of the incoming and outgoing segments.
+        //
+        if (params.wheelLimitType != WheelLimitType.None)
+        {
+            if (index > 0)
+            {
+                limit = Math.min(
+                    limit, getWheelLimit(waypoints[index - 1], waypoints[index], waypoints[index], headingScale));
+            }
+
+            if (index < n - 1)
+            {
+                limit = Math.min(
+                    limit, getWheelLimit(waypoints[index], waypoints[index + 1], waypoints[index], headingScale));
+            }
+        }
+        //
+        // Region speed caps.
+        //
+        for (int i = 0; i < numCaps; i++)
+        {
+            if (arcLength >= capStarts[i] && arcLength <= capEnds[i])
+            {
+                limit = Math.min(limit, capVelocities[i]);
+            }
+        }
+
+        return limit;
+    }   //getVelocityLimit
+
+    /**
+     * This method computes the maximum path velocity allowed by the wheel speed limit on a segment.
+     *
+     * @param from specifies the start waypoint of the segment.
+     * @param to specifies the end waypoint of the segment.
+     * @param at specifies the waypoint where the robot heading is taken.
+     * @param headingScale specifies the scale to convert heading to radians.
+     * @return velocity limit.
+     */
+    private double getWheelLimit(TrcWaypoint from, TrcWaypoint to, TrcWaypoint at, double headingScale)
+    {
+        double dx = to.pose.x - from.pose.x;
+        double dy = to.pose.y - from.pose.y;
+        double ds = TrcUtil.magnitude(dx, dy);
+        double dHeading = (to.pose.angle - from.pose.angle)*headingScale;
+        // Wrap the heading change into [-PI, PI).
+        dHeading -= 2.0*Math.PI*Math.floor((dHeading + Math.PI)/(2.0*Math.PI));
+
+        if (ds == 0.0)
+        {
+            // Turn in place: no translation allowed if the heading changes.
+            return dHeading == 0.0? Double.POSITIVE_INFINITY: 0.0;
+        }
+
+        double turnRatePerVel = Math.abs(dHeading)/ds;
+        double translationFactor;
+        double turnRadius;
+
+        if (params.wheelLimitType == WheelLimitType.Mecanum)
+        {
+            // Direction of travel relative to the robot heading, compass angle.
+            double relDir = Math.atan2(dx, dy) - at.pose.angle*headingScale;
+            translationFactor = Math.abs(Math.sin(relDir)) + Math.abs(Math.cos(relDir));
+            turnRadius = (params.trackWidth + params.wheelBase)/2.0;
+        }
+        else
+        {
+            translationFactor = 1.0;
+            turnRadius = TrcUtil.magnitude(params.trackWidth, params.wheelBase)/2.0;
+        }
+
+        return params.maxWheelSpeed/(translationFactor + turnRatePerVel*turnRadius);
+    }   //getWheelLimit
+
+    /**
+     * This method computes the curvature of the circle through three points (Menger curvature).
+     *
+     * @param p1 specifies the first point.
+     * @param p2 specifies the second point.
+     * @param p3 specifies the third point.
+     * @return curvature, zero if the points are collinear or coincident.
+     */
+    private static double getCurvature(TrcPose2D p1, TrcPose2D p2, TrcPose2D p3)
+    {
+        double a = TrcUtil.magnitude(p2.x - p1.x, p2.y - p1.y);
+        double b = TrcUtil.magnitude(p3.x - p2.x, p3.y - p2.y);
+        double c = TrcUtil.magnitude(p3.x - p1.x, p3.y - p1.y);
+        double cross = (p2.x - p1.x)*(p3.y - p1.y) - (p2.y - p1.y)*(p3.x - p1.x);
+        double denom = a*b*c;
+
+        return denom > 0.0? 2.0*Math.abs(cross)/denom: 0.0;
+    }   //getCurvature
+
+}   //class TrcVelocityProfiler
@@ -24,7 +24,9 @@ package TrcCommonLib.trclib;
 
 /**
  * This interface provides methods to get a video frame from a video source and render a video frame to a display
- * surface.
+ * surface. A video source may also provide a frame buffer ring that it fills in place, in which case consumers borrow
+ * frames from the ring instead of copying them out with getFrame. A video source whose frames are processed submits
+ * them to the ring, so the processing consumer owns each frame until it publishes it to the other consumers.
  *
  * @param <O> specifies the type of the video frame.
  */
@@ -45,4 +47,27 @@ public interface TrcVideoSource<O>
      */
     void putFrame(O frame);
 
+    /**
+     * This method returns the frame buffer ring the video source fills in place.
+     *
+     * @return frame buffer ring, null if the video source only supports getFrame.
+     */
+    default TrcFrameBufferRing<O> getFrameRing()
+    {
+        return null;
+    }   //getFrameRing
+
+    /**
+     * This method displays a frame of the frame buffer ring to the display surface. The caller keeps its
+     * reference and releases it when this method returns, so an implementation that streams the frame
+     * asynchronously must retain the frame and release it when done. The default implementation displays the
+     * frame buffer synchronously.
+     *
+     * @param frame specifies the frame to be displayed.
+     */
+    default void putFrame(TrcFrameBufferRing.Frame<O> frame)
+    {
+        putFrame(frame.getBuffer());
+    }   //putFrame
+
 }   //interface TrcVideoSource
@@ -24,22 +24,58 @@
 
 /**
  * This class implements Performance Metrics for Vision. It keeps track of the average time for vision to process a
- * frame as well as the process frame rate.
+ * frame as well as the process frame rate. Optionally, it also keeps track of the average latency (i.e. age of the
+ * frame since it was captured). It is thread-safe so that the metrics can be logged by a processing thread and read
+ * by another.
  */
 public class TrcVisionPerformanceMetrics
 {
+    private final String instanceName;
     private double startTime = 0.0;
     private double totalProcessedTime = 0.0;
     private long totalProcessedFrames = 0;
+    private double totalLatency = 0.0;
+    private long totalLatencyFrames = 0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name used to identify the metrics in the report, can be null.
+     */
+    public TrcVisionPerformanceMetrics(String instanceName)
+    {
+        this.instanceName = instanceName;
+    }   //TrcVisionPerformanceMetrics
+
+    /**
+     * Constructor: Create an instance of the object.
+     */
+    public TrcVisionPerformanceMetrics()
+    {
+        this(null);
+    }   //TrcVisionPerformanceMetrics
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
 
     /**
      * This method resets the pipeline performance metrics. It is typically called before enabling the pipeline.
      */
-    public void reset()
+    public synchronized void reset()
     {
         startTime = TrcTimer.getCurrentTime();
         totalProcessedTime = 0.0;
         totalProcessedFrames = 0;
+        totalLatency = 0.0;
+        totalLatencyFrames = 0;
     }   //reset
 
     /**
@@ -47,12 +83,53 @@ public class TrcVisionPerformanceMetrics
      *
      * @param startTime specifies the timestamp when the processing starts.
      */
-    public void logProcessingTime(double startTime)
+    public synchronized void logProcessingTime(double startTime)
     {
         totalProcessedTime += TrcTimer.getCurrentTime() - startTime;
         totalProcessedFrames++;
     }   //logProcessingTime
 
+    /**
+     * This method is called to log the latency of a frame, i.e. the time elapsed since the frame was captured.
+     *
+     * @param captureTime specifies the timestamp when the frame was captured.
+     */
+    public synchronized void logLatency(double captureTime)
+    {
+        totalLatency += TrcTimer.getCurrentTime() - captureTime;
+        totalLatencyFrames++;
+    }   //logLatency
+
+    /**
+     * This method returns the average processing time of a frame.
+     *
+     * @return average processing time in seconds.
+     */
+    public synchronized double getAverageProcessingTime()
+    {
+        return totalProcessedFrames > 0? totalProcessedTime/totalProcessedFrames: 0.0;
+    }   //getAverageProcessingTime
+
+    /**
+     * This method returns the processed frame rate since the last reset.
+     *
+     * @return frame rate in frames per second.
+     */
+    public synchronized double getFrameRate()
+    {
+        return totalProcessedFrames/(TrcTimer.getCurrentTime() - startTime);
+    }   //getFrameRate
+
+    /**
+     * This method returns the average frame latency.
+     *
+     * @return average latency in seconds, 0 if no latency has been logged.
+     */
+    public synchronized double getAverageLatency()
+    {
+        return totalLatencyFrames > 0? totalLatency/totalLatencyFrames: 0.0;
+    }   //getAverageLatency
+
     /**
      * This method prints the pipeline performance metrics using the given tracer.
      */
@@ -62,10 +139,22 @@ public class TrcVisionPerformanceMetrics
 
         if (tracer != null)
         {
-            tracer.traceInfo(
-                funcName, "AvgProcessTime=%.3f sec, FrameRate=%.1f",
-                totalProcessedTime/totalProcessedFrames,
-                totalProcessedFrames/(TrcTimer.getCurrentTime() - startTime));
+            synchronized (this)
+            {
+                if (totalLatencyFrames > 0)
+                {
+                    tracer.traceInfo(
+                        funcName, "[%s] AvgProcessTime=%.3f sec, FrameRate=%.1f, AvgLatency=%.3f sec",
+                        instanceName, getAverageProcessingTime(), getFrameRate(), getAverageLatency());
+                }
+                else
+                {
+                    tracer.traceInfo(
+                        funcName, "AvgProcessTime=%.3f sec, FrameRate=%.1f",
+                        totalProcessedTime/totalProcessedFrames,
+                        totalProcessedFrames/(TrcTimer.getCurrentTime() - startTime));
+                }
+            }
         }
     }   //printMetrics
 
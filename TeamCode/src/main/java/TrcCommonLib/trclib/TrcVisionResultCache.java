@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package TrcCommonLib.trclib;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class implements a versioned cache of the latest vision result. Every result is stamped with the capture time
+ * of its frame, its processing latency and a sequence number. Readers take non-destructive snapshots, so any number
+ * of readers can see every result, and each reader can tell whether a result is new to it by its sequence number.
+ *
+ * @param <T> specifies the type of the vision result.
+ */
+public class TrcVisionResultCache<T>
+{
+    /**
+     * This class contains an immutable snapshot of a vision result.
+     *
+     * @param <T> specifies the type of the vision result.
+     */
+    public static class Result<T>
+    {
+        public final T value;
+        public final long sequence;
+        public final double captureTime;
+        public final double latency;
+
+        /**
+         * Constructor: Create an instance of the object.
+         *
+         * @param value specifies the vision result.
+         * @param sequence specifies the sequence number of the result.
+         * @param captureTime specifies the capture time of the frame in seconds.
+         * @param latency specifies the time from capture until the result was available in seconds.
+         */
+        Result(T value, long sequence, double captureTime, double latency)
+        {
+            this.value = value;
+            this.sequence = sequence;
+            this.captureTime = captureTime;
+            this.latency = latency;
+        }   //Result
+
+        /**
+         * This method returns the age of the result, i.e. the time elapsed since its frame was captured.
+         *
+         * @return age in seconds.
+         */
+        public double getAge()
+        {
+            return TrcTimer.getCurrentTime() - captureTime;
+        }   //getAge
+
+        /**
+         * This method returns the string form of the result.
+         *
+         * @return string form of the result.
+         */
+        @Override
+        public String toString()
+        {
+            return "{seq=" + sequence + ",captureTime=" + captureTime + ",latency=" + latency + ",value=" + value +
+                   "}";
+        }   //toString
+
+    }   //class Result
+
+    private final AtomicReference<Result<T>> latestResult = new AtomicReference<>();
+    private long nextSequence = 1;
+
+    /**
+     * This method publishes a new result. The latency is computed from the capture time to now.
+     *
+     * @param value specifies the vision result, null if nothing was detected in the frame.
+     * @param captureTime specifies the capture time of the frame in seconds (TrcTimer.getCurrentTime time base).
+     * @return the published result.
+     */
+    public synchronized Result<T> put(T value, double captureTime)
+    {
+        Result<T> result = new Result<>(
+            value, nextSequence++, captureTime, TrcTimer.getCurrentTime() - captureTime);
+
+        latestResult.set(result);
+        return result;
+    }   //put
+
+    /**
+     * This method clears the cache. Sequence numbers keep increasing across clears.
+     */
+    public void clear()
+    {
+        latestResult.set(null);
+    }   //clear
+
+    /**
+     * This method returns the latest result without consuming it.
+     *
+     * @return latest result, null if none.
+     */
+    public Result<T> getLatest()
+    {
+        return latestResult.get();
+    }   //getLatest
+
+    /**
+     * This method returns the latest result if it is newer than the one the reader has already seen.
+     *
+     * @param lastSequence specifies the sequence number of the last result the reader has seen, 0 if none.
+     * @return latest result if newer, null otherwise.
+     */
+    public Result<T> getNewerThan(long lastSequence)
+    {
+        Result<T> result = latestResult.get();
+
+        return result != null && result.sequence > lastSequence? result: null;
+    }   //getNewerThan
+
+    /**
+     * This method returns the latest result if it is not older than the given age.
+     *
+     * @param maxAge specifies the maximum age of the result in seconds.
+     * @return latest result if fresh enough, null otherwise.
+     */
+    public Result<T> getLatest(double maxAge)
+    {
+        Result<T> result = latestResult.get();
+
+        return result != null && result.getAge() <= maxAge? result: null;
+    }   //getLatest
+
+    /**
+     * This method converts a capture timestamp from the System.nanoTime time base (e.g. FTC vision processor frames)
+     * to the TrcTimer.getCurrentTime time base used by the cache and the drive base pose history.
+     *
+     * @param captureTimeNanos specifies the capture time in System.nanoTime nanoseconds.
+     * @return capture time in seconds in the TrcTimer.getCurrentTime time base.
+     */
+    public static double nanoTimeToCurrentTime(long captureTimeNanos)
+    {
+        return TrcTimer.getCurrentTime() - (TrcTimer.getNanoTime() - captureTimeNanos)/1000000000.0;
+    }   //nanoTimeToCurrentTime
+
+}   //class TrcVisionResultCache
@@ -93,10 +93,12 @@ public class TrcVisionTargetInfo<O extends TrcVisionTargetInfo.ObjectInfo>
         else
         {
             // Call provided homography mapper, we will use it to calculate the detected object pose.
-            Point bottomLeft = homographyMapper.mapPoint(new Point(rect.x, rect.y + rect.height));
-            Point bottomRight = homographyMapper.mapPoint(new Point(rect.x + rect.width, rect.y + rect.height));
-            double xDistanceFromCamera = (bottomLeft.x + bottomRight.x)/2.0;
-            double yDistanceFromCamera = (bottomLeft.y + bottomRight.y)/2.0;
+            Point point = homographyMapper.mapPoint(rect.x, rect.y + rect.height, new Point());
+            double xDistanceFromCamera = point.x;
+            double yDistanceFromCamera = point.y;
+            homographyMapper.mapPoint(rect.x + rect.width, rect.y + rect.height, point);
+            xDistanceFromCamera = (xDistanceFromCamera + point.x)/2.0;
+            yDistanceFromCamera = (yDistanceFromCamera + point.y)/2.0;
             double horiAngleRadian = Math.atan2(xDistanceFromCamera, yDistanceFromCamera);
             double horizontalAngle = Math.toDegrees(horiAngleRadian);
             if (objHeightOffset > 0.0)
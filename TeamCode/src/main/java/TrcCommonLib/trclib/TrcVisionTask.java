@@ -22,23 +22,30 @@
 
 package TrcCommonLib.trclib;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class implements a platform independent vision task. When enabled, it grabs a frame from the video source,
  * calls the provided vision processor to process the frame and overlays rectangles on the detected objects in the
  * image. This class is to be extended by a platform dependent vision processor.
+ * <p>
+ * If the video source provides a frame buffer ring, the task borrows the newest frame from the ring and processes
+ * it in place instead of copying it into its own image buffers.
  *
  * @param <I> specifies the type of the input image.
  * @param <O> specifies the type of the detected objects.
  */
 public class TrcVisionTask<I, O>
 {
+    // Maximum time to wait for a new ring frame in seconds, so the task can be unregistered promptly.
+    private static final double FRAME_WAIT_TIMEOUT = 0.1;
+
     private final String instanceName;
     private final TrcVisionProcessor<I, O> visionProcessor;
     private final I[] imageBuffers;
     private final TrcTaskMgr.TaskObject visionTaskObj;
-    private final AtomicReference<O[]> detectedObjects = new AtomicReference<>();
+    private final TrcVisionResultCache<O[]> resultCache = new TrcVisionResultCache<>();
+    private final AtomicLong consumedSequence = new AtomicLong();
     private volatile boolean taskEnabled = false;
     private int imageIndex = 0;
 
@@ -52,7 +59,8 @@ public class TrcVisionTask<I, O>
      *
      * @param instanceName specifies the instance name.
      * @param visionProcessor specifies the vision processor object.
-     * @param imageBuffers specifies an array of image buffers.
+     * @param imageBuffers specifies an array of image buffers, can be null if the vision processor provides a frame
+     *        buffer ring.
      */
     public TrcVisionTask(
         String instanceName, TrcVisionProcessor<I, O> visionProcessor, I[] imageBuffers)
@@ -103,7 +111,7 @@ public class TrcVisionTask<I, O>
         {
             visionTaskObj.unregisterTask();
         }
-        detectedObjects.set(null);
+        resultCache.clear();
         taskEnabled = enabled;
     }   //setTaskEnabled
 
@@ -139,15 +147,31 @@ public class TrcVisionTask<I, O>
 
     /**
      * This method returns the last detected objects. Note that this call consumes the objects, meaning if this method
-     * is called again before the next frame is finished processing, it will return a null.
+     * is called again before the next frame is finished processing, it will return a null. Use getResultCache for
+     * non-destructive access by multiple readers.
      *
      * @return the last detected objects.
      */
     public O[] getDetectedObjects()
     {
-        return detectedObjects.getAndSet(null);
+        TrcVisionResultCache.Result<O[]> result = resultCache.getLatest();
+
+        return result != null && consumedSequence.getAndAccumulate(result.sequence, Math::max) < result.sequence?
+            result.value: null;
     }   //getDetectedObjects
 
+    /**
+     * This method returns the result cache. Every processed frame publishes its detected objects to the cache with
+     * the frame capture time, the processing latency and a sequence number. The detected objects are null if nothing
+     * was detected in the frame.
+     *
+     * @return result cache.
+     */
+    public TrcVisionResultCache<O[]> getResultCache()
+    {
+        return resultCache;
+    }   //getResultCache
+
     /**
      * This method runs periodically to do vision processing.
      *
@@ -160,37 +184,85 @@ public class TrcVisionTask<I, O>
         TrcTaskMgr.TaskType taskType, TrcRobot.RunMode runMode, boolean slowPeriodicLoop)
     {
         final String funcName = "visionTask";
+        TrcFrameBufferRing<I> frameRing = visionProcessor.getFrameRing();
+        TrcFrameBufferRing.Frame<I> frame = null;
+        I image = null;
 
-        if (visionProcessor.getFrame(imageBuffers[imageIndex]))
+        if (frameRing != null)
         {
-            double startTime = TrcTimer.getCurrentTime();
-            //
-            // Capture an image and subject it for object detection. The object detector produces an array of
-            // rectangles representing objects detected.
-            //
-            O[] objects = visionProcessor.processFrame(imageBuffers[imageIndex]);
-
-            double elapsedTime = TrcTimer.getCurrentTime() - startTime;
-            totalTime += elapsedTime;
-            totalFrames++;
-            if (tracer != null)
+            // Take the frame before it is published, so nobody else can see it while it is being annotated.
+            frame = frameRing.takeSubmitted(FRAME_WAIT_TIMEOUT);
+            if (frame != null)
             {
-                tracer.traceInfo(
-                    funcName, "AvgProcessTime=%.3f sec, FrameRate=%.1f",
-                    totalTime/totalFrames, totalFrames/(TrcTimer.getCurrentTime() - taskStartTime));
+                image = frame.getBuffer();
             }
+        }
+        else if (visionProcessor.getFrame(imageBuffers[imageIndex]))
+        {
+            image = imageBuffers[imageIndex];
+        }
 
-            I output = visionProcessor.getSelectedOutput();
-            if (output != null)
+        if (image != null)
+        {
+            try
             {
-                visionProcessor.putFrame(output);
-            }
+                double startTime = TrcTimer.getCurrentTime();
+                //
+                // Capture an image and subject it for object detection. The object detector produces an array of
+                // rectangles representing objects detected.
+                //
+                O[] objects = visionProcessor.processFrame(image);
+
+                double elapsedTime = TrcTimer.getCurrentTime() - startTime;
+                totalTime += elapsedTime;
+                totalFrames++;
+                if (tracer != null)
+                {
+                    tracer.traceInfo(
+                        funcName, "AvgProcessTime=%.3f sec, FrameRate=%.1f",
+                        totalTime/totalFrames, totalFrames/(TrcTimer.getCurrentTime() - taskStartTime));
+                }
+
+                I output = visionProcessor.getSelectedOutput();
+                if (frame != null && output == image)
+                {
+                    // Display the annotated frame without copying it.
+                    visionProcessor.putFrame(frame);
+                }
+                else if (output != null)
+                {
+                    visionProcessor.putFrame(output);
+                }
 
-            detectedObjects.set(objects);
-            //
-            // Switch to the next buffer so that we won't clobber the info while the client is accessing it.
-            //
-            imageIndex = (imageIndex + 1) % imageBuffers.length;
+                // A ring frame carries its capture time. Otherwise, the frame is captured by the time getFrame
+                // returns, so startTime is the closest capture time we have.
+                resultCache.put(objects, frame != null? frame.getTimestamp(): startTime);
+
+                if (frame != null)
+                {
+                    // Annotation is done, hand the frame over to the other consumers of the ring.
+                    frameRing.publish(frame, frame.getTimestamp());
+                    frame = null;
+                }
+            }
+            finally
+            {
+                if (frameRing != null)
+                {
+                    // Drop the frame if processing failed before it was published.
+                    if (frame != null)
+                    {
+                        frame.release();
+                    }
+                }
+                else
+                {
+                    //
+                    // Switch to the next buffer so that we won't clobber the info while the client is accessing it.
+                    //
+                    imageIndex = (imageIndex + 1) % imageBuffers.length;
+                }
+            }
         }
     }   //visionTask
 
@@ -41,6 +41,7 @@ public class TrcWarpSpace
 
     private final String instanceName;
     private final double warpSpaceRange;
+    private volatile boolean fastMathEnabled = false;
 
     /**
      * Constructor: Creates an instance of the object.
@@ -80,6 +81,18 @@ public class TrcWarpSpace
         return instanceName;
     }   //toString
 
+    /**
+     * This method enables/disables the branch-free TrcFastMath wrapping for getOptimizedTarget. The result is the
+     * same except when the target is exactly half the range away where the fast version always goes the negative
+     * way.
+     *
+     * @param enabled specifies true to use fast math, false otherwise.
+     */
+    public void setFastMathEnabled(boolean enabled)
+    {
+        this.fastMathEnabled = enabled;
+    }   //setFastMathEnabled
+
     /**
      * This method returns the optimized target position such that the travel distance to the target is minimum.
      * In the compass example, if one is currently headed NORTH (0-degree) and wants to turn to WEST (270-degree),
@@ -112,7 +125,9 @@ public class TrcWarpSpace
     public double getOptimizedTarget(double targetPos, double currentPos)
     {
         final String funcName = "getOptimizedTarget";
-        double optimizedTarget = getOptimizedTarget(targetPos, currentPos, warpSpaceRange);
+        double optimizedTarget = fastMathEnabled?
+            currentPos + TrcFastMath.wrapCentered(targetPos - currentPos, warpSpaceRange):
+            getOptimizedTarget(targetPos, currentPos, warpSpaceRange);
 
         if (debugEnabled)
         {
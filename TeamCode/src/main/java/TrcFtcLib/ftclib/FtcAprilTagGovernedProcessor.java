@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package TrcFtcLib.ftclib;
+
+import android.graphics.Canvas;
+
+import org.firstinspires.ftc.robotcore.internal.camera.calibration.CameraCalibration;
+import org.firstinspires.ftc.vision.VisionProcessor;
+import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
+import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import TrcCommonLib.trclib.TrcDecimationGovernor;
+import TrcCommonLib.trclib.TrcTimer;
+
+/**
+ * This class implements a vision processor that wraps an AprilTag processor and lets a decimation governor adjust
+ * its decimation every frame. This processor must be added to the vision portal instead of the wrapped AprilTag
+ * processor.
+ * <p>
+ * If the governor also governs the camera resolution, a resolution change is only posted, because it typically
+ * requires rebuilding the vision portal, which can't be done from the frame thread of the portal. The caller polls
+ * getPendingResolution from its own thread (e.g. the op mode loop) and applies it.
+ */
+public class FtcAprilTagGovernedProcessor implements VisionProcessor
+{
+    private final AprilTagProcessor aprilTagProcessor;
+    private final TrcDecimationGovernor governor;
+    private final AtomicReference<int[]> pendingResolution = new AtomicReference<>();
+    private int[] resolution;
+    private int frameWidth = 0;
+    private int frameHeight = 0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param aprilTagProcessor specifies the AprilTag processor to wrap.
+     * @param governor specifies the decimation governor.
+     */
+    public FtcAprilTagGovernedProcessor(AprilTagProcessor aprilTagProcessor, TrcDecimationGovernor governor)
+    {
+        this.aprilTagProcessor = aprilTagProcessor;
+        this.governor = governor;
+        this.resolution = governor.getResolution();
+        aprilTagProcessor.setDecimation((float) governor.getDecimation());
+    }   //FtcAprilTagGovernedProcessor
+
+    /**
+     * This method returns the decimation governor.
+     *
+     * @return decimation governor.
+     */
+    public TrcDecimationGovernor getGovernor()
+    {
+        return governor;
+    }   //getGovernor
+
+    /**
+     * This method returns the camera resolution the governor asked for since the last call, and consumes it. It must
+     * be called from the caller's thread (e.g. the op mode loop), which then applies the resolution, typically by
+     * rebuilding the vision portal.
+     *
+     * @return requested resolution as {width, height}, null if there is no pending change.
+     */
+    public int[] getPendingResolution()
+    {
+        return pendingResolution.getAndSet(null);
+    }   //getPendingResolution
+
+    //
+    // Implements VisionProcessor interface.
+    //
+
+    /**
+     * This method is called to initialize the vision processor. If the frame size has changed (i.e. a new resolution
+     * has been applied), the smoothed processing time of the governor is reset, since it was measured on frames of
+     * a different size.
+     *
+     * @param width specifies the image width.
+     * @param height specifies the image height.
+     * @param calibration specifies the camera calibration data.
+     */
+    @Override
+    public void init(int width, int height, CameraCalibration calibration)
+    {
+        aprilTagProcessor.init(width, height, calibration);
+        if (width != frameWidth || height != frameHeight)
+        {
+            frameWidth = width;
+            frameHeight = height;
+            governor.resetProcessingTime();
+        }
+    }   //init
+
+    /**
+     * This method is called to process an image frame. It runs the AprilTag processor on the frame and updates the
+     * governor with the processing time and the detections.
+     *
+     * @param frame specifies the source image to be processed.
+     * @param captureTimeNanos specifies the capture frame timestamp.
+     * @return user context for onDrawFrame.
+     */
+    @Override
+    public Object processFrame(Mat frame, long captureTimeNanos)
+    {
+        double startTime = TrcTimer.getCurrentTime();
+        Object userContext = aprilTagProcessor.processFrame(frame, captureTimeNanos);
+        double processingTime = TrcTimer.getCurrentTime() - startTime;
+        ArrayList<AprilTagDetection> detections = aprilTagProcessor.getDetections();
+        int numTags = detections != null? detections.size(): 0;
+        int numTagsInRange = 0;
+        double minMargin = Double.POSITIVE_INFINITY;
+        double maxRange = 0.0;
+        double requiredRange = governor.getRequiredRange();
+
+        for (int i = 0; i < numTags; i++)
+        {
+            AprilTagDetection detection = detections.get(i);
+            // Tags not in the tag library have no pose, count them as in range.
+            double range = detection.ftcPose != null? detection.ftcPose.range: 0.0;
+
+            maxRange = Math.max(maxRange, range);
+            if (range <= requiredRange)
+            {
+                numTagsInRange++;
+                minMargin = Math.min(minMargin, detection.decisionMargin);
+            }
+        }
+
+        if (governor.update(
+                captureTimeNanos/1000000000.0, processingTime, numTags, numTagsInRange, minMargin, maxRange))
+        {
+            aprilTagProcessor.setDecimation((float) governor.getDecimation());
+
+            int[] newResolution = governor.getResolution();
+            if (newResolution != resolution)
+            {
+                // Only post the change, we are on the frame thread of the portal that has to be rebuilt.
+                resolution = newResolution;
+                pendingResolution.set(resolution);
+            }
+        }
+
+        return userContext;
+    }   //processFrame
+
+    /**
+     * This method is called to annotate the frame. It is delegated to the AprilTag processor.
+     */
+    @Override
+    public void onDrawFrame(
+        Canvas canvas, int onscreenWidth, int onscreenHeight, float scaleBmpPxToCanvasPx, float scaleCanvasDensity,
+        Object userContext)
+    {
+        aprilTagProcessor.onDrawFrame(
+            canvas, onscreenWidth, onscreenHeight, scaleBmpPxToCanvasPx, scaleCanvasDensity, userContext);
+    }   //onDrawFrame
+
+}   //class FtcAprilTagGovernedProcessor
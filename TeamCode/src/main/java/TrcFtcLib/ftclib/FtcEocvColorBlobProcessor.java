@@ -35,6 +35,8 @@ import TrcCommonLib.trclib.TrcDbgTrace;
 import TrcCommonLib.trclib.TrcOpenCvColorBlobPipeline;
 import TrcCommonLib.trclib.TrcOpenCvDetector;
 import TrcCommonLib.trclib.TrcOpenCvPipeline;
+import TrcCommonLib.trclib.TrcRoiTracker;
+import TrcCommonLib.trclib.TrcVisionResultCache;
 
 /**
  * This class implements a vision processor on top of an EOCV color blob pipeline.
@@ -82,6 +84,26 @@ public class FtcEocvColorBlobProcessor implements TrcOpenCvPipeline<TrcOpenCvDet
         return colorBlobPipeline.toString();
     }   //toString
 
+    /**
+     * This method sets the ROI tracker of the color blob pipeline.
+     *
+     * @param tracker specifies the ROI tracker, null to always process the full frame.
+     */
+    public void setRoiTracker(TrcRoiTracker tracker)
+    {
+        colorBlobPipeline.setRoiTracker(tracker);
+    }   //setRoiTracker
+
+    /**
+     * This method returns the result cache of the color blob pipeline.
+     *
+     * @return result cache.
+     */
+    public TrcVisionResultCache<TrcOpenCvColorBlobPipeline.DetectedObject[]> getResultCache()
+    {
+        return colorBlobPipeline.getResultCache();
+    }   //getResultCache
+
     //
     // Implements TrcOpenCvPipeline interface.
     //
@@ -214,7 +236,7 @@ public class FtcEocvColorBlobProcessor implements TrcOpenCvPipeline<TrcOpenCvDet
     @Override
     public Object processFrame(Mat frame, long captureTimeNanos)
     {
-        return colorBlobPipeline.process(frame);
+        return colorBlobPipeline.process(frame, TrcVisionResultCache.nanoTimeToCurrentTime(captureTimeNanos));
     }   //processFrame
 
     @Override
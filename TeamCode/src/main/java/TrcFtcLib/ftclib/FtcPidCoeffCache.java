@@ -22,24 +22,22 @@
 
 package TrcFtcLib.ftclib;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.HashMap;
 import java.util.Scanner;
 
 import TrcCommonLib.trclib.TrcDbgTrace;
+import TrcCommonLib.trclib.TrcPersistentStore;
+import TrcCommonLib.trclib.TrcPidAutoTuner;
 import TrcCommonLib.trclib.TrcPidController;
 
 /**
- * This class implements a PID Coefficient cache that write through to file storage on disk. The file format is
- * simply an ASCII text file with four PID coefficient numbers (double numbers Kp, Ki, Kd and Kf) separated by commas.
- * This class can be used for PID tuning where the tuning code can write the user input coefficients to a file so
- * that they can be read back as tune PID menu default values in the next tuning sessions. Doing so will avoid the
- * time consuming cycle of tune/modify value in code/recompile.
+ * This class implements a PID Coefficient cache that is backed by a TrcPersistentStore. The coefficients are kept in
+ * memory and written to file storage in the background, so tuning code can write the user input coefficients on the
+ * robot thread without blocking on file I/O. The coefficients can be read back as tune PID menu default values in the
+ * next tuning sessions. Doing so will avoid the time consuming cycle of tune/modify value in code/recompile.
+ * For backward compatibility, PID coefficients saved in the old per-controller text files (four PID coefficient
+ * numbers Kp, Ki, Kd and Kf separated by commas) are imported into the store the first time they are looked up.
  */
 public class FtcPidCoeffCache
 {
@@ -48,7 +46,7 @@ public class FtcPidCoeffCache
     private static final boolean debugEnabled = false;
 
     private final String cacheFilePrefix;
-    private final HashMap<TrcPidController, TrcPidController.PidCoefficients> pidCoeffCache = new HashMap<>();
+    private final TrcPersistentStore store;
 
     /**
      * Constructor: Creates an instance of the object.
@@ -58,15 +56,25 @@ public class FtcPidCoeffCache
     public FtcPidCoeffCache(String cacheFolderPath)
     {
         this.cacheFilePrefix = cacheFolderPath + "/PIDCoeffCache_";
-        File folder = new File(cacheFolderPath);
-        folder.mkdir();
+        this.store = new TrcPersistentStore(moduleName, cacheFolderPath);
     }   //FtcPidCoeffCache
 
+    /**
+     * This method returns the persistent store backing the cache. It can be used to store other tuning parameters
+     * such as feed forward coefficients or position presets.
+     *
+     * @return persistent store.
+     */
+    public TrcPersistentStore getStore()
+    {
+        return store;
+    }   //getStore
+
     /**
      * This method returns the cached PID coefficients for the given PID controller. If the given PID controller
-     * has no cached PID coefficients, it will look for a cache file associated with the PID controller. The PID
-     * coefficients read will be put into the cache and returned. If no cache file found, the current PID coefficients
-     * for the PID controller is put into the cache and returned.
+     * has no cached PID coefficients, it will look for a legacy cache file associated with the PID controller and
+     * import it into the store. If neither is found, the current PID coefficients for the PID controller are returned
+     * without storing them, so that changes to the default coefficients in code are not shadowed by a stale copy.
      *
      * @param pidCtrl specifies the PID controller for which to look for its cached PID coefficients.
      * @return cached PID coefficients.
@@ -74,35 +82,19 @@ public class FtcPidCoeffCache
     public TrcPidController.PidCoefficients getCachedPidCoeff(TrcPidController pidCtrl)
     {
         final String funcName = "getCachedPidCoeff";
-        TrcPidController.PidCoefficients pidCoeff;
+        String key = pidCtrl.toString();
+        TrcPidController.PidCoefficients pidCoeff = store.getPidCoefficients(key, null);
 
-        if (pidCoeffCache.containsKey(pidCtrl))
+        if (pidCoeff == null)
         {
-            pidCoeff = pidCoeffCache.get(pidCtrl);
-        }
-        else
-        {
-            try
+            pidCoeff = readLegacyCacheFile(pidCtrl);
+            if (pidCoeff != null)
             {
-                Scanner cacheFile = new Scanner(new File(cacheFilePrefix + pidCtrl + ".txt"));
-                String line = cacheFile.nextLine();
-                String[] coeffs = line.split(",");
-
-                cacheFile.close();
-                if (coeffs.length != 4)
-                {
-                    throw new RuntimeException("Invalid PID Coefficient cache data " + line);
-                }
-
-                pidCoeff = new TrcPidController.PidCoefficients(
-                    Double.parseDouble(coeffs[0]), Double.parseDouble(coeffs[1]),
-                    Double.parseDouble(coeffs[2]), Double.parseDouble(coeffs[3]));
-                pidCoeffCache.put(pidCtrl, pidCoeff);
+                store.putPidCoefficients(key, pidCoeff);
             }
-            catch (FileNotFoundException e)
+            else
             {
                 pidCoeff = pidCtrl.getPidCoefficients();
-                pidCoeffCache.put(pidCtrl, pidCoeff);
             }
         }
 
@@ -115,7 +107,8 @@ public class FtcPidCoeffCache
     }   //getCachedPidCoeff
 
     /**
-     * This method writes the PID coefficients to the cache and also write through to the backing file storage.
+     * This method writes the PID coefficients to the cache. The write to the backing file storage is done in the
+     * background by the persistent store.
      *
      * @param pidCtrl specifies the PID controller associated with the PID coefficients.
      * @param pidCoeff specifies the PID coefficients to write through into the cache.
@@ -123,26 +116,77 @@ public class FtcPidCoeffCache
     public void writeCachedPidCoeff(TrcPidController pidCtrl, TrcPidController.PidCoefficients pidCoeff)
     {
         final String funcName = "writeCachedPidCoeff";
-        PrintWriter writer;
 
         if (debugEnabled)
         {
             globalTracer.traceInfo(funcName, "pidCtrl=%s,pidCoeff=%s", pidCtrl, pidCoeff);
         }
 
-        pidCoeffCache.put(pidCtrl, pidCoeff);
+        store.putPidCoefficients(pidCtrl.toString(), pidCoeff);
+    }   //writeCachedPidCoeff
+
+    /**
+     * This method writes the PID coefficients found by the auto-tuner to the cache and also write through to the
+     * backing file storage. Coefficients are only written if the tuning session has completed and passed its step
+     * test validation.
+     *
+     * @param autoTuner specifies the auto-tuner that has finished tuning.
+     * @return true if the tuned PID coefficients are written, false otherwise.
+     */
+    public boolean writeAutoTunedPidCoeff(TrcPidAutoTuner autoTuner)
+    {
+        final String funcName = "writeAutoTunedPidCoeff";
+        TrcPidAutoTuner.Result result = autoTuner.getResult();
+        TrcPidController pidCtrl = autoTuner.getPidController();
+        boolean written = false;
+
+        if (result != null && result.passed && pidCtrl != null)
+        {
+            writeCachedPidCoeff(pidCtrl, result.pidCoeff);
+            written = true;
+        }
+
+        if (debugEnabled)
+        {
+            globalTracer.traceInfo(
+                funcName, "autoTuner=%s, pidCtrl=%s, result=%s, written=%s", autoTuner, pidCtrl, result, written);
+        }
+
+        return written;
+    }   //writeAutoTunedPidCoeff
+
+    /**
+     * This method reads the PID coefficients from the legacy cache file of the given PID controller.
+     *
+     * @param pidCtrl specifies the PID controller for which to look for its legacy cache file.
+     * @return PID coefficients read, null if there is no legacy cache file.
+     */
+    private TrcPidController.PidCoefficients readLegacyCacheFile(TrcPidController pidCtrl)
+    {
+        TrcPidController.PidCoefficients pidCoeff = null;
 
         try
         {
-            writer = new PrintWriter(
-                new BufferedWriter(new FileWriter(cacheFilePrefix + pidCtrl + ".txt")));
-            writer.printf("%f,%f,%f,%f", pidCoeff.kP, pidCoeff.kI, pidCoeff.kD, pidCoeff.kF);
-            writer.close();
+            Scanner cacheFile = new Scanner(new File(cacheFilePrefix + pidCtrl + ".txt"));
+            String line = cacheFile.nextLine();
+            String[] coeffs = line.split(",");
+
+            cacheFile.close();
+            if (coeffs.length != 4)
+            {
+                throw new RuntimeException("Invalid PID Coefficient cache data " + line);
+            }
+
+            pidCoeff = new TrcPidController.PidCoefficients(
+                Double.parseDouble(coeffs[0]), Double.parseDouble(coeffs[1]),
+                Double.parseDouble(coeffs[2]), Double.parseDouble(coeffs[3]));
         }
-        catch (IOException e)
+        catch (FileNotFoundException e)
         {
-            throw new RuntimeException("Failed to open cache file " + pidCtrl);
+            // No legacy cache file.
         }
-    }   //writeCachedPidCoeff
+
+        return pidCoeff;
+    }   //readLegacyCacheFile
 
 }   //class FtcPidCoeffCache
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcFtcLib.ftclib;
+
+import android.graphics.Canvas;
+
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.tfod.Recognition;
+import org.firstinspires.ftc.robotcore.internal.camera.calibration.CameraCalibration;
+import org.firstinspires.ftc.vision.VisionProcessor;
+import org.firstinspires.ftc.vision.tfod.TfodProcessor;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import TrcCommonLib.trclib.TrcInferenceScheduler;
+import TrcCommonLib.trclib.TrcTimer;
+
+/**
+ * This class implements a vision processor that wraps a TensorFlow processor and only runs inference on the frames
+ * selected by an inference scheduler. On the other frames, the recognitions of the last inference are carried
+ * forward by the scheduler's tracker. This processor must be added to the vision portal instead of the wrapped
+ * TensorFlow processor.
+ */
+public class FtcTfodScheduledProcessor implements VisionProcessor
+{
+    /**
+     * This class implements a recognition carried forward from the last inference.
+     */
+    private static class TrackedRecognition implements Recognition
+    {
+        private final Recognition source;
+        private final float left, top, width, height, confidence;
+
+        /**
+         * Constructor: Create an instance of the object.
+         *
+         * @param track specifies the scheduler track with the predicted position of the recognition.
+         */
+        TrackedRecognition(TrcInferenceScheduler.Track track)
+        {
+            this.source = (Recognition) track.source;
+            this.left = (float) track.x;
+            this.top = (float) track.y;
+            this.width = (float) track.width;
+            this.height = (float) track.height;
+            this.confidence = (float) track.confidence;
+        }   //TrackedRecognition
+
+        @Override
+        public String getLabel()
+        {
+            return source.getLabel();
+        }   //getLabel
+
+        @Override
+        public float getConfidence()
+        {
+            return confidence;
+        }   //getConfidence
+
+        @Override
+        public float getLeft()
+        {
+            return left;
+        }   //getLeft
+
+        @Override
+        public float getRight()
+        {
+            return left + width;
+        }   //getRight
+
+        @Override
+        public float getTop()
+        {
+            return top;
+        }   //getTop
+
+        @Override
+        public float getBottom()
+        {
+            return top + height;
+        }   //getBottom
+
+        @Override
+        public float getWidth()
+        {
+            return width;
+        }   //getWidth
+
+        @Override
+        public float getHeight()
+        {
+            return height;
+        }   //getHeight
+
+        @Override
+        public int getImageWidth()
+        {
+            return source.getImageWidth();
+        }   //getImageWidth
+
+        @Override
+        public int getImageHeight()
+        {
+            return source.getImageHeight();
+        }   //getImageHeight
+
+        /**
+         * This method estimates the horizontal angle to the tracked object. The camera focal length is recovered from
+         * the angle of the source recognition, so the angle follows the tracked position with the same convention.
+         *
+         * @param angleUnit specifies the angle unit.
+         * @return horizontal angle to the object.
+         */
+        @Override
+        public double estimateAngleToObject(AngleUnit angleUnit)
+        {
+            double sourceAngle = source.estimateAngleToObject(AngleUnit.RADIANS);
+            double halfImageWidth = source.getImageWidth()/2.0;
+            double sourceOffset = (source.getLeft() + source.getRight())/2.0 - halfImageWidth;
+            double angle = sourceAngle;
+
+            if (Math.abs(sourceOffset) >= 1.0 && Math.abs(Math.tan(sourceAngle)) > 1.0e-6)
+            {
+                double focalLength = sourceOffset/Math.tan(sourceAngle);
+                angle = Math.atan((left + width/2.0 - halfImageWidth)/focalLength);
+            }
+
+            return angleUnit.fromRadians(angle);
+        }   //estimateAngleToObject
+
+        @Override
+        public String toString()
+        {
+            return "{" + getLabel() + ",tracked,x=" + left + ",y=" + top + ",w=" + width + ",h=" + height +
+                   ",confidence=" + confidence + "}";
+        }   //toString
+
+    }   //class TrackedRecognition
+
+    private final TfodProcessor tensorFlowProcessor;
+    private final TrcInferenceScheduler scheduler;
+    private Object lastUserContext = null;
+    // Latest recognitions, guarded by this.
+    private List<Recognition> recognitions = null;
+    private boolean freshRecognitions = false;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param tensorFlowProcessor specifies the TensorFlow processor to wrap.
+     * @param scheduler specifies the inference scheduler.
+     */
+    public FtcTfodScheduledProcessor(TfodProcessor tensorFlowProcessor, TrcInferenceScheduler scheduler)
+    {
+        this.tensorFlowProcessor = tensorFlowProcessor;
+        this.scheduler = scheduler;
+    }   //FtcTfodScheduledProcessor
+
+    /**
+     * This method returns the inference scheduler.
+     *
+     * @return inference scheduler.
+     */
+    public TrcInferenceScheduler getScheduler()
+    {
+        return scheduler;
+    }   //getScheduler
+
+    /**
+     * This method returns the recognitions of the latest frame, inferred or carried forward, if they have not been
+     * returned before.
+     *
+     * @return list of recognitions, null if no new information is available since the last call.
+     */
+    public synchronized List<Recognition> getFreshRecognitions()
+    {
+        List<Recognition> fresh = freshRecognitions? recognitions: null;
+
+        freshRecognitions = false;
+        return fresh;
+    }   //getFreshRecognitions
+
+    //
+    // Implements VisionProcessor interface.
+    //
+
+    /**
+     * This method is called to initialize the vision processor.
+     *
+     * @param width specifies the image width.
+     * @param height specifies the image height.
+     * @param calibration specifies the camera calibration data.
+     */
+    @Override
+    public void init(int width, int height, CameraCalibration calibration)
+    {
+        tensorFlowProcessor.init(width, height, calibration);
+    }   //init
+
+    /**
+     * This method is called to process an image frame. It either runs TensorFlow inference on the frame or carries
+     * the recognitions of the last inference forward, as decided by the scheduler.
+     *
+     * @param frame specifies the source image to be processed.
+     * @param captureTimeNanos specifies the capture frame timestamp.
+     * @return user context for onDrawFrame.
+     */
+    @Override
+    public Object processFrame(Mat frame, long captureTimeNanos)
+    {
+        double timestamp = captureTimeNanos/1000000000.0;
+        List<Recognition> frameRecognitions;
+
+        if (scheduler.startFrame(timestamp))
+        {
+            double startTime = TrcTimer.getCurrentTime();
+            lastUserContext = tensorFlowProcessor.processFrame(frame, captureTimeNanos);
+            double inferenceTime = TrcTimer.getCurrentTime() - startTime;
+            List<Recognition> inferred = tensorFlowProcessor.getRecognitions();
+            List<TrcInferenceScheduler.Track> detections = new ArrayList<>(inferred.size());
+
+            for (Recognition recognition: inferred)
+            {
+                detections.add(
+                    new TrcInferenceScheduler.Track(
+                        recognition.getLabel(), recognition, recognition.getLeft(), recognition.getTop(),
+                        recognition.getWidth(), recognition.getHeight(), recognition.getConfidence()));
+            }
+            scheduler.inferenceDone(detections, timestamp, inferenceTime);
+            frameRecognitions = inferred;
+        }
+        else
+        {
+            List<TrcInferenceScheduler.Track> tracks = scheduler.getTracks();
+            frameRecognitions = new ArrayList<>(tracks.size());
+
+            for (TrcInferenceScheduler.Track track: tracks)
+            {
+                frameRecognitions.add(new TrackedRecognition(track));
+            }
+        }
+
+        synchronized (this)
+        {
+            recognitions = frameRecognitions;
+            freshRecognitions = true;
+        }
+        // Annotation always shows the recognitions of the last inference.
+        return lastUserContext;
+    }   //processFrame
+
+    /**
+     * This method is called to annotate the frame. It is delegated to the TensorFlow processor with the user context
+     * of the last inference.
+     */
+    @Override
+    public void onDrawFrame(
+        Canvas canvas, int onscreenWidth, int onscreenHeight, float scaleBmpPxToCanvasPx, float scaleCanvasDensity,
+        Object userContext)
+    {
+        tensorFlowProcessor.onDrawFrame(
+            canvas, onscreenWidth, onscreenHeight, scaleBmpPxToCanvasPx, scaleCanvasDensity, userContext);
+    }   //onDrawFrame
+
+}   //class FtcTfodScheduledProcessor
@@ -25,6 +25,7 @@ package TrcFtcLib.ftclib;
 
 import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
 import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
+import org.firstinspires.ftc.vision.VisionProcessor;
 import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
 import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
 import org.opencv.core.Rect;
@@ -35,6 +36,7 @@ import java.util.Comparator;
 import java.util.Locale;
 
 import TrcCommonLib.trclib.TrcDbgTrace;
+import TrcCommonLib.trclib.TrcDecimationGovernor;
 import TrcCommonLib.trclib.TrcPose3D;
 import TrcCommonLib.trclib.TrcVisionTargetInfo;
 
@@ -169,6 +171,7 @@ public class FtcVisionAprilTag
         double[] lensIntrinsics = null;
         DistanceUnit distanceUnit = DistanceUnit.INCH;
         AngleUnit angleUnit = AngleUnit.DEGREES;
+        TrcDecimationGovernor.Parameters governorParams = null;
 
         public Parameters setDrawTagIdEnabled(boolean enabled)
         {
@@ -207,11 +210,26 @@ public class FtcVisionAprilTag
             return this;
         }   //setOutputUnits
 
+        /**
+         * This method enables the decimation governor. The governor adjusts the decimation (and the camera resolution
+         * if resolutions are configured) every frame to hit the target frame rate while keeping tags within the
+         * required range decodable. Resolution changes are applied by the caller, see getPendingResolution.
+         *
+         * @param governorParams specifies the governor parameters, null to use the defaults.
+         * @return this object for chaining.
+         */
+        public Parameters setDecimationGovernor(TrcDecimationGovernor.Parameters governorParams)
+        {
+            this.governorParams = governorParams != null? governorParams: new TrcDecimationGovernor.Parameters();
+            return this;
+        }   //setDecimationGovernor
+
     }   //class Parameters
 
     private final String instanceName;
     private final TrcDbgTrace tracer;
     private final AprilTagProcessor aprilTagProcessor;
+    private final FtcAprilTagGovernedProcessor governedProcessor;
 
     /**
      * Constructor: Create an instance of the object.
@@ -242,6 +260,17 @@ public class FtcVisionAprilTag
                 .setOutputUnits(params.distanceUnit, params.angleUnit);
         }
         aprilTagProcessor = builder.build();
+
+        if (params != null && params.governorParams != null)
+        {
+            TrcDecimationGovernor governor = new TrcDecimationGovernor(instanceName, params.governorParams);
+            governor.setMsgTracer(tracer);
+            governedProcessor = new FtcAprilTagGovernedProcessor(aprilTagProcessor, governor);
+        }
+        else
+        {
+            governedProcessor = null;
+        }
     }   //FtcVisionAprilTag
 
     /**
@@ -276,6 +305,40 @@ public class FtcVisionAprilTag
         return aprilTagProcessor;
     }   //getVisionProcessor
 
+    /**
+     * This method returns the vision processor to be added to the vision portal. If the decimation governor is
+     * enabled, this is the governed processor wrapping the AprilTag processor, otherwise it is the AprilTag processor.
+     *
+     * @return vision processor to add to the vision portal.
+     */
+    public VisionProcessor getPortalProcessor()
+    {
+        return governedProcessor != null? governedProcessor: aprilTagProcessor;
+    }   //getPortalProcessor
+
+    /**
+     * This method returns the decimation governor.
+     *
+     * @return decimation governor, null if the governor is not enabled.
+     */
+    public TrcDecimationGovernor getDecimationGovernor()
+    {
+        return governedProcessor != null? governedProcessor.getGovernor(): null;
+    }   //getDecimationGovernor
+
+    /**
+     * This method returns the camera resolution the decimation governor asked for since the last call, and consumes
+     * it. Call it from the op mode thread and apply the resolution (typically by rebuilding the vision portal with
+     * the new camera resolution), never from a vision processor callback.
+     *
+     * @return requested resolution as {width, height}, null if there is no pending change or the governor is not
+     *         enabled.
+     */
+    public int[] getPendingResolution()
+    {
+        return governedProcessor != null? governedProcessor.getPendingResolution(): null;
+    }   //getPendingResolution
+
     /**
      * This method returns the target info of the given detected target.
      *
@@ -32,6 +32,7 @@ import java.util.Comparator;
 import TrcCommonLib.trclib.TrcDbgTrace;
 import TrcCommonLib.trclib.TrcHomographyMapper;
 import TrcCommonLib.trclib.TrcOpenCvColorBlobPipeline;
+import TrcCommonLib.trclib.TrcRoiTracker;
 import TrcCommonLib.trclib.TrcVisionTargetInfo;
 
 /**
@@ -125,6 +126,17 @@ public class FtcVisionEocvColorBlob
         return colorBlobProcessor;
     }   //getVisionProcessor
 
+    /**
+     * This method enables/disables tracking mode. In tracking mode, once a blob is detected, only a padded region
+     * around its predicted position is processed until it is lost for a number of frames.
+     *
+     * @param params specifies the tracker parameters, null to disable tracking.
+     */
+    public void setTrackingEnabled(TrcRoiTracker.Parameters params)
+    {
+        colorBlobProcessor.setRoiTracker(params != null? new TrcRoiTracker(params): null);
+    }   //setTrackingEnabled
+
     /**
      * This method returns an array list of detected targets. If a target label is given, only detected targets with
      * the same label will be returned.
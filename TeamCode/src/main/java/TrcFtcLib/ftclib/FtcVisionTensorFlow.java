@@ -25,6 +25,7 @@ package TrcFtcLib.ftclib;
 
 import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
 import org.firstinspires.ftc.robotcore.external.tfod.Recognition;
+import org.firstinspires.ftc.vision.VisionProcessor;
 import org.firstinspires.ftc.vision.tfod.TfodProcessor;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
@@ -35,7 +36,9 @@ import java.util.Comparator;
 import java.util.List;
 
 import TrcCommonLib.trclib.TrcDbgTrace;
+import TrcCommonLib.trclib.TrcDriveBase;
 import TrcCommonLib.trclib.TrcHomographyMapper;
+import TrcCommonLib.trclib.TrcInferenceScheduler;
 import TrcCommonLib.trclib.TrcPose3D;
 import TrcCommonLib.trclib.TrcVisionTargetInfo;
 
@@ -132,6 +135,8 @@ public class FtcVisionTensorFlow
         int modelInputSize = 300;
         double modelAspectRatio = 16.0/9.0;
         int maxNumRecognitions = 10;
+        TrcInferenceScheduler.Parameters schedulerParams = null;
+        TrcDriveBase driveBase = null;
 
         public Parameters setIsModelTensorFlow2(boolean isTensorFlow2)
         {
@@ -163,6 +168,24 @@ public class FtcVisionTensorFlow
             return this;
         }   //setMaxNumRecognitions
 
+        /**
+         * This method enables adaptive inference scheduling. Inference only runs on the frames selected by the
+         * scheduler and the recognitions are carried forward in between. The vision portal must use the processor
+         * returned by getPortalProcessor.
+         *
+         * @param schedulerParams specifies the scheduler parameters, null to use the defaults.
+         * @param driveBase specifies the drive base to get the robot speed from, null if robot motion is not
+         *        considered.
+         * @return this object for chaining.
+         */
+        public Parameters setInferenceScheduling(
+            TrcInferenceScheduler.Parameters schedulerParams, TrcDriveBase driveBase)
+        {
+            this.schedulerParams = schedulerParams != null? schedulerParams: new TrcInferenceScheduler.Parameters();
+            this.driveBase = driveBase;
+            return this;
+        }   //setInferenceScheduling
+
     }   //class Parameters
 
     /**
@@ -176,6 +199,7 @@ public class FtcVisionTensorFlow
     private final String instanceName;
     private final TrcDbgTrace tracer;
     private final TfodProcessor tensorFlowProcessor;
+    private final FtcTfodScheduledProcessor scheduledProcessor;
     private final TrcHomographyMapper homographyMapper;
 
     /**
@@ -209,6 +233,17 @@ public class FtcVisionTensorFlow
         }
         tensorFlowProcessor = builder.build();
 
+        if (params != null && params.schedulerParams != null)
+        {
+            scheduledProcessor = new FtcTfodScheduledProcessor(
+                tensorFlowProcessor,
+                new TrcInferenceScheduler(instanceName, params.schedulerParams, params.driveBase));
+        }
+        else
+        {
+            scheduledProcessor = null;
+        }
+
         if (cameraRect != null && worldRect != null)
         {
             homographyMapper = new TrcHomographyMapper(cameraRect, worldRect);
@@ -265,6 +300,28 @@ public class FtcVisionTensorFlow
         return tensorFlowProcessor;
     }   //getVisionProcessor
 
+    /**
+     * This method returns the vision processor to be added to the vision portal. If inference scheduling is
+     * enabled, this is the scheduled processor wrapping the TensorFlow processor, otherwise it is the TensorFlow
+     * processor.
+     *
+     * @return vision processor to add to the vision portal.
+     */
+    public VisionProcessor getPortalProcessor()
+    {
+        return scheduledProcessor != null? scheduledProcessor: tensorFlowProcessor;
+    }   //getPortalProcessor
+
+    /**
+     * This method returns the inference scheduler.
+     *
+     * @return inference scheduler, null if inference scheduling is not enabled.
+     */
+    public TrcInferenceScheduler getInferenceScheduler()
+    {
+        return scheduledProcessor != null? scheduledProcessor.getScheduler(): null;
+    }   //getInferenceScheduler
+
     /**
      * This method returns an array list of detected targets. If a target label is given, only detected targets with
      * the same label will be returned.
@@ -281,7 +338,8 @@ public class FtcVisionTensorFlow
         // getFreshRecognitions() will return null if no new information is available since the last time that call
         // was made.
         //
-        List<Recognition> updatedRecognitions = tensorFlowProcessor.getFreshRecognitions();
+        List<Recognition> updatedRecognitions = scheduledProcessor != null?
+            scheduledProcessor.getFreshRecognitions(): tensorFlowProcessor.getFreshRecognitions();
         if (updatedRecognitions != null)
         {
             targets = new ArrayList<>();
@@ -0,0 +1,125 @@
+package org.firstinspires.ftc.teamcode.roadrunner;
+
+import com.acmerobotics.roadrunner.Pose2d;
+import com.acmerobotics.roadrunner.ftc.FlightRecorder;
+
+import org.firstinspires.ftc.teamcode.util.PoseMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes pose messages to the {@link FlightRecorder} from a background thread so the control loop never waits on
+ * log I/O. Poses are copied into a fixed-size single-producer/single-consumer ring of primitives, so recording does
+ * not allocate. If the ring is full the pose is dropped rather than blocking the caller.
+ * Only one thread may call {@link #record}.
+ */
+public final class AsyncPoseRecorder {
+    private static final long IDLE_PARK_NANOS = 2_000_000;
+
+    private final String[] channels;
+    private final PoseMessage[] messages;
+    private final int mask;
+    private final int[] channel;
+    private final long[] timestamp;
+    private final double[] x, y, heading;
+    // head is only written by the writer thread, tail only by the producer.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running = true;
+    private final Thread writerThread;
+
+    /**
+     * @param capacity ring size, rounded up to a power of two
+     * @param channels FlightRecorder channel names, referred to by index in {@link #record}
+     */
+    public AsyncPoseRecorder(int capacity, String... channels) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+        this.channels = channels;
+        messages = new PoseMessage[channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            messages[i] = new PoseMessage();
+        }
+
+        mask = size - 1;
+        channel = new int[size];
+        timestamp = new long[size];
+        x = new double[size];
+        y = new double[size];
+        heading = new double[size];
+
+        writerThread = new Thread(this::writerLoop, "AsyncPoseRecorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues a pose for the given channel. Never blocks.
+     *
+     * @return false if the ring was full and the pose was dropped
+     */
+    public boolean record(int channelIndex, Pose2d pose) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        int slot = (int) (t & mask);
+        channel[slot] = channelIndex;
+        timestamp[slot] = System.nanoTime();
+        x[slot] = pose.position.x;
+        y[slot] = pose.position.y;
+        heading[slot] = pose.heading.log();
+        // The ordered store publishes the slot contents to the writer thread.
+        tail.lazySet(t + 1);
+
+        return true;
+    }
+
+    /**
+     * Number of poses dropped because the writer thread fell behind.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the remaining poses and stops the writer thread.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writerLoop() {
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            int slot = (int) (h & mask);
+            int channelIndex = channel[slot];
+            PoseMessage message = messages[channelIndex];
+            message.timestamp = timestamp[slot];
+            message.x = x[slot];
+            message.y = y[slot];
+            message.heading = heading[slot];
+            head.lazySet(h + 1);
+
+            FlightRecorder.write(channels[channelIndex], message);
+        }
+    }
+}
@@ -39,11 +39,9 @@ import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
 import org.firstinspires.ftc.teamcode.RobotHardware;
 import org.firstinspires.ftc.teamcode.util.values.Globals;
 import org.firstinspires.ftc.teamcode.util.Localizer;
-import org.firstinspires.ftc.teamcode.util.PoseMessage;
 
 import java.lang.Math;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 @Config
@@ -102,7 +100,18 @@ public final class MecanumDrive {
     public final Localizer localizer;
     public Pose2d pose;
 
-    private final LinkedList<Pose2d> poseHistory = new LinkedList<>();
+    // Pose history ring for the dashboard trail.
+    private static final int POSE_HISTORY_SIZE = 100;
+    private final double[] poseHistoryX = new double[POSE_HISTORY_SIZE];
+    private final double[] poseHistoryY = new double[POSE_HISTORY_SIZE];
+    private int poseHistoryNext = 0;
+    private int poseHistoryCount = 0;
+
+    // Shared by all drive instances so op mode restarts don't leak writer threads.
+    private static final int ESTIMATED_POSE_CHANNEL = 0;
+    private static final int TARGET_POSE_CHANNEL = 1;
+    private static final AsyncPoseRecorder poseRecorder =
+            new AsyncPoseRecorder(256, "ESTIMATED_POSE", "TARGET_POSE");
 
     public class DriveLocalizer implements Localizer {
         public final Encoder leftFront, leftBack, rightBack, rightFront;
@@ -213,6 +222,9 @@ public final class MecanumDrive {
 
         private final double[] xPoints, yPoints;
 
+        private final HolonomicController controller = createController();
+        private final MotorFeedforward feedforward = createFeedforward();
+
         public FollowTrajectoryAction(TimeTrajectory t) {
             timeTrajectory = t;
 
@@ -251,28 +263,24 @@ public final class MecanumDrive {
 
             PoseVelocity2d robotVelRobot = updatePoseEstimate();
 
-            PoseVelocity2dDual<Time> command = new HolonomicController(
-                    PARAMS.axialGain, PARAMS.lateralGain, PARAMS.headingGain,
-                    PARAMS.axialVelGain, PARAMS.lateralVelGain, PARAMS.headingVelGain
-            )
-                    .compute(txWorldTarget, pose, robotVelRobot);
+            PoseVelocity2dDual<Time> command = controller.compute(txWorldTarget, pose, robotVelRobot);
 
             MecanumKinematics.WheelVelocities<Time> wheelVels = kinematics.inverse(command);
             double voltage = voltageSensor.getVoltage();
 
-            final MotorFeedforward feedforward = new MotorFeedforward(PARAMS.kS, PARAMS.kV / PARAMS.inPerTick, PARAMS.kA / PARAMS.inPerTick);
             leftFront.setPower(feedforward.compute(wheelVels.leftFront) / voltage);
             leftBack.setPower(feedforward.compute(wheelVels.leftBack) / voltage);
             rightBack.setPower(feedforward.compute(wheelVels.rightBack) / voltage);
             rightFront.setPower(feedforward.compute(wheelVels.rightFront) / voltage);
 
-            FlightRecorder.write("TARGET_POSE", new PoseMessage(txWorldTarget.value()));
+            Pose2d target = txWorldTarget.value();
+            poseRecorder.record(TARGET_POSE_CHANNEL, target);
 
             p.put("x", pose.position.x);
             p.put("y", pose.position.y);
             p.put("heading (deg)", Math.toDegrees(pose.heading.log()));
 
-            Pose2d error = txWorldTarget.value().minusExp(pose);
+            Pose2d error = target.minusExp(pose);
             p.put("xError", error.position.x);
             p.put("yError", error.position.y);
             p.put("headingError (deg)", Math.toDegrees(error.heading.log()));
@@ -282,7 +290,7 @@ public final class MecanumDrive {
             drawPoseHistory(c);
 
             c.setStroke("#4CAF50");
-            drawRobot(c, txWorldTarget.value());
+            drawRobot(c, target);
 
             c.setStroke("#3F51B5");
             drawRobot(c, pose);
@@ -307,6 +315,9 @@ public final class MecanumDrive {
 
         private double beginTs = -1;
 
+        private final HolonomicController controller = createController();
+        private final MotorFeedforward feedforward = createFeedforward();
+
         public TurnAction(TimeTurn turn) {
             this.turn = turn;
         }
@@ -334,27 +345,23 @@ public final class MecanumDrive {
 
             PoseVelocity2d robotVelRobot = updatePoseEstimate();
 
-            PoseVelocity2dDual<Time> command = new HolonomicController(
-                    PARAMS.axialGain, PARAMS.lateralGain, PARAMS.headingGain,
-                    PARAMS.axialVelGain, PARAMS.lateralVelGain, PARAMS.headingVelGain
-            )
-                    .compute(txWorldTarget, pose, robotVelRobot);
+            PoseVelocity2dDual<Time> command = controller.compute(txWorldTarget, pose, robotVelRobot);
 
             MecanumKinematics.WheelVelocities<Time> wheelVels = kinematics.inverse(command);
             double voltage = voltageSensor.getVoltage();
-            final MotorFeedforward feedforward = new MotorFeedforward(PARAMS.kS, PARAMS.kV / PARAMS.inPerTick, PARAMS.kA / PARAMS.inPerTick);
             leftFront.setPower(feedforward.compute(wheelVels.leftFront) / voltage);
             leftBack.setPower(feedforward.compute(wheelVels.leftBack) / voltage);
             rightBack.setPower(feedforward.compute(wheelVels.rightBack) / voltage);
             rightFront.setPower(feedforward.compute(wheelVels.rightFront) / voltage);
 
-            FlightRecorder.write("TARGET_POSE", new PoseMessage(txWorldTarget.value()));
+            Pose2d target = txWorldTarget.value();
+            poseRecorder.record(TARGET_POSE_CHANNEL, target);
 
             Canvas c = p.fieldOverlay();
             drawPoseHistory(c);
 
             c.setStroke("#4CAF50");
-            drawRobot(c, txWorldTarget.value());
+            drawRobot(c, target);
 
             c.setStroke("#3F51B5");
             drawRobot(c, pose);
@@ -376,26 +383,39 @@ public final class MecanumDrive {
         Twist2dDual<Time> twist = localizer.update();
         pose = pose.plus(twist.value());
 
-        poseHistory.add(pose);
-        while (poseHistory.size() > 100) {
-            poseHistory.removeFirst();
-        }
+        poseHistoryX[poseHistoryNext] = pose.position.x;
+        poseHistoryY[poseHistoryNext] = pose.position.y;
+        poseHistoryNext = (poseHistoryNext + 1) % POSE_HISTORY_SIZE;
+        poseHistoryCount = Math.min(poseHistoryCount + 1, POSE_HISTORY_SIZE);
 
-        FlightRecorder.write("ESTIMATED_POSE", new PoseMessage(pose));
+        poseRecorder.record(ESTIMATED_POSE_CHANNEL, pose);
 
         return twist.velocity().value();
     }
 
-    private void drawPoseHistory(Canvas c) {
-        double[] xPoints = new double[poseHistory.size()];
-        double[] yPoints = new double[poseHistory.size()];
+    /**
+     * Controllers and feedforward are built once per action; PARAMS changes apply to the next action.
+     */
+    private static HolonomicController createController() {
+        return new HolonomicController(
+                PARAMS.axialGain, PARAMS.lateralGain, PARAMS.headingGain,
+                PARAMS.axialVelGain, PARAMS.lateralVelGain, PARAMS.headingVelGain);
+    }
 
-        int i = 0;
-        for (Pose2d t : poseHistory) {
-            xPoints[i] = t.position.x;
-            yPoints[i] = t.position.y;
+    private static MotorFeedforward createFeedforward() {
+        return new MotorFeedforward(PARAMS.kS, PARAMS.kV / PARAMS.inPerTick, PARAMS.kA / PARAMS.inPerTick);
+    }
 
-            i++;
+    private void drawPoseHistory(Canvas c) {
+        // The canvas keeps the arrays until the packet is sent from another thread, so they can't be reused.
+        double[] xPoints = new double[poseHistoryCount];
+        double[] yPoints = new double[poseHistoryCount];
+
+        int start = (poseHistoryNext - poseHistoryCount + POSE_HISTORY_SIZE) % POSE_HISTORY_SIZE;
+        for (int i = 0; i < poseHistoryCount; i++) {
+            int j = (start + i) % POSE_HISTORY_SIZE;
+            xPoints[i] = poseHistoryX[j];
+            yPoints[i] = poseHistoryY[j];
         }
 
         c.setStrokeWidth(1);
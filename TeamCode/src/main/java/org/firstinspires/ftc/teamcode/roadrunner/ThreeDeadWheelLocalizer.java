@@ -12,9 +12,12 @@ import com.acmerobotics.roadrunner.ftc.PositionVelocityPair;
 import com.acmerobotics.roadrunner.ftc.RawEncoder;
 import com.qualcomm.robotcore.hardware.DcMotorEx;
 import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.util.RobotLog;
 
 import org.firstinspires.ftc.teamcode.util.Localizer;
 
+import java.util.concurrent.locks.LockSupport;
+
 @Config
 public final class ThreeDeadWheelLocalizer implements Localizer {
     public static class Params {
@@ -31,6 +34,27 @@ public final class ThreeDeadWheelLocalizer implements Localizer {
 
     private int lastPar0Pos, lastPar1Pos, lastPerpPos;
 
+    // Last pod reading, robot relative.
+    private double twistX, twistY, twistAngle, velX, velY, velAngle;
+
+    // Localization thread.
+    private volatile Thread localizationThread = null;
+    private long periodNanos;
+    private volatile long maxPeriodNanos = 0;
+    // Set when the thread stopped (or died on a pod read failure) and its last samples haven't been reported by
+    // update() yet.
+    private volatile boolean snapshotPending = false;
+
+    // Sequence locked snapshot written by the localization thread. Volatile so the reads can't be reordered
+    // around the sequence checks.
+    private volatile long snapshotSeq = 0;
+    private volatile double snapshotX, snapshotY, snapshotHeading, snapshotVelX, snapshotVelY, snapshotVelAngle;
+    private volatile long snapshotTimestamp;
+
+    // Caller side of update() in threaded mode.
+    private final double[] snapshot = new double[6];
+    private double lastReportedX, lastReportedY, lastReportedHeading;
+
     public ThreeDeadWheelLocalizer(HardwareMap hardwareMap, double inPerTick) {
         par0 = new OverflowEncoder(new RawEncoder(hardwareMap.get(DcMotorEx.class, "par0")));
         par1 = new OverflowEncoder(new RawEncoder(hardwareMap.get(DcMotorEx.class, "par1")));
@@ -46,6 +70,32 @@ public final class ThreeDeadWheelLocalizer implements Localizer {
     }
 
     public Twist2dDual<Time> update() {
+        if (localizationThread != null) {
+            return snapshotDelta();
+        }
+
+        if (snapshotPending) {
+            // Report what the thread integrated before it stopped, synchronous reads pick up from its last sample.
+            snapshotPending = false;
+            return snapshotDelta();
+        }
+
+        readPods();
+
+        return new Twist2dDual<>(
+                new Vector2dDual<>(
+                        new DualNum<Time>(new double[] {twistX, velX}),
+                        new DualNum<Time>(new double[] {twistY, velY})
+                ),
+                new DualNum<>(new double[] {twistAngle, velAngle})
+        );
+    }
+
+    /**
+     * Reads the three pods (one bulk read) and computes the robot relative twist since the last read and the
+     * robot relative velocity.
+     */
+    private void readPods() {
         PositionVelocityPair par0PosVel = par0.getPositionAndVelocity();
         PositionVelocityPair par1PosVel = par1.getPositionAndVelocity();
         PositionVelocityPair perpPosVel = perp.getPositionAndVelocity();
@@ -54,27 +104,183 @@ public final class ThreeDeadWheelLocalizer implements Localizer {
         int par1PosDelta = par1PosVel.position - lastPar1Pos;
         int perpPosDelta = perpPosVel.position - lastPerpPos;
 
-        Twist2dDual<Time> twist = new Twist2dDual<>(
-                new Vector2dDual<>(
-                        new DualNum<Time>(new double[] {
-                                (PARAMS.par0YTicks * par1PosDelta - PARAMS.par1YTicks * par0PosDelta) / (PARAMS.par0YTicks - PARAMS.par1YTicks),
-                                (PARAMS.par0YTicks * par1PosVel.velocity - PARAMS.par1YTicks * par0PosVel.velocity) / (PARAMS.par0YTicks - PARAMS.par1YTicks),
-                        }).times(inPerTick),
-                        new DualNum<Time>(new double[] {
-                                (PARAMS.perpXTicks / (PARAMS.par0YTicks - PARAMS.par1YTicks) * (par1PosDelta - par0PosDelta) + perpPosDelta),
-                                (PARAMS.perpXTicks / (PARAMS.par0YTicks - PARAMS.par1YTicks) * (par1PosVel.velocity - par0PosVel.velocity) + perpPosVel.velocity),
-                        }).times(inPerTick)
-                ),
-                new DualNum<>(new double[] {
-                        (par0PosDelta - par1PosDelta) / (PARAMS.par0YTicks - PARAMS.par1YTicks),
-                        (par0PosVel.velocity - par1PosVel.velocity) / (PARAMS.par0YTicks - PARAMS.par1YTicks),
-                })
-        );
+        twistX = (PARAMS.par0YTicks * par1PosDelta - PARAMS.par1YTicks * par0PosDelta) / (PARAMS.par0YTicks - PARAMS.par1YTicks) * inPerTick;
+        velX = (PARAMS.par0YTicks * par1PosVel.velocity - PARAMS.par1YTicks * par0PosVel.velocity) / (PARAMS.par0YTicks - PARAMS.par1YTicks) * inPerTick;
+        twistY = (PARAMS.perpXTicks / (PARAMS.par0YTicks - PARAMS.par1YTicks) * (par1PosDelta - par0PosDelta) + perpPosDelta) * inPerTick;
+        velY = (PARAMS.perpXTicks / (PARAMS.par0YTicks - PARAMS.par1YTicks) * (par1PosVel.velocity - par0PosVel.velocity) + perpPosVel.velocity) * inPerTick;
+        twistAngle = (par0PosDelta - par1PosDelta) / (PARAMS.par0YTicks - PARAMS.par1YTicks);
+        velAngle = (par0PosVel.velocity - par1PosVel.velocity) / (PARAMS.par0YTicks - PARAMS.par1YTicks);
 
         lastPar0Pos = par0PosVel.position;
         lastPar1Pos = par1PosVel.position;
         lastPerpPos = perpPosVel.position;
+    }
+
+    /**
+     * Starts integrating the pods on a dedicated thread at a fixed rate. While it runs, {@link #update()} returns the
+     * motion integrated by the thread since the previous call, so callers like {@link MecanumDrive} work unchanged.
+     * The pods share a hub with other devices, so keep that hub in AUTO or OFF bulk caching mode.
+     * Call {@link #stopThread()} when the op mode stops. If a pod read throws, the thread logs it and stops, and
+     * {@link #update()} goes back to reading the pods itself.
+     *
+     * @param rateHz sampling rate, 200 Hz or more is recommended
+     */
+    public synchronized void startThread(double rateHz) {
+        if (localizationThread == null) {
+            periodNanos = (long) (1e9 / rateHz);
+            readPods();
+            publish(0, 0, 0, 0, 0, 0);
+            lastReportedX = lastReportedY = lastReportedHeading = 0;
+            snapshotPending = false;
+            localizationThread = new Thread(this::localizationLoop, "ThreeDeadWheelLocalizer");
+            localizationThread.setPriority(Thread.MAX_PRIORITY);
+            localizationThread.setDaemon(true);
+            localizationThread.start();
+        }
+    }
+
+    /**
+     * Stops the localization thread. The next {@link #update()} returns the motion the thread integrated since the
+     * previous call, after that {@link #update()} reads the pods itself.
+     */
+    public synchronized void stopThread() {
+        // The thread clears the field itself if it dies, so work on a local copy.
+        Thread thread = localizationThread;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // The next update() reports the motion the thread integrated since the last update() call.
+            snapshotPending = true;
+            localizationThread = null;
+        }
+    }
+
+    public boolean isThreadRunning() {
+        return localizationThread != null;
+    }
+
+    /**
+     * Copies the latest sample of the localization thread into out without locking:
+     * {x, y, heading, robot x vel, robot y vel, angular vel} in the thread's own frame (starting at the origin).
+     *
+     * @return sample time in System.nanoTime() units
+     */
+    public long readSnapshot(double[] out) {
+        long seq;
+        long timestamp;
+        do {
+            seq = snapshotSeq;
+            // Odd sequence means the thread is in the middle of a write.
+            while ((seq & 1) != 0) {
+                Thread.yield();
+                seq = snapshotSeq;
+            }
+            out[0] = snapshotX;
+            out[1] = snapshotY;
+            out[2] = snapshotHeading;
+            out[3] = snapshotVelX;
+            out[4] = snapshotVelY;
+            out[5] = snapshotVelAngle;
+            timestamp = snapshotTimestamp;
+        } while (seq != snapshotSeq);
+
+        return timestamp;
+    }
+
+    /**
+     * Worst sampling period seen by the localization thread, in seconds.
+     */
+    public double getMaxPeriod() {
+        return maxPeriodNanos / 1e9;
+    }
+
+    private void localizationLoop() {
+        double x = 0, y = 0, heading = 0;
+        long lastTime = System.nanoTime();
+        long nextTime = lastTime + periodNanos;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            long waitNanos = nextTime - System.nanoTime();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+                continue;
+            }
+            // Don't try to catch up on missed samples, just keep the period from now on.
+            nextTime = Math.max(nextTime + periodNanos, System.nanoTime());
+
+            try {
+                readPods();
+            } catch (RuntimeException e) {
+                // Don't leave update() reading a snapshot that will never move again, fall back to synchronous reads.
+                RobotLog.ee("ThreeDeadWheelLocalizer", e, "Pod read failed, localization thread stopped");
+                snapshotPending = true;
+                localizationThread = null;
+                return;
+            }
+
+            long now = System.nanoTime();
+            maxPeriodNanos = Math.max(maxPeriodNanos, now - lastTime);
+            lastTime = now;
+
+            // Pose exponential: integrate the twist along a constant curvature arc.
+            double u = twistAngle + Math.copySign(1e-9, twistAngle);
+            double s = Math.sin(u) / u;
+            double c = (1 - Math.cos(u)) / u;
+            double dx = s * twistX - c * twistY;
+            double dy = c * twistX + s * twistY;
+            double cos = Math.cos(heading), sin = Math.sin(heading);
+            x += cos * dx - sin * dy;
+            y += sin * dx + cos * dy;
+            heading += twistAngle;
 
-        return twist;
+            publish(x, y, heading, velX, velY, velAngle);
+        }
+    }
+
+    private void publish(double x, double y, double heading, double vx, double vy, double omega) {
+        long seq = snapshotSeq;
+        snapshotSeq = seq + 1;
+        snapshotX = x;
+        snapshotY = y;
+        snapshotHeading = heading;
+        snapshotVelX = vx;
+        snapshotVelY = vy;
+        snapshotVelAngle = omega;
+        snapshotTimestamp = System.nanoTime();
+        snapshotSeq = seq + 2;
+    }
+
+    /**
+     * Returns the motion since the previous call as a twist (pose logarithm of the relative pose), so applying it
+     * with Pose2d.plus reproduces the integrated pose exactly.
+     */
+    private Twist2dDual<Time> snapshotDelta() {
+        readSnapshot(snapshot);
+
+        double dxField = snapshot[0] - lastReportedX;
+        double dyField = snapshot[1] - lastReportedY;
+        double cos = Math.cos(lastReportedHeading), sin = Math.sin(lastReportedHeading);
+        double rx = cos * dxField + sin * dyField;
+        double ry = -sin * dxField + cos * dyField;
+        double angle = snapshot[2] - lastReportedHeading;
+
+        double halfU = 0.5 * angle + Math.copySign(1e-9, angle);
+        double v = halfU / Math.tan(halfU);
+
+        lastReportedX = snapshot[0];
+        lastReportedY = snapshot[1];
+        lastReportedHeading = snapshot[2];
+
+        return new Twist2dDual<>(
+                new Vector2dDual<>(
+                        new DualNum<Time>(new double[] {v * rx + halfU * ry, snapshot[3]}),
+                        new DualNum<Time>(new double[] {-halfU * rx + v * ry, snapshot[4]})
+                ),
+                new DualNum<>(new double[] {angle, snapshot[5]})
+        );
     }
 }
@@ -8,6 +8,9 @@ public final class PoseMessage {
     public double y;
     public double heading;
 
+    public PoseMessage() {
+    }
+
     public PoseMessage(Pose2d pose) {
         this.timestamp = System.nanoTime();
         this.x = pose.position.x;
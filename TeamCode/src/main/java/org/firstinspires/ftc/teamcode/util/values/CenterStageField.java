@@ -0,0 +1,73 @@
+package org.firstinspires.ftc.teamcode.util.values;
+
+import com.acmerobotics.dashboard.config.Config;
+
+import TrcCommonLib.trclib.TrcOccupancyGrid;
+import TrcCommonLib.trclib.TrcPose2D;
+
+/**
+ * Static CENTERSTAGE field obstacles for grid path planning.
+ * Coordinates are field centric in inches with the origin at the field center, the backdrops on the +x side,
+ * blue on +y and red on -y (the same frame as the MeepMeep trajectories).
+ * TrcDriveBase odometry is relative to where it was reset, so when the grid is used with TrcGridDrive, pass the
+ * robot start pose converted by {@link #toGridPose} to TrcGridDrive.setPathPlanner.
+ */
+@Config
+public class CenterStageField {
+    public static double FIELD_HALF_SIZE = 72;
+
+    // Truss legs: the truss spans TRUSS_MIN_X..TRUSS_MAX_X with legs at the tile seams.
+    public static double TRUSS_MIN_X = -24;
+    public static double TRUSS_MAX_X = 0;
+    public static double TRUSS_LEG_SIZE = 2;
+    public static double[] TRUSS_LEG_Y = {-72, -48, -24, 24, 48, 72};
+    // Set to false if the robot is too tall to drive under the truss, only the stage door is left open then.
+    public static boolean CAN_PASS_UNDER_TRUSS = true;
+    public static double STAGE_DOOR_HALF_WIDTH = 24;
+
+    // Backdrops against the backstage wall, centered at y = +/-BACKDROP_CENTER_Y.
+    public static double BACKDROP_CENTER_Y = 36;
+    public static double BACKDROP_HALF_WIDTH = 12;
+    public static double BACKDROP_DEPTH = 11;
+
+    /**
+     * Converts a pose in this frame with a Road Runner heading (radians counterclockwise from +x) to the TrcPose2D
+     * convention used by the grid planner (degrees clockwise from +y).
+     *
+     * @param x x in inches
+     * @param y y in inches
+     * @param heading Road Runner heading in radians
+     */
+    public static TrcPose2D toGridPose(double x, double y, double heading) {
+        return new TrcPose2D(x, y, 90 - Math.toDegrees(heading));
+    }
+
+    /**
+     * Creates an occupancy grid of the whole field with the static obstacles.
+     *
+     * @param cellSize grid cell size in inches
+     */
+    public static TrcOccupancyGrid createOccupancyGrid(double cellSize) {
+        TrcOccupancyGrid grid = new TrcOccupancyGrid(
+                -FIELD_HALF_SIZE, -FIELD_HALF_SIZE, FIELD_HALF_SIZE, FIELD_HALF_SIZE, cellSize);
+        double halfLeg = TRUSS_LEG_SIZE / 2;
+
+        for (double legY : TRUSS_LEG_Y) {
+            grid.addObstacle(TRUSS_MIN_X - halfLeg, legY - halfLeg, TRUSS_MIN_X + halfLeg, legY + halfLeg);
+            grid.addObstacle(TRUSS_MAX_X - halfLeg, legY - halfLeg, TRUSS_MAX_X + halfLeg, legY + halfLeg);
+        }
+
+        if (!CAN_PASS_UNDER_TRUSS) {
+            grid.addObstacle(TRUSS_MIN_X, STAGE_DOOR_HALF_WIDTH, TRUSS_MAX_X, FIELD_HALF_SIZE);
+            grid.addObstacle(TRUSS_MIN_X, -FIELD_HALF_SIZE, TRUSS_MAX_X, -STAGE_DOOR_HALF_WIDTH);
+        }
+
+        for (int side = -1; side <= 1; side += 2) {
+            double centerY = side * BACKDROP_CENTER_Y;
+            grid.addObstacle(FIELD_HALF_SIZE - BACKDROP_DEPTH, centerY - BACKDROP_HALF_WIDTH,
+                    FIELD_HALF_SIZE, centerY + BACKDROP_HALF_WIDTH);
+        }
+
+        return grid;
+    }
+}
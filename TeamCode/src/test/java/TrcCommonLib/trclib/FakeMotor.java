@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+/**
+ * This class implements a motor for tests. It has no hardware, the test sets its position and velocity directly and
+ * reads back the power it was given.
+ */
+class FakeMotor extends TrcMotor
+{
+    double position = 0.0;
+    double velocity = 0.0;
+    double power = 0.0;
+    boolean inverted = false;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     */
+    FakeMotor(String instanceName)
+    {
+        super(instanceName, null, null, null);
+    }   //FakeMotor
+
+    @Override
+    public void resetFactoryDefault()
+    {
+    }   //resetFactoryDefault
+
+    @Override
+    public double getBusVoltage()
+    {
+        return 12.0;
+    }   //getBusVoltage
+
+    @Override
+    public void setCurrentLimit(double currentLimit, double triggerThresholdCurrent, double triggerThresholdTime)
+    {
+    }   //setCurrentLimit
+
+    @Override
+    public void setCloseLoopRampRate(double rampTime)
+    {
+    }   //setCloseLoopRampRate
+
+    @Override
+    public void setOpenLoopRampRate(double rampTime)
+    {
+    }   //setOpenLoopRampRate
+
+    @Override
+    public void setBrakeModeEnabled(boolean enabled)
+    {
+    }   //setBrakeModeEnabled
+
+    @Override
+    public void enableMotorRevLimitSwitch(boolean normalClose)
+    {
+    }   //enableMotorRevLimitSwitch
+
+    @Override
+    public void enableMotorFwdLimitSwitch(boolean normalClose)
+    {
+    }   //enableMotorFwdLimitSwitch
+
+    @Override
+    public void disableMotorRevLimitSwitch()
+    {
+    }   //disableMotorRevLimitSwitch
+
+    @Override
+    public void disableMotorFwdLimitSwitch()
+    {
+    }   //disableMotorFwdLimitSwitch
+
+    @Override
+    public boolean isMotorRevLimitSwitchEnabled()
+    {
+        return false;
+    }   //isMotorRevLimitSwitchEnabled
+
+    @Override
+    public boolean isMotorFwdLimitSwitchEnabled()
+    {
+        return false;
+    }   //isMotorFwdLimitSwitchEnabled
+
+    @Override
+    public void setMotorRevLimitSwitchInverted(boolean inverted)
+    {
+    }   //setMotorRevLimitSwitchInverted
+
+    @Override
+    public void setMotorFwdLimitSwitchInverted(boolean inverted)
+    {
+    }   //setMotorFwdLimitSwitchInverted
+
+    @Override
+    public boolean isMotorRevLimitSwitchActive()
+    {
+        return false;
+    }   //isMotorRevLimitSwitchActive
+
+    @Override
+    public boolean isMotorFwdLimitSwitchActive()
+    {
+        return false;
+    }   //isMotorFwdLimitSwitchActive
+
+    @Override
+    public void setMotorRevSoftPositionLimit(Double limit)
+    {
+    }   //setMotorRevSoftPositionLimit
+
+    @Override
+    public void setMotorFwdSoftPositionLimit(Double limit)
+    {
+    }   //setMotorFwdSoftPositionLimit
+
+    @Override
+    public void setMotorPositionSensorInverted(boolean inverted)
+    {
+    }   //setMotorPositionSensorInverted
+
+    @Override
+    public boolean isMotorPositionSensorInverted()
+    {
+        return false;
+    }   //isMotorPositionSensorInverted
+
+    @Override
+    public void resetMotorPosition()
+    {
+        position = 0.0;
+    }   //resetMotorPosition
+
+    @Override
+    public void setMotorInverted(boolean inverted)
+    {
+        this.inverted = inverted;
+    }   //setMotorInverted
+
+    @Override
+    public boolean isMotorInverted()
+    {
+        return inverted;
+    }   //isMotorInverted
+
+    @Override
+    public void setMotorPower(double power)
+    {
+        this.power = power;
+    }   //setMotorPower
+
+    @Override
+    public double getMotorPower()
+    {
+        return power;
+    }   //getMotorPower
+
+    @Override
+    public void setMotorVelocity(double velocity)
+    {
+        this.velocity = velocity;
+    }   //setMotorVelocity
+
+    @Override
+    public double getMotorVelocity()
+    {
+        return velocity;
+    }   //getMotorVelocity
+
+    @Override
+    public void setMotorPosition(double position, double powerLimit)
+    {
+        this.position = position;
+    }   //setMotorPosition
+
+    @Override
+    public double getMotorPosition()
+    {
+        return position;
+    }   //getMotorPosition
+
+    @Override
+    public void setMotorCurrent(double current)
+    {
+    }   //setMotorCurrent
+
+    @Override
+    public double getMotorCurrent()
+    {
+        return 0.0;
+    }   //getMotorCurrent
+
+    @Override
+    public void setMotorVelocityPidCoefficients(TrcPidController.PidCoefficients pidCoeff)
+    {
+    }   //setMotorVelocityPidCoefficients
+
+    @Override
+    public void setMotorVelocityPidTolerance(double tolerance)
+    {
+    }   //setMotorVelocityPidTolerance
+
+    @Override
+    public TrcPidController.PidCoefficients getMotorVelocityPidCoefficients()
+    {
+        return null;
+    }   //getMotorVelocityPidCoefficients
+
+    @Override
+    public boolean getMotorVelocityOnTarget()
+    {
+        return false;
+    }   //getMotorVelocityOnTarget
+
+    @Override
+    public void setMotorPositionPidCoefficients(TrcPidController.PidCoefficients pidCoeff)
+    {
+    }   //setMotorPositionPidCoefficients
+
+    @Override
+    public void setMotorPositionPidTolerance(double tolerance)
+    {
+    }   //setMotorPositionPidTolerance
+
+    @Override
+    public TrcPidController.PidCoefficients getMotorPositionPidCoefficients()
+    {
+        return null;
+    }   //getMotorPositionPidCoefficients
+
+    @Override
+    public boolean getMotorPositionOnTarget()
+    {
+        return false;
+    }   //getMotorPositionOnTarget
+
+    @Override
+    public void setMotorCurrentPidCoefficients(TrcPidController.PidCoefficients pidCoeff)
+    {
+    }   //setMotorCurrentPidCoefficients
+
+    @Override
+    public void setMotorCurrentPidTolerance(double tolerance)
+    {
+    }   //setMotorCurrentPidTolerance
+
+    @Override
+    public TrcPidController.PidCoefficients getMotorCurrentPidCoefficients()
+    {
+        return null;
+    }   //getMotorCurrentPidCoefficients
+
+    @Override
+    public boolean getMotorCurrentOnTarget()
+    {
+        return false;
+    }   //getMotorCurrentOnTarget
+
+    @Override
+    public void setVoltageCompensationEnabled(Double batteryNominalVoltage)
+    {
+    }   //setVoltageCompensationEnabled
+
+    @Override
+    public boolean isVoltageCompensationEnabled()
+    {
+        return false;
+    }   //isVoltageCompensationEnabled
+
+    @Override
+    public void followMotor(TrcMotor motor)
+    {
+    }   //followMotor
+
+}   //class FakeMotor
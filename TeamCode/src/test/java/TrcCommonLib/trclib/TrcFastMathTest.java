@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package TrcCommonLib.trclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * This class tests TrcFastMath against java.lang.Math, checking the error bounds documented on each method over
+ * dense sweeps, random angles, the quadrant and wrap boundaries and non-finite arguments.
+ */
+public class TrcFastMathTest
+{
+    private static final double SIN_COS_BOUND = 3.0e-7;
+    private static final double ATAN2_BOUND = 1.0e-4;
+    private static final double MAX_TRIG_ANGLE = 1e9;
+    // Wrapping may miss the lower end of its range by this many ulps of the argument.
+    private static final double WRAP_ULPS = 4.0;
+    private static final int SWEEP_STEPS = 200000;
+    private static final int RANDOM_SAMPLES = 200000;
+    private static final double[] NON_FINITE = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+    /**
+     * This method returns the exact sine of the given angle. The remainder operator is exact, so reducing the angle
+     * before converting to radians keeps the reference accurate for large angles.
+     */
+    private static double refSin(double degrees)
+    {
+        return Math.sin(Math.toRadians(degrees % 360.0));
+    }   //refSin
+
+    /**
+     * This method returns the exact cosine of the given angle.
+     */
+    private static double refCos(double degrees)
+    {
+        return Math.cos(Math.toRadians(degrees % 360.0));
+    }   //refCos
+
+    /**
+     * This method returns the difference between two angles in degrees, wrapped to [0, 180] so that 180 and -180
+     * are the same angle.
+     */
+    private static double angleError(double a, double b)
+    {
+        double error = Math.abs(a - b) % 360.0;
+        return error > 180.0? 360.0 - error: error;
+    }   //angleError
+
+    /**
+     * This method asserts the sin, cos and sinCos error bounds at the given angle.
+     */
+    private static void assertTrig(double degrees, double[] sinCos)
+    {
+        double sin = refSin(degrees);
+        double cos = refCos(degrees);
+
+        assertEquals("sin(" + degrees + ")", sin, TrcFastMath.sin(degrees), SIN_COS_BOUND);
+        assertEquals("cos(" + degrees + ")", cos, TrcFastMath.cos(degrees), SIN_COS_BOUND);
+        TrcFastMath.sinCos(degrees, sinCos);
+        assertEquals("sinCos(" + degrees + ")[0]", sin, sinCos[0], SIN_COS_BOUND);
+        assertEquals("sinCos(" + degrees + ")[1]", cos, sinCos[1], SIN_COS_BOUND);
+    }   //assertTrig
+
+    /**
+     * This method asserts the atan2 error bound and range for the given vector.
+     */
+    private static void assertAtan2(double y, double x)
+    {
+        double angle = TrcFastMath.atan2(y, x);
+        String msg = "atan2(" + y + ", " + x + ")=" + angle;
+
+        assertTrue(msg, angle >= -180.0 && angle <= 180.0);
+        assertTrue(msg, angleError(Math.toDegrees(Math.atan2(y, x)), angle) <= ATAN2_BOUND);
+    }   //assertAtan2
+
+    @Test
+    public void sinCosWithinBoundOverOneRevolution()
+    {
+        double[] sinCos = new double[2];
+
+        for (int i = 0; i <= SWEEP_STEPS; i++)
+        {
+            assertTrig(-180.0 + 360.0*i/SWEEP_STEPS, sinCos);
+        }
+    }   //sinCosWithinBoundOverOneRevolution
+
+    @Test
+    public void sinCosWithinBoundForLargeAngles()
+    {
+        Random random = new Random(40);
+        double[] sinCos = new double[2];
+
+        for (int i = 0; i < RANDOM_SAMPLES; i++)
+        {
+            assertTrig((random.nextDouble()*2.0 - 1.0)*MAX_TRIG_ANGLE, sinCos);
+        }
+    }   //sinCosWithinBoundForLargeAngles
+
+    @Test
+    public void sinCosAtQuadrantEdges()
+    {
+        double[] sinCos = new double[2];
+
+        for (int quadrant = -8; quadrant <= 8; quadrant++)
+        {
+            double edge = 90.0*quadrant;
+
+            assertTrig(edge, sinCos);
+            assertTrig(Math.nextUp(edge), sinCos);
+            assertTrig(Math.nextDown(edge), sinCos);
+        }
+        // The table entries at the quadrant edges are exact.
+        assertEquals(1.0, TrcFastMath.sin(90.0), 0.0);
+        assertEquals(-1.0, TrcFastMath.sin(-90.0), 0.0);
+        assertEquals(1.0, TrcFastMath.cos(0.0), 0.0);
+        assertEquals(-1.0, TrcFastMath.cos(180.0), 0.0);
+        assertEquals(-1.0, TrcFastMath.cos(-180.0), 0.0);
+    }   //sinCosAtQuadrantEdges
+
+    @Test
+    public void sinCosOfNonFiniteAnglesIsNaN()
+    {
+        double[] sinCos = new double[2];
+
+        for (double degrees: NON_FINITE)
+        {
+            assertTrue(Double.isNaN(TrcFastMath.sin(degrees)));
+            assertTrue(Double.isNaN(TrcFastMath.cos(degrees)));
+            TrcFastMath.sinCos(degrees, sinCos);
+            assertTrue(Double.isNaN(sinCos[0]));
+            assertTrue(Double.isNaN(sinCos[1]));
+        }
+    }   //sinCosOfNonFiniteAnglesIsNaN
+
+    @Test
+    public void atan2WithinBoundAroundTheCircle()
+    {
+        double[] magnitudes = {1e-300, 1e-3, 1.0, 3.7, 1e6, 1e300};
+
+        for (double magnitude: magnitudes)
+        {
+            for (int i = 0; i <= SWEEP_STEPS; i++)
+            {
+                double radians = -Math.PI + 2.0*Math.PI*i/SWEEP_STEPS;
+                assertAtan2(magnitude*Math.sin(radians), magnitude*Math.cos(radians));
+            }
+        }
+    }   //atan2WithinBoundAroundTheCircle
+
+    @Test
+    public void atan2AtQuadrantAndOctantEdges()
+    {
+        double[] values = {-1.0, -Math.ulp(1.0), 0.0, Math.ulp(1.0), 1.0};
+
+        for (double y: values)
+        {
+            for (double x: values)
+            {
+                assertAtan2(y, x);
+            }
+        }
+        assertEquals(0.0, TrcFastMath.atan2(0.0, 1.0), 0.0);
+        assertEquals(90.0, TrcFastMath.atan2(1.0, 0.0), 0.0);
+        assertEquals(180.0, TrcFastMath.atan2(0.0, -1.0), 0.0);
+        assertEquals(-90.0, TrcFastMath.atan2(-1.0, 0.0), 0.0);
+        // Just below the negative x axis is -180, not 180.
+        assertEquals(-180.0, TrcFastMath.atan2(-Double.MIN_VALUE, -1.0), ATAN2_BOUND);
+        assertEquals(0.0, TrcFastMath.atan2(0.0, 0.0), 0.0);
+        // Documented signed zero differences from Math.atan2.
+        assertEquals(0.0, TrcFastMath.atan2(0.0, -0.0), 0.0);
+        assertEquals(180.0, TrcFastMath.atan2(-0.0, -1.0), 0.0);
+    }   //atan2AtQuadrantAndOctantEdges
+
+    @Test
+    public void atan2OfNonFiniteComponents()
+    {
+        double[] values = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -1.0, 0.0, 1.0};
+
+        for (double y: values)
+        {
+            for (double x: values)
+            {
+                if (Double.isInfinite(x) || Double.isInfinite(y))
+                {
+                    assertAtan2(y, x);
+                }
+            }
+        }
+
+        for (double value: values)
+        {
+            assertTrue(Double.isNaN(TrcFastMath.atan2(Double.NaN, value)));
+            assertTrue(Double.isNaN(TrcFastMath.atan2(value, Double.NaN)));
+        }
+    }   //atan2OfNonFiniteComponents
+
+    /**
+     * This method asserts the range of the wrapping methods at the given angle and that they only subtract whole
+     * turns.
+     */
+    private static void assertWrap(double degrees)
+    {
+        double slack = WRAP_ULPS*Math.ulp(degrees);
+        double wrapped = TrcFastMath.wrapAngle(degrees);
+        double wrapped180 = TrcFastMath.wrapAngle180(degrees);
+        double centered = TrcFastMath.wrapCentered(degrees, 100.0);
+        String msg = "wrap(" + degrees + ")=" + wrapped + "," + wrapped180 + "," + centered;
+
+        assertTrue(msg, wrapped >= -slack && wrapped <= 360.0);
+        assertTrue(msg, wrapped180 >= -180.0 - slack && wrapped180 < 180.0);
+        assertTrue(msg, centered >= -50.0 - slack && centered < 50.0);
+        // The results differ from the argument by a whole number of turns, up to the rounding of the argument.
+        assertEquals(msg, 0.0, angleError(wrapped, degrees), slack);
+        assertEquals(msg, 0.0, angleError(wrapped180, degrees), slack);
+        assertEquals(msg, 0.0, Math.abs(Math.IEEEremainder(centered - degrees, 100.0)), slack);
+    }   //assertWrap
+
+    @Test
+    public void wrapAngleWithinRange()
+    {
+        Random random = new Random(41);
+
+        for (int i = 0; i < RANDOM_SAMPLES; i++)
+        {
+            assertWrap((random.nextDouble()*2.0 - 1.0)*1e6);
+        }
+    }   //wrapAngleWithinRange
+
+    @Test
+    public void wrapAngleAtBoundaries()
+    {
+        // Every multiple of 50 is a boundary of one of the wrapping methods, check a few ulps on both sides.
+        for (int k = -200; k <= 200; k++)
+        {
+            double boundary = k == 0? 0.0: 50.0*k*(Math.abs(k) > 100? 1e6: 1.0);
+            double below = boundary;
+            double above = boundary;
+
+            assertWrap(boundary);
+            for (int i = 0; i < 4; i++)
+            {
+                below = Math.nextDown(below);
+                above = Math.nextUp(above);
+                assertWrap(below);
+                assertWrap(above);
+            }
+        }
+
+        assertEquals(0.0, TrcFastMath.wrapAngle(360.0), 0.0);
+        assertEquals(0.0, TrcFastMath.wrapAngle(-360.0), 0.0);
+        assertEquals(180.0, TrcFastMath.wrapAngle(-180.0), 0.0);
+        assertEquals(359.0, TrcFastMath.wrapAngle(-1.0), 0.0);
+        assertEquals(-180.0, TrcFastMath.wrapAngle180(180.0), 0.0);
+        assertEquals(-180.0, TrcFastMath.wrapAngle180(-180.0), 0.0);
+        assertEquals(-180.0, TrcFastMath.wrapAngle180(540.0), 0.0);
+        assertEquals(179.0, TrcFastMath.wrapAngle180(-181.0), 0.0);
+        assertEquals(-50.0, TrcFastMath.wrapCentered(50.0, 100.0), 0.0);
+        assertEquals(10.0, TrcFastMath.wrapCentered(-90.0, 100.0), 0.0);
+        // Documented rounding at the boundaries.
+        assertEquals(360.0, TrcFastMath.wrapAngle(-1e-14), 0.0);
+        assertEquals(-Double.MIN_VALUE, TrcFastMath.wrapAngle(-Double.MIN_VALUE), 0.0);
+        assertEquals(Math.nextDown(180.0) - 360.0, TrcFastMath.wrapAngle180(Math.nextDown(180.0)), 0.0);
+    }   //wrapAngleAtBoundaries
+
+    @Test
+    public void wrapAngleOfNonFiniteAnglesIsNaN()
+    {
+        for (double degrees: NON_FINITE)
+        {
+            assertTrue(Double.isNaN(TrcFastMath.wrapAngle(degrees)));
+            assertTrue(Double.isNaN(TrcFastMath.wrapAngle180(degrees)));
+            assertTrue(Double.isNaN(TrcFastMath.wrapCentered(degrees, 360.0)));
+        }
+    }   //wrapAngleOfNonFiniteAnglesIsNaN
+
+}   //class TrcFastMathTest
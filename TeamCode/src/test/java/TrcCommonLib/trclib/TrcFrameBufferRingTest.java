@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * This class tests the reference counting, the exhaustion policies and the submit/take/publish ownership protocol of
+ * TrcFrameBufferRing.
+ */
+public class TrcFrameBufferRingTest
+{
+    @BeforeClass
+    public static void setUpClass()
+    {
+        TrcTestUtil.initDbgLog();
+    }   //setUpClass
+
+    private static TrcFrameBufferRing<int[]> createRing(
+        int numBuffers, int maxBuffers, TrcFrameBufferRing.ExhaustionPolicy policy)
+    {
+        return new TrcFrameBufferRing<>("testRing", () -> new int[1], numBuffers, maxBuffers, policy);
+    }   //createRing
+
+    @Test
+    public void lastReleaseReturnsBufferToFreeList()
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(3, 3, TrcFrameBufferRing.ExhaustionPolicy.SKIP);
+        TrcFrameBufferRing.Frame<int[]> frame = ring.acquireForWrite();
+
+        assertEquals(2, ring.getNumFreeBuffers());
+        ring.publish(frame, 1.0);
+        // The ring keeps its reference to the latest frame.
+        assertEquals(2, ring.getNumFreeBuffers());
+
+        TrcFrameBufferRing.Frame<int[]> borrowed = ring.borrowLatest();
+        assertSame(frame, borrowed);
+        borrowed.retain();
+        // A newer frame drops the ring's reference, the borrower still holds two.
+        ring.publish(ring.acquireForWrite(), 2.0);
+        assertEquals(1, ring.getNumFreeBuffers());
+        borrowed.release();
+        assertEquals(1, ring.getNumFreeBuffers());
+        borrowed.release();
+        assertEquals(2, ring.getNumFreeBuffers());
+    }   //lastReleaseReturnsBufferToFreeList
+
+    @Test(expected = IllegalStateException.class)
+    public void releasingFreeFrameThrows()
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(2, 2, TrcFrameBufferRing.ExhaustionPolicy.SKIP);
+        TrcFrameBufferRing.Frame<int[]> frame = ring.acquireForWrite();
+
+        frame.release();
+        frame.release();
+    }   //releasingFreeFrameThrows
+
+    @Test
+    public void skipPolicyDropsFrameWhenExhausted()
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(2, 4, TrcFrameBufferRing.ExhaustionPolicy.SKIP);
+
+        assertNotNull(ring.acquireForWrite());
+        assertNotNull(ring.acquireForWrite());
+        assertNull(ring.acquireForWrite());
+        // maxBuffers only applies to the GROW policy.
+        assertEquals(2, ring.getNumBuffers());
+        assertEquals(1, ring.getNumDropped());
+    }   //skipPolicyDropsFrameWhenExhausted
+
+    @Test
+    public void growPolicyAllocatesUpToMaxBuffers()
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(2, 3, TrcFrameBufferRing.ExhaustionPolicy.GROW);
+
+        assertNotNull(ring.acquireForWrite());
+        assertNotNull(ring.acquireForWrite());
+        assertNotNull(ring.acquireForWrite());
+        assertEquals(3, ring.getNumBuffers());
+        assertNull(ring.acquireForWrite());
+        assertEquals(3, ring.getNumBuffers());
+        assertEquals(1, ring.getNumDropped());
+    }   //growPolicyAllocatesUpToMaxBuffers
+
+    @Test
+    public void blockPolicyTimesOut()
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(2, 2, TrcFrameBufferRing.ExhaustionPolicy.BLOCK);
+        ring.setAcquireTimeout(0.05);
+        ring.acquireForWrite();
+        ring.acquireForWrite();
+
+        long startNanos = System.nanoTime();
+        TrcFrameBufferRing.Frame<int[]> frame = ring.acquireForWrite();
+        double elapsedTime = (System.nanoTime() - startNanos)/1000000000.0;
+
+        assertNull(frame);
+        assertEquals(1, ring.getNumDropped());
+        assertTrue("returned after " + elapsedTime + " sec", elapsedTime >= 0.045 && elapsedTime < 1.0);
+    }   //blockPolicyTimesOut
+
+    @Test
+    public void blockPolicyWakesUpOnRelease() throws InterruptedException
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(2, 2, TrcFrameBufferRing.ExhaustionPolicy.BLOCK);
+        ring.setAcquireTimeout(5.0);
+        ring.acquireForWrite();
+        TrcFrameBufferRing.Frame<int[]> heldFrame = ring.acquireForWrite();
+        Thread releaser = new Thread(
+            () ->
+            {
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                heldFrame.release();
+            });
+
+        releaser.start();
+        long startNanos = System.nanoTime();
+        TrcFrameBufferRing.Frame<int[]> frame = ring.acquireForWrite();
+        double elapsedTime = (System.nanoTime() - startNanos)/1000000000.0;
+        releaser.join();
+
+        assertSame(heldFrame, frame);
+        assertEquals(0, ring.getNumDropped());
+        assertTrue("returned after " + elapsedTime + " sec", elapsedTime < 2.0);
+    }   //blockPolicyWakesUpOnRelease
+
+    @Test
+    public void submittedFrameIsHiddenUntilPublished()
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(3, 3, TrcFrameBufferRing.ExhaustionPolicy.SKIP);
+        TrcFrameBufferRing.Frame<int[]> frame = ring.acquireForWrite();
+
+        ring.submit(frame, 1.0);
+        assertNull(ring.borrowLatest());
+
+        TrcFrameBufferRing.Frame<int[]> taken = ring.takeSubmitted(0.0);
+        assertSame(frame, taken);
+        assertTrue(taken.isWritable());
+        assertEquals(1.0, taken.getTimestamp(), 0.0);
+        assertNull(ring.borrowLatest());
+        assertNull(ring.takeSubmitted(0.0));
+
+        taken.getBuffer()[0] = 42;
+        ring.publish(taken, taken.getTimestamp());
+        TrcFrameBufferRing.Frame<int[]> borrowed = ring.borrowNewerThan(0, 0.0);
+        assertSame(frame, borrowed);
+        assertFalse(borrowed.isWritable());
+        assertEquals(42, borrowed.getBuffer()[0]);
+        assertEquals(1, borrowed.getSequence());
+        assertNull(ring.borrowNewerThan(borrowed.getSequence(), 0.0));
+        borrowed.release();
+    }   //submittedFrameIsHiddenUntilPublished
+
+    @Test
+    public void submitDropsUntakenFrame()
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(3, 3, TrcFrameBufferRing.ExhaustionPolicy.SKIP);
+        TrcFrameBufferRing.Frame<int[]> firstFrame = ring.acquireForWrite();
+        TrcFrameBufferRing.Frame<int[]> secondFrame = ring.acquireForWrite();
+
+        ring.submit(firstFrame, 1.0);
+        ring.submit(secondFrame, 2.0);
+        assertEquals(1, ring.getNumDropped());
+        // The dropped frame went back to the free list.
+        assertEquals(2, ring.getNumFreeBuffers());
+
+        TrcFrameBufferRing.Frame<int[]> taken = ring.takeSubmitted(0.0);
+        assertSame(secondFrame, taken);
+        assertEquals(2.0, taken.getTimestamp(), 0.0);
+        taken.release();
+        assertEquals(3, ring.getNumFreeBuffers());
+    }   //submitDropsUntakenFrame
+
+    @Test
+    public void takeSubmittedTimesOut()
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(2, 2, TrcFrameBufferRing.ExhaustionPolicy.SKIP);
+
+        long startNanos = System.nanoTime();
+        assertNull(ring.takeSubmitted(0.05));
+        double elapsedTime = (System.nanoTime() - startNanos)/1000000000.0;
+        assertTrue("returned after " + elapsedTime + " sec", elapsedTime >= 0.045 && elapsedTime < 1.0);
+    }   //takeSubmittedTimesOut
+
+    @Test
+    public void publishRejectsBorrowedFrame()
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(3, 3, TrcFrameBufferRing.ExhaustionPolicy.SKIP);
+        ring.publish(ring.acquireForWrite(), 1.0);
+        TrcFrameBufferRing.Frame<int[]> borrowed = ring.borrowLatest();
+
+        try
+        {
+            ring.publish(borrowed, 2.0);
+            fail("publish accepted a borrowed frame");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected.
+        }
+
+        try
+        {
+            ring.submit(borrowed, 2.0);
+            fail("submit accepted a borrowed frame");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected.
+        }
+
+        // The rejected calls left the frame and the ring unchanged.
+        assertEquals(1, ring.getNumPublished());
+        assertSame(borrowed, ring.borrowNewerThan(0, 0.0));
+        borrowed.release();
+        borrowed.release();
+    }   //publishRejectsBorrowedFrame
+
+    @Test
+    public void clearReleasesLatestAndSubmittedFrames()
+    {
+        TrcFrameBufferRing<int[]> ring = createRing(3, 3, TrcFrameBufferRing.ExhaustionPolicy.SKIP);
+        ring.publish(ring.acquireForWrite(), 1.0);
+        ring.submit(ring.acquireForWrite(), 2.0);
+        TrcFrameBufferRing.Frame<int[]> borrowed = ring.borrowLatest();
+        assertEquals(1, ring.getNumFreeBuffers());
+
+        ring.clear();
+        assertNull(ring.borrowLatest());
+        assertNull(ring.takeSubmitted(0.0));
+        // The borrower keeps its frame until it releases it.
+        assertEquals(2, ring.getNumFreeBuffers());
+        borrowed.release();
+        assertEquals(3, ring.getNumFreeBuffers());
+    }   //clearReleasesLatestAndSubmittedFrames
+
+}   //class TrcFrameBufferRingTest
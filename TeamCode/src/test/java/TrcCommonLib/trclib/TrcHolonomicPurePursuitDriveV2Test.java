@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * This class tests the drive direction of TrcHolonomicPurePursuitDriveV2 when a replacement path is swapped in.
+ */
+public class TrcHolonomicPurePursuitDriveV2Test
+{
+    private static final double TOLERANCE = 1e-6;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        TrcTestUtil.initDbgLog();
+    }   //setUpClass
+
+    /**
+     * This method returns a straight path along the y axis of its reference frame.
+     */
+    private static TrcPath createStraightPath()
+    {
+        return new TrcPath(
+            new TrcWaypoint(new TrcPose2D(0.0, 0.0, 0.0), new TrcPose2D(0.0, 10.0, 0.0)),
+            new TrcWaypoint(new TrcPose2D(0.0, 100.0, 0.0), new TrcPose2D(0.0, 10.0, 0.0)));
+    }   //createStraightPath
+
+    /**
+     * This method runs one drive cycle and returns the robot relative drive direction commanded to the mecanum
+     * wheels as {x, y}.
+     */
+    private static double[] runDriveCycle(FakeMotor lf, FakeMotor lb, FakeMotor rf, FakeMotor rb)
+    {
+        TrcTaskMgr.executeTaskType(TrcTaskMgr.TaskType.PRE_PERIODIC_TASK, TrcRobot.RunMode.AUTO_MODE, false);
+        TrcTaskMgr.executeTaskType(TrcTaskMgr.TaskType.POST_PERIODIC_TASK, TrcRobot.RunMode.AUTO_MODE, false);
+        return new double[] {
+            (lf.power - rf.power - lb.power + rb.power)/4.0, (lf.power + rf.power + lb.power + rb.power)/4.0};
+    }   //runDriveCycle
+
+    @Test
+    public void swappedPathIsDrivenInItsReferenceFrame()
+    {
+        FakeMotor lf = new FakeMotor("ppdV2.lf");
+        FakeMotor lb = new FakeMotor("ppdV2.lb");
+        FakeMotor rf = new FakeMotor("ppdV2.rf");
+        FakeMotor rb = new FakeMotor("ppdV2.rb");
+        TrcMecanumDriveBase driveBase = new TrcMecanumDriveBase(lf, lb, rf, rb);
+        TrcHolonomicPurePursuitDriveV2 purePursuitDrive = new TrcHolonomicPurePursuitDriveV2(
+            "ppdV2", driveBase, 6.0, 1.0, 1.0, new TrcPidController.PidCoefficients(0.1), 0.0);
+
+        driveBase.setOdometryEnabled(true);
+        purePursuitDrive.start(createStraightPath(), null);
+        try
+        {
+            // The robot faces the path, so it drives straight forward.
+            double[] direction = runDriveCycle(lf, lb, rf, rb);
+            assertTrue("not driving", direction[1] > 0.0);
+            assertEquals(0.0, direction[0], TOLERANCE);
+
+            // The replacement path runs along a reference frame rotated 90 degrees clockwise, i.e. to the right of
+            // the robot that still faces its original heading, so the robot must strafe right.
+            purePursuitDrive.replacePath(createStraightPath(), new TrcPose2D(0.0, 0.0, 90.0));
+            direction = runDriveCycle(lf, lb, rf, rb);
+            assertTrue("not strafing right", direction[0] > 0.0);
+            assertEquals(0.0, direction[1], TOLERANCE);
+        }
+        finally
+        {
+            purePursuitDrive.cancel();
+            driveBase.setOdometryEnabled(false);
+        }
+    }   //swappedPathIsDrivenInItsReferenceFrame
+
+}   //class TrcHolonomicPurePursuitDriveV2Test
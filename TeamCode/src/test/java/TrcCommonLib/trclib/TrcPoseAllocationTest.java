@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package TrcCommonLib.trclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * This class checks that the destination variants of the pose math and the control loop paths that use them (drive
+ * base odometry, pure pursuit) do not allocate memory once they are warmed up. Allocations are counted per thread
+ * with the ThreadMXBean the same way the vision benchmark does. Any object is at least 16 bytes, so a loop that
+ * allocates on every iteration shows up as many bytes per iteration, while one-off allocations of the JVM (compiler,
+ * thread locals) stay well below one byte per iteration and are tolerated.
+ */
+public class TrcPoseAllocationTest
+{
+    // Enough iterations for the JIT to compile the loop, the interpreted code allocates iterators that the compiled
+    // code doesn't.
+    private static final int WARMUP_ITERATIONS = 100000;
+    private static final int MEASURE_ITERATIONS = 100000;
+    private static final double TOLERANCE = 1e-9;
+
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        TrcTestUtil.initDbgLog();
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }   //setUpClass
+
+    /**
+     * This method runs the given loop body to warm it up, then runs it again and returns the number of bytes the
+     * calling thread allocated while doing so.
+     *
+     * @param body specifies the loop body, called with the iteration number.
+     * @return allocated bytes of the measured iterations.
+     */
+    private static long countAllocatedBytes(java.util.function.IntConsumer body)
+    {
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+        {
+            body.accept(i);
+        }
+        // The counter call itself can allocate on its first use, take it out of the measurement.
+        threadBean.getThreadAllocatedBytes(threadId);
+
+        long allocStart = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURE_ITERATIONS; i++)
+        {
+            body.accept(i);
+        }
+        return threadBean.getThreadAllocatedBytes(threadId) - allocStart;
+    }   //countAllocatedBytes
+
+    /**
+     * This method asserts that the measured loop did not allocate memory on its iterations.
+     *
+     * @param allocatedBytes specifies the bytes allocated by the measured iterations.
+     */
+    private static void assertNoAllocation(long allocatedBytes)
+    {
+        assertTrue(
+            "allocated " + allocatedBytes + " bytes in " + MEASURE_ITERATIONS + " iterations",
+            allocatedBytes < MEASURE_ITERATIONS);
+    }   //assertNoAllocation
+
+    /**
+     * This method returns four motors in lf, lb, rf, rb order.
+     */
+    private static FakeMotor[] createMotors(String prefix)
+    {
+        return new FakeMotor[] {
+            new FakeMotor(prefix + ".lf"), new FakeMotor(prefix + ".lb"), new FakeMotor(prefix + ".rf"),
+            new FakeMotor(prefix + ".rb")};
+    }   //createMotors
+
+    /**
+     * This method moves all motors of the drive base forward by the given distance.
+     */
+    private static void moveMotors(FakeMotor[] motors, double position)
+    {
+        for (FakeMotor motor: motors)
+        {
+            motor.position = position;
+        }
+    }   //moveMotors
+
+    @Test
+    public void pose2DDestinationVariantsDoNotAllocate()
+    {
+        TrcPose2D pose = new TrcPose2D(10.0, 20.0, 30.0);
+        TrcPose2D reference = new TrcPose2D(-5.0, 3.0, 75.0);
+        TrcPose2D result = new TrcPose2D();
+        double[] sum = new double[1];
+
+        long allocated = countAllocatedBytes(
+            i ->
+            {
+                pose.angle = i % 360;
+                pose.relativeTo(reference, true, result);
+                sum[0] += result.x;
+                pose.relativeTo(reference, false, TrcPose2D.getScratch());
+                pose.addRelativePose(reference, result);
+                sum[0] += result.y;
+                pose.translatePose(1.0, 2.0, result);
+                sum[0] += pose.distanceTo(result);
+                // The destination may be one of the operands.
+                result.setAs(pose);
+                result.relativeTo(reference, true, result);
+                result.addRelativePose(reference, result);
+                result.translatePose(-1.0, -2.0, result);
+                sum[0] += result.angle;
+            });
+        assertNoAllocation(allocated);
+        // Use the results so the loop can't be optimized away.
+        assertFalse(Double.isNaN(sum[0]));
+    }   //pose2DDestinationVariantsDoNotAllocate
+
+    @Test
+    public void pose2DDestinationVariantsMatchAllocatingVariants()
+    {
+        TrcPose2D pose = new TrcPose2D(10.0, 20.0, 30.0);
+        TrcPose2D reference = new TrcPose2D(-5.0, 3.0, 75.0);
+
+        TrcPose2D expected = pose.relativeTo(reference, true);
+        TrcPose2D actual = pose.clone();
+        actual.relativeTo(reference, true, actual);
+        assertPoseEquals(expected, actual);
+
+        expected = pose.addRelativePose(reference);
+        actual = reference.clone();
+        pose.addRelativePose(actual, actual);
+        assertPoseEquals(expected, actual);
+
+        expected = pose.translatePose(1.0, 2.0);
+        actual = pose.clone();
+        actual.translatePose(1.0, 2.0, actual);
+        assertPoseEquals(expected, actual);
+    }   //pose2DDestinationVariantsMatchAllocatingVariants
+
+    @Test
+    public void pose3DScratchAndDistanceDoNotAllocate()
+    {
+        TrcPose3D pose = new TrcPose3D(1.0, 2.0, 3.0, 10.0, 20.0, 30.0);
+        double[] sum = new double[1];
+
+        long allocated = countAllocatedBytes(
+            i ->
+            {
+                TrcPose3D scratch = TrcPose3D.getScratch().set(i, 2.0, 3.0, 0.0, 0.0, 0.0);
+                sum[0] += pose.distanceTo(scratch);
+            });
+        assertNoAllocation(allocated);
+        assertFalse(Double.isNaN(sum[0]));
+    }   //pose3DScratchAndDistanceDoNotAllocate
+
+    @Test
+    public void driveBaseOdometryTaskDoesNotAllocate()
+    {
+        FakeMotor[] motors = createMotors("odometryAlloc");
+        TrcMecanumDriveBase driveBase = new TrcMecanumDriveBase(motors[0], motors[1], motors[2], motors[3]);
+
+        driveBase.setOdometryEnabled(true);
+        try
+        {
+            long allocated = countAllocatedBytes(
+                i ->
+                {
+                    moveMotors(motors, i*0.01);
+                    TrcTaskMgr.executeTaskType(
+                        TrcTaskMgr.TaskType.PRE_PERIODIC_TASK, TrcRobot.RunMode.AUTO_MODE, false);
+                });
+            assertNoAllocation(allocated);
+        }
+        finally
+        {
+            driveBase.setOdometryEnabled(false);
+        }
+    }   //driveBaseOdometryTaskDoesNotAllocate
+
+    @Test
+    public void purePursuitDriveTaskDoesNotAllocate()
+    {
+        FakeMotor[] motors = createMotors("purePursuitAlloc");
+        TrcMecanumDriveBase driveBase = new TrcMecanumDriveBase(motors[0], motors[1], motors[2], motors[3]);
+        TrcPidController.PidCoefficients posPidCoeff = new TrcPidController.PidCoefficients(0.1);
+        TrcPurePursuitDrive purePursuitDrive = new TrcPurePursuitDrive(
+            "purePursuitAlloc", driveBase, 6.0, 1.0, 2.0, posPidCoeff, posPidCoeff,
+            new TrcPidController.PidCoefficients(0.01), new TrcPidController.PidCoefficients(0.0, 0.0, 0.0, 0.02));
+        // A path much longer than the measured motion, so following never finishes.
+        TrcPath path = new TrcPath(
+            new TrcWaypoint(new TrcPose2D(0.0, 0.0, 0.0), new TrcPose2D(0.0, 10.0, 0.0)),
+            new TrcWaypoint(new TrcPose2D(0.0, 500.0, 0.0), new TrcPose2D(0.0, 10.0, 0.0)),
+            new TrcWaypoint(new TrcPose2D(20.0, 1000.0, 0.0), new TrcPose2D(0.0, 0.0, 0.0)));
+
+        driveBase.setOdometryEnabled(true);
+        purePursuitDrive.start(path);
+        try
+        {
+            long allocated = countAllocatedBytes(
+                i ->
+                {
+                    moveMotors(motors, i*0.001);
+                    TrcTaskMgr.executeTaskType(
+                        TrcTaskMgr.TaskType.PRE_PERIODIC_TASK, TrcRobot.RunMode.AUTO_MODE, false);
+                    TrcTaskMgr.executeTaskType(
+                        TrcTaskMgr.TaskType.POST_PERIODIC_TASK, TrcRobot.RunMode.AUTO_MODE, false);
+                });
+            assertTrue("pure pursuit finished early", purePursuitDrive.isActive());
+            assertNoAllocation(allocated);
+        }
+        finally
+        {
+            purePursuitDrive.cancel();
+            driveBase.setOdometryEnabled(false);
+        }
+    }   //purePursuitDriveTaskDoesNotAllocate
+
+    /**
+     * This method asserts that the two poses are equal within tolerance.
+     */
+    private static void assertPoseEquals(TrcPose2D expected, TrcPose2D actual)
+    {
+        assertEquals(expected.x, actual.x, TOLERANCE);
+        assertEquals(expected.y, actual.y, TOLERANCE);
+        assertEquals(expected.angle, actual.angle, TOLERANCE);
+    }   //assertPoseEquals
+
+}   //class TrcPoseAllocationTest
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * This class tests the delayed measurement replay, the heading-less measurement update and the outlier gate of
+ * TrcPoseEstimator.
+ */
+public class TrcPoseEstimatorTest
+{
+    private static final double TOLERANCE = 1e-9;
+    private static final double ODOMETRY_PERIOD = 0.01;
+    private static final int NUM_UPDATES = 50;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        TrcTestUtil.initDbgLog();
+    }   //setUpClass
+
+    private static TrcPoseEstimator createEstimator(double outlierGate)
+    {
+        return new TrcPoseEstimator(
+            "testEstimator", new TrcPoseEstimator.Parameters().setHistorySize(NUM_UPDATES).setOutlierGate(outlierGate));
+    }   //createEstimator
+
+    /**
+     * This method feeds the odometry updates of a robot driving an arc, from update index start (inclusive) to end
+     * (exclusive).
+     */
+    private static void addArcOdometry(TrcPoseEstimator estimator, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            estimator.addOdometry((i + 1)*ODOMETRY_PERIOD, 0.1, 1.0, 1.5);
+        }
+    }   //addArcOdometry
+
+    /**
+     * This method asserts that the two estimators have the same pose and standard deviations.
+     */
+    private static void assertSameEstimate(TrcPoseEstimator expected, TrcPoseEstimator actual)
+    {
+        TrcPose2D expectedPose = expected.getPose();
+        TrcPose2D actualPose = actual.getPose();
+
+        assertEquals(expectedPose.x, actualPose.x, TOLERANCE);
+        assertEquals(expectedPose.y, actualPose.y, TOLERANCE);
+        assertEquals(expectedPose.angle, actualPose.angle, TOLERANCE);
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(expected.getStdDev(i), actual.getStdDev(i), TOLERANCE);
+        }
+    }   //assertSameEstimate
+
+    @Test
+    public void delayedMeasurementIsReplayedToThePresent()
+    {
+        int captureIndex = NUM_UPDATES/2;
+        double captureTime = (captureIndex + 1)*ODOMETRY_PERIOD;
+        TrcPoseEstimator delayed = createEstimator(0.0);
+        TrcPoseEstimator direct = createEstimator(0.0);
+
+        // The delayed estimator gets the measurement after all the odometry and has to rewind and replay.
+        addArcOdometry(delayed, 0, NUM_UPDATES);
+        TrcPose2D odometryPose = delayed.getPose();
+        assertTrue(delayed.addMeasurement(captureTime, 1.0, 30.0, 45.0, 0.5, 0.5, 2.0));
+        // The direct estimator gets it right when it is captured and integrates the rest of the odometry after.
+        addArcOdometry(direct, 0, captureIndex + 1);
+        assertTrue(direct.addMeasurement(captureTime, 1.0, 30.0, 45.0, 0.5, 0.5, 2.0));
+        addArcOdometry(direct, captureIndex + 1, NUM_UPDATES);
+
+        assertSameEstimate(direct, delayed);
+        assertNotEquals(odometryPose.x, delayed.getPose().x, 0.1);
+        // Odometry updates after the replay continue from the replayed state.
+        addArcOdometry(delayed, NUM_UPDATES, NUM_UPDATES + 10);
+        addArcOdometry(direct, NUM_UPDATES, NUM_UPDATES + 10);
+        assertSameEstimate(direct, delayed);
+    }   //delayedMeasurementIsReplayedToThePresent
+
+    @Test
+    public void headingLessMeasurementLeavesUncorrelatedHeadingUnchanged()
+    {
+        TrcPoseEstimator estimator = createEstimator(0.0);
+        // Right after reset, the heading is not correlated with the position.
+        estimator.reset(10.0, 20.0, 30.0);
+        double headingStdDev = estimator.getStdDev(2);
+
+        assertTrue(estimator.addMeasurement(0.0, 12.0, 18.0, -90.0, 1.0, 1.0, 0.0));
+
+        TrcPose2D pose = estimator.getPose();
+        assertEquals(30.0, pose.angle, 0.0);
+        assertEquals(headingStdDev, estimator.getStdDev(2), 0.0);
+        // With equal prior and measurement variances, the position moves half way.
+        assertEquals(11.0, pose.x, TOLERANCE);
+        assertEquals(19.0, pose.y, TOLERANCE);
+        assertTrue(estimator.getStdDev(0) < 1.0);
+    }   //headingLessMeasurementLeavesUncorrelatedHeadingUnchanged
+
+    @Test
+    public void headingLessMeasurementMatchesInfiniteHeadingVariance()
+    {
+        TrcPoseEstimator headingLess = createEstimator(0.0);
+        TrcPoseEstimator reference = createEstimator(0.0);
+
+        // Driving an arc correlates the heading with the position.
+        addArcOdometry(headingLess, 0, NUM_UPDATES);
+        addArcOdometry(reference, 0, NUM_UPDATES);
+        double captureTime = NUM_UPDATES*ODOMETRY_PERIOD;
+        double angle = headingLess.getPose().angle;
+
+        assertTrue(headingLess.addMeasurement(captureTime, 3.0, 40.0, 0.0, 0.5, 0.8, 0.0));
+        assertTrue(reference.addMeasurement(captureTime, 3.0, 40.0, angle, 0.5, 0.8, 1.0e6));
+
+        TrcPose2D expectedPose = reference.getPose();
+        TrcPose2D actualPose = headingLess.getPose();
+        assertEquals(expectedPose.x, actualPose.x, 1e-6);
+        assertEquals(expectedPose.y, actualPose.y, 1e-6);
+        assertEquals(expectedPose.angle, actualPose.angle, 1e-6);
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(reference.getStdDev(i), headingLess.getStdDev(i), 1e-6);
+        }
+        // The correlation lets the position measurement correct the heading too.
+        assertNotEquals(angle, actualPose.angle, 1e-3);
+    }   //headingLessMeasurementMatchesInfiniteHeadingVariance
+
+    @Test
+    public void outlierRejectionRestoresNewestState()
+    {
+        TrcPoseEstimator estimator = createEstimator(11.34);
+        TrcPoseEstimator reference = createEstimator(11.34);
+
+        addArcOdometry(estimator, 0, NUM_UPDATES);
+        addArcOdometry(reference, 0, NUM_UPDATES);
+
+        // Far outside the uncertainty of the estimate at the capture time in the middle of the history.
+        assertFalse(estimator.addMeasurement((NUM_UPDATES/2)*ODOMETRY_PERIOD, 100.0, -100.0, 180.0, 0.5, 0.5, 2.0));
+        assertEquals(1, estimator.getNumRejected());
+        assertEquals(0, estimator.getNumAccepted());
+        assertSameEstimate(reference, estimator);
+
+        // The history is intact too: later odometry and a delayed measurement give the same result.
+        addArcOdometry(estimator, NUM_UPDATES, NUM_UPDATES + 5);
+        TrcPose2D pose = estimator.getPose();
+        double captureTime = (NUM_UPDATES + 5)*ODOMETRY_PERIOD;
+        addArcOdometry(estimator, NUM_UPDATES + 5, NUM_UPDATES + 10);
+        addArcOdometry(reference, NUM_UPDATES, NUM_UPDATES + 10);
+        assertTrue(estimator.addMeasurement(captureTime, pose.x + 0.5, pose.y, pose.angle, 0.5, 0.5, 2.0));
+        assertTrue(reference.addMeasurement(captureTime, pose.x + 0.5, pose.y, pose.angle, 0.5, 0.5, 2.0));
+        assertSameEstimate(reference, estimator);
+    }   //outlierRejectionRestoresNewestState
+
+    @Test
+    public void measurementOlderThanHistoryIsRejected()
+    {
+        TrcPoseEstimator estimator = createEstimator(0.0);
+
+        // Twice the history size, so the first half has been overwritten.
+        addArcOdometry(estimator, 0, 2*NUM_UPDATES);
+        TrcPose2D pose = estimator.getPose();
+
+        assertFalse(estimator.addMeasurement(ODOMETRY_PERIOD, 0.0, 0.0, 0.0, 0.5, 0.5, 2.0));
+        assertEquals(1, estimator.getNumRejected());
+        assertEquals(pose.x, estimator.getPose().x, 0.0);
+        assertEquals(pose.y, estimator.getPose().y, 0.0);
+        assertEquals(pose.angle, estimator.getPose().angle, 0.0);
+    }   //measurementOlderThanHistoryIsRejected
+
+}   //class TrcPoseEstimatorTest
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * This class tests the priority tiered scaling of TrcPowerBudget around the brownout threshold.
+ */
+public class TrcPowerBudgetTest
+{
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * This class implements a battery for tests. The test sets its voltage directly.
+     */
+    private static class FakeBattery extends TrcRobotBattery
+    {
+        double voltage = 12.0;
+
+        FakeBattery()
+        {
+            super(true, false, false);
+        }   //FakeBattery
+
+        @Override
+        public double getVoltage()
+        {
+            return voltage;
+        }   //getVoltage
+
+        @Override
+        public double getCurrent()
+        {
+            return 0.0;
+        }   //getCurrent
+
+        @Override
+        public double getPower()
+        {
+            return 0.0;
+        }   //getPower
+
+    }   //class FakeBattery
+
+    private FakeBattery battery;
+    private TrcPowerBudget powerBudget;
+    // One motor in the high priority tier, two in the middle tier and one in the low priority tier.
+    private FakeMotor highMotor;
+    private FakeMotor midMotor1;
+    private FakeMotor midMotor2;
+    private FakeMotor lowMotor;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        TrcTestUtil.initDbgLog();
+    }   //setUpClass
+
+    @Before
+    public void setUp()
+    {
+        battery = new FakeBattery();
+        // Budget = (openVoltage - 7.5V)/0.05ohm, current = stallCurrent*|power|*openVoltage/12V.
+        powerBudget = new TrcPowerBudget(
+            "testBudget", battery,
+            new TrcPowerBudget.Parameters()
+                .setInternalResistance(0.05).setBrownoutVoltage(7.5).setNominalVoltage(12.0));
+        highMotor = new FakeMotor("highMotor");
+        midMotor1 = new FakeMotor("midMotor1");
+        midMotor2 = new FakeMotor("midMotor2");
+        lowMotor = new FakeMotor("lowMotor");
+        // Register out of priority order to exercise the sorting, zero free speed ignores back EMF.
+        powerBudget.addMotor(lowMotor, 0, 40.0, 0.0);
+        powerBudget.addMotor(midMotor1, 1, 20.0, 0.0);
+        powerBudget.addMotor(highMotor, 2, 20.0, 0.0);
+        powerBudget.addMotor(midMotor2, 1, 20.0, 0.0);
+        powerBudget.setEnabled(true);
+    }   //setUp
+
+    @After
+    public void tearDown()
+    {
+        powerBudget.setEnabled(false);
+    }   //tearDown
+
+    /**
+     * This method runs one power budget cycle.
+     */
+    private static void runBudgetCycle()
+    {
+        TrcTaskMgr.executeTaskType(TrcTaskMgr.TaskType.OUTPUT_TASK, TrcRobot.RunMode.AUTO_MODE, false);
+    }   //runBudgetCycle
+
+    @Test
+    public void demandWithinBudgetIsNotScaled()
+    {
+        battery.voltage = 12.0;
+        highMotor.setPower(1.0);
+        midMotor1.setPower(1.0);
+        midMotor2.setPower(-1.0);
+        lowMotor.setPower(0.5);
+
+        // Budget is 90A, demand is 20 + 20 + 20 + 20 = 80A.
+        runBudgetCycle();
+
+        assertFalse(powerBudget.isLimiting());
+        assertEquals(1.0, highMotor.power, TOLERANCE);
+        assertEquals(1.0, midMotor1.power, TOLERANCE);
+        assertEquals(-1.0, midMotor2.power, TOLERANCE);
+        assertEquals(0.5, lowMotor.power, TOLERANCE);
+        assertEquals(80.0, powerBudget.getEstimatedCurrent(), TOLERANCE);
+        assertEquals(8.0, powerBudget.getEstimatedVoltage(), TOLERANCE);
+    }   //demandWithinBudgetIsNotScaled
+
+    @Test
+    public void tiersAreScaledInPriorityOrderNearBrownout()
+    {
+        battery.voltage = 9.0;
+        highMotor.setPower(1.0);
+        midMotor1.setPower(1.0);
+        midMotor2.setPower(-1.0);
+        lowMotor.setPower(1.0);
+
+        // Budget is 30A, demand is 15 + (15 + 15) + 30 = 75A. The high tier gets its full 15A, the middle tier
+        // gets the remaining 15A for half of its demand and the low tier gets nothing.
+        runBudgetCycle();
+
+        assertTrue(powerBudget.isLimiting());
+        assertEquals(1.0, highMotor.power, TOLERANCE);
+        assertEquals(0.5, midMotor1.power, TOLERANCE);
+        assertEquals(-0.5, midMotor2.power, TOLERANCE);
+        assertEquals(0.0, lowMotor.power, TOLERANCE);
+        assertEquals(30.0, powerBudget.getEstimatedCurrent(), TOLERANCE);
+        // The allocation holds the bus right at the brownout threshold.
+        assertEquals(7.5, powerBudget.getEstimatedVoltage(), TOLERANCE);
+
+        // A new power request of a scaled motor is scaled right away.
+        midMotor1.setPower(0.8);
+        assertEquals(0.4, midMotor1.power, TOLERANCE);
+    }   //tiersAreScaledInPriorityOrderNearBrownout
+
+    @Test
+    public void fullPowerIsRestoredWhenVoltageRecovers()
+    {
+        battery.voltage = 9.0;
+        highMotor.setPower(1.0);
+        midMotor1.setPower(1.0);
+        midMotor2.setPower(1.0);
+        lowMotor.setPower(1.0);
+        runBudgetCycle();
+        assertTrue(powerBudget.isLimiting());
+
+        // The 30A let through last cycle puts the open circuit voltage at 13.5V, so the budget is 120A against a
+        // demand of 112.5A.
+        battery.voltage = 12.0;
+        runBudgetCycle();
+
+        assertFalse(powerBudget.isLimiting());
+        assertEquals(1.0, highMotor.power, TOLERANCE);
+        assertEquals(1.0, midMotor1.power, TOLERANCE);
+        assertEquals(1.0, midMotor2.power, TOLERANCE);
+        assertEquals(1.0, lowMotor.power, TOLERANCE);
+        assertEquals(112.5, powerBudget.getEstimatedCurrent(), TOLERANCE);
+    }   //fullPowerIsRestoredWhenVoltageRecovers
+
+    @Test
+    public void disablingRestoresFullPower()
+    {
+        battery.voltage = 9.0;
+        highMotor.setPower(1.0);
+        midMotor1.setPower(1.0);
+        midMotor2.setPower(1.0);
+        lowMotor.setPower(1.0);
+        runBudgetCycle();
+        assertEquals(0.0, lowMotor.power, TOLERANCE);
+
+        powerBudget.setEnabled(false);
+
+        assertFalse(powerBudget.isLimiting());
+        assertEquals(1.0, midMotor1.power, TOLERANCE);
+        assertEquals(1.0, lowMotor.power, TOLERANCE);
+    }   //disablingRestoresFullPower
+
+}   //class TrcPowerBudgetTest
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * This class tests TrcSwerveKinematics and the swerve drive base odometry against the formulas TrcSwerveDriveBase
+ * used before the kinematics was moved to primitive arrays, and against rigid body motion of the wheel base.
+ */
+public class TrcSwerveKinematicsTest
+{
+    private static final double WIDTH = 12.0;
+    private static final double LENGTH = 16.0;
+    private static final double DIAGONAL = Math.sqrt(WIDTH*WIDTH + LENGTH*LENGTH);
+    private static final double TOLERANCE = 1e-9;
+    // Module positions (x, y) in kinematics order lf, rf, lb, rb.
+    private static final double[][] MODULE_POSITIONS = {
+        {-WIDTH/2.0, LENGTH/2.0}, {WIDTH/2.0, LENGTH/2.0}, {-WIDTH/2.0, -LENGTH/2.0}, {WIDTH/2.0, -LENGTH/2.0}};
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        TrcTestUtil.initDbgLog();
+    }   //setUpClass
+
+    /**
+     * This method returns the module angles and speeds of the previous holonomicDrive formulas (Ether's white paper)
+     * in kinematics order.
+     */
+    private static double[][] baselineInverse(double x, double y, double rotation)
+    {
+        double a = x - (rotation * LENGTH / DIAGONAL);
+        double b = x + (rotation * LENGTH / DIAGONAL);
+        double c = y - (rotation * WIDTH / DIAGONAL);
+        double d = y + (rotation * WIDTH / DIAGONAL);
+
+        return new double[][] {
+            {Math.toDegrees(Math.atan2(b, d)), Math.toDegrees(Math.atan2(b, c)),
+             Math.toDegrees(Math.atan2(a, d)), Math.toDegrees(Math.atan2(a, c))},
+            {TrcUtil.magnitude(b, d), TrcUtil.magnitude(b, c), TrcUtil.magnitude(a, d), TrcUtil.magnitude(a, c)}};
+    }   //baselineInverse
+
+    /**
+     * This method returns the wheel angles and signed wheel motions of a rigid body motion of the wheel base in
+     * kinematics order.
+     */
+    private static double[][] rigidBodyWheels(double dx, double dy, double dRotDegrees)
+    {
+        double omega = Math.toRadians(dRotDegrees);
+        double[][] wheels = new double[2][TrcSwerveKinematics.NUM_MODULES];
+
+        for (int i = 0; i < TrcSwerveKinematics.NUM_MODULES; i++)
+        {
+            // A clockwise rotation moves a wheel at (x, y) along (y, -x).
+            double wheelX = dx + omega*MODULE_POSITIONS[i][1];
+            double wheelY = dy - omega*MODULE_POSITIONS[i][0];
+            wheels[0][i] = Math.toDegrees(Math.atan2(wheelX, wheelY));
+            wheels[1][i] = TrcUtil.magnitude(wheelX, wheelY);
+        }
+
+        return wheels;
+    }   //rigidBodyWheels
+
+    @Test
+    public void inverseMatchesBaseline()
+    {
+        TrcSwerveKinematics kinematics = new TrcSwerveKinematics(WIDTH, LENGTH);
+        Random random = new Random(29);
+
+        for (int n = 0; n < 1000; n++)
+        {
+            double x = random.nextDouble()*2.0 - 1.0;
+            double y = random.nextDouble()*2.0 - 1.0;
+            double rotation = random.nextDouble()*2.0 - 1.0;
+            double[][] expected = baselineInverse(x, y, rotation);
+
+            kinematics.inverse(x, y, rotation);
+            for (int i = 0; i < TrcSwerveKinematics.NUM_MODULES; i++)
+            {
+                assertEquals(expected[0][i], kinematics.getModuleAngles()[i], TOLERANCE);
+                assertEquals(expected[1][i], kinematics.getModuleSpeeds()[i], TOLERANCE);
+            }
+        }
+    }   //inverseMatchesBaseline
+
+    @Test
+    public void inverseKeepsAnglesWhenStopped()
+    {
+        TrcSwerveKinematics kinematics = new TrcSwerveKinematics(WIDTH, LENGTH);
+
+        kinematics.inverse(0.3, 0.4, 0.0);
+        double angle = kinematics.getModuleAngles()[0];
+        kinematics.inverse(0.0, 0.0, 0.0);
+        for (int i = 0; i < TrcSwerveKinematics.NUM_MODULES; i++)
+        {
+            assertEquals(angle, kinematics.getModuleAngles()[i], TOLERANCE);
+            assertEquals(0.0, kinematics.getModuleSpeeds()[i], 0.0);
+        }
+    }   //inverseKeepsAnglesWhenStopped
+
+    @Test
+    public void optimizedModulesProduceSameWheelVectors()
+    {
+        TrcSwerveKinematics kinematics = new TrcSwerveKinematics(WIDTH, LENGTH);
+        Random random = new Random(290);
+        double[] currAngles = new double[TrcSwerveKinematics.NUM_MODULES];
+
+        for (int n = 0; n < 1000; n++)
+        {
+            double x = random.nextDouble()*2.0 - 1.0;
+            double y = random.nextDouble()*2.0 - 1.0;
+            double rotation = random.nextDouble()*2.0 - 1.0;
+            double[][] expected = baselineInverse(x, y, rotation);
+
+            for (int i = 0; i < currAngles.length; i++)
+            {
+                // Steer angles can be any multiple of 360, like the unwrapped steer motor position.
+                currAngles[i] = random.nextDouble()*1440.0 - 720.0;
+            }
+            kinematics.inverse(x, y, rotation);
+            kinematics.optimize(currAngles);
+
+            for (int i = 0; i < TrcSwerveKinematics.NUM_MODULES; i++)
+            {
+                double angle = Math.toRadians(kinematics.getModuleAngles()[i]);
+                double speed = kinematics.getModuleSpeeds()[i];
+                double expectedAngle = Math.toRadians(expected[0][i]);
+
+                assertTrue(Math.abs(kinematics.getModuleAngles()[i] - currAngles[i]) <= 90.0 + TOLERANCE);
+                assertEquals(expected[1][i]*Math.sin(expectedAngle), speed*Math.sin(angle), TOLERANCE);
+                assertEquals(expected[1][i]*Math.cos(expectedAngle), speed*Math.cos(angle), TOLERANCE);
+            }
+        }
+    }   //optimizedModulesProduceSameWheelVectors
+
+    @Test
+    public void desaturatePreservesRatios()
+    {
+        TrcSwerveKinematics kinematics = new TrcSwerveKinematics(WIDTH, LENGTH);
+
+        kinematics.inverse(1.0, 1.0, 1.0);
+        double[] speeds = kinematics.getModuleSpeeds().clone();
+        double max = 0.0;
+        for (double speed : speeds)
+        {
+            max = Math.max(max, speed);
+        }
+        assertTrue(max > 1.0);
+
+        kinematics.desaturate(1.0);
+        for (int i = 0; i < speeds.length; i++)
+        {
+            assertEquals(speeds[i]/max, kinematics.getModuleSpeeds()[i], TOLERANCE);
+        }
+    }   //desaturatePreservesRatios
+
+    @Test
+    public void forwardTranslationMatchesBaseline()
+    {
+        TrcSwerveKinematics kinematics = new TrcSwerveKinematics(WIDTH, LENGTH);
+        Random random = new Random(2900);
+        double[] angles = new double[TrcSwerveKinematics.NUM_MODULES];
+        double[] motions = new double[TrcSwerveKinematics.NUM_MODULES];
+        TrcPose2D result = new TrcPose2D();
+
+        for (int n = 0; n < 1000; n++)
+        {
+            double sumX = 0.0, sumY = 0.0;
+
+            for (int i = 0; i < angles.length; i++)
+            {
+                angles[i] = random.nextDouble()*720.0 - 360.0;
+                motions[i] = random.nextDouble()*2.0 - 1.0;
+                // The previous odometry averaged the wheel vectors from TrcUtil.polarToCartesian.
+                sumX += TrcUtil.polarToCartesian(motions[i], angles[i]).getEntry(0);
+                sumY += TrcUtil.polarToCartesian(motions[i], angles[i]).getEntry(1);
+            }
+
+            kinematics.forward(angles, motions, result);
+            assertEquals(sumX/angles.length, result.x, TOLERANCE);
+            assertEquals(sumY/angles.length, result.y, TOLERANCE);
+        }
+    }   //forwardTranslationMatchesBaseline
+
+    @Test
+    public void forwardRecoversRigidBodyMotion()
+    {
+        TrcSwerveKinematics kinematics = new TrcSwerveKinematics(WIDTH, LENGTH);
+        Random random = new Random(29000);
+        TrcPose2D result = new TrcPose2D();
+
+        for (int n = 0; n < 1000; n++)
+        {
+            double dx = random.nextDouble()*2.0 - 1.0;
+            double dy = random.nextDouble()*2.0 - 1.0;
+            double dRot = random.nextDouble()*20.0 - 10.0;
+            double[][] wheels = rigidBodyWheels(dx, dy, dRot);
+
+            kinematics.forward(wheels[0], wheels[1], result);
+            assertEquals(dx, result.x, TOLERANCE);
+            assertEquals(dy, result.y, TOLERANCE);
+            assertEquals(dRot, result.angle, TOLERANCE);
+        }
+    }   //forwardRecoversRigidBodyMotion
+
+    @Test
+    public void driveBaseOdometryMapsOdometriesToModules()
+    {
+        FakeMotor[] driveMotors = new FakeMotor[TrcSwerveKinematics.NUM_MODULES];
+        FakeMotor[] steerMotors = new FakeMotor[TrcSwerveKinematics.NUM_MODULES];
+        TrcSwerveModule[] modules = new TrcSwerveModule[TrcSwerveKinematics.NUM_MODULES];
+        String[] names = {"lf", "rf", "lb", "rb"};
+
+        for (int i = 0; i < modules.length; i++)
+        {
+            driveMotors[i] = new FakeMotor(names[i] + "Drive");
+            steerMotors[i] = new FakeMotor(names[i] + "Steer");
+            modules[i] = new TrcSwerveModule(names[i], driveMotors[i], steerMotors[i]);
+        }
+        // The constructor takes the modules in lf, lb, rf, rb order.
+        TrcSwerveDriveBase driveBase = new TrcSwerveDriveBase(
+            modules[TrcSwerveKinematics.LF_INDEX], modules[TrcSwerveKinematics.LB_INDEX],
+            modules[TrcSwerveKinematics.RF_INDEX], modules[TrcSwerveKinematics.RB_INDEX], WIDTH, LENGTH);
+        // Turn in place while translating, every wheel has a different angle and distance.
+        double dx = 0.5, dy = 2.0, dRot = 15.0;
+        double[][] wheels = rigidBodyWheels(dx, dy, dRot);
+        for (int i = 0; i < modules.length; i++)
+        {
+            steerMotors[i].position = wheels[0][i];
+        }
+        // Feed the odometries in both the kinematics order and the constructor argument order, the result must not
+        // depend on it.
+        int[][] orders = {{0, 1, 2, 3}, {0, 2, 1, 3}, {3, 1, 0, 2}};
+        for (int[] order : orders)
+        {
+            TrcOdometrySensor.Odometry[] prevOdometries = new TrcOdometrySensor.Odometry[order.length];
+            TrcOdometrySensor.Odometry[] currOdometries = new TrcOdometrySensor.Odometry[order.length];
+
+            for (int i = 0; i < order.length; i++)
+            {
+                int moduleIndex = order[i];
+                prevOdometries[i] = new TrcOdometrySensor.Odometry(driveMotors[moduleIndex]);
+                currOdometries[i] = new TrcOdometrySensor.Odometry(driveMotors[moduleIndex]);
+                prevOdometries[i].currPos = 10.0;
+                currOdometries[i].currPos = 10.0 + wheels[1][moduleIndex];
+                currOdometries[i].velocity = 2.0*wheels[1][moduleIndex];
+            }
+
+            TrcDriveBase.Odometry delta = driveBase.getOdometryDelta(prevOdometries, currOdometries);
+            assertEquals(dx, delta.position.x, TOLERANCE);
+            assertEquals(dy, delta.position.y, TOLERANCE);
+            assertEquals(dRot, delta.position.angle, TOLERANCE);
+            assertEquals(2.0*dx, delta.velocity.x, TOLERANCE);
+            assertEquals(2.0*dy, delta.velocity.y, TOLERANCE);
+            assertEquals(2.0*dRot, delta.velocity.angle, TOLERANCE);
+        }
+    }   //driveBaseOdometryMapsOdometriesToModules
+
+}   //class TrcSwerveKinematicsTest
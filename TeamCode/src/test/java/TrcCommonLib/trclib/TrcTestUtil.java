@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package TrcCommonLib.trclib;
+
+/**
+ * This class contains helpers shared by the trclib tests.
+ */
+class TrcTestUtil
+{
+    /**
+     * This method installs a debug log that prints to the console. TrcDbgTrace requires a debug log before any
+     * tracer is created, which happens in the static initializers of many trclib classes.
+     */
+    static synchronized void initDbgLog()
+    {
+        TrcDbgTrace.setDbgLog(
+            new TrcDbgTrace.DbgLog()
+            {
+                @Override
+                public void msg(TrcDbgTrace.MsgLevel level, String msg)
+                {
+                    System.out.println(level + ": " + msg);
+                }   //msg
+
+                @Override
+                public void traceMsg(String msg)
+                {
+                    System.out.print(msg);
+                }   //traceMsg
+            });
+    }   //initDbgLog
+
+}   //class TrcTestUtil
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2024 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package TrcCommonLib.trclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * This class tests the time-optimal velocity profile of TrcPath and TrcVelocityProfiler.
+ */
+public class TrcVelocityProfilerTest
+{
+    private static final double MAX_VEL = 30.0;
+    private static final double MAX_ACCEL = 40.0;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        TrcTestUtil.initDbgLog();
+    }   //setUpClass
+
+    private static TrcWaypoint waypoint(double x, double y)
+    {
+        return new TrcWaypoint(0.0, new TrcPose2D(x, y, 0.0), 0.0, 0.0, 0.0, 0.0);
+    }   //waypoint
+
+    private static double getDuration(TrcPath path)
+    {
+        // The last waypoint repeats the time step of the second to last, it is not part of the travel time.
+        return path.getPathDuration() - path.getLastWaypoint().timeStep;
+    }   //getDuration
+
+    private static TrcVelocityProfiler createProfiler()
+    {
+        return new TrcVelocityProfiler(
+            new TrcVelocityProfiler.Parameters().setLimits(MAX_VEL, MAX_ACCEL, MAX_ACCEL));
+    }   //createProfiler
+
+    @Test
+    public void sparsePathReachesCruiseVelocity()
+    {
+        double length = 48.0;
+        TrcPath path = new TrcPath(true, waypoint(0.0, 0.0), waypoint(0.0, length));
+        TrcPath profiled = path.timeOptimalVelocity(createProfiler());
+        double maxVel = 0.0;
+
+        for (TrcWaypoint wp : profiled.getAllWaypoints())
+        {
+            maxVel = Math.max(maxVel, wp.velocity);
+        }
+        // Trapezoid: ramp up and down at MAX_ACCEL and cruise at MAX_VEL in between.
+        double rampTime = MAX_VEL/MAX_ACCEL;
+        double rampDist = MAX_VEL*rampTime/2.0;
+        double expectedDuration = 2.0*rampTime + (length - 2.0*rampDist)/MAX_VEL;
+
+        assertTrue(profiled.getSize() > path.getSize());
+        assertEquals(MAX_VEL, maxVel, 1e-9);
+        assertEquals(expectedDuration, getDuration(profiled), 0.02*expectedDuration);
+        assertEquals(0.0, profiled.getWaypoint(0).velocity, 0.0);
+        assertEquals(0.0, profiled.getLastWaypoint().velocity, 0.0);
+    }   //sparsePathReachesCruiseVelocity
+
+    @Test
+    public void resampleKeepsOriginalWaypoints()
+    {
+        TrcPath path = new TrcPath(true, waypoint(0.0, 0.0), waypoint(0.0, 10.0), waypoint(10.0, 10.0));
+        TrcPath resampled = path.resample(3.0);
+
+        // Each 10 unit segment is split into 4 parts of 2.5.
+        assertEquals(9, resampled.getSize());
+        assertEquals(10.0, resampled.getWaypoint(4).pose.y, 1e-9);
+        assertEquals(0.0, resampled.getWaypoint(4).pose.x, 1e-9);
+        assertEquals(path.getArcLength(), resampled.getArcLength(), 1e-9);
+        for (int i = 0; i < resampled.getSize() - 1; i++)
+        {
+            assertEquals(2.5, resampled.getWaypoint(i).distanceTo(resampled.getWaypoint(i + 1)), 1e-9);
+        }
+    }   //resampleKeepsOriginalWaypoints
+
+    @Test
+    public void turnInPlacePathIsProfiled()
+    {
+        TrcPath path = new TrcPath(
+            true, new TrcWaypoint(0.0, new TrcPose2D(0.0, 0.0, 0.0), 0.0, 0.0, 0.0, 0.0),
+            new TrcWaypoint(0.0, new TrcPose2D(0.0, 0.0, 90.0), 0.0, 0.0, 0.0, 0.0));
+        TrcPath profiled = path.timeOptimalVelocity(createProfiler());
+
+        assertEquals(0.0, path.getArcLength(), 0.0);
+        assertEquals(path.getSize(), profiled.getSize());
+        assertEquals(90.0, profiled.getLastWaypoint().pose.angle, 0.0);
+        for (TrcWaypoint wp : profiled.getAllWaypoints())
+        {
+            assertEquals(0.0, wp.velocity, 0.0);
+            assertTrue(Double.isFinite(wp.acceleration));
+            assertTrue(Double.isFinite(wp.timeStep));
+        }
+    }   //turnInPlacePathIsProfiled
+
+    @Test
+    public void curvatureSpanWidensCorners()
+    {
+        TrcPath path = new TrcPath(true, waypoint(0.0, 0.0), waypoint(0.0, 48.0), waypoint(48.0, 48.0));
+        TrcVelocityProfiler.Parameters params =
+            new TrcVelocityProfiler.Parameters().setLimits(MAX_VEL, MAX_ACCEL, MAX_ACCEL)
+                .setMaxCentripetalAcceleration(MAX_ACCEL);
+        TrcPath tight = path.timeOptimalVelocity(new TrcVelocityProfiler(params), 1.0);
+        TrcPath wide = path.timeOptimalVelocity(new TrcVelocityProfiler(params.setCurvatureSpan(12.0)), 1.0);
+        int corner = 48;
+
+        assertEquals(48.0, tight.getWaypoint(corner).pose.y, 1e-9);
+        assertEquals(0.0, tight.getWaypoint(corner).pose.x, 1e-9);
+        assertTrue(tight.getWaypoint(corner).velocity > 0.0);
+        assertTrue(wide.getWaypoint(corner).velocity > tight.getWaypoint(corner).velocity);
+        assertTrue(getDuration(wide) < getDuration(tight));
+    }   //curvatureSpanWidensCorners
+
+}   //class TrcVelocityProfilerTest
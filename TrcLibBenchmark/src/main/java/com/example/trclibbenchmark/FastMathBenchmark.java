@@ -0,0 +1,101 @@
+package com.example.trclibbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import TrcCommonLib.trclib.TrcFastMath;
+
+/**
+ * Compares TrcFastMath with the java.lang.Math expressions it replaces in the drive base and warp space code.
+ * The accuracy is covered by TrcFastMathTest, this only measures the speed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastMathBenchmark {
+    private static final int NUM_SAMPLES = 1024;
+
+    private final double[] sinCos = new double[2];
+    private double[] angles;
+    private double[] xs;
+    private double[] ys;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(40);
+
+        angles = new double[NUM_SAMPLES];
+        xs = new double[NUM_SAMPLES];
+        ys = new double[NUM_SAMPLES];
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+            angles[i] = random.nextDouble() * 1440 - 720;
+            xs[i] = random.nextDouble() * 2 - 1;
+            ys[i] = random.nextDouble() * 2 - 1;
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (NUM_SAMPLES - 1);
+        return index;
+    }
+
+    @Benchmark
+    public double mathSin() {
+        return Math.sin(Math.toRadians(angles[next()]));
+    }
+
+    @Benchmark
+    public double fastSin() {
+        return TrcFastMath.sin(angles[next()]);
+    }
+
+    @Benchmark
+    public double mathSinCos() {
+        double radians = Math.toRadians(angles[next()]);
+        return Math.sin(radians) + Math.cos(radians);
+    }
+
+    @Benchmark
+    public double fastSinCos() {
+        TrcFastMath.sinCos(angles[next()], sinCos);
+        return sinCos[0] + sinCos[1];
+    }
+
+    @Benchmark
+    public double mathAtan2() {
+        int i = next();
+        return Math.toDegrees(Math.atan2(ys[i], xs[i]));
+    }
+
+    @Benchmark
+    public double fastAtan2() {
+        int i = next();
+        return TrcFastMath.atan2(ys[i], xs[i]);
+    }
+
+    @Benchmark
+    public double remainderWrap180() {
+        double angle = angles[next()] % 360;
+        return angle >= 180 ? angle - 360 : angle < -180 ? angle + 360 : angle;
+    }
+
+    @Benchmark
+    public double fastWrap180() {
+        return TrcFastMath.wrapAngle180(angles[next()]);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.trclibbenchmark;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import TrcCommonLib.trclib.TrcPose2D;
+import TrcCommonLib.trclib.TrcSwerveKinematics;
+import TrcCommonLib.trclib.TrcUtil;
+
+/**
+ * Compares TrcSwerveKinematics with the formulas TrcSwerveDriveBase used before: the white paper inverse kinematics
+ * and the Commons-Math vector averaging of the odometry. Run with -prof gc to see the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwerveKinematicsBenchmark {
+    private static final double WIDTH = 12.0;
+    private static final double LENGTH = 16.0;
+    private static final double DIAGONAL = Math.sqrt(WIDTH * WIDTH + LENGTH * LENGTH);
+    private static final int NUM_SAMPLES = 1024;
+
+    private final TrcSwerveKinematics kinematics = new TrcSwerveKinematics(WIDTH, LENGTH);
+    private final TrcPose2D result = new TrcPose2D();
+    private final double[] currAngles = new double[TrcSwerveKinematics.NUM_MODULES];
+    private double[][] commands;
+    private double[][] wheelAngles;
+    private double[][] wheelMotions;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(29);
+
+        commands = new double[NUM_SAMPLES][3];
+        wheelAngles = new double[NUM_SAMPLES][TrcSwerveKinematics.NUM_MODULES];
+        wheelMotions = new double[NUM_SAMPLES][TrcSwerveKinematics.NUM_MODULES];
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+            for (int j = 0; j < 3; j++) {
+                commands[i][j] = random.nextDouble() * 2 - 1;
+            }
+            for (int j = 0; j < TrcSwerveKinematics.NUM_MODULES; j++) {
+                wheelAngles[i][j] = random.nextDouble() * 360 - 180;
+                wheelMotions[i][j] = random.nextDouble() * 2 - 1;
+            }
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (NUM_SAMPLES - 1);
+        return index;
+    }
+
+    @Benchmark
+    public void baselineInverse(Blackhole bh) {
+        double[] command = commands[next()];
+        double x = command[0], y = command[1], rotation = command[2];
+        double a = x - (rotation * LENGTH / DIAGONAL);
+        double b = x + (rotation * LENGTH / DIAGONAL);
+        double c = y - (rotation * WIDTH / DIAGONAL);
+        double d = y + (rotation * WIDTH / DIAGONAL);
+
+        bh.consume(Math.toDegrees(Math.atan2(b, d)));
+        bh.consume(Math.toDegrees(Math.atan2(b, c)));
+        bh.consume(Math.toDegrees(Math.atan2(a, d)));
+        bh.consume(Math.toDegrees(Math.atan2(a, c)));
+        bh.consume(TrcUtil.magnitude(b, d));
+        bh.consume(TrcUtil.magnitude(b, c));
+        bh.consume(TrcUtil.magnitude(a, d));
+        bh.consume(TrcUtil.magnitude(a, c));
+    }
+
+    @Benchmark
+    public void kinematicsInverse(Blackhole bh) {
+        double[] command = commands[next()];
+
+        kinematics.inverse(command[0], command[1], command[2]);
+        kinematics.desaturate(1.0);
+        kinematics.optimize(currAngles);
+        bh.consume(kinematics.getModuleAngles());
+        bh.consume(kinematics.getModuleSpeeds());
+    }
+
+    @Benchmark
+    public void baselineForward(Blackhole bh) {
+        int i = next();
+        RealVector posSum = new ArrayRealVector(2);
+
+        for (int j = 0; j < TrcSwerveKinematics.NUM_MODULES; j++) {
+            posSum = posSum.add(TrcUtil.polarToCartesian(wheelMotions[i][j], wheelAngles[i][j]));
+        }
+        posSum.mapMultiplyToSelf(1.0 / TrcSwerveKinematics.NUM_MODULES);
+        bh.consume(posSum);
+    }
+
+    @Benchmark
+    public void kinematicsForward(Blackhole bh) {
+        int i = next();
+
+        kinematics.forward(wheelAngles[i], wheelMotions[i], result);
+        bh.consume(result);
+    }
+}
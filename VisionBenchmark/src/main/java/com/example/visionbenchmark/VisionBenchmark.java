@@ -0,0 +1,506 @@
+package com.example.visionbenchmark;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import TrcCommonLib.trclib.TrcDbgTrace;
+import TrcCommonLib.trclib.TrcHomographyMapper;
+import TrcCommonLib.trclib.TrcOpenCvColorBlobPipeline;
+import TrcCommonLib.trclib.TrcRoiTracker;
+import nu.pattern.OpenCV;
+
+/**
+ * Offline benchmark of the vision pipelines on recorded frames, so vision performance changes can be measured on the
+ * desktop against the same data instead of live on the robot.
+ * Every configuration in {@link #CONFIGS} is run over all frames of a directory. The frames are split in contiguous
+ * shards (so ROI tracking still sees consecutive frames) and the shards of all configurations run in parallel, one
+ * per core. For each configuration it reports per stage latency percentiles, single core throughput, Java heap
+ * allocations per frame and detection precision and recall against labeled boxes.
+ *
+ * Frames are image files (png, jpg, bmp) sorted by name. Labels are read from labels.csv in the same directory, one
+ * box per line: file,label,x,y,width,height. Lines starting with # are ignored.
+ *
+ * FtcEocvColorBlobProcessor needs Android and can't run here, but it only delegates to TrcOpenCvColorBlobPipeline
+ * which is what's measured.
+ *
+ * Usage: VisionBenchmark framesDir [report.json]
+ * The report goes to stdout if no file is given.
+ */
+public class VisionBenchmark {
+
+    // Recorded frame rate, used to timestamp the frames for ROI tracking.
+    public static double FRAME_RATE = 30;
+    public static double MATCH_IOU = 0.5;
+    public static int WARMUP_FRAMES = 20;
+    public static int THREADS = Runtime.getRuntime().availableProcessors();
+    // Minimum number of frames per shard, fewer frames would mostly measure tracker start up.
+    public static int MIN_SHARD_FRAMES = 50;
+
+    public static final String[] STAGES = {"search", "threshold", "detect", "homography", "total"};
+
+    // Camera and world rectangles for the homography stage, keep in sync with the robot vision setup.
+    public static TrcHomographyMapper.Rectangle CAMERA_RECT =
+            new TrcHomographyMapper.Rectangle(0, 120, 639, 120, 0, 479, 639, 479);
+    public static TrcHomographyMapper.Rectangle WORLD_RECT =
+            new TrcHomographyMapper.Rectangle(-22.25, 60, 23, 60, -8.75, 16, 7.5, 16);
+
+    private static final double[] RED_YCRCB = {0, 255, 170, 255, 0, 120};
+    private static final double[] BLUE_YCRCB = {0, 255, 0, 120, 170, 255};
+
+    private static TrcOpenCvColorBlobPipeline.FilterContourParams propFilter() {
+        return new TrcOpenCvColorBlobPipeline.FilterContourParams()
+                .setMinArea(1000)
+                .setMinPerimeter(100)
+                .setWidthRange(20, 1000)
+                .setHeightRange(20, 1000)
+                .setSolidityRange(0, 100)
+                .setVerticesRange(0, 1000000)
+                .setAspectRatioRange(0.2, 5);
+    }
+
+    /**
+     * A pipeline configuration to benchmark.
+     */
+    public static class Config {
+        public final String name;
+        // Label of the boxes this pipeline is supposed to detect.
+        public final String label;
+        public final Supplier<TrcOpenCvColorBlobPipeline> pipeline;
+
+        public Config(String name, String label, Supplier<TrcOpenCvColorBlobPipeline> pipeline) {
+            this.name = name;
+            this.label = label;
+            this.pipeline = pipeline;
+        }
+    }
+
+    public static final List<Config> CONFIGS = Arrays.asList(
+            new Config("redProp", "redProp", () -> new TrcOpenCvColorBlobPipeline(
+                    "redProp", Imgproc.COLOR_RGB2YCrCb, RED_YCRCB, propFilter(), null)),
+            new Config("redProp-lut", "redProp", () -> {
+                TrcOpenCvColorBlobPipeline pipeline = new TrcOpenCvColorBlobPipeline(
+                        "redProp-lut", Imgproc.COLOR_RGB2YCrCb, RED_YCRCB, propFilter(), null);
+                pipeline.setColorLutEnabled(true);
+                return pipeline;
+            }),
+            new Config("redProp-roi", "redProp", () -> {
+                TrcOpenCvColorBlobPipeline pipeline = new TrcOpenCvColorBlobPipeline(
+                        "redProp-roi", Imgproc.COLOR_RGB2YCrCb, RED_YCRCB, propFilter(), null);
+                pipeline.setRoiTracker(new TrcRoiTracker(new TrcRoiTracker.Parameters()));
+                return pipeline;
+            }),
+            new Config("blueProp", "blueProp", () -> new TrcOpenCvColorBlobPipeline(
+                    "blueProp", Imgproc.COLOR_RGB2YCrCb, BLUE_YCRCB, propFilter(), null))
+    );
+
+    /**
+     * A labeled box.
+     */
+    public static class Box {
+        public final String label;
+        public final Rect rect;
+
+        public Box(String label, Rect rect) {
+            this.label = label;
+            this.rect = rect;
+        }
+    }
+
+    /**
+     * A recorded frame and its labels.
+     */
+    public static class Frame {
+        public final String name;
+        public final Mat image;
+        public final List<Box> boxes = new ArrayList<>();
+
+        public Frame(String name, Mat image) {
+            this.name = name;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Measurements of one configuration, merged over its shards.
+     */
+    public static class Result {
+        public final String name;
+        public int frames;
+        // Per frame stage times in nanoseconds, indexed by stage.
+        public final long[][] stageTimes = new long[STAGES.length][];
+        // Bytes allocated by the pipeline on the measuring thread, scoring excluded.
+        public long allocatedBytes;
+        public int truePositives;
+        public int falsePositives;
+        public int falseNegatives;
+
+        public Result(String name, int frames) {
+            this.name = name;
+            this.frames = frames;
+            for (int i = 0; i < STAGES.length; i++) {
+                stageTimes[i] = new long[frames];
+            }
+        }
+
+        public double percentile(int stage, double p) {
+            long[] sorted = stageTimes[stage].clone();
+            Arrays.sort(sorted);
+            return sorted.length > 0 ? sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6 : 0;
+        }
+
+        public double throughput() {
+            long total = 0;
+            for (long t : stageTimes[STAGES.length - 1]) {
+                total += t;
+            }
+            return total > 0 ? frames / (total / 1e9) : 0;
+        }
+
+        public double precision() {
+            int detections = truePositives + falsePositives;
+            return detections > 0 ? (double) truePositives / detections : 0;
+        }
+
+        public double recall() {
+            int labeled = truePositives + falseNegatives;
+            return labeled > 0 ? (double) truePositives / labeled : 0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: VisionBenchmark framesDir [report.json]");
+            System.exit(2);
+        }
+
+        OpenCV.loadLocally();
+        TrcDbgTrace.setDbgLog(new TrcDbgTrace.DbgLog() {
+            @Override
+            public void msg(TrcDbgTrace.MsgLevel level, String msg) {
+                System.err.print(msg);
+            }
+
+            @Override
+            public void traceMsg(String msg) {
+                System.err.print(msg);
+            }
+        });
+
+        List<Frame> frames = loadFrames(new File(args[0]));
+        long startTime = System.nanoTime();
+        List<Result> results = runAll(CONFIGS, frames);
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+        String report = toJson(results, frames.size(), elapsed);
+
+        System.err.println(toTable(results, frames.size(), elapsed));
+        if (args.length > 1) {
+            try (Writer writer = new FileWriter(args[1])) {
+                writer.write(report);
+            }
+        } else {
+            System.out.println(report);
+        }
+
+        for (Frame frame : frames) {
+            frame.image.release();
+        }
+    }
+
+    /**
+     * Loads the frames of a directory as RGB images (the camera input format of the pipelines) with their labels.
+     */
+    public static List<Frame> loadFrames(File dir) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.matches("(?i).*\\.(png|jpe?g|bmp)$"));
+        if (files == null || files.length == 0) {
+            throw new IOException("No frames found in " + dir);
+        }
+        Arrays.sort(files);
+
+        List<Frame> frames = new ArrayList<>();
+        Map<String, Frame> byName = new HashMap<>();
+        for (File file : files) {
+            Mat bgr = Imgcodecs.imread(file.getPath());
+            if (bgr.empty()) {
+                throw new IOException("Failed to read frame " + file);
+            }
+            Mat rgb = new Mat();
+            Imgproc.cvtColor(bgr, rgb, Imgproc.COLOR_BGR2RGB);
+            bgr.release();
+
+            Frame frame = new Frame(file.getName(), rgb);
+            frames.add(frame);
+            byName.put(frame.name, frame);
+        }
+
+        File labels = new File(dir, "labels.csv");
+        if (labels.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(labels))) {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+
+                    String[] fields = line.split(",");
+                    Frame frame = fields.length == 6 ? byName.get(fields[0].trim()) : null;
+                    if (frame == null) {
+                        throw new IOException(String.format(Locale.US, "%s:%d: bad label line", labels, lineNumber));
+                    }
+                    frame.boxes.add(new Box(fields[1].trim(), new Rect(
+                            Integer.parseInt(fields[2].trim()), Integer.parseInt(fields[3].trim()),
+                            Integer.parseInt(fields[4].trim()), Integer.parseInt(fields[5].trim()))));
+                }
+            }
+        }
+
+        return frames;
+    }
+
+    /**
+     * Runs all configurations over the frames in parallel.
+     *
+     * @return results in the same order as the configurations
+     */
+    public static List<Result> runAll(List<Config> configs, List<Frame> frames) throws Exception {
+        int shardsPerConfig = Math.max(1, Math.min(
+                (THREADS + configs.size() - 1) / configs.size(), frames.size() / MIN_SHARD_FRAMES));
+        int shardSize = (frames.size() + shardsPerConfig - 1) / shardsPerConfig;
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<List<Future<Result>>> futures = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
+
+        try {
+            for (Config config : configs) {
+                List<Future<Result>> shards = new ArrayList<>();
+                for (int from = 0; from < frames.size(); from += shardSize) {
+                    int start = from;
+                    int end = Math.min(frames.size(), from + shardSize);
+                    shards.add(executor.submit(() -> runShard(config, frames, start, end)));
+                }
+                futures.add(shards);
+            }
+
+            for (int i = 0; i < configs.size(); i++) {
+                Result result = new Result(configs.get(i).name, frames.size());
+                int offset = 0;
+                for (Future<Result> shard : futures.get(i)) {
+                    merge(result, shard.get(), offset);
+                    offset += shard.get().frames;
+                }
+                results.add(result);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return results;
+    }
+
+    /**
+     * Runs one configuration over a contiguous range of frames with its own pipeline instance.
+     */
+    public static Result runShard(Config config, List<Frame> frames, int from, int to) {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        TrcHomographyMapper mapper = new TrcHomographyMapper(CAMERA_RECT, WORLD_RECT);
+        Result result = new Result(config.name, to - from);
+        Mat thresholdOutput = new Mat();
+        Point point = new Point();
+        long[] times = new long[STAGES.length + 1];
+
+        // Warm up the JIT, the pooled buffers and the color lookup table, then restart tracking from scratch.
+        TrcOpenCvColorBlobPipeline pipeline = config.pipeline.get();
+        for (int i = 0; i < Math.min(WARMUP_FRAMES, to - from); i++) {
+            TrcOpenCvColorBlobPipeline.DetectedObject[] objects =
+                    processFrame(pipeline, mapper, frames.get(from + i), from + i, thresholdOutput, point, times);
+            if (objects != null) {
+                for (TrcOpenCvColorBlobPipeline.DetectedObject object : objects) {
+                    object.object.release();
+                }
+            }
+        }
+        if (pipeline.getRoiTracker() != null) {
+            pipeline.getRoiTracker().reset();
+        }
+
+        for (int i = from; i < to; i++) {
+            Frame frame = frames.get(i);
+            // Only count the pipeline, scoring builds lists of its own that would show up as pipeline garbage.
+            long allocStart = threadBean.getThreadAllocatedBytes(threadId);
+            TrcOpenCvColorBlobPipeline.DetectedObject[] objects =
+                    processFrame(pipeline, mapper, frame, i, thresholdOutput, point, times);
+            result.allocatedBytes += threadBean.getThreadAllocatedBytes(threadId) - allocStart;
+
+            for (int stage = 0; stage < STAGES.length - 1; stage++) {
+                result.stageTimes[stage][i - from] = times[stage + 1] - times[stage];
+            }
+            result.stageTimes[STAGES.length - 1][i - from] = times[STAGES.length - 1] - times[0];
+            score(result, config.label, frame, objects);
+        }
+
+        pipeline.reset();
+        thresholdOutput.release();
+        return result;
+    }
+
+    /**
+     * Runs the pipeline stages on a frame and records the stage boundary times.
+     */
+    private static TrcOpenCvColorBlobPipeline.DetectedObject[] processFrame(
+            TrcOpenCvColorBlobPipeline pipeline, TrcHomographyMapper mapper, Frame frame, int index,
+            Mat thresholdOutput, Point point, long[] times) {
+        double timestamp = index / FRAME_RATE;
+
+        times[0] = System.nanoTime();
+        Rect roi = pipeline.getSearchRect(frame.image, timestamp);
+        times[1] = System.nanoTime();
+        pipeline.threshold(frame.image, roi, thresholdOutput);
+        times[2] = System.nanoTime();
+        TrcOpenCvColorBlobPipeline.DetectedObject[] objects =
+                pipeline.detectObjects(thresholdOutput, roi, timestamp);
+        times[3] = System.nanoTime();
+        if (objects != null) {
+            for (TrcOpenCvColorBlobPipeline.DetectedObject object : objects) {
+                Rect rect = object.getRect();
+                mapper.mapPoint(rect.x + rect.width / 2.0, rect.y + rect.height, point);
+            }
+        }
+        times[4] = System.nanoTime();
+
+        return objects;
+    }
+
+    /**
+     * Matches the detections with the labeled boxes of the configuration's label (greedy, by IoU) and releases the
+     * detected contours.
+     */
+    private static void score(
+            Result result, String label, Frame frame, TrcOpenCvColorBlobPipeline.DetectedObject[] objects) {
+        List<Rect> expected = new ArrayList<>();
+        for (Box box : frame.boxes) {
+            if (box.label.equals(label)) {
+                expected.add(box.rect);
+            }
+        }
+
+        if (objects != null) {
+            for (TrcOpenCvColorBlobPipeline.DetectedObject object : objects) {
+                Rect rect = object.getRect();
+                int best = -1;
+                double bestIou = MATCH_IOU;
+                for (int i = 0; i < expected.size(); i++) {
+                    double iou = iou(rect, expected.get(i));
+                    if (iou >= bestIou) {
+                        bestIou = iou;
+                        best = i;
+                    }
+                }
+
+                if (best >= 0) {
+                    expected.remove(best);
+                    result.truePositives++;
+                } else {
+                    result.falsePositives++;
+                }
+                object.object.release();
+            }
+        }
+        result.falseNegatives += expected.size();
+    }
+
+    private static double iou(Rect a, Rect b) {
+        int w = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        int h = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        double intersection = w > 0 && h > 0 ? (double) w * h : 0;
+        double union = (double) a.width * a.height + (double) b.width * b.height - intersection;
+        return union > 0 ? intersection / union : 0;
+    }
+
+    private static void merge(Result result, Result shard, int offset) {
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            System.arraycopy(shard.stageTimes[stage], 0, result.stageTimes[stage], offset, shard.frames);
+        }
+        result.allocatedBytes += shard.allocatedBytes;
+        result.truePositives += shard.truePositives;
+        result.falsePositives += shard.falsePositives;
+        result.falseNegatives += shard.falseNegatives;
+    }
+
+    /**
+     * Formats the results as a human readable table.
+     */
+    public static String toTable(List<Result> results, int frames, double elapsed) {
+        StringBuilder table = new StringBuilder(String.format(Locale.US,
+                "%d frames, %d configs, %d threads, %.1f s%n%-16s %-10s %8s %8s %8s %8s%n",
+                frames, results.size(), THREADS, elapsed, "config", "stage", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+
+        for (Result result : results) {
+            for (int stage = 0; stage < STAGES.length; stage++) {
+                table.append(String.format(Locale.US, "%-16s %-10s %8.3f %8.3f %8.3f %8.3f%n",
+                        stage == 0 ? result.name : "", STAGES[stage], result.percentile(stage, 0.5),
+                        result.percentile(stage, 0.9), result.percentile(stage, 0.99),
+                        result.percentile(stage, 1.0)));
+            }
+            table.append(String.format(Locale.US,
+                    "%-16s fps=%.1f alloc=%.0f B/frame precision=%.3f recall=%.3f (tp=%d fp=%d fn=%d)%n", "",
+                    result.throughput(), (double) result.allocatedBytes / result.frames, result.precision(),
+                    result.recall(), result.truePositives, result.falsePositives, result.falseNegatives));
+        }
+
+        return table.toString();
+    }
+
+    /**
+     * Formats the results as a JSON document.
+     */
+    public static String toJson(List<Result> results, int frames, double elapsed) {
+        StringBuilder json = new StringBuilder(String.format(Locale.US,
+                "{\n  \"frames\": %d,\n  \"threads\": %d,\n  \"elapsed\": %.3f,\n  \"configs\": [",
+                frames, THREADS, elapsed));
+
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append(i > 0 ? ",\n" : "\n").append("    {\"name\": \"").append(result.name).append("\", ");
+            json.append("\"stages\": {");
+            for (int stage = 0; stage < STAGES.length; stage++) {
+                json.append(stage > 0 ? ", " : "").append(String.format(Locale.US,
+                        "\"%s\": {\"p50\": %.4f, \"p90\": %.4f, \"p99\": %.4f, \"max\": %.4f}",
+                        STAGES[stage], result.percentile(stage, 0.5), result.percentile(stage, 0.9),
+                        result.percentile(stage, 0.99), result.percentile(stage, 1.0)));
+            }
+            json.append("}, ").append(String.format(Locale.US,
+                    "\"fps\": %.2f, \"allocBytesPerFrame\": %.1f, \"precision\": %.4f, \"recall\": %.4f, " +
+                    "\"tp\": %d, \"fp\": %d, \"fn\": %d}",
+                    result.throughput(), (double) result.allocatedBytes / result.frames, result.precision(),
+                    result.recall(), result.truePositives, result.falsePositives, result.falseNegatives));
+        }
+
+        json.append("\n  ]\n}");
+        return json.toString();
+    }
+}